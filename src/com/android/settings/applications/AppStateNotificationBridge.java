@@ -23,7 +23,9 @@ import android.os.UserHandle;
 import android.os.UserManager;
 import android.text.format.DateUtils;
 import android.util.ArrayMap;
+import android.util.ArraySet;
 import android.util.Log;
+import android.util.SparseArray;
 import android.widget.CompoundButton;
 
 import com.android.settings.R;
@@ -35,6 +37,7 @@ import com.android.settingslib.applications.ApplicationsState.AppFilter;
 import com.android.settingslib.utils.StringUtil;
 
 import java.util.ArrayList;
+import java.util.Collections;
 import java.util.Comparator;
 import java.util.List;
 import java.util.Map;
@@ -51,6 +54,7 @@ public class AppStateNotificationBridge extends AppStateBaseBridge {
     private IUsageStatsManager mUsageStatsManager;
     protected List<Integer> mUserIds;
     private NotificationBackend mBackend;
+    private final NotificationSentStatsAggregator mSentStats;
     private static final int DAYS_TO_CHECK = 7;
 
     public AppStateNotificationBridge(Context context, ApplicationsState appState,
@@ -60,6 +64,8 @@ public class AppStateNotificationBridge extends AppStateBaseBridge {
         mContext = context;
         mUsageStatsManager = usageStatsManager;
         mBackend = backend;
+        mSentStats = new NotificationSentStatsAggregator(usageStatsManager,
+                mContext.getPackageName(), DateUtils.DAY_IN_MILLIS * DAYS_TO_CHECK);
         mUserIds = new ArrayList<>();
         mUserIds.add(mContext.getUserId());
         int workUserId = Utils.getManagedProfileId(userManager, mContext.getUserId());
@@ -79,18 +85,52 @@ public class AppStateNotificationBridge extends AppStateBaseBridge {
         }
 
         final Map<String, NotificationsSentState> map = getAggregatedUsageEvents();
+        final SparseArray<ArrayMap<String, NotificationBackend.AppRow>> blockStates =
+                loadBlockStates(apps);
         for (AppEntry entry : apps) {
-            NotificationsSentState stats =
-                    map.get(getKey(UserHandle.getUserId(entry.info.uid), entry.info.packageName));
+            final int userId = UserHandle.getUserId(entry.info.uid);
+            NotificationsSentState stats = map.get(getKey(userId, entry.info.packageName));
             if (stats == null) {
                 stats = new NotificationsSentState();
             }
             calculateAvgSentCounts(stats);
-            addBlockStatus(entry, stats);
+            final ArrayMap<String, NotificationBackend.AppRow> userBlockStates =
+                    blockStates.get(userId);
+            final NotificationBackend.AppRow row = userBlockStates != null
+                    ? userBlockStates.get(entry.info.packageName) : null;
+            if (row != null && row.uid == entry.info.uid) {
+                stats.blocked = row.banned;
+                stats.blockable = row.blockable;
+            } else {
+                addBlockStatus(entry, stats);
+            }
             entry.extraInfo = stats;
         }
     }
 
+    /** Loads the block state of {@code apps} with one package query per user. */
+    private SparseArray<ArrayMap<String, NotificationBackend.AppRow>> loadBlockStates(
+            List<AppEntry> apps) {
+        final SparseArray<ArraySet<String>> packagesByUser = new SparseArray<>();
+        for (AppEntry entry : apps) {
+            final int userId = UserHandle.getUserId(entry.info.uid);
+            ArraySet<String> packages = packagesByUser.get(userId);
+            if (packages == null) {
+                packages = new ArraySet<>();
+                packagesByUser.put(userId, packages);
+            }
+            packages.add(entry.info.packageName);
+        }
+        final SparseArray<ArrayMap<String, NotificationBackend.AppRow>> blockStates =
+                new SparseArray<>(packagesByUser.size());
+        for (int i = 0; i < packagesByUser.size(); i++) {
+            final int userId = packagesByUser.keyAt(i);
+            blockStates.put(userId,
+                    mBackend.loadBlockStates(mContext, userId, packagesByUser.valueAt(i)));
+        }
+        return blockStates;
+    }
+
     @Override
     protected void updateExtraInfo(AppEntry entry, String pkg, int uid) {
         NotificationsSentState stats = getAggregatedUsageEvents(
@@ -137,43 +177,18 @@ public class AppStateNotificationBridge extends AppStateBaseBridge {
     }
 
     protected Map<String, NotificationsSentState> getAggregatedUsageEvents() {
-        ArrayMap<String, NotificationsSentState> aggregatedStats = new ArrayMap<>();
-
-        long now = System.currentTimeMillis();
-        long startTime = now - (DateUtils.DAY_IN_MILLIS * DAYS_TO_CHECK);
-        for (int userId : mUserIds) {
-            UsageEvents events = null;
-            try {
-                events = mUsageStatsManager.queryEventsForUser(
-                        startTime, now, userId, mContext.getPackageName());
-            } catch (RemoteException e) {
-                e.printStackTrace();
-            }
-            if (events != null) {
-                UsageEvents.Event event = new UsageEvents.Event();
-                while (events.hasNextEvent()) {
-                    events.getNextEvent(event);
-                    NotificationsSentState stats =
-                            aggregatedStats.get(getKey(userId, event.getPackageName()));
-                    if (stats == null) {
-                        stats = new NotificationsSentState();
-                        aggregatedStats.put(getKey(userId, event.getPackageName()), stats);
-                    }
-
-                    if (event.getEventType() == UsageEvents.Event.NOTIFICATION_INTERRUPTION) {
-                        if (event.getTimeStamp() > stats.lastSent) {
-                            stats.lastSent = event.getTimeStamp();
-                        }
-                        stats.sentCount++;
-                    }
-
-                }
-            }
-        }
-        return aggregatedStats;
+        // Only the events since the last call are queried, see NotificationSentStatsAggregator.
+        mSentStats.update(mUserIds, System.currentTimeMillis());
+        return mSentStats.getStates();
     }
 
     protected NotificationsSentState getAggregatedUsageEvents(int userId, String pkg) {
+        if (mSentStats.hasWindow(userId)) {
+            mSentStats.update(Collections.singletonList(userId), System.currentTimeMillis());
+            return mSentStats.getState(userId, pkg);
+        }
+
+        // Nothing was loaded for the user yet, only query the events of the package.
         NotificationsSentState stats = null;
 
         long now = System.currentTimeMillis();
@@ -0,0 +1,168 @@
+/*
+ * Copyright (C) 2022 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.settings.applications;
+
+import android.app.usage.IUsageStatsManager;
+import android.app.usage.UsageEvents;
+import android.os.RemoteException;
+import android.util.ArrayMap;
+import android.util.Log;
+import android.util.SparseArray;
+import android.util.SparseLongArray;
+
+import com.android.settings.applications.AppStateNotificationBridge.NotificationsSentState;
+
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Counts the notifications sent by each package over a rolling window, like the last week.
+ *
+ * The first update of a user queries the usage events of the whole window. Later updates only
+ * query the events since the previous update, and drop the notifications which left the window.
+ */
+class NotificationSentStatsAggregator {
+    private static final String TAG = "NotificationSentStats";
+
+    private final IUsageStatsManager mUsageStatsManager;
+    private final String mCallingPackage;
+    private final long mWindowMillis;
+    // When the events of each user were last queried.
+    private final SparseLongArray mUpdateTimes = new SparseLongArray();
+    // Notifications sent in the window by each package, for each user.
+    private final SparseArray<ArrayMap<String, SentTimes>> mSentTimes = new SparseArray<>();
+
+    NotificationSentStatsAggregator(IUsageStatsManager usageStatsManager, String callingPackage,
+            long windowMillis) {
+        mUsageStatsManager = usageStatsManager;
+        mCallingPackage = callingPackage;
+        mWindowMillis = windowMillis;
+    }
+
+    /** Returns whether the window of {@code userId} was built by a previous update. */
+    synchronized boolean hasWindow(int userId) {
+        return mUpdateTimes.indexOfKey(userId) >= 0;
+    }
+
+    /** Moves the window of {@code userIds} to end at {@code now}. */
+    synchronized void update(List<Integer> userIds, long now) {
+        final long windowStart = now - mWindowMillis;
+        for (int userId : userIds) {
+            final long lastUpdate = mUpdateTimes.get(userId, -1);
+            ArrayMap<String, SentTimes> sentTimes = mSentTimes.get(userId);
+            final long startTime;
+            if (sentTimes != null && lastUpdate >= windowStart && lastUpdate <= now) {
+                startTime = lastUpdate;
+                for (int i = sentTimes.size() - 1; i >= 0; i--) {
+                    final SentTimes times = sentTimes.valueAt(i);
+                    times.removeBefore(windowStart);
+                    if (times.count() == 0) {
+                        sentTimes.removeAt(i);
+                    }
+                }
+            } else {
+                startTime = windowStart;
+                sentTimes = new ArrayMap<>();
+            }
+
+            UsageEvents events = null;
+            try {
+                events = mUsageStatsManager.queryEventsForUser(
+                        startTime, now, userId, mCallingPackage);
+            } catch (RemoteException e) {
+                Log.w(TAG, "Failed to query the usage events of user " + userId, e);
+            }
+            if (events == null) {
+                continue;
+            }
+            final UsageEvents.Event event = new UsageEvents.Event();
+            while (events.hasNextEvent()) {
+                events.getNextEvent(event);
+                if (event.getEventType() != UsageEvents.Event.NOTIFICATION_INTERRUPTION) {
+                    continue;
+                }
+                SentTimes times = sentTimes.get(event.getPackageName());
+                if (times == null) {
+                    times = new SentTimes();
+                    sentTimes.put(event.getPackageName(), times);
+                }
+                times.add(event.getTimeStamp());
+            }
+            mSentTimes.put(userId, sentTimes);
+            mUpdateTimes.put(userId, now);
+        }
+    }
+
+    /** Returns the notifications sent by {@code pkg} in the window, or null if there are none. */
+    synchronized NotificationsSentState getState(int userId, String pkg) {
+        final ArrayMap<String, SentTimes> sentTimes = mSentTimes.get(userId);
+        final SentTimes times = sentTimes != null ? sentTimes.get(pkg) : null;
+        return times != null ? times.toState() : null;
+    }
+
+    /** Returns the notifications sent in the window, keyed by user id and package. */
+    synchronized Map<String, NotificationsSentState> getStates() {
+        final ArrayMap<String, NotificationsSentState> states = new ArrayMap<>();
+        for (int i = 0; i < mSentTimes.size(); i++) {
+            final int userId = mSentTimes.keyAt(i);
+            final ArrayMap<String, SentTimes> sentTimes = mSentTimes.valueAt(i);
+            for (int j = 0; j < sentTimes.size(); j++) {
+                states.put(AppStateNotificationBridge.getKey(userId, sentTimes.keyAt(j)),
+                        sentTimes.valueAt(j).toState());
+            }
+        }
+        return states;
+    }
+
+    /** Times of the notifications sent by a package, in the order they were sent. */
+    private static final class SentTimes {
+        private long[] mTimes = new long[4];
+        private int mStart;
+        private int mEnd;
+        private long mLastSent;
+
+        void add(long time) {
+            if (mEnd == mTimes.length) {
+                final int count = count();
+                final long[] times = count * 2 > mTimes.length ? new long[count * 2] : mTimes;
+                System.arraycopy(mTimes, mStart, times, 0, count);
+                mTimes = times;
+                mStart = 0;
+                mEnd = count;
+            }
+            mTimes[mEnd++] = time;
+            mLastSent = Math.max(mLastSent, time);
+        }
+
+        void removeBefore(long time) {
+            while (mStart < mEnd && mTimes[mStart] < time) {
+                mStart++;
+            }
+        }
+
+        int count() {
+            return mEnd - mStart;
+        }
+
+        NotificationsSentState toState() {
+            final NotificationsSentState state = new NotificationsSentState();
+            state.sentCount = count();
+            state.lastSent = mLastSent;
+            return state;
+        }
+    }
+}
@@ -0,0 +1,224 @@
+/*
+ * Copyright (C) 2022 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.settings.applications;
+
+import android.content.Context;
+import android.content.pm.ApplicationInfo;
+import android.content.pm.PackageInfo;
+import android.content.pm.PackageItemInfo;
+import android.content.pm.PackageManager;
+import android.graphics.drawable.Drawable;
+import android.os.UserHandle;
+
+import androidx.annotation.Nullable;
+import androidx.annotation.VisibleForTesting;
+
+import com.android.settings.utils.PackageLruCache;
+
+import java.util.Objects;
+
+/**
+ * Process wide cache of the {@link PackageManager} lookups made to show running processes and
+ * process stats: application and package info, labels and icons. Invalidated as described in
+ * {@link PackageLruCache}.
+ *
+ * Entries are keyed by package and by user or flags, and survive the items which loaded them, so
+ * {@link RunningState} and the process stats screens only load a label once.
+ */
+public final class PackageLabelCache {
+    @VisibleForTesting
+    static final int MAX_SIZE = 500;
+
+    private static final int KIND_APPLICATION_INFO = 0;
+    private static final int KIND_PACKAGE_INFO = 1;
+    private static final int KIND_LABEL = 2;
+    private static final int KIND_TEXT = 3;
+    private static final int KIND_ICON = 4;
+    private static final int KIND_BADGED_ICON = 5;
+
+    // Cached for packages which aren't found, so they aren't looked up again.
+    private static final Object NOT_FOUND = new Object();
+
+    private static PackageLabelCache sInstance;
+
+    private final PackageLruCache<Key, Object> mCache = new PackageLruCache<>(MAX_SIZE,
+            (key, value, packageName, uid) -> packageName.equals(key.mPackageName));
+
+    private interface Loader<T> {
+        T load() throws PackageManager.NameNotFoundException;
+    }
+
+    /** Return the process wide cache. */
+    public static synchronized PackageLabelCache getInstance() {
+        if (sInstance == null) {
+            sInstance = new PackageLabelCache();
+        }
+        return sInstance;
+    }
+
+    /** Return the process wide cache, listening to package changes with {@code context}. */
+    public static PackageLabelCache getInstance(Context context) {
+        final PackageLabelCache cache = getInstance();
+        cache.mCache.registerPackageReceiver(context);
+        return cache;
+    }
+
+    @VisibleForTesting
+    PackageLabelCache() {
+    }
+
+    /** Cached {@link PackageManager#getApplicationInfo(String, int)}. */
+    public ApplicationInfo getApplicationInfo(PackageManager pm, String packageName, int flags)
+            throws PackageManager.NameNotFoundException {
+        return getOrLoad(new Key(KIND_APPLICATION_INFO, packageName, null, flags),
+                () -> pm.getApplicationInfo(packageName, flags));
+    }
+
+    /** Cached {@link PackageManager#getPackageInfo(String, int)}. */
+    public PackageInfo getPackageInfo(PackageManager pm, String packageName, int flags)
+            throws PackageManager.NameNotFoundException {
+        return getOrLoad(new Key(KIND_PACKAGE_INFO, packageName, null, flags),
+                () -> pm.getPackageInfo(packageName, flags));
+    }
+
+    /** Cached {@link PackageItemInfo#loadLabel(PackageManager)}. */
+    public CharSequence getLabel(PackageManager pm, PackageItemInfo info) {
+        return getOrLoadFound(new Key(KIND_LABEL, info.packageName, info.name, getUserId(info)),
+                () -> info.loadLabel(pm));
+    }
+
+    /** Cached {@link PackageManager#getText(String, int, ApplicationInfo)}. */
+    @Nullable
+    public CharSequence getText(PackageManager pm, String packageName, int resId,
+            ApplicationInfo appInfo) {
+        return getOrLoadFound(new Key(KIND_TEXT, packageName, null, resId),
+                () -> pm.getText(packageName, resId, appInfo));
+    }
+
+    /** Cached {@link PackageItemInfo#loadIcon(PackageManager)}. */
+    public Drawable getIcon(PackageManager pm, PackageItemInfo info) {
+        return newDrawable(getOrLoadFound(
+                new Key(KIND_ICON, info.packageName, info.name, getUserId(info)),
+                () -> info.loadIcon(pm)));
+    }
+
+    /** Cached unbadged icon of {@code info}, badged for {@code userId}. */
+    public Drawable getBadgedIcon(PackageManager pm, PackageItemInfo info, int userId) {
+        return newDrawable(getOrLoadFound(
+                new Key(KIND_BADGED_ICON, info.packageName, info.name, userId),
+                () -> pm.getUserBadgedIcon(info.loadUnbadgedIcon(pm), new UserHandle(userId))));
+    }
+
+    /** Drop the entries of {@code packageName}, for all users. */
+    public void invalidatePackage(String packageName) {
+        mCache.invalidatePackage(packageName, /* uid= */ -1);
+    }
+
+    /** Drop all entries. */
+    public void clear() {
+        mCache.clear();
+    }
+
+    @VisibleForTesting
+    int size() {
+        return mCache.size();
+    }
+
+    private <T> T getOrLoadFound(Key key, Loader<T> loader) {
+        try {
+            return getOrLoad(key, loader);
+        } catch (PackageManager.NameNotFoundException e) {
+            // Only thrown by the package manager lookups.
+            return null;
+        }
+    }
+
+    @SuppressWarnings("unchecked")
+    private <T> T getOrLoad(Key key, Loader<T> loader)
+            throws PackageManager.NameNotFoundException {
+        final int generation = mCache.getGeneration();
+        final Object cached = mCache.get(key);
+        if (cached == NOT_FOUND) {
+            throw new PackageManager.NameNotFoundException(key.mPackageName);
+        } else if (cached != null) {
+            return (T) cached;
+        }
+
+        // Load outside of the lock, it's slow.
+        Object value;
+        try {
+            value = loader.load();
+        } catch (PackageManager.NameNotFoundException e) {
+            value = NOT_FOUND;
+        }
+        if (value != null) {
+            mCache.put(key, value, generation);
+        }
+        if (value == NOT_FOUND) {
+            throw new PackageManager.NameNotFoundException(key.mPackageName);
+        }
+        return (T) value;
+    }
+
+    private static int getUserId(PackageItemInfo info) {
+        if (info instanceof ApplicationInfo) {
+            return UserHandle.getUserId(((ApplicationInfo) info).uid);
+        }
+        return UserHandle.USER_NULL;
+    }
+
+    // Drawables keep their bounds and state, give each caller its own.
+    private static Drawable newDrawable(Drawable drawable) {
+        if (drawable == null || drawable.getConstantState() == null) {
+            return drawable;
+        }
+        return drawable.getConstantState().newDrawable();
+    }
+
+    private static final class Key {
+        final int mKind;
+        final String mPackageName;
+        final String mName;
+        final int mExtra;
+
+        Key(int kind, String packageName, String name, int extra) {
+            mKind = kind;
+            mPackageName = packageName;
+            mName = name;
+            mExtra = extra;
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (this == o) {
+                return true;
+            }
+            if (!(o instanceof Key)) {
+                return false;
+            }
+            final Key other = (Key) o;
+            return mKind == other.mKind && mExtra == other.mExtra
+                    && Objects.equals(mPackageName, other.mPackageName)
+                    && Objects.equals(mName, other.mName);
+        }
+
+        @Override
+        public int hashCode() {
+            return Objects.hash(mKind, mPackageName, mName, mExtra);
+        }
+    }
+}
@@ -76,6 +76,8 @@ public class ProcStatsData {
     public ProcStatsData(Context context, boolean useXfer) {
         mContext = context;
         mPm = context.getPackageManager();
+        // Labels and icons of the entries are cached across screens, until their package changes.
+        PackageLabelCache.getInstance(context);
         mProcessStats = IProcessStats.Stub.asInterface(
                 ServiceManager.getService(ProcessStats.SERVICE_NAME));
         mMemStates = ProcessStats.ALL_MEM_ADJ;
@@ -189,7 +189,8 @@ public final class ProcStatsEntry implements Parcelable {
                     continue;
                 }
                 try {
-                    ApplicationInfo ai = pm.getApplicationInfo(subProc.mPackage, 0);
+                    ApplicationInfo ai = PackageLabelCache.getInstance()
+                            .getApplicationInfo(pm, subProc.mPackage, 0);
                     if (ai.icon == 0) {
                         if (DEBUG) Log.d(TAG, "Eval pkg of " + mName + ": pkg "
                                 + subProc.mPackage + " has no icon");
@@ -112,20 +112,21 @@ public class ProcStatsPackageEntry implements Parcelable {
     public void retrieveUiData(Context context, PackageManager pm) {
         mUiTargetApp = null;
         mUiLabel = mPackage;
+        final PackageLabelCache cache = PackageLabelCache.getInstance();
         // Only one app associated with this process.
         try {
             if ("os".equals(mPackage)) {
-                mUiTargetApp = pm.getApplicationInfo("android",
+                mUiTargetApp = cache.getApplicationInfo(pm, "android",
                         PackageManager.MATCH_DISABLED_COMPONENTS |
                         PackageManager.MATCH_DISABLED_UNTIL_USED_COMPONENTS |
                         PackageManager.MATCH_ANY_USER);
                 mUiLabel = context.getString(R.string.process_stats_os_label);
             } else {
-                mUiTargetApp = pm.getApplicationInfo(mPackage,
+                mUiTargetApp = cache.getApplicationInfo(pm, mPackage,
                         PackageManager.MATCH_DISABLED_COMPONENTS |
                         PackageManager.MATCH_DISABLED_UNTIL_USED_COMPONENTS |
                         PackageManager.MATCH_ANY_USER);
-                mUiLabel = mUiTargetApp.loadLabel(pm).toString();
+                mUiLabel = cache.getLabel(pm, mUiTargetApp).toString();
             }
         } catch (PackageManager.NameNotFoundException e) {
             Log.d(TAG, "could not find package: " + mPackage);
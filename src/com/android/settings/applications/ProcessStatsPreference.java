@@ -42,7 +42,7 @@ public class ProcessStatsPreference extends AppPreference {
             Log.d(TAG, "PackageEntry contained no package name or uiLabel");
         }
         if (entry.mUiTargetApp != null) {
-            setIcon(entry.mUiTargetApp.loadIcon(pm));
+            setIcon(PackageLabelCache.getInstance().getIcon(pm, entry.mUiTargetApp));
         } else {
             setIcon(pm.getDefaultActivityIcon());
         }
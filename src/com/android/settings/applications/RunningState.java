@@ -48,6 +48,7 @@ import com.android.settingslib.Utils;
 import com.android.settingslib.applications.InterestingConfigChanges;
 
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Collections;
 import java.util.Comparator;
 import java.util.HashMap;
@@ -69,9 +70,14 @@ public class RunningState {
     static final int MSG_UPDATE_CONTENTS = 2;
     static final int MSG_REFRESH_UI = 3;
     static final int MSG_UPDATE_TIME = 4;
+    static final int MSG_UPDATE_CONTENTS_NOW = 5;
 
     static final long TIME_UPDATE_DELAY = 1000;
     static final long CONTENTS_UPDATE_DELAY = 2000;
+    // The contents are sampled less often while they do not change, up to this delay.
+    static final long MAX_CONTENTS_UPDATE_DELAY = 16000;
+    // Delay of the update after an app started or stopped, to group the changes of one launch.
+    static final long IMPORTANCE_UPDATE_DELAY = 250;
 
     static final int MAX_SERVICES = 100;
 
@@ -137,6 +143,49 @@ public class RunningState {
     // Temporary structure used when updating above information.
     final SparseArray<AppProcessInfo> mTmpAppProcesses = new SparseArray<AppProcessInfo>();
 
+    /**
+     * What the items were last built from: the services by component and the processes by pid,
+     * with the fields the items depend on. When a new sample is the same, only the sizes of the
+     * processes need to be updated.
+     */
+    static final class Snapshot {
+        final HashMap<String, List<Object>> mServices = new HashMap<>();
+        final SparseArray<List<Object>> mProcesses = new SparseArray<>();
+
+        Snapshot(List<ActivityManager.RunningServiceInfo> services,
+                List<ActivityManager.RunningAppProcessInfo> processes) {
+            final int NS = services != null ? services.size() : 0;
+            for (int i = 0; i < NS; i++) {
+                final ActivityManager.RunningServiceInfo si = services.get(i);
+                mServices.put(si.uid + "/" + si.service.flattenToShortString(),
+                        Arrays.asList(si.pid, si.process, si.restarting, si.started,
+                                si.foreground, si.clientLabel, si.clientPackage,
+                                si.activeSince, si.flags));
+            }
+            final int NP = processes != null ? processes.size() : 0;
+            for (int i = 0; i < NP; i++) {
+                final ActivityManager.RunningAppProcessInfo pi = processes.get(i);
+                mProcesses.put(pi.pid, Arrays.asList(pi.uid, pi.processName, pi.importance,
+                        pi.importanceReasonPid, pi.importanceReasonCode, pi.flags, pi.lru));
+            }
+        }
+
+        boolean isSame(Snapshot other) {
+            if (other == null || !mServices.equals(other.mServices)
+                    || mProcesses.size() != other.mProcesses.size()) {
+                return false;
+            }
+            for (int i = 0; i < mProcesses.size(); i++) {
+                if (!mProcesses.valueAt(i).equals(other.mProcesses.get(mProcesses.keyAt(i)))) {
+                    return false;
+                }
+            }
+            return true;
+        }
+    }
+
+    Snapshot mLastSnapshot;
+
     int mSequence = 0;
 
     final Comparator<RunningState.MergedItem> mBackgroundComparator =
@@ -210,6 +259,7 @@ public class RunningState {
     boolean mResumed;
     boolean mHaveData;
     boolean mWatchingBackgroundItems;
+    boolean mWatchingImportance;
 
     ArrayList<BaseItem> mItems = new ArrayList<BaseItem>();
     ArrayList<MergedItem> mMergedItems = new ArrayList<MergedItem>();
@@ -244,17 +294,34 @@ public class RunningState {
                             return;
                         }
                     }
-                    Message cmd = mHandler.obtainMessage(MSG_REFRESH_UI);
-                    cmd.arg1 = update(mApplicationContext, mAm) ? 1 : 0;
-                    mHandler.sendMessage(cmd);
+                    final int refresh = update(mApplicationContext, mAm);
+                    if (refresh != OnRefreshUiListener.REFRESH_TIME) {
+                        Message cmd = mHandler.obtainMessage(MSG_REFRESH_UI);
+                        cmd.arg1 = refresh;
+                        mHandler.sendMessage(cmd);
+                    }
+                    // Back off while the processes and services stay the same, apps starting
+                    // or stopping are reported by mUidImportanceListener anyway.
+                    mContentsUpdateDelay = refresh == OnRefreshUiListener.REFRESH_STRUCTURE
+                            ? CONTENTS_UPDATE_DELAY
+                            : Math.min(mContentsUpdateDelay * 2, MAX_CONTENTS_UPDATE_DELAY);
                     removeMessages(MSG_UPDATE_CONTENTS);
                     msg = obtainMessage(MSG_UPDATE_CONTENTS);
-                    sendMessageDelayed(msg, CONTENTS_UPDATE_DELAY);
+                    sendMessageDelayed(msg, mContentsUpdateDelay);
+                    break;
+                case MSG_UPDATE_CONTENTS_NOW:
+                    // Something changed, go back to sampling at the fastest rate.
+                    mContentsUpdateDelay = CONTENTS_UPDATE_DELAY;
+                    removeMessages(MSG_UPDATE_CONTENTS);
+                    sendEmptyMessage(MSG_UPDATE_CONTENTS);
                     break;
             }
         }
     };
 
+    // Only used on the background thread.
+    long mContentsUpdateDelay = CONTENTS_UPDATE_DELAY;
+
     final BackgroundHandler mBackgroundHandler;
 
     final Handler mHandler = new Handler() {
@@ -264,9 +331,8 @@ public class RunningState {
         public void handleMessage(Message msg) {
             switch (msg.what) {
                 case MSG_REFRESH_UI:
-                    mNextUpdate = msg.arg1 != 0
-                            ? OnRefreshUiListener.REFRESH_STRUCTURE
-                            : OnRefreshUiListener.REFRESH_DATA;
+                    // Don't lose a structure change when numbers change before the next tick.
+                    mNextUpdate = Math.max(mNextUpdate, msg.arg1);
                     break;
                 case MSG_UPDATE_TIME:
                     synchronized (mLock) {
@@ -325,6 +391,18 @@ public class RunningState {
     private final UserManagerBroadcastReceiver mUmBroadcastReceiver =
             new UserManagerBroadcastReceiver();
 
+    // Updates the contents soon when an app starts, stops or moves to the cached state.
+    private final ActivityManager.OnUidImportanceListener mUidImportanceListener =
+            (uid, importance) -> {
+                synchronized (mLock) {
+                    if (mResumed
+                            && !mBackgroundHandler.hasMessages(MSG_UPDATE_CONTENTS_NOW)) {
+                        mBackgroundHandler.sendEmptyMessageDelayed(MSG_UPDATE_CONTENTS_NOW,
+                                IMPORTANCE_UPDATE_DELAY);
+                    }
+                }
+            };
+
     // ----- DATA STRUCTURES -----
 
     static interface OnRefreshUiListener {
@@ -366,9 +444,8 @@ public class RunningState {
 
         public Drawable loadIcon(Context context, RunningState state) {
             if (mPackageInfo != null) {
-                Drawable unbadgedIcon = mPackageInfo.loadUnbadgedIcon(state.mPm);
-                Drawable icon = state.mPm.getUserBadgedIcon(unbadgedIcon, new UserHandle(mUserId));
-                return icon;
+                return PackageLabelCache.getInstance().getBadgedIcon(state.mPm, mPackageInfo,
+                        mUserId);
             }
             return null;
         }
@@ -424,11 +501,12 @@ public class RunningState {
                 return;
             }
 
+            final PackageLabelCache cache = PackageLabelCache.getInstance();
             try {
-                ApplicationInfo ai = pm.getApplicationInfo(mProcessName,
+                ApplicationInfo ai = cache.getApplicationInfo(pm, mProcessName,
                         PackageManager.MATCH_ANY_USER);
                 if (ai.uid == mUid) {
-                    mDisplayLabel = ai.loadLabel(pm);
+                    mDisplayLabel = cache.getLabel(pm, ai);
                     mLabel = mDisplayLabel.toString();
                     mPackageInfo = ai;
                     return;
@@ -443,9 +521,9 @@ public class RunningState {
             // If there is one package with this uid, that is what we want.
             if (pkgs.length == 1) {
                 try {
-                    ApplicationInfo ai = pm.getApplicationInfo(pkgs[0],
+                    ApplicationInfo ai = cache.getApplicationInfo(pm, pkgs[0],
                             PackageManager.MATCH_ANY_USER);
-                    mDisplayLabel = ai.loadLabel(pm);
+                    mDisplayLabel = cache.getLabel(pm, ai);
                     mLabel = mDisplayLabel.toString();
                     mPackageInfo = ai;
                     return;
@@ -457,9 +535,9 @@ public class RunningState {
             // for this uid.
             for (String name : pkgs) {
                 try {
-                    PackageInfo pi = pm.getPackageInfo(name, 0);
+                    PackageInfo pi = cache.getPackageInfo(pm, name, 0);
                     if (pi.sharedUserLabel != 0) {
-                        CharSequence nm = pm.getText(name,
+                        CharSequence nm = cache.getText(pm, name,
                                 pi.sharedUserLabel, pi.applicationInfo);
                         if (nm != null) {
                             mDisplayLabel = nm;
@@ -478,16 +556,16 @@ public class RunningState {
                 ApplicationInfo ai = mServices.values().iterator().next()
                         .mServiceInfo.applicationInfo;
                 mPackageInfo = ai;
-                mDisplayLabel = mPackageInfo.loadLabel(pm);
+                mDisplayLabel = cache.getLabel(pm, mPackageInfo);
                 mLabel = mDisplayLabel.toString();
                 return;
             }
 
             // Finally... whatever, just pick the first package's name.
             try {
-                ApplicationInfo ai = pm.getApplicationInfo(pkgs[0],
+                ApplicationInfo ai = cache.getApplicationInfo(pm, pkgs[0],
                         PackageManager.MATCH_ANY_USER);
-                mDisplayLabel = ai.loadLabel(pm);
+                mDisplayLabel = cache.getLabel(pm, ai);
                 mLabel = mDisplayLabel.toString();
                 mPackageInfo = ai;
                 return;
@@ -757,7 +835,7 @@ public class RunningState {
             String className, PackageItemInfo item) {
         if (item != null && (item.labelRes != 0
                 || item.nonLocalizedLabel != null)) {
-            CharSequence label = item.loadLabel(pm);
+            CharSequence label = PackageLabelCache.getInstance().getLabel(pm, item);
             if (label != null) {
                 return label;
             }
@@ -784,6 +862,8 @@ public class RunningState {
         mApplicationContext = context.getApplicationContext();
         mAm = mApplicationContext.getSystemService(ActivityManager.class);
         mPm = mApplicationContext.getPackageManager();
+        // Shares labels and icons with the process stats screens, dropped on package changes.
+        PackageLabelCache.getInstance(mApplicationContext);
         mUm = mApplicationContext.getSystemService(UserManager.class);
         mMyUserId = UserHandle.myUserId();
         UserInfo userInfo = mUm.getUserInfo(mMyUserId);
@@ -809,16 +889,21 @@ public class RunningState {
                 mBackgroundHandler.sendEmptyMessage(MSG_RESET_CONTENTS);
             }
             if (!mBackgroundHandler.hasMessages(MSG_UPDATE_CONTENTS)) {
-                mBackgroundHandler.sendEmptyMessage(MSG_UPDATE_CONTENTS);
+                mBackgroundHandler.sendEmptyMessage(MSG_UPDATE_CONTENTS_NOW);
             }
             mHandler.sendEmptyMessage(MSG_UPDATE_TIME);
+            if (!mWatchingImportance) {
+                mWatchingImportance = true;
+                mAm.addOnUidImportanceListener(mUidImportanceListener,
+                        ActivityManager.RunningAppProcessInfo.IMPORTANCE_CACHED);
+            }
         }
     }
 
     void updateNow() {
         synchronized (mLock) {
             mBackgroundHandler.removeMessages(MSG_UPDATE_CONTENTS);
-            mBackgroundHandler.sendEmptyMessage(MSG_UPDATE_CONTENTS);
+            mBackgroundHandler.sendEmptyMessage(MSG_UPDATE_CONTENTS_NOW);
         }
     }
 
@@ -844,6 +929,10 @@ public class RunningState {
             mResumed = false;
             mRefreshUiListener = null;
             mHandler.removeMessages(MSG_UPDATE_TIME);
+            if (mWatchingImportance) {
+                mWatchingImportance = false;
+                mAm.removeOnUidImportanceListener(mUidImportanceListener);
+            }
         }
     }
 
@@ -862,6 +951,7 @@ public class RunningState {
     }
 
     private void reset() {
+        mLastSnapshot = null;
         mServiceProcessesByName.clear();
         mServiceProcessesByPid.clear();
         mInterestingProcesses.clear();
@@ -899,11 +989,15 @@ public class RunningState {
         userItem.mChildren.add(newItem);
     }
 
-    private boolean update(Context context, ActivityManager am) {
+    /**
+     * Samples the running services and processes, and returns what the UI needs to refresh:
+     * {@link OnRefreshUiListener#REFRESH_STRUCTURE} when items were added, removed or reordered,
+     * {@link OnRefreshUiListener#REFRESH_DATA} when only memory numbers changed, else
+     * {@link OnRefreshUiListener#REFRESH_TIME}.
+     */
+    private int update(Context context, ActivityManager am) {
         final PackageManager pm = context.getPackageManager();
 
-        mSequence++;
-
         boolean changed = false;
 
         // Retrieve list of services, filtering out anything that definitely
@@ -938,6 +1032,15 @@ public class RunningState {
         List<ActivityManager.RunningAppProcessInfo> processes
                 = am.getRunningAppProcesses();
         final int NP = processes != null ? processes.size() : 0;
+
+        // Nothing started, stopped or moved since the last sample, the items are still valid.
+        final Snapshot snapshot = new Snapshot(services, processes);
+        if (snapshot.isSame(mLastSnapshot)) {
+            return updateSizes(context, false);
+        }
+        mLastSnapshot = snapshot;
+        mSequence++;
+
         mTmpAppProcesses.clear();
         for (int i = 0; i < NP; i++) {
             ActivityManager.RunningAppProcessInfo pi = processes.get(i);
@@ -1206,7 +1309,7 @@ public class RunningState {
 
                 // Now add the services running in it.
                 MergedItem mergedItem = null;
-                boolean haveAllMerged = false;
+                boolean haveAllMerged = true;
                 boolean needDivider = false;
                 for (ServiceItem si : pi.mServices.values()) {
                     si.mNeedDivider = needDivider;
@@ -1231,10 +1334,11 @@ public class RunningState {
                         si.mMergedItem = mergedItem;
                     }
                     mergedItem.mProcess = pi;
-                    mergedItem.mOtherProcesses.clear();
-                    for (int mpi = firstProc; mpi < (mProcessItems.size() - 1); mpi++) {
-                        mergedItem.mOtherProcesses.add(mProcessItems.get(mpi));
-                    }
+                }
+                // The item of the same services is kept, but what they depend on may change.
+                mergedItem.mOtherProcesses.clear();
+                for (int mpi = firstProc; mpi < (mProcessItems.size() - 1); mpi++) {
+                    mergedItem.mOtherProcesses.add(mProcessItems.get(mpi));
                 }
 
                 mergedItem.update(context, false);
@@ -1282,6 +1386,14 @@ public class RunningState {
             }
         }
 
+        return updateSizes(context, changed);
+    }
+
+    /**
+     * Updates the sizes of the processes, and returns what the UI needs to refresh given whether
+     * the structure already {@code changed}.
+     */
+    private int updateSizes(Context context, boolean changed) {
         // Count number of interesting other (non-active) processes, and
         // build a list of all processes we will retrieve memory for.
         mAllProcessItems.clear();
@@ -1289,7 +1401,7 @@ public class RunningState {
         int numBackgroundProcesses = 0;
         int numForegroundProcesses = 0;
         int numServiceProcesses = 0;
-        NRP = mRunningProcesses.size();
+        final int NRP = mRunningProcesses.size();
         for (int i = 0; i < NRP; i++) {
             ProcessItem proc = mRunningProcesses.valueAt(i);
             if (proc.mCurSeq != mSequence) {
@@ -1419,6 +1531,12 @@ public class RunningState {
         }
 
         synchronized (mLock) {
+            final boolean numbersChanged = mNumBackgroundProcesses != numBackgroundProcesses
+                    || mNumForegroundProcesses != numForegroundProcesses
+                    || mNumServiceProcesses != numServiceProcesses
+                    || mBackgroundProcessMemory != backgroundProcessMemory
+                    || mForegroundProcessMemory != foregroundProcessMemory
+                    || mServiceProcessMemory != serviceProcessMemory;
             mNumBackgroundProcesses = numBackgroundProcesses;
             mNumForegroundProcesses = numForegroundProcesses;
             mNumServiceProcesses = numServiceProcesses;
@@ -1436,9 +1554,12 @@ public class RunningState {
                 mHaveData = true;
                 mLock.notifyAll();
             }
+            if (changed) {
+                return OnRefreshUiListener.REFRESH_STRUCTURE;
+            }
+            return numbersChanged || newBackgroundItems != null
+                    ? OnRefreshUiListener.REFRESH_DATA : OnRefreshUiListener.REFRESH_TIME;
         }
-
-        return changed;
     }
 
     void setWatchingBackgroundItems(boolean watching) {
@@ -0,0 +1,193 @@
+/*
+ * Copyright (C) 2022 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.settings.applications.manageapplications;
+
+import static com.android.settings.applications.manageapplications.ManageApplications.LIST_TYPE_MAIN;
+import static com.android.settings.applications.manageapplications.ManageApplications.LIST_TYPE_NOTIFICATION;
+import static com.android.settings.applications.manageapplications.ManageApplications.LIST_TYPE_STORAGE;
+
+import android.content.pm.ApplicationInfo;
+import android.text.TextUtils;
+
+import androidx.annotation.Nullable;
+import androidx.recyclerview.widget.DiffUtil;
+
+import com.android.settings.applications.AppStateNotificationBridge.NotificationsSentState;
+import com.android.settingslib.applications.ApplicationsState;
+import com.android.settingslib.applications.ApplicationsState.AppEntry;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Objects;
+
+/**
+ * Diffs two app lists of {@link ManageApplications}, so only the rows which changed are bound
+ * again.
+ *
+ * Entries are mutated in place while they are listed, so lists are compared through
+ * {@link RowState}s, snapshots of what a row shows taken when a list is set. Rows are matched by
+ * package name and uid. A change to the summary or the switch of a row only is reported with the
+ * {@link #PAYLOAD_SUMMARY} or {@link #PAYLOAD_SWITCH} payload.
+ */
+class AppListDiffCallback extends DiffUtil.Callback {
+    /** Payload of a row whose summary changed. */
+    static final int PAYLOAD_SUMMARY = 1;
+    /** Payload of a row whose switch changed. */
+    static final int PAYLOAD_SWITCH = 1 << 1;
+
+    private final List<RowState> mOldRows;
+    private final List<RowState> mNewRows;
+
+    AppListDiffCallback(List<RowState> oldRows, List<RowState> newRows) {
+        mOldRows = oldRows;
+        mNewRows = newRows;
+    }
+
+    /** Return the snapshots of the rows of {@code entries}. */
+    static ArrayList<RowState> createRowStates(List<AppEntry> entries, int listType,
+            int whichSize, int sortMode) {
+        final ArrayList<RowState> rows = new ArrayList<>(entries.size());
+        for (AppEntry entry : entries) {
+            synchronized (entry) {
+                rows.add(new RowState(entry, listType, whichSize, sortMode));
+            }
+        }
+        return rows;
+    }
+
+    @Override
+    public int getOldListSize() {
+        return mOldRows.size();
+    }
+
+    @Override
+    public int getNewListSize() {
+        return mNewRows.size();
+    }
+
+    @Override
+    public boolean areItemsTheSame(int oldItemPosition, int newItemPosition) {
+        final RowState oldRow = mOldRows.get(oldItemPosition);
+        final RowState newRow = mNewRows.get(newItemPosition);
+        return oldRow.mUid == newRow.mUid
+                && TextUtils.equals(oldRow.mPackageName, newRow.mPackageName);
+    }
+
+    @Override
+    public boolean areContentsTheSame(int oldItemPosition, int newItemPosition) {
+        return mOldRows.get(oldItemPosition).equals(mNewRows.get(newItemPosition));
+    }
+
+    @Nullable
+    @Override
+    public Object getChangePayload(int oldItemPosition, int newItemPosition) {
+        final RowState oldRow = mOldRows.get(oldItemPosition);
+        final RowState newRow = mNewRows.get(newItemPosition);
+        if (!oldRow.hasSameBody(newRow)) {
+            // Bind the whole row again.
+            return null;
+        }
+        int payload = 0;
+        if (!Objects.equals(oldRow.mSummary, newRow.mSummary)) {
+            payload |= PAYLOAD_SUMMARY;
+        }
+        if (oldRow.mSwitchEnabled != newRow.mSwitchEnabled
+                || oldRow.mSwitchChecked != newRow.mSwitchChecked) {
+            payload |= PAYLOAD_SWITCH;
+        }
+        return payload;
+    }
+
+    /** Snapshot of what the row of an {@link AppEntry} shows. */
+    static final class RowState {
+        final String mPackageName;
+        final int mUid;
+        final String mLabel;
+        final boolean mMounted;
+        final int mFlags;
+        final boolean mEnabled;
+        final int mEnabledSetting;
+        // What the summary is built from, depends on the list type.
+        final Object mSummary;
+        final boolean mSwitchEnabled;
+        final boolean mSwitchChecked;
+
+        RowState(AppEntry entry, int listType, int whichSize, int sortMode) {
+            final ApplicationInfo info = entry.info;
+            mPackageName = info != null ? info.packageName : null;
+            mUid = info != null ? info.uid : 0;
+            mLabel = entry.label;
+            mMounted = entry.mounted;
+            mFlags = info != null ? info.flags : 0;
+            mEnabled = info != null && info.enabled;
+            mEnabledSetting = info != null ? info.enabledSetting : 0;
+
+            if (listType == LIST_TYPE_NOTIFICATION) {
+                final NotificationsSentState state = entry.extraInfo instanceof
+                        NotificationsSentState ? (NotificationsSentState) entry.extraInfo : null;
+                mSummary = state == null ? null : new ArrayList<>(List.of(sortMode,
+                        state.avgSentDaily, state.avgSentWeekly, state.lastSent,
+                        state.sentCount));
+                mSwitchEnabled = state != null && state.blockable;
+                mSwitchChecked = state != null && !state.blocked;
+            } else {
+                if (listType == LIST_TYPE_MAIN || listType == LIST_TYPE_STORAGE) {
+                    mSummary = new ArrayList<>(List.of(whichSize,
+                            String.valueOf(entry.sizeStr),
+                            String.valueOf(entry.internalSizeStr),
+                            String.valueOf(entry.externalSizeStr),
+                            entry.size == ApplicationsState.SIZE_INVALID));
+                } else {
+                    mSummary = entry.extraInfo;
+                }
+                mSwitchEnabled = false;
+                mSwitchChecked = false;
+            }
+        }
+
+        /** Return whether the rows only differ by their summary or switch. */
+        boolean hasSameBody(RowState other) {
+            return mUid == other.mUid
+                    && TextUtils.equals(mPackageName, other.mPackageName)
+                    && TextUtils.equals(mLabel, other.mLabel)
+                    && mMounted == other.mMounted
+                    && mFlags == other.mFlags
+                    && mEnabled == other.mEnabled
+                    && mEnabledSetting == other.mEnabledSetting;
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (this == o) {
+                return true;
+            }
+            if (!(o instanceof RowState)) {
+                return false;
+            }
+            final RowState other = (RowState) o;
+            return hasSameBody(other)
+                    && Objects.equals(mSummary, other.mSummary)
+                    && mSwitchEnabled == other.mSwitchEnabled
+                    && mSwitchChecked == other.mSwitchChecked;
+        }
+
+        @Override
+        public int hashCode() {
+            return Objects.hash(mPackageName, mUid, mLabel, mSummary);
+        }
+    }
+}
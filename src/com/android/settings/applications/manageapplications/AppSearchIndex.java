@@ -0,0 +1,164 @@
+/*
+ * Copyright (C) 2022 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.settings.applications.manageapplications;
+
+import android.util.SparseArray;
+import android.util.SparseIntArray;
+
+import androidx.annotation.VisibleForTesting;
+
+import com.android.settingslib.applications.ApplicationsState.AppEntry;
+
+import java.text.Normalizer;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+import java.util.regex.Pattern;
+
+/**
+ * Search index of the labels and package names of the apps listed by {@link ManageApplications}.
+ *
+ * Labels and package names are normalized once, when the index is built: diacritics are removed
+ * and they are lower cased for the current locale. Entries are also indexed by every character
+ * they contain, so the first character of a query only visits the entries containing it. A query
+ * extending the previous one, like the user typing one more character, only checks the entries
+ * which matched the previous query.
+ */
+final class AppSearchIndex {
+    private static final Pattern DIACRITICS = Pattern.compile("\\p{Mn}+");
+    private static final int[] NO_ENTRIES = new int[0];
+
+    private final List<AppEntry> mEntries;
+    private final Locale mLocale;
+    private final String[] mLabels;
+    private final String[] mPackageNames;
+    // Indexes of the entries containing each character, in the order of the entries.
+    private final SparseArray<int[]> mEntriesByChar = new SparseArray<>();
+
+    // Indexes of the entries matching the last query, reused when the next query extends it.
+    private final int[] mMatches;
+    private int mMatchCount;
+    private String mLastQuery;
+
+    AppSearchIndex(List<AppEntry> entries) {
+        mEntries = entries;
+        mLocale = Locale.getDefault();
+        final int size = entries.size();
+        mLabels = new String[size];
+        mPackageNames = new String[size];
+        mMatches = new int[size];
+
+        final SparseIntArray charCounts = new SparseIntArray();
+        final SparseIntArray lastEntryOfChar = new SparseIntArray();
+        for (int i = 0; i < size; i++) {
+            final AppEntry entry = entries.get(i);
+            mLabels[i] = normalize(entry.label, mLocale);
+            mPackageNames[i] = normalize(
+                    entry.info != null ? entry.info.packageName : null, mLocale);
+            countChars(mLabels[i], i, charCounts, lastEntryOfChar);
+            countChars(mPackageNames[i], i, charCounts, lastEntryOfChar);
+        }
+
+        final SparseIntArray charFills = new SparseIntArray(charCounts.size());
+        for (int i = 0; i < charCounts.size(); i++) {
+            mEntriesByChar.put(charCounts.keyAt(i), new int[charCounts.valueAt(i)]);
+        }
+        lastEntryOfChar.clear();
+        for (int i = 0; i < size; i++) {
+            indexChars(mLabels[i], i, charFills, lastEntryOfChar);
+            indexChars(mPackageNames[i], i, charFills, lastEntryOfChar);
+        }
+    }
+
+    /** Return whether the index is up to date for {@code entries}. */
+    boolean isFor(List<AppEntry> entries) {
+        return mEntries == entries && mLocale.equals(Locale.getDefault());
+    }
+
+    /**
+     * Return the entries whose label or package name contains {@code query}, ignoring case and
+     * diacritics, in the order of the indexed entries.
+     */
+    synchronized ArrayList<AppEntry> search(CharSequence query) {
+        final String normalizedQuery = normalize(query, mLocale);
+        if (normalizedQuery.isEmpty()) {
+            mLastQuery = null;
+            return new ArrayList<>(mEntries);
+        }
+
+        if (mLastQuery == null || !normalizedQuery.startsWith(mLastQuery)) {
+            // Start over from the entries containing the first character of the query.
+            int[] candidates = mEntriesByChar.get(normalizedQuery.charAt(0));
+            if (candidates == null) {
+                candidates = NO_ENTRIES;
+            }
+            System.arraycopy(candidates, 0, mMatches, 0, candidates.length);
+            mMatchCount = candidates.length;
+        }
+
+        // Narrow the matches in place.
+        int matchCount = 0;
+        for (int i = 0; i < mMatchCount; i++) {
+            final int index = mMatches[i];
+            if (mLabels[index].contains(normalizedQuery)
+                    || mPackageNames[index].contains(normalizedQuery)) {
+                mMatches[matchCount++] = index;
+            }
+        }
+        mMatchCount = matchCount;
+        mLastQuery = normalizedQuery;
+
+        final ArrayList<AppEntry> matchedEntries = new ArrayList<>(matchCount);
+        for (int i = 0; i < matchCount; i++) {
+            matchedEntries.add(mEntries.get(mMatches[i]));
+        }
+        return matchedEntries;
+    }
+
+    @VisibleForTesting
+    static String normalize(CharSequence text, Locale locale) {
+        if (text == null || text.length() == 0) {
+            return "";
+        }
+        final String decomposed = Normalizer.normalize(text, Normalizer.Form.NFD);
+        return DIACRITICS.matcher(decomposed).replaceAll("").toLowerCase(locale);
+    }
+
+    private static void countChars(String text, int entryIndex, SparseIntArray charCounts,
+            SparseIntArray lastEntryOfChar) {
+        for (int i = 0; i < text.length(); i++) {
+            final char c = text.charAt(i);
+            if (lastEntryOfChar.get(c, -1) != entryIndex) {
+                lastEntryOfChar.put(c, entryIndex);
+                charCounts.put(c, charCounts.get(c) + 1);
+            }
+        }
+    }
+
+    private void indexChars(String text, int entryIndex, SparseIntArray charFills,
+            SparseIntArray lastEntryOfChar) {
+        for (int i = 0; i < text.length(); i++) {
+            final char c = text.charAt(i);
+            if (lastEntryOfChar.get(c, -1) != entryIndex) {
+                lastEntryOfChar.put(c, entryIndex);
+                final int fill = charFills.get(c);
+                mEntriesByChar.get(c)[fill] = entryIndex;
+                charFills.put(c, fill + 1);
+            }
+        }
+    }
+}
@@ -78,6 +78,7 @@ import androidx.annotation.VisibleForTesting;
 import androidx.annotation.WorkerThread;
 import androidx.coordinatorlayout.widget.CoordinatorLayout;
 import androidx.core.view.ViewCompat;
+import androidx.recyclerview.widget.DiffUtil;
 import androidx.recyclerview.widget.LinearLayoutManager;
 import androidx.recyclerview.widget.RecyclerView;
 
@@ -150,6 +151,7 @@ import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Collections;
 import java.util.Comparator;
+import java.util.List;
 import java.util.Set;
 
 /**
@@ -1091,6 +1093,10 @@ public class ManageApplications extends InstrumentedFragment
         private AppFilterItem mAppFilter;
         private ArrayList<ApplicationsState.AppEntry> mEntries;
         private ArrayList<ApplicationsState.AppEntry> mOriginalEntries;
+        // Snapshots of the rows of mEntries, to diff them with the next list.
+        private ArrayList<AppListDiffCallback.RowState> mRowStates;
+        // Incremented for every list set, so a diff computed for an outdated list is dropped.
+        private int mListGeneration;
         private boolean mResumed;
         private int mLastSortMode = -1;
         private int mWhichSize = SIZE_TOTAL;
@@ -1416,9 +1422,11 @@ public class ManageApplications extends InstrumentedFragment
                     || filterType == FILTER_APPS_POWER_ALLOWLIST_ALL) {
                 entries = removeDuplicateIgnoringUser(entries);
             }
-            mEntries = entries;
             mOriginalEntries = entries;
-            notifyDataSetChanged();
+            setEntries(entries, this::onRebuildEntriesSet);
+        }
+
+        private void onRebuildEntriesSet() {
             if (getItemCount() == 0) {
                 mLoadingViewController.showEmpty(false /* animate */);
             } else {
@@ -1448,6 +1456,45 @@ public class ManageApplications extends InstrumentedFragment
             mManageApplications.setHasInstant(mState.haveInstantApps());
         }
 
+        /**
+         * Lists {@code entries} and runs {@code onEntriesSet}. Once a list is shown, the rows are
+         * updated from a diff with the previous list, computed in the background.
+         */
+        private void setEntries(ArrayList<AppEntry> entries, Runnable onEntriesSet) {
+            final int generation = ++mListGeneration;
+            final int listType = mManageApplications.mListType;
+            final int whichSize = mWhichSize;
+            final int sortMode = mLastSortMode;
+            final ArrayList<AppListDiffCallback.RowState> oldRowStates = mRowStates;
+            // The header of the locale list comes and goes with the apps, shifting every row.
+            if (mEntries == null || oldRowStates == null || entries == null
+                    || listType == LIST_TYPE_APPS_LOCALE) {
+                mEntries = entries;
+                mRowStates = entries == null ? null : AppListDiffCallback.createRowStates(
+                        entries, listType, whichSize, sortMode);
+                notifyDataSetChanged();
+                onEntriesSet.run();
+                return;
+            }
+
+            ThreadUtils.postOnBackgroundThread(() -> {
+                final ArrayList<AppListDiffCallback.RowState> newRowStates =
+                        AppListDiffCallback.createRowStates(entries, listType, whichSize,
+                                sortMode);
+                final DiffUtil.DiffResult diff = DiffUtil.calculateDiff(
+                        new AppListDiffCallback(oldRowStates, newRowStates));
+                ThreadUtils.postOnMainThread(() -> {
+                    if (generation != mListGeneration) {
+                        return;
+                    }
+                    mEntries = entries;
+                    mRowStates = newRowStates;
+                    diff.dispatchUpdatesTo(this);
+                    onEntriesSet.run();
+                });
+            });
+        }
+
         @VisibleForTesting
         void updateLoading() {
             final boolean appLoaded = mHasReceivedLoadEntries && mSession.getAllApps().size() != 0;
@@ -1615,6 +1662,34 @@ public class ManageApplications extends InstrumentedFragment
             holder.itemView.setOnClickListener(mManageApplications);
         }
 
+        @Override
+        public void onBindViewHolder(ApplicationViewHolder holder, int position,
+                List<Object> payloads) {
+            if (payloads.isEmpty() || getItemViewType(position) == VIEW_TYPE_APP_HEADER) {
+                onBindViewHolder(holder, position);
+                return;
+            }
+            final int applicationPosition =
+                    getApplicationPosition(mManageApplications.mListType, position);
+            if (applicationPosition == RecyclerView.NO_POSITION) {
+                return;
+            }
+            int changes = 0;
+            for (Object payload : payloads) {
+                changes |= (int) payload;
+            }
+            // Only the summary or the switch of the row changed.
+            final ApplicationsState.AppEntry entry = mEntries.get(applicationPosition);
+            synchronized (entry) {
+                if ((changes & AppListDiffCallback.PAYLOAD_SUMMARY) != 0) {
+                    updateSummary(holder, entry);
+                }
+                if ((changes & AppListDiffCallback.PAYLOAD_SWITCH) != 0) {
+                    updateSwitch(holder, entry);
+                }
+            }
+        }
+
         private void updateIcon(ApplicationViewHolder holder, AppEntry entry) {
             final Drawable cachedIcon = AppUtils.getIconFromCache(entry);
             if (cachedIcon != null && entry.mounted) {
@@ -1749,22 +1824,25 @@ public class ManageApplications extends InstrumentedFragment
 
         /**
          * An array filter that constrains the content of the array adapter with a substring.
-         * Item that does not contains the specified substring will be removed from the list.</p>
+         * Item whose label or package name does not contain the specified substring will be
+         * removed from the list.</p>
          */
         private class SearchFilter extends Filter {
+            // Only used on the filter thread, built again when the original entries change.
+            private AppSearchIndex mSearchIndex;
+
             @WorkerThread
             @Override
             protected FilterResults performFiltering(CharSequence query) {
+                final ArrayList<ApplicationsState.AppEntry> originalEntries = mOriginalEntries;
                 final ArrayList<ApplicationsState.AppEntry> matchedEntries;
                 if (TextUtils.isEmpty(query)) {
-                    matchedEntries = mOriginalEntries;
+                    matchedEntries = originalEntries;
                 } else {
-                    matchedEntries = new ArrayList<>();
-                    for (ApplicationsState.AppEntry entry : mOriginalEntries) {
-                        if (entry.label.toLowerCase().contains(query.toString().toLowerCase())) {
-                            matchedEntries.add(entry);
-                        }
+                    if (mSearchIndex == null || !mSearchIndex.isFor(originalEntries)) {
+                        mSearchIndex = new AppSearchIndex(originalEntries);
                     }
+                    matchedEntries = mSearchIndex.search(query);
                 }
                 final FilterResults results = new FilterResults();
                 results.values = matchedEntries;
@@ -1774,8 +1852,7 @@ public class ManageApplications extends InstrumentedFragment
 
             @Override
             protected void publishResults(CharSequence constraint, FilterResults results) {
-                mEntries = (ArrayList<ApplicationsState.AppEntry>) results.values;
-                notifyDataSetChanged();
+                setEntries((ArrayList<ApplicationsState.AppEntry>) results.values, () -> {});
             }
         }
     }
@@ -415,6 +415,33 @@ public abstract class BasePreferenceController extends AbstractPreferenceControl
     public interface UiBlocker {
     }
 
+    /**
+     * Used for {@link BasePreferenceController} to split its state refresh into a background
+     * phase and a main thread phase. {@link #isAvailable()} and {@link #loadState()} are invoked
+     * in parallel with other controllers on a background thread, and the loaded state is then
+     * handed to {@link #applyState(Preference, Object)} on the main thread.
+     *
+     * Controllers that do not implement this interface are refreshed serially on the main
+     * thread through {@link #updateState(Preference)}.
+     *
+     * This must be used in {@link BasePreferenceController}
+     *
+     * @param <T> type of the state loaded in background
+     */
+    public interface BackgroundStateLoader<T> {
+        /**
+         * Loads the state of the preference. Called on a background thread, so it must not touch
+         * any view.
+         */
+        T loadState();
+
+        /**
+         * Applies the state returned by {@link #loadState()} to the preference. Called on the
+         * main thread.
+         */
+        void applyState(Preference preference, T state);
+    }
+
     /**
      * Set the metrics category of the parent fragment.
      *
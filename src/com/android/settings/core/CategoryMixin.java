@@ -80,6 +80,10 @@ public class CategoryMixin implements LifecycleObserver {
             // Skip since all tiles have been refreshed in DashboardFragment.onCreatePreferences().
             Log.d(TAG, "Skip categories update");
             mFirstOnResume = false;
+            if (CategoryManager.get(mContext).isSnapshotPendingValidation()) {
+                // Tiles were loaded from the snapshot, make sure they are still up to date.
+                new SnapshotValidationTask().execute();
+            }
             return;
         }
         updateCategories();
@@ -223,6 +227,26 @@ public class CategoryMixin implements LifecycleObserver {
         }
     }
 
+    private class SnapshotValidationTask extends AsyncTask<Void, Void, Boolean> {
+
+        @Override
+        protected Boolean doInBackground(Void... params) {
+            final CategoryManager categoryManager = CategoryManager.get(mContext);
+            if (!categoryManager.revalidateSnapshot(mContext)) {
+                return false;
+            }
+            categoryManager.updateCategoryFromDenylist(sTileDenylist);
+            return true;
+        }
+
+        @Override
+        protected void onPostExecute(Boolean rescanned) {
+            if (rescanned) {
+                onCategoriesChanged(null /* categories */);
+            }
+        }
+    }
+
     private class PackageReceiver extends BroadcastReceiver {
         @Override
         public void onReceive(Context context, Intent intent) {
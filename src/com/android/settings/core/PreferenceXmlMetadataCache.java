@@ -0,0 +1,86 @@
+/*
+ * Copyright (C) 2022 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.settings.core;
+
+import android.annotation.NonNull;
+import android.annotation.XmlRes;
+import android.content.Context;
+import android.os.Bundle;
+import android.util.LruCache;
+
+import androidx.annotation.VisibleForTesting;
+
+import org.xmlpull.v1.XmlPullParserException;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Caches the metadata parsed by {@link PreferenceXmlParserUtils#extractMetadata}, so building the
+ * search index doesn't parse the same preference xml again for every query.
+ *
+ * Metadata is keyed by package, xml resource, flags and locales, and at most {@link #MAX_SIZE}
+ * entries are kept. Callers get deep copies of the cached bundles and are free to modify them.
+ * Safe to use from several threads at once.
+ */
+public class PreferenceXmlMetadataCache {
+
+    @VisibleForTesting
+    static final int MAX_SIZE = 256;
+
+    private static final LruCache<String, List<Bundle>> sCache = new LruCache<>(MAX_SIZE);
+
+    private PreferenceXmlMetadataCache() {
+    }
+
+    /**
+     * Same as {@link PreferenceXmlParserUtils#extractMetadata(Context, int, int)}, parsing the xml
+     * only if it's not cached yet.
+     */
+    @NonNull
+    public static List<Bundle> extractMetadata(Context context, @XmlRes int xmlResId, int flags)
+            throws IOException, XmlPullParserException {
+        final String key = getKey(context, xmlResId, flags);
+        List<Bundle> metadata = sCache.get(key);
+        if (metadata == null) {
+            metadata = PreferenceXmlParserUtils.extractMetadata(context, xmlResId, flags);
+            sCache.put(key, metadata);
+        }
+        final List<Bundle> copy = new ArrayList<>(metadata.size());
+        for (Bundle bundle : metadata) {
+            copy.add(bundle.deepCopy());
+        }
+        return copy;
+    }
+
+    /** Drop all cached metadata. */
+    @VisibleForTesting
+    public static void clear() {
+        sCache.evictAll();
+    }
+
+    @VisibleForTesting
+    static int size() {
+        return sCache.size();
+    }
+
+    private static String getKey(Context context, @XmlRes int xmlResId, int flags) {
+        return context.getPackageName() + "/" + xmlResId + "/" + flags + "/"
+                + context.getResources().getConfiguration().getLocales().toLanguageTags();
+    }
+}
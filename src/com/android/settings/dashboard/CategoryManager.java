@@ -26,14 +26,15 @@ import android.util.Pair;
 import androidx.annotation.VisibleForTesting;
 
 import com.android.settings.homepage.HighlightableMenu;
-import com.android.settingslib.applications.InterestingConfigChanges;
 import com.android.settingslib.drawer.CategoryKey;
 import com.android.settingslib.drawer.DashboardCategory;
 import com.android.settingslib.drawer.ProviderTile;
 import com.android.settingslib.drawer.Tile;
 import com.android.settingslib.drawer.TileUtils;
+import com.android.settingslib.utils.ThreadUtils;
 
 import java.util.ArrayList;
+import java.util.Collections;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
@@ -46,15 +47,18 @@ public class CategoryManager {
     private static final boolean DEBUG = false;
 
     private static CategoryManager sInstance;
-    private final InterestingConfigChanges mInterestingConfigChanges;
 
-    // Tile cache (key: <packageName, activityName>, value: tile)
-    private final Map<Pair<String, String>, Tile> mTileByComponentCache;
+    // Immutable categories published to readers, replaced as a whole by writers.
+    private volatile Categories mCategories;
+    private boolean mLoaded;
 
-    // Tile cache (key: category key, value: category)
-    private final Map<String, DashboardCategory> mCategoryByKeyMap;
-
-    private List<DashboardCategory> mCategories;
+    private final TileSnapshotStore mSnapshotStore;
+    // Package fingerprint of the snapshot the categories were loaded from, or last saved.
+    private long mSnapshotFingerprint;
+    private boolean mHasSnapshot;
+    // Incremented by every scan, the denylist doesn't change what is saved.
+    private int mLoadGeneration;
+    private volatile boolean mSnapshotPendingValidation;
 
     public static CategoryManager get(Context context) {
         if (sInstance == null) {
@@ -64,28 +68,28 @@ public class CategoryManager {
     }
 
     CategoryManager(Context context) {
-        mTileByComponentCache = new ArrayMap<>();
-        mCategoryByKeyMap = new ArrayMap<>();
-        mInterestingConfigChanges = new InterestingConfigChanges();
-        mInterestingConfigChanges.applyNewConfig(context.getResources());
+        this(context, new TileSnapshotStore(context));
     }
 
-    public synchronized DashboardCategory getTilesByCategory(Context context, String categoryKey) {
-        tryInitCategories(context);
+    @VisibleForTesting
+    CategoryManager(Context context, TileSnapshotStore snapshotStore) {
+        mSnapshotStore = snapshotStore;
+    }
 
-        return mCategoryByKeyMap.get(categoryKey);
+    public DashboardCategory getTilesByCategory(Context context, String categoryKey) {
+        return getOrInitCategories(context).mCategoryByKeyMap.get(categoryKey);
     }
 
-    public synchronized List<DashboardCategory> getCategories(Context context) {
-        tryInitCategories(context);
-        return mCategories;
+    public List<DashboardCategory> getCategories(Context context) {
+        return getOrInitCategories(context).mCategories;
     }
 
+    /**
+     * Rescan all tiles. Readers keep getting the previous categories until the new ones are
+     * published.
+     */
     public synchronized void reloadAllCategories(Context context) {
-        final boolean forceClearCache = mInterestingConfigChanges.applyNewConfig(
-                context.getResources());
-        mCategories = null;
-        tryInitCategories(context, forceClearCache);
+        loadCategories(context, TileSnapshotStore.computeFingerprint(context));
     }
 
     /**
@@ -93,29 +97,93 @@ public class CategoryManager {
      * @param tileDenylist
      */
     public synchronized void updateCategoryFromDenylist(Set<ComponentName> tileDenylist) {
-        if (mCategories == null) {
+        final Categories current = mCategories;
+        if (current == null) {
             Log.w(TAG, "Category is null, skipping denylist update");
             return;
         }
-        for (int i = 0; i < mCategories.size(); i++) {
-            DashboardCategory category = mCategories.get(i);
-            for (int j = 0; j < category.getTilesCount(); j++) {
-                Tile tile = category.getTile(j);
+        // Copy the categories which change, published ones must not be modified.
+        final Map<DashboardCategory, DashboardCategory> replacements = new ArrayMap<>();
+        for (DashboardCategory category : current.mCategoryByKeyMap.values()) {
+            DashboardCategory copy = null;
+            for (int i = 0; i < category.getTilesCount(); i++) {
+                final Tile tile = category.getTile(i);
                 if (tileDenylist.contains(tile.getIntent().getComponent())) {
-                    category.removeTile(j--);
+                    if (copy == null) {
+                        copy = new DashboardCategory(category.key);
+                        for (int j = 0; j < i; j++) {
+                            copy.addTile(category.getTile(j));
+                        }
+                    }
+                } else if (copy != null) {
+                    copy.addTile(tile);
                 }
             }
+            if (copy != null) {
+                replacements.put(category, copy);
+            }
+        }
+        if (replacements.isEmpty()) {
+            return;
+        }
+        final List<DashboardCategory> categories = new ArrayList<>(current.mCategories.size());
+        for (DashboardCategory category : current.mCategories) {
+            categories.add(replacements.getOrDefault(category, category));
+        }
+        final Map<String, DashboardCategory> categoryByKeyMap = new ArrayMap<>();
+        current.mCategoryByKeyMap.forEach((key, category) ->
+                categoryByKeyMap.put(key, replacements.getOrDefault(category, category)));
+        mCategories = new Categories(categories, categoryByKeyMap);
+    }
+
+    /**
+     * Return {@code true} if the categories were loaded from the on-disk snapshot and not
+     * validated against installed packages yet.
+     */
+    public boolean isSnapshotPendingValidation() {
+        return mSnapshotPendingValidation;
+    }
+
+    /**
+     * Validate the categories loaded from the on-disk snapshot, and rescan all tiles if any
+     * package has changed since the snapshot was taken. Must not be called on the main thread.
+     *
+     * @return {@code true} if the categories were rescanned
+     */
+    public boolean revalidateSnapshot(Context context) {
+        final long snapshotFingerprint;
+        synchronized (this) {
+            if (!mSnapshotPendingValidation) {
+                return false;
+            }
+            snapshotFingerprint = mSnapshotFingerprint;
+        }
+        // Query packages outside the lock, so readers aren't blocked.
+        final long fingerprint = TileSnapshotStore.computeFingerprint(context);
+        synchronized (this) {
+            if (!mSnapshotPendingValidation) {
+                // Categories have been rescanned in the meantime.
+                return false;
+            }
+            mSnapshotPendingValidation = false;
+            if (fingerprint == snapshotFingerprint) {
+                return false;
+            }
+            Log.i(TAG, "Tile snapshot is stale, rescanning");
+            loadCategories(context, fingerprint);
+            return true;
         }
     }
 
     /** Return the current tile map */
-    public synchronized Map<ComponentName, Tile> getTileByComponentMap() {
+    public Map<ComponentName, Tile> getTileByComponentMap() {
         final Map<ComponentName, Tile> result = new ArrayMap<>();
-        if (mCategories == null) {
+        final Categories current = mCategories;
+        if (current == null) {
             Log.w(TAG, "Category is null, no tiles");
             return result;
         }
-        mCategories.forEach(category -> {
+        current.mCategories.forEach(category -> {
             for (int i = 0; i < category.getTilesCount(); i++) {
                 final Tile tile = category.getTile(i);
                 result.put(tile.getIntent().getComponent(), tile);
@@ -133,43 +201,149 @@ public class CategoryManager {
         }
     }
 
+    private Categories getOrInitCategories(Context context) {
+        final Categories current = mCategories;
+        if (current != null) {
+            // Fast path, no locking once categories are published.
+            return current;
+        }
+        synchronized (this) {
+            tryInitCategories(context);
+            return mCategories;
+        }
+    }
+
     private synchronized void tryInitCategories(Context context) {
-        // Keep cached tiles by default. The cache is only invalidated when InterestingConfigChange
-        // happens.
-        tryInitCategories(context, false /* forceClearCache */);
+        if (mCategories != null) {
+            return;
+        }
+        if (!mLoaded && tryLoadSnapshot()) {
+            mLoaded = true;
+            onFirstLoaded(context);
+            return;
+        }
+        loadCategories(context, TileSnapshotStore.computeFingerprint(context));
     }
 
-    private synchronized void tryInitCategories(Context context, boolean forceClearCache) {
-        if (mCategories == null) {
-            final boolean firstLoading = mCategoryByKeyMap.isEmpty();
-            if (forceClearCache) {
-                mTileByComponentCache.clear();
+    /**
+     * Scan all tiles and publish them.
+     *
+     * @param fingerprint package fingerprint computed before the scan, so a package change during
+     *                    the scan makes the saved snapshot stale instead of going unnoticed
+     */
+    private synchronized void loadCategories(Context context, long fingerprint) {
+        final boolean firstLoading = !mLoaded;
+        mSnapshotPendingValidation = false;
+        // Tiles are created anew for every load, TileUtils and the compat cleanup below modify
+        // them, and tiles of published categories must not change.
+        // (key: <packageName, activityName>, value: tile)
+        final Map<Pair<String, String>, Tile> tileByComponentCache = new ArrayMap<>();
+        final List<DashboardCategory> categories =
+                TileUtils.getCategories(context, tileByComponentCache);
+        final Map<String, DashboardCategory> categoryByKeyMap = new ArrayMap<>();
+        for (DashboardCategory category : categories) {
+            categoryByKeyMap.put(category.key, category);
+        }
+        backwardCompatCleanupForCategory(tileByComponentCache, categoryByKeyMap);
+        sortCategories(context, categoryByKeyMap);
+        filterDuplicateTiles(categoryByKeyMap);
+        final Categories loaded = new Categories(categories, categoryByKeyMap);
+        mCategories = loaded;
+        mLoaded = true;
+        mLoadGeneration++;
+        if (mHasSnapshot && fingerprint == mSnapshotFingerprint) {
+            // Packages didn't change since the snapshot, neither did the categories.
+            if (DEBUG) {
+                Log.d(TAG, "Categories unchanged, skipping snapshot");
             }
-            mCategoryByKeyMap.clear();
-            mCategories = TileUtils.getCategories(context, mTileByComponentCache);
-            for (DashboardCategory category : mCategories) {
-                mCategoryByKeyMap.put(category.key, category);
+        } else {
+            saveSnapshot(loaded, fingerprint);
+        }
+        if (firstLoading) {
+            onFirstLoaded(context);
+        }
+    }
+
+    private void onFirstLoaded(Context context) {
+        logTiles(context);
+
+        final DashboardCategory homepageCategory = mCategories.mCategoryByKeyMap.get(
+                CategoryKey.CATEGORY_HOMEPAGE);
+        if (homepageCategory == null) {
+            return;
+        }
+        for (Tile tile : homepageCategory.getTiles()) {
+            final String key = tile.getKey(context);
+            if (TextUtils.isEmpty(key)) {
+                Log.w(TAG, "Key hint missing for homepage tile: " + tile.getTitle(context));
+                continue;
             }
-            backwardCompatCleanupForCategory(mTileByComponentCache, mCategoryByKeyMap);
-            sortCategories(context, mCategoryByKeyMap);
-            filterDuplicateTiles(mCategoryByKeyMap);
-            if (firstLoading) {
-                logTiles(context);
-
-                final DashboardCategory homepageCategory = mCategoryByKeyMap.get(
-                        CategoryKey.CATEGORY_HOMEPAGE);
-                if (homepageCategory == null) {
+            HighlightableMenu.addMenuKey(key);
+        }
+    }
+
+    private boolean tryLoadSnapshot() {
+        final TileSnapshotStore.Snapshot snapshot = mSnapshotStore.read();
+        if (snapshot == null) {
+            return false;
+        }
+        final Map<String, DashboardCategory> categoryByKeyMap = new ArrayMap<>();
+        for (DashboardCategory category : snapshot.categories) {
+            categoryByKeyMap.put(category.key, category);
+        }
+        for (DashboardCategory category : snapshot.extraCategories) {
+            categoryByKeyMap.put(category.key, category);
+        }
+        mCategories = new Categories(snapshot.categories, categoryByKeyMap);
+        mSnapshotFingerprint = snapshot.fingerprint;
+        mHasSnapshot = true;
+        mSnapshotPendingValidation = true;
+        Log.d(TAG, "Loaded " + categoryByKeyMap.size() + " categories from snapshot");
+        return true;
+    }
+
+    private void saveSnapshot(Categories categories, long fingerprint) {
+        final int generation = mLoadGeneration;
+        ThreadUtils.postOnBackgroundThread(() -> {
+            final List<DashboardCategory> extraCategories = new ArrayList<>(
+                    categories.mCategoryByKeyMap.values());
+            extraCategories.removeAll(categories.mCategories);
+            final byte[] data;
+            synchronized (this) {
+                if (generation != mLoadGeneration) {
+                    // Categories were rescanned, the newer load saves its own snapshot.
                     return;
                 }
-                for (Tile tile : homepageCategory.getTiles()) {
-                    final String key = tile.getKey(context);
-                    if (TextUtils.isEmpty(key)) {
-                        Log.w(TAG, "Key hint missing for homepage tile: " + tile.getTitle(context));
-                        continue;
-                    }
-                    HighlightableMenu.addMenuKey(key);
+                data = mSnapshotStore.marshall(fingerprint, categories.mCategories,
+                        extraCategories);
+            }
+            // Only hits the disk if the categories or packages changed since the last save.
+            if (data == null || !mSnapshotStore.write(data)) {
+                return;
+            }
+            synchronized (this) {
+                if (generation == mLoadGeneration) {
+                    mSnapshotFingerprint = fingerprint;
+                    mHasSnapshot = true;
                 }
             }
+        });
+    }
+
+    /**
+     * Immutable view of the loaded categories, published atomically to readers. Neither the
+     * categories nor their tiles are modified once published, writers build new ones instead.
+     */
+    private static class Categories {
+        // Categories in the order they were discovered
+        final List<DashboardCategory> mCategories;
+        // key: category key, value: category. May contain categories remapped from old keys.
+        final Map<String, DashboardCategory> mCategoryByKeyMap;
+
+        Categories(List<DashboardCategory> categories,
+                Map<String, DashboardCategory> categoryByKeyMap) {
+            mCategories = Collections.unmodifiableList(categories);
+            mCategoryByKeyMap = Collections.unmodifiableMap(categoryByKeyMap);
         }
     }
 
@@ -0,0 +1,237 @@
+/*
+ * Copyright (C) 2022 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.settings.dashboard;
+
+import android.os.SystemClock;
+import android.text.TextUtils;
+import android.util.Log;
+
+import androidx.annotation.NonNull;
+import androidx.annotation.VisibleForTesting;
+import androidx.preference.Preference;
+import androidx.preference.PreferenceScreen;
+
+import com.android.settings.core.BasePreferenceController;
+import com.android.settingslib.core.AbstractPreferenceController;
+import com.android.settingslib.utils.ThreadUtils;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Refresh the state of {@link BasePreferenceController.BackgroundStateLoader} controllers in two
+ * phases. The compute phase runs {@code isAvailable()} and {@code loadState()} of every controller
+ * in parallel on the shared background pool. The apply phase then pushes the results to the
+ * preferences on the main thread, waiting at most {@link #mBudgetMillis} for all controllers.
+ *
+ * Results that miss the budget are applied later from the main thread, unless the refresh has
+ * been cancelled or superseded by a newer one in the meantime.
+ *
+ * @see BasePreferenceController.BackgroundStateLoader
+ */
+public class ControllerStateRefresher {
+    private static final String TAG = "ControllerStateRefresher";
+    private static final long BUDGET_MILLIS = 50L;
+
+    private final long mBudgetMillis;
+    private int mGeneration;
+
+    public ControllerStateRefresher() {
+        this(BUDGET_MILLIS);
+    }
+
+    public ControllerStateRefresher(long budgetMillis) {
+        mBudgetMillis = budgetMillis;
+    }
+
+    /**
+     * Return {@code true} if {@code controller} opts in to the background compute phase.
+     */
+    public static boolean isBackgroundStateLoader(AbstractPreferenceController controller) {
+        return controller instanceof BasePreferenceController
+                && controller instanceof BasePreferenceController.BackgroundStateLoader;
+    }
+
+    /**
+     * Start the compute phase for {@code controllers}. Controllers which are not
+     * {@link BasePreferenceController.BackgroundStateLoader} are ignored.
+     *
+     * @return pending tasks to hand to {@link #apply(PreferenceScreen, List, boolean)}
+     */
+    public List<ComputeTask> compute(@NonNull List<AbstractPreferenceController> controllers) {
+        // Results of older refreshes which are still deferred must not overwrite the new ones.
+        mGeneration++;
+        final List<ComputeTask> tasks = new ArrayList<>();
+        for (AbstractPreferenceController controller : controllers) {
+            if (!isBackgroundStateLoader(controller)) {
+                continue;
+            }
+            final ComputeTask task = createTask(controller);
+            tasks.add(task);
+            ThreadUtils.postOnBackgroundThread(task);
+        }
+        return tasks;
+    }
+
+    /**
+     * Apply the results of {@code tasks} to {@code screen}. Must be called on the main thread.
+     *
+     * @param updateVisibility whether to also toggle preference visibility from availability
+     */
+    public void apply(PreferenceScreen screen, List<ComputeTask> tasks,
+            boolean updateVisibility) {
+        if (screen == null || tasks.isEmpty()) {
+            return;
+        }
+        final long deadline = SystemClock.elapsedRealtime() + mBudgetMillis;
+        for (ComputeTask task : tasks) {
+            task.awaitResult(Math.max(0L, deadline - SystemClock.elapsedRealtime()));
+            synchronized (task) {
+                if (!task.mDone) {
+                    // Over budget, let the background thread post the result when it's ready.
+                    Log.w(TAG, "Deferred " + task.getControllerName() + ", over budget "
+                            + mBudgetMillis + "ms");
+                    task.mDeferred = () -> {
+                        if (task.mGeneration == mGeneration) {
+                            applyResult(screen, task, updateVisibility);
+                        }
+                    };
+                    continue;
+                }
+            }
+            applyResult(screen, task, updateVisibility);
+        }
+    }
+
+    /**
+     * Drop results of all pending compute tasks which have not been applied yet.
+     */
+    public void cancel() {
+        mGeneration++;
+    }
+
+    @VisibleForTesting
+    ComputeTask createTask(AbstractPreferenceController controller) {
+        return new ComputeTask(controller, mGeneration);
+    }
+
+    @SuppressWarnings("unchecked")
+    private void applyResult(PreferenceScreen screen, ComputeTask task,
+            boolean updateVisibility) {
+        final AbstractPreferenceController controller = task.mController;
+        final String key = controller.getPreferenceKey();
+        if (TextUtils.isEmpty(key)) {
+            Log.d(TAG, String.format("Preference key is %s in Controller %s",
+                    key, task.getControllerName()));
+            return;
+        }
+        final Preference preference = screen.findPreference(key);
+        if (preference == null) {
+            Log.d(TAG, String.format("Cannot find preference with key %s in Controller %s",
+                    key, task.getControllerName()));
+            return;
+        }
+        final long startTime = SystemClock.elapsedRealtime();
+        if (task.mFailed) {
+            // Fall back to the serial path on the main thread.
+            final boolean available = controller.isAvailable();
+            if (available) {
+                controller.updateState(preference);
+            }
+            if (updateVisibility) {
+                preference.setVisible(available);
+            }
+        } else {
+            if (task.mAvailable) {
+                ((BasePreferenceController.BackgroundStateLoader<Object>) controller)
+                        .applyState(preference, task.mState);
+            }
+            if (updateVisibility) {
+                preference.setVisible(task.mAvailable);
+            }
+        }
+        final long elapsed = SystemClock.elapsedRealtime() - startTime;
+        if (elapsed > mBudgetMillis) {
+            Log.w(TAG, task.getControllerName() + " took " + elapsed + "ms on main thread");
+        }
+    }
+
+    /**
+     * Background part of the refresh for a single controller.
+     */
+    public static class ComputeTask implements Runnable {
+        private final AbstractPreferenceController mController;
+        private final int mGeneration;
+        private final CountDownLatch mLatch = new CountDownLatch(1);
+        // Guarded by this
+        private boolean mDone;
+        private Runnable mDeferred;
+        // Written before mLatch counts down
+        private volatile boolean mAvailable;
+        private volatile boolean mFailed;
+        private volatile Object mState;
+
+        ComputeTask(AbstractPreferenceController controller, int generation) {
+            mController = controller;
+            mGeneration = generation;
+        }
+
+        @Override
+        public void run() {
+            try {
+                mAvailable = mController.isAvailable();
+                if (mAvailable) {
+                    mState = ((BasePreferenceController.BackgroundStateLoader<?>) mController)
+                            .loadState();
+                }
+            } catch (RuntimeException e) {
+                Log.w(TAG, "Failed to load state for " + getControllerName(), e);
+                mFailed = true;
+            }
+            final Runnable deferred;
+            synchronized (this) {
+                mDone = true;
+                deferred = mDeferred;
+            }
+            mLatch.countDown();
+            if (deferred != null) {
+                ThreadUtils.postOnMainThread(deferred);
+            }
+        }
+
+        @VisibleForTesting
+        boolean isDone() {
+            synchronized (this) {
+                return mDone;
+            }
+        }
+
+        private void awaitResult(long timeoutMillis) {
+            try {
+                mLatch.await(timeoutMillis, TimeUnit.MILLISECONDS);
+            } catch (InterruptedException e) {
+                Log.w(TAG, "interrupted");
+            }
+        }
+
+        private String getControllerName() {
+            return mController.getClass().getSimpleName();
+        }
+    }
+}
@@ -56,8 +56,6 @@ import java.util.List;
 import java.util.Map;
 import java.util.Objects;
 import java.util.Set;
-import java.util.concurrent.CountDownLatch;
-import java.util.concurrent.TimeUnit;
 
 /**
  * Base fragment for dashboard style UI containing a list of static and dynamic setting items.
@@ -67,7 +65,6 @@ public abstract class DashboardFragment extends SettingsPreferenceFragment
         BasePreferenceController.UiBlockListener {
     public static final String CATEGORY = "category";
     private static final String TAG = "DashboardFragment";
-    private static final long TIMEOUT_MILLIS = 50L;
 
     @VisibleForTesting
     final ArrayMap<String, List<DynamicDataObserver>> mDashboardTilePrefKeys = new ArrayMap<>();
@@ -75,6 +72,8 @@ public abstract class DashboardFragment extends SettingsPreferenceFragment
             new ArrayMap<>();
     private final List<DynamicDataObserver> mRegisteredObservers = new ArrayList<>();
     private final List<AbstractPreferenceController> mControllers = new ArrayList<>();
+    private final ControllerStateRefresher mStateRefresher = new ControllerStateRefresher();
+    private final TileBindingPipeline mTileBindingPipeline = new TileBindingPipeline();
     @VisibleForTesting
     UiBlockerController mBlockerController;
     private DashboardFeatureProvider mDashboardFeatureProvider;
@@ -218,6 +217,7 @@ public abstract class DashboardFragment extends SettingsPreferenceFragment
                         registerDynamicDataObserver(resolver, observer);
                     }
                 });
+        mTileBindingPipeline.resume();
     }
 
     @Override
@@ -247,6 +247,8 @@ public abstract class DashboardFragment extends SettingsPreferenceFragment
     @Override
     public void onStop() {
         super.onStop();
+        mStateRefresher.cancel();
+        mTileBindingPipeline.cancel();
         unregisterDynamicDataObservers(new ArrayList<>(mRegisteredObservers));
         if (mListeningToCategoryChange) {
             final Activity activity = getActivity();
@@ -360,13 +362,21 @@ public abstract class DashboardFragment extends SettingsPreferenceFragment
 
     /**
      * Update state of each preference managed by PreferenceController.
+     *
+     * {@link BasePreferenceController.BackgroundStateLoader} controllers load their state in
+     * parallel in background while the other controllers are updated serially.
      */
     protected void updatePreferenceStates() {
         final PreferenceScreen screen = getPreferenceScreen();
+        final List<ControllerStateRefresher.ComputeTask> tasks =
+                mStateRefresher.compute(getAllPreferenceControllers());
         Collection<List<AbstractPreferenceController>> controllerLists =
                 mPreferenceControllers.values();
         for (List<AbstractPreferenceController> controllerList : controllerLists) {
             for (AbstractPreferenceController controller : controllerList) {
+                if (ControllerStateRefresher.isBackgroundStateLoader(controller)) {
+                    continue;
+                }
                 if (!controller.isAvailable()) {
                     continue;
                 }
@@ -387,6 +397,13 @@ public abstract class DashboardFragment extends SettingsPreferenceFragment
                 controller.updateState(preference);
             }
         }
+        mStateRefresher.apply(screen, tasks, false /* updateVisibility */);
+    }
+
+    private List<AbstractPreferenceController> getAllPreferenceControllers() {
+        final List<AbstractPreferenceController> controllers = new ArrayList<>();
+        mPreferenceControllers.values().forEach(controllers::addAll);
+        return controllers;
     }
 
     /**
@@ -423,8 +440,13 @@ public abstract class DashboardFragment extends SettingsPreferenceFragment
         if (screen == null || mPreferenceControllers == null) {
             return;
         }
+        final List<ControllerStateRefresher.ComputeTask> tasks =
+                mStateRefresher.compute(getAllPreferenceControllers());
         for (List<AbstractPreferenceController> controllerList : mPreferenceControllers.values()) {
             for (AbstractPreferenceController controller : controllerList) {
+                if (ControllerStateRefresher.isBackgroundStateLoader(controller)) {
+                    continue;
+                }
                 final String key = controller.getPreferenceKey();
                 final Preference preference = findPreference(key);
                 if (preference == null) {
@@ -437,6 +459,7 @@ public abstract class DashboardFragment extends SettingsPreferenceFragment
                 preference.setVisible(available);
             }
         }
+        mStateRefresher.apply(screen, tasks, true /* updateVisibility */);
     }
 
     @VisibleForTesting
@@ -530,22 +553,12 @@ public abstract class DashboardFragment extends SettingsPreferenceFragment
             if (preference != null) {
                 screen.removePreference(preference);
             }
+            mTileBindingPipeline.forget(entry.getValue());
             unregisterDynamicDataObservers(entry.getValue());
         }
 
-        // Wait for pending observers to update UI.
-        if (!pendingObservers.isEmpty()) {
-            final CountDownLatch mainLatch = new CountDownLatch(1);
-            new Thread(() -> {
-                pendingObservers.forEach(observer ->
-                        awaitObserverLatch(observer.getCountDownLatch()));
-                mainLatch.countDown();
-            }).start();
-            Log.d(tag, "Start waiting observers");
-            awaitObserverLatch(mainLatch);
-            Log.d(tag, "Stop waiting observers");
-            pendingObservers.forEach(DynamicDataObserver::updateUi);
-        }
+        // Publish pending observers to UI once their data is loaded, without blocking.
+        mTileBindingPipeline.bind(pendingObservers);
     }
 
     @Override
@@ -591,12 +604,4 @@ public abstract class DashboardFragment extends SettingsPreferenceFragment
             resolver.unregisterContentObserver(observer);
         });
     }
-
-    private void awaitObserverLatch(CountDownLatch latch) {
-        try {
-            latch.await(TIMEOUT_MILLIS, TimeUnit.MILLISECONDS);
-        } catch (InterruptedException e) {
-            // Do nothing
-        }
-    }
 }
@@ -0,0 +1,130 @@
+/*
+ * Copyright (C) 2022 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.settings.dashboard;
+
+import android.util.Log;
+
+import androidx.annotation.VisibleForTesting;
+
+import com.android.settingslib.utils.ThreadUtils;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Publish the dynamic data of injected tiles to the UI without blocking the main thread.
+ *
+ * Each {@link DynamicDataObserver} loads its title, summary or switch state on the shared
+ * background pool as soon as it is created. This pipeline waits for all pending observers on a
+ * background thread, then delegates their UI updates to the main thread in one batch so the
+ * preference screen is only touched once.
+ *
+ * Must be used on the main thread.
+ */
+public class TileBindingPipeline {
+    private static final String TAG = "TileBindingPipeline";
+    private static final long TIMEOUT_MILLIS = 50L;
+
+    private final List<DynamicDataObserver> mPendingObservers = new ArrayList<>();
+    private final long mTimeoutMillis;
+    private int mGeneration;
+
+    public TileBindingPipeline() {
+        this(TIMEOUT_MILLIS);
+    }
+
+    @VisibleForTesting
+    TileBindingPipeline(long timeoutMillis) {
+        mTimeoutMillis = timeoutMillis;
+    }
+
+    /**
+     * Queue {@code observers} and publish their data once all of them are loaded or timed out.
+     */
+    public void bind(List<DynamicDataObserver> observers) {
+        if (observers == null || observers.isEmpty()) {
+            return;
+        }
+        mPendingObservers.addAll(observers);
+        schedule(new ArrayList<>(observers));
+    }
+
+    /**
+     * Drop {@code observers} of removed tiles from the pending batch.
+     */
+    public void forget(List<DynamicDataObserver> observers) {
+        if (observers == null || observers.isEmpty()) {
+            return;
+        }
+        mPendingObservers.removeAll(observers);
+    }
+
+    /**
+     * Cancel the batches in flight. The pending observers are kept, and published on
+     * {@link #resume()}.
+     */
+    public void cancel() {
+        mGeneration++;
+    }
+
+    /**
+     * Reschedule the observers which have not been published yet.
+     */
+    public void resume() {
+        if (!mPendingObservers.isEmpty()) {
+            schedule(new ArrayList<>(mPendingObservers));
+        }
+    }
+
+    /**
+     * Return {@code true} if some observers are still waiting to be published.
+     */
+    public boolean hasPendingObservers() {
+        return !mPendingObservers.isEmpty();
+    }
+
+    private void schedule(List<DynamicDataObserver> batch) {
+        final int generation = mGeneration;
+        ThreadUtils.postOnBackgroundThread(() -> {
+            final long deadline = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(
+                    mTimeoutMillis);
+            for (DynamicDataObserver observer : batch) {
+                try {
+                    observer.getCountDownLatch().await(
+                            Math.max(0L, deadline - System.nanoTime()), TimeUnit.NANOSECONDS);
+                } catch (InterruptedException e) {
+                    Log.w(TAG, "interrupted");
+                }
+            }
+            ThreadUtils.postOnMainThread(() -> publish(batch, generation));
+        });
+    }
+
+    private void publish(List<DynamicDataObserver> batch, int generation) {
+        if (generation != mGeneration) {
+            Log.d(TAG, "Drop stale batch of " + batch.size() + " observers");
+            return;
+        }
+        for (DynamicDataObserver observer : batch) {
+            // Skip observers of removed tiles, and observers published by an earlier batch.
+            if (mPendingObservers.remove(observer)) {
+                observer.updateUi();
+            }
+        }
+    }
+}
@@ -0,0 +1,250 @@
+/*
+ * Copyright (C) 2022 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.settings.dashboard;
+
+import android.content.ComponentName;
+import android.content.Context;
+import android.content.Intent;
+import android.content.pm.PackageInfo;
+import android.content.pm.PackageManager;
+import android.content.pm.ResolveInfo;
+import android.os.Build;
+import android.os.Parcel;
+import android.os.UserHandle;
+import android.os.UserManager;
+import android.text.TextUtils;
+import android.util.Log;
+
+import androidx.annotation.Nullable;
+import androidx.annotation.VisibleForTesting;
+
+import com.android.settingslib.drawer.DashboardCategory;
+import com.android.settingslib.drawer.TileUtils;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+
+/**
+ * On-disk snapshot of the resolved {@link DashboardCategory}s, so a cold start can skip tile
+ * discovery when no package has changed since the snapshot was taken.
+ *
+ * The snapshot is keyed by a fingerprint of the installed packages (package names, version
+ * codes and last update times) and of the enabled components tiles are resolved from, and is
+ * dropped on any OS update or format change.
+ */
+public class TileSnapshotStore {
+
+    private static final String TAG = "TileSnapshotStore";
+    private static final String FILE_NAME = "dashboard_tiles.snapshot";
+    @VisibleForTesting
+    static final int VERSION = 1;
+    // Actions tiles are resolved with, see TileUtils#getCategories.
+    private static final String[] TILE_ACTIONS = {
+            "com.android.settings.action.SETTINGS",
+            "com.android.settings.OPERATOR_APPLICATION_SETTING",
+            "com.android.settings.MANUFACTURER_APPLICATION_SETTING",
+            TileUtils.EXTRA_SETTINGS_ACTION,
+            TileUtils.IA_SETTINGS_ACTION,
+    };
+
+    private final File mFile;
+    // Content of the snapshot on disk, so an unchanged snapshot isn't written again.
+    private byte[] mData;
+
+    public TileSnapshotStore(Context context) {
+        this(new File(context.getCacheDir(), FILE_NAME));
+    }
+
+    @VisibleForTesting
+    TileSnapshotStore(File file) {
+        mFile = file;
+    }
+
+    /**
+     * Content of a snapshot.
+     */
+    public static class Snapshot {
+        public final long fingerprint;
+        public final List<DashboardCategory> categories;
+        // Categories only reachable by key, e.g. remapped from old category keys
+        public final List<DashboardCategory> extraCategories;
+
+        Snapshot(long fingerprint, List<DashboardCategory> categories,
+                List<DashboardCategory> extraCategories) {
+            this.fingerprint = fingerprint;
+            this.categories = categories;
+            this.extraCategories = extraCategories;
+        }
+    }
+
+    /**
+     * Read the snapshot, or return {@code null} if it's missing or unusable.
+     */
+    @Nullable
+    public Snapshot read() {
+        if (!mFile.exists()) {
+            return null;
+        }
+        final Parcel parcel = Parcel.obtain();
+        try {
+            final byte[] data = Files.readAllBytes(mFile.toPath());
+            parcel.unmarshall(data, 0, data.length);
+            parcel.setDataPosition(0);
+            if (parcel.readInt() != VERSION
+                    || !TextUtils.equals(parcel.readString(), Build.FINGERPRINT)) {
+                Log.i(TAG, "Snapshot is outdated, dropping it");
+                clear();
+                return null;
+            }
+            final long fingerprint = parcel.readLong();
+            final List<DashboardCategory> categories = readCategories(parcel);
+            final List<DashboardCategory> extraCategories = readCategories(parcel);
+            synchronized (this) {
+                mData = data;
+            }
+            return new Snapshot(fingerprint, categories, extraCategories);
+        } catch (IOException | RuntimeException e) {
+            Log.w(TAG, "Failed to read snapshot", e);
+            clear();
+            return null;
+        } finally {
+            parcel.recycle();
+        }
+    }
+
+    /**
+     * Serialize {@code categories}. Should be called while {@code categories} can't be modified.
+     *
+     * @return the serialized snapshot, or {@code null} if it can't be serialized
+     */
+    @Nullable
+    public byte[] marshall(long fingerprint, List<DashboardCategory> categories,
+            List<DashboardCategory> extraCategories) {
+        final Parcel parcel = Parcel.obtain();
+        try {
+            parcel.writeInt(VERSION);
+            parcel.writeString(Build.FINGERPRINT);
+            parcel.writeLong(fingerprint);
+            writeCategories(parcel, categories);
+            writeCategories(parcel, extraCategories);
+            return parcel.marshall();
+        } catch (RuntimeException e) {
+            Log.w(TAG, "Failed to marshall snapshot", e);
+            return null;
+        } finally {
+            parcel.recycle();
+        }
+    }
+
+    private static List<DashboardCategory> readCategories(Parcel parcel) {
+        final int count = parcel.readInt();
+        final List<DashboardCategory> categories = new ArrayList<>(count);
+        for (int i = 0; i < count; i++) {
+            categories.add(DashboardCategory.CREATOR.createFromParcel(parcel));
+        }
+        return categories;
+    }
+
+    private static void writeCategories(Parcel parcel, List<DashboardCategory> categories) {
+        parcel.writeInt(categories.size());
+        for (DashboardCategory category : categories) {
+            category.writeToParcel(parcel, 0 /* flags */);
+        }
+    }
+
+    /**
+     * Atomically replace the snapshot on disk with {@code data}, unless it's already there.
+     *
+     * @return {@code true} if {@code data} is on disk
+     */
+    public synchronized boolean write(byte[] data) {
+        if (Arrays.equals(data, mData)) {
+            return true;
+        }
+        final File tmpFile = new File(mFile.getPath() + ".tmp");
+        try (FileOutputStream out = new FileOutputStream(tmpFile)) {
+            out.write(data);
+            out.getFD().sync();
+        } catch (IOException e) {
+            Log.w(TAG, "Failed to write snapshot", e);
+            tmpFile.delete();
+            return false;
+        }
+        if (!tmpFile.renameTo(mFile)) {
+            Log.w(TAG, "Failed to rename snapshot");
+            tmpFile.delete();
+            return false;
+        }
+        mData = data;
+        return true;
+    }
+
+    /**
+     * Delete the snapshot.
+     */
+    public synchronized void clear() {
+        mData = null;
+        mFile.delete();
+    }
+
+    /**
+     * Compute the fingerprint of the packages installed for the current user and its profiles.
+     * Involves package manager queries, so must not be called on the main thread.
+     */
+    public static long computeFingerprint(Context context) {
+        final PackageManager pm = context.getPackageManager();
+        final UserManager userManager = context.getSystemService(UserManager.class);
+        long fingerprint = 17;
+        for (UserHandle user : userManager.getUserProfiles()) {
+            final List<PackageInfo> packages =
+                    new ArrayList<>(pm.getInstalledPackagesAsUser(0, user.getIdentifier()));
+            Collections.sort(packages, Comparator.comparing(info -> info.packageName));
+            fingerprint = 31 * fingerprint + user.getIdentifier();
+            for (PackageInfo info : packages) {
+                fingerprint = 31 * fingerprint + info.packageName.hashCode();
+                fingerprint = 31 * fingerprint + info.getLongVersionCode();
+                fingerprint = 31 * fingerprint + info.lastUpdateTime;
+            }
+            // Components can be enabled or disabled without updating their package.
+            for (String action : TILE_ACTIONS) {
+                final Intent intent = new Intent(action);
+                fingerprint = 31 * fingerprint + hashComponents(
+                        pm.queryIntentActivitiesAsUser(intent, 0, user.getIdentifier()));
+                fingerprint = 31 * fingerprint + hashComponents(
+                        pm.queryIntentContentProvidersAsUser(intent, 0, user.getIdentifier()));
+            }
+        }
+        return fingerprint;
+    }
+
+    private static long hashComponents(List<ResolveInfo> resolveInfos) {
+        final List<String> components = new ArrayList<>(resolveInfos.size());
+        for (ResolveInfo info : resolveInfos) {
+            components.add(new ComponentName(info.getComponentInfo().packageName,
+                    info.getComponentInfo().name).flattenToString());
+        }
+        Collections.sort(components);
+        return components.hashCode();
+    }
+}
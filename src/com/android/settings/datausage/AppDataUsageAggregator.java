@@ -0,0 +1,191 @@
+/*
+ * Copyright (C) 2022 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.settings.datausage;
+
+import static android.app.usage.NetworkStats.Bucket.UID_REMOVED;
+import static android.app.usage.NetworkStats.Bucket.UID_TETHERING;
+
+import android.app.usage.NetworkStats;
+import android.os.Process;
+import android.os.UserHandle;
+import android.os.UserManager;
+import android.util.SparseArray;
+import android.util.SparseIntArray;
+import android.util.SparseLongArray;
+
+import androidx.annotation.WorkerThread;
+
+import com.android.settingslib.AppItem;
+import com.android.settingslib.net.UidDetailProvider;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * Collapses the data usage of a {@link NetworkStats} into the sorted {@link AppItem}s shown by
+ * {@link DataUsageList}.
+ *
+ * Usage is added already summed per uid, so the collapse rules only run once for each uid,
+ * however many buckets it has. The users of the uids are looked up once, from a table built
+ * with the profiles of the current user.
+ */
+class AppDataUsageAggregator {
+    // The current user or one of its profiles.
+    private static final int USER_TYPE_PROFILE = 0;
+    private static final int USER_TYPE_OTHER = 1;
+    private static final int USER_TYPE_REMOVED = 2;
+
+    private final UserManager mUserManager;
+    private final int mCurrentUserId;
+    // User type of each user id seen so far.
+    private final SparseIntArray mUserTypes = new SparseIntArray();
+    // Bytes used by each uid, over all of its buckets.
+    private final SparseLongArray mUidTotals = new SparseLongArray();
+
+    /** The sorted items, and the largest usage among them. */
+    static final class Result {
+        final List<AppItem> items;
+        final long largest;
+
+        Result(List<AppItem> items, long largest) {
+            this.items = items;
+            this.largest = largest;
+        }
+    }
+
+    @WorkerThread
+    AppDataUsageAggregator(UserManager userManager, int currentUserId) {
+        mUserManager = userManager;
+        mCurrentUserId = currentUserId;
+        for (UserHandle profile : userManager.getUserProfiles()) {
+            mUserTypes.put(profile.getIdentifier(), USER_TYPE_PROFILE);
+        }
+    }
+
+    /** Add the bytes used by each uid, as summed by {@link DataUsageSummaryCache}. */
+    void addUsage(SparseLongArray uidTotals) {
+        for (int i = 0; i < uidTotals.size(); i++) {
+            addUsage(uidTotals.keyAt(i), uidTotals.valueAt(i));
+        }
+    }
+
+    /** Add {@code bytes} used by {@code uid}. */
+    void addUsage(int uid, long bytes) {
+        mUidTotals.put(uid, mUidTotals.get(uid) + bytes);
+    }
+
+    /** Collapse the usage added so far, and mark the {@code restrictedUids} of the profiles. */
+    @WorkerThread
+    Result build(int[] restrictedUids) {
+        final ArrayList<AppItem> items = new ArrayList<>();
+        final SparseArray<AppItem> knownItems = new SparseArray<>();
+        long largest = 0;
+
+        for (int i = 0; i < mUidTotals.size(); i++) {
+            // Decide how to collapse items together
+            final int uid = mUidTotals.keyAt(i);
+            final long bytes = mUidTotals.valueAt(i);
+            final int collapseKey;
+            final int category;
+            final int userId = UserHandle.getUserId(uid);
+            if (UserHandle.isApp(uid) || Process.isSdkSandboxUid(uid)) {
+                final int userType = getUserType(userId);
+                if (userType == USER_TYPE_PROFILE) {
+                    if (userId != mCurrentUserId) {
+                        // Add to a managed user item.
+                        final int managedKey = UidDetailProvider.buildKeyForUser(userId);
+                        largest = accumulate(managedKey, knownItems, uid, bytes,
+                                AppItem.CATEGORY_USER, items, largest);
+                    }
+                    // Map SDK sandbox back to its corresponding app
+                    if (Process.isSdkSandboxUid(uid)) {
+                        collapseKey = Process.getAppUidForSdkSandboxUid(uid);
+                    } else {
+                        collapseKey = uid;
+                    }
+                    category = AppItem.CATEGORY_APP;
+                } else if (userType == USER_TYPE_REMOVED) {
+                    // If it is a removed user add it to the removed users' key
+                    collapseKey = UID_REMOVED;
+                    category = AppItem.CATEGORY_APP;
+                } else {
+                    // Add to other user item.
+                    collapseKey = UidDetailProvider.buildKeyForUser(userId);
+                    category = AppItem.CATEGORY_USER;
+                }
+            } else if (uid == UID_REMOVED || uid == UID_TETHERING
+                    || uid == Process.OTA_UPDATE_UID) {
+                collapseKey = uid;
+                category = AppItem.CATEGORY_APP;
+            } else {
+                collapseKey = Process.SYSTEM_UID;
+                category = AppItem.CATEGORY_APP;
+            }
+            largest = accumulate(collapseKey, knownItems, uid, bytes, category, items, largest);
+        }
+
+        for (int uid : restrictedUids) {
+            // Only splice in restricted state for current user or managed users
+            if (getUserType(UserHandle.getUserId(uid)) != USER_TYPE_PROFILE) {
+                continue;
+            }
+
+            AppItem item = knownItems.get(uid);
+            if (item == null) {
+                item = new AppItem(uid);
+                item.total = -1;
+                item.addUid(uid);
+                items.add(item);
+                knownItems.put(item.key, item);
+            }
+            item.restricted = true;
+        }
+
+        Collections.sort(items);
+        return new Result(items, largest);
+    }
+
+    private int getUserType(int userId) {
+        final int index = mUserTypes.indexOfKey(userId);
+        if (index >= 0) {
+            return mUserTypes.valueAt(index);
+        }
+        final int userType = mUserManager.getUserInfo(userId) != null
+                ? USER_TYPE_OTHER : USER_TYPE_REMOVED;
+        mUserTypes.put(userId, userType);
+        return userType;
+    }
+
+    /**
+     * Accumulate data usage of a uid for the item mapped by the collapse key.
+     * Creates the item if needed.
+     */
+    private static long accumulate(int collapseKey, SparseArray<AppItem> knownItems, int uid,
+            long bytes, int itemCategory, ArrayList<AppItem> items, long largest) {
+        AppItem item = knownItems.get(collapseKey);
+        if (item == null) {
+            item = new AppItem(collapseKey);
+            item.category = itemCategory;
+            items.add(item);
+            knownItems.put(item.key, item);
+        }
+        item.addUid(uid);
+        item.total += bytes;
+        return Math.max(largest, item.total);
+    }
+}
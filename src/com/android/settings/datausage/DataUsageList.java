@@ -14,31 +14,27 @@
 
 package com.android.settings.datausage;
 
-import static android.app.usage.NetworkStats.Bucket.UID_REMOVED;
-import static android.app.usage.NetworkStats.Bucket.UID_TETHERING;
 import static android.net.NetworkPolicyManager.POLICY_REJECT_METERED_BACKGROUND;
 
 import android.app.Activity;
 import android.app.ActivityManager;
 import android.app.settings.SettingsEnums;
 import android.app.usage.NetworkStats;
-import android.app.usage.NetworkStats.Bucket;
+import android.app.usage.NetworkStatsManager;
 import android.content.Context;
 import android.content.Intent;
-import android.content.pm.UserInfo;
 import android.graphics.Color;
 import android.net.ConnectivityManager;
 import android.net.NetworkPolicy;
 import android.net.NetworkTemplate;
 import android.os.Bundle;
-import android.os.Process;
-import android.os.UserHandle;
 import android.os.UserManager;
 import android.provider.Settings;
 import android.telephony.SubscriptionInfo;
 import android.telephony.SubscriptionManager;
 import android.util.Log;
 import android.util.SparseArray;
+import android.util.SparseLongArray;
 import android.view.View;
 import android.view.View.AccessibilityDelegate;
 import android.view.accessibility.AccessibilityEvent;
@@ -65,11 +61,12 @@ import com.android.settingslib.net.NetworkCycleChartData;
 import com.android.settingslib.net.NetworkCycleChartDataLoader;
 import com.android.settingslib.net.NetworkStatsSummaryLoader;
 import com.android.settingslib.net.UidDetailProvider;
+import com.android.settingslib.utils.ThreadUtils;
 
 import java.util.ArrayList;
-import java.util.Collections;
 import java.util.List;
 import java.util.Objects;
+import java.util.function.Supplier;
 
 /**
  * Panel showing data usage history across various networks, including options
@@ -122,6 +119,12 @@ public class DataUsageList extends DataUsageBaseFragment
     private Preference mUsageAmount;
     private PreferenceGroup mApps;
     private View mHeader;
+    // Incremented whenever stats are bound, so older stats still being aggregated are dropped.
+    private int mStatsGeneration;
+    private final DataUsageSummaryCache mSummaryCache = DataUsageSummaryCache.getInstance();
+    // Cycle being loaded by the summary loader.
+    private long mSummaryStart;
+    private long mSummaryEnd;
 
     @Override
     public int getMetricsCategory() {
@@ -234,6 +237,7 @@ public class DataUsageList extends DataUsageBaseFragment
 
     @Override
     public void onDestroy() {
+        mStatsGeneration++;
         mUidDetailProvider.clearCache();
         mUidDetailProvider = null;
 
@@ -376,9 +380,22 @@ public class DataUsageList extends DataUsageBaseFragment
     private void updateDetailData() {
         if (LOGD) Log.d(TAG, "updateDetailData()");
 
-        // kick off loader for detailed stats
-        getLoaderManager().restartLoader(LOADER_SUMMARY, null /* args */,
-                mNetworkStatsDetailCallbacks);
+        final long start = mChart.getInspectStart();
+        final long end = mChart.getInspectEnd();
+        final SparseLongArray uidTotals = mSummaryCache.get(mTemplate, start, end);
+        if (uidTotals != null) {
+            // The cycle ended or was loaded recently, no need to query it again.
+            getLoaderManager().destroyLoader(LOADER_SUMMARY);
+            bindUsage(() -> uidTotals, services.mPolicyManager.getUidsWithPolicy(
+                    POLICY_REJECT_METERED_BACKGROUND));
+        } else {
+            // kick off loader for detailed stats
+            mSummaryStart = start;
+            mSummaryEnd = end;
+            getLoaderManager().restartLoader(LOADER_SUMMARY, null /* args */,
+                    mNetworkStatsDetailCallbacks);
+        }
+        prefetchAdjacentCycles();
 
         final long totalBytes = mCycleData != null && !mCycleData.isEmpty()
             ? mCycleData.get(mCycleSpinner.getSelectedItemPosition()).getTotalUsage() : 0;
@@ -386,106 +403,115 @@ public class DataUsageList extends DataUsageBaseFragment
         mUsageAmount.setTitle(getString(R.string.data_used_template, totalPhrase));
     }
 
+    /** Load the summaries of the cycles around the selected one, to switch to them quickly. */
+    private void prefetchAdjacentCycles() {
+        if (mCycleData == null) {
+            return;
+        }
+        final NetworkStatsManager networkStatsManager =
+                getContext().getSystemService(NetworkStatsManager.class);
+        final int position = mCycleSpinner.getSelectedItemPosition();
+        for (int i = position - 1; i <= position + 1; i += 2) {
+            if (i >= 0 && i < mCycleData.size()) {
+                final NetworkCycleChartData data = mCycleData.get(i);
+                mSummaryCache.prefetch(networkStatsManager, mTemplate, data.getStartTime(),
+                        data.getEndTime());
+            }
+        }
+    }
+
     /**
      * Bind the given {@link NetworkStats}, or {@code null} to clear list.
+     *
+     * The stats are summed per uid into {@link #mSummaryCache}, then bound like a cached cycle.
      */
     private void bindStats(NetworkStats stats, int[] restrictedUids) {
-        mApps.removeAll();
         if (stats == null) {
             if (LOGD) {
                 Log.d(TAG, "No network stats data. App list cleared.");
             }
+            mStatsGeneration++;
+            mApps.removeAll();
+            updateEmptyVisible();
             return;
         }
 
-        final ArrayList<AppItem> items = new ArrayList<>();
-        long largest = 0;
+        final NetworkTemplate template = mTemplate;
+        final long start = mSummaryStart;
+        final long end = mSummaryEnd;
+        bindUsage(() -> mSummaryCache.put(template, start, end, stats), restrictedUids);
+    }
 
-        final int currentUserId = ActivityManager.getCurrentUser();
+    /**
+     * Bind the bytes used by each uid, as returned by {@code uidTotals}.
+     *
+     * The usage is collapsed into app items on a background thread, then the existing
+     * preferences are updated in place.
+     */
+    private void bindUsage(Supplier<SparseLongArray> uidTotals, int[] restrictedUids) {
+        final int generation = ++mStatsGeneration;
         final UserManager userManager = UserManager.get(getContext());
-        final List<UserHandle> profiles = userManager.getUserProfiles();
-        final SparseArray<AppItem> knownItems = new SparseArray<AppItem>();
-
-        final Bucket bucket = new Bucket();
-        while (stats.hasNextBucket() && stats.getNextBucket(bucket)) {
-            // Decide how to collapse items together
-            final int uid = bucket.getUid();
-            final int collapseKey;
-            final int category;
-            final int userId = UserHandle.getUserId(uid);
-            if (UserHandle.isApp(uid) || Process.isSdkSandboxUid(uid)) {
-                if (profiles.contains(new UserHandle(userId))) {
-                    if (userId != currentUserId) {
-                        // Add to a managed user item.
-                        final int managedKey = UidDetailProvider.buildKeyForUser(userId);
-                        largest = accumulate(managedKey, knownItems, bucket,
-                            AppItem.CATEGORY_USER, items, largest);
-                    }
-                    // Map SDK sandbox back to its corresponding app
-                    if (Process.isSdkSandboxUid(uid)) {
-                        collapseKey = Process.getAppUidForSdkSandboxUid(uid);
-                    } else {
-                        collapseKey = uid;
-                    }
-                    category = AppItem.CATEGORY_APP;
-                } else {
-                    // If it is a removed user add it to the removed users' key
-                    final UserInfo info = userManager.getUserInfo(userId);
-                    if (info == null) {
-                        collapseKey = UID_REMOVED;
-                        category = AppItem.CATEGORY_APP;
-                    } else {
-                        // Add to other user item.
-                        collapseKey = UidDetailProvider.buildKeyForUser(userId);
-                        category = AppItem.CATEGORY_USER;
-                    }
+        final int currentUserId = ActivityManager.getCurrentUser();
+        ThreadUtils.postOnBackgroundThread(() -> {
+            final AppDataUsageAggregator aggregator =
+                    new AppDataUsageAggregator(userManager, currentUserId);
+            aggregator.addUsage(uidTotals.get());
+            final AppDataUsageAggregator.Result result = aggregator.build(restrictedUids);
+            ThreadUtils.postOnMainThread(() -> {
+                // Drop the result if newer stats were bound, or if the fragment is gone.
+                if (generation != mStatsGeneration) {
+                    return;
                 }
-            } else if (uid == UID_REMOVED || uid == UID_TETHERING
-                    || uid == Process.OTA_UPDATE_UID) {
-                collapseKey = uid;
-                category = AppItem.CATEGORY_APP;
-            } else {
-                collapseKey = android.os.Process.SYSTEM_UID;
-                category = AppItem.CATEGORY_APP;
-            }
-            largest = accumulate(collapseKey, knownItems, bucket, category, items, largest);
+                bindApps(result);
+                updateEmptyVisible();
+            });
+        });
+    }
+
+    /**
+     * Reconcile {@link #mApps} with the sorted {@code result}: the preferences of apps still
+     * listed are updated and reordered, the others are removed.
+     */
+    private void bindApps(AppDataUsageAggregator.Result result) {
+        final SparseArray<AppDataUsagePreference> oldPreferences = new SparseArray<>();
+        for (int i = 0; i < mApps.getPreferenceCount(); i++) {
+            final AppDataUsagePreference preference =
+                    (AppDataUsagePreference) mApps.getPreference(i);
+            oldPreferences.put(preference.getItem().key, preference);
         }
-        stats.close();
-
-        final int restrictedUidsMax = restrictedUids.length;
-        for (int i = 0; i < restrictedUidsMax; ++i) {
-            final int uid = restrictedUids[i];
-            // Only splice in restricted state for current user or managed users
-            if (!profiles.contains(new UserHandle(UserHandle.getUserId(uid)))) {
-                continue;
-            }
 
-            AppItem item = knownItems.get(uid);
-            if (item == null) {
-                item = new AppItem(uid);
-                item.total = -1;
-                item.addUid(uid);
-                items.add(item);
-                knownItems.put(item.key, item);
+        final List<AppItem> items = result.items;
+        for (int i = 0; i < items.size(); i++) {
+            final AppItem item = items.get(i);
+            final int percentTotal =
+                    result.largest != 0 ? (int) (item.total * 100 / result.largest) : 0;
+            AppDataUsagePreference preference = oldPreferences.get(item.key);
+            if (preference != null) {
+                oldPreferences.remove(item.key);
+                preference.setItem(item, percentTotal);
+                preference.setOrder(i);
+            } else {
+                preference = new AppDataUsagePreference(getContext(), item, percentTotal,
+                        mUidDetailProvider);
+                preference.setOnPreferenceClickListener(mAppClickListener);
+                preference.setOrder(i);
+                mApps.addPreference(preference);
             }
-            item.restricted = true;
         }
+        for (int i = 0; i < oldPreferences.size(); i++) {
+            mApps.removePreference(oldPreferences.valueAt(i));
+        }
+    }
 
-        Collections.sort(items);
-        for (int i = 0; i < items.size(); i++) {
-            final int percentTotal = largest != 0 ? (int) (items.get(i).total * 100 / largest) : 0;
-            final AppDataUsagePreference preference = new AppDataUsagePreference(getContext(),
-                    items.get(i), percentTotal, mUidDetailProvider);
-            preference.setOnPreferenceClickListener(new Preference.OnPreferenceClickListener() {
-                @Override
-                public boolean onPreferenceClick(Preference preference) {
-                    AppDataUsagePreference pref = (AppDataUsagePreference) preference;
-                    AppItem item = pref.getItem();
-                    startAppDataUsage(item);
-                    return true;
-                }
-            });
-            mApps.addPreference(preference);
+    private void updateEmptyVisible() {
+        if ((mApps.getPreferenceCount() != 0) !=
+                (getPreferenceScreen().getPreferenceCount() != 0)) {
+            if (mApps.getPreferenceCount() != 0) {
+                getPreferenceScreen().addPreference(mUsageAmount);
+                getPreferenceScreen().addPreference(mApps);
+            } else {
+                getPreferenceScreen().removeAll();
+            }
         }
     }
 
@@ -515,29 +541,11 @@ public class DataUsageList extends DataUsageBaseFragment
                 .launch();
     }
 
-    /**
-     * Accumulate data usage of a network stats entry for the item mapped by the collapse key.
-     * Creates the item if needed.
-     *
-     * @param collapseKey  the collapse key used to map the item.
-     * @param knownItems   collection of known (already existing) items.
-     * @param bucket       the network stats bucket to extract data usage from.
-     * @param itemCategory the item is categorized on the list view by this category. Must be
-     */
-    private static long accumulate(int collapseKey, final SparseArray<AppItem> knownItems,
-            Bucket bucket, int itemCategory, ArrayList<AppItem> items, long largest) {
-        final int uid = bucket.getUid();
-        AppItem item = knownItems.get(collapseKey);
-        if (item == null) {
-            item = new AppItem(collapseKey);
-            item.category = itemCategory;
-            items.add(item);
-            knownItems.put(item.key, item);
-        }
-        item.addUid(uid);
-        item.total += bucket.getRxBytes() + bucket.getTxBytes();
-        return Math.max(largest, item.total);
-    }
+    private final Preference.OnPreferenceClickListener mAppClickListener = preference -> {
+        final AppDataUsagePreference pref = (AppDataUsagePreference) preference;
+        startAppDataUsage(pref.getItem());
+        return true;
+    };
 
     private final OnItemSelectedListener mCycleListener = new OnItemSelectedListener() {
         @Override
@@ -582,8 +590,8 @@ public class DataUsageList extends DataUsageBaseFragment
         @Override
         public Loader<NetworkStats> onCreateLoader(int id, Bundle args) {
             return new NetworkStatsSummaryLoader.Builder(getContext())
-                    .setStartTime(mChart.getInspectStart())
-                    .setEndTime(mChart.getInspectEnd())
+                    .setStartTime(mSummaryStart)
+                    .setEndTime(mSummaryEnd)
                     .setNetworkTemplate(mTemplate)
                     .build();
         }
@@ -593,25 +601,12 @@ public class DataUsageList extends DataUsageBaseFragment
             final int[] restrictedUids = services.mPolicyManager.getUidsWithPolicy(
                     POLICY_REJECT_METERED_BACKGROUND);
             bindStats(data, restrictedUids);
-            updateEmptyVisible();
         }
 
         @Override
         public void onLoaderReset(Loader<NetworkStats> loader) {
-            bindStats(null, new int[0]);
-            updateEmptyVisible();
-        }
-
-        private void updateEmptyVisible() {
-            if ((mApps.getPreferenceCount() != 0) !=
-                    (getPreferenceScreen().getPreferenceCount() != 0)) {
-                if (mApps.getPreferenceCount() != 0) {
-                    getPreferenceScreen().addPreference(mUsageAmount);
-                    getPreferenceScreen().addPreference(mApps);
-                } else {
-                    getPreferenceScreen().removeAll();
-                }
-            }
+            // Keep the list, so the next cycle only updates it, but drop the pending stats.
+            mStatsGeneration++;
         }
     };
 }
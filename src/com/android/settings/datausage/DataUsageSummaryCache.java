@@ -0,0 +1,186 @@
+/*
+ * Copyright (C) 2022 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.settings.datausage;
+
+import android.app.usage.NetworkStats;
+import android.app.usage.NetworkStats.Bucket;
+import android.app.usage.NetworkStatsManager;
+import android.net.NetworkTemplate;
+import android.text.format.DateUtils;
+import android.util.ArraySet;
+import android.util.Log;
+import android.util.LruCache;
+import android.util.SparseLongArray;
+
+import androidx.annotation.Nullable;
+import androidx.annotation.VisibleForTesting;
+import androidx.annotation.WorkerThread;
+
+import com.android.settingslib.utils.ThreadUtils;
+
+import java.util.Objects;
+
+/**
+ * Process wide cache of the data usage summaries shown by {@link DataUsageList}, as the bytes used
+ * by each uid, keyed by network template and cycle.
+ *
+ * Summaries of cycles which ended before they were loaded never change, so they are kept until
+ * evicted. The summary of the current cycle is reloaded once it's older than
+ * {@link #CURRENT_CYCLE_TTL_MS}.
+ */
+class DataUsageSummaryCache {
+    private static final String TAG = "DataUsageSummaryCache";
+
+    @VisibleForTesting
+    static final int MAX_SIZE = 12;
+    @VisibleForTesting
+    static final long CURRENT_CYCLE_TTL_MS = DateUtils.MINUTE_IN_MILLIS;
+
+    private static DataUsageSummaryCache sInstance;
+
+    private final LruCache<Key, Entry> mCache = new LruCache<>(MAX_SIZE);
+    // Summaries being prefetched, so they aren't queried twice.
+    private final ArraySet<Key> mPrefetching = new ArraySet<>();
+
+    static synchronized DataUsageSummaryCache getInstance() {
+        if (sInstance == null) {
+            sInstance = new DataUsageSummaryCache();
+        }
+        return sInstance;
+    }
+
+    @VisibleForTesting
+    DataUsageSummaryCache() {
+    }
+
+    /**
+     * Return the bytes used by each uid over the cycle, or null if they aren't cached or are out
+     * of date. The returned array must not be modified.
+     */
+    @Nullable
+    SparseLongArray get(NetworkTemplate template, long start, long end) {
+        return get(template, start, end, System.currentTimeMillis());
+    }
+
+    @VisibleForTesting
+    synchronized SparseLongArray get(NetworkTemplate template, long start, long end, long now) {
+        final Entry entry = mCache.get(new Key(template, start, end));
+        return entry != null && entry.isFresh(now) ? entry.mUidTotals : null;
+    }
+
+    /** Sum the buckets of {@code stats} for each uid, close it, and cache the result. */
+    @WorkerThread
+    SparseLongArray put(NetworkTemplate template, long start, long end, NetworkStats stats) {
+        final SparseLongArray uidTotals = new SparseLongArray();
+        final Bucket bucket = new Bucket();
+        try {
+            while (stats.hasNextBucket() && stats.getNextBucket(bucket)) {
+                final int uid = bucket.getUid();
+                uidTotals.put(uid,
+                        uidTotals.get(uid) + bucket.getRxBytes() + bucket.getTxBytes());
+            }
+        } finally {
+            stats.close();
+        }
+        put(template, start, end, uidTotals, System.currentTimeMillis());
+        return uidTotals;
+    }
+
+    @VisibleForTesting
+    synchronized void put(NetworkTemplate template, long start, long end,
+            SparseLongArray uidTotals, long now) {
+        mCache.put(new Key(template, start, end), new Entry(uidTotals, now, end <= now));
+    }
+
+    /** Load the summary of the cycle in the background, unless it's cached already. */
+    void prefetch(NetworkStatsManager networkStatsManager, NetworkTemplate template, long start,
+            long end) {
+        final Key key = new Key(template, start, end);
+        synchronized (this) {
+            if (get(template, start, end) != null || !mPrefetching.add(key)) {
+                return;
+            }
+        }
+        ThreadUtils.postOnBackgroundThread(() -> {
+            try {
+                final NetworkStats stats =
+                        networkStatsManager.querySummary(template, start, end);
+                if (stats != null) {
+                    put(template, start, end, stats);
+                }
+            } catch (RuntimeException e) {
+                Log.w(TAG, "Failed to prefetch the data usage of " + start + "-" + end, e);
+            } finally {
+                synchronized (this) {
+                    mPrefetching.remove(key);
+                }
+            }
+        });
+    }
+
+    /** Drop all summaries. */
+    synchronized void clear() {
+        mCache.evictAll();
+    }
+
+    private static final class Entry {
+        final SparseLongArray mUidTotals;
+        final long mLoadTime;
+        // Whether the cycle had ended when loaded, in which case it can't change anymore.
+        final boolean mClosed;
+
+        Entry(SparseLongArray uidTotals, long loadTime, boolean closed) {
+            mUidTotals = uidTotals;
+            mLoadTime = loadTime;
+            mClosed = closed;
+        }
+
+        boolean isFresh(long now) {
+            return mClosed || (now >= mLoadTime && now - mLoadTime < CURRENT_CYCLE_TTL_MS);
+        }
+    }
+
+    private static final class Key {
+        final NetworkTemplate mTemplate;
+        final long mStart;
+        final long mEnd;
+
+        Key(NetworkTemplate template, long start, long end) {
+            mTemplate = template;
+            mStart = start;
+            mEnd = end;
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (this == o) {
+                return true;
+            }
+            if (!(o instanceof Key)) {
+                return false;
+            }
+            final Key other = (Key) o;
+            return mStart == other.mStart && mEnd == other.mEnd
+                    && Objects.equals(mTemplate, other.mTemplate);
+        }
+
+        @Override
+        public int hashCode() {
+            return Objects.hash(mTemplate, mStart, mEnd);
+        }
+    }
+}
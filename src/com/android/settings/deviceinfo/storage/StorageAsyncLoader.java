@@ -41,10 +41,14 @@ import android.util.SparseArray;
 
 import com.android.settingslib.applications.StorageStatsSource;
 import com.android.settingslib.utils.AsyncLoaderCompat;
+import com.android.settingslib.utils.ThreadUtils;
 
 import java.io.IOException;
+import java.util.ArrayList;
 import java.util.Collections;
 import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
 
 /**
  * StorageAsyncLoader is a Loader which loads categorized app information and external stats for all
@@ -54,11 +58,12 @@ public class StorageAsyncLoader
         extends AsyncLoaderCompat<SparseArray<StorageAsyncLoader.StorageResult>> {
     private UserManager mUserManager;
     private static final String TAG = "StorageAsyncLoader";
+    // Apps measured by each background query.
+    private static final int APPS_PER_QUERY = 32;
 
     private String mUuid;
     private StorageStatsSource mStatsManager;
     private PackageManager mPackageManager;
-    private ArraySet<String> mSeenPackages;
 
     public StorageAsyncLoader(Context context, UserManager userManager,
             String uuid, StorageStatsSource source, PackageManager pm) {
@@ -75,53 +80,196 @@ public class StorageAsyncLoader
     }
 
     private SparseArray<StorageResult> getStorageResultsForUsers() {
-        mSeenPackages = new ArraySet<>();
-        final SparseArray<StorageResult> results = new SparseArray<>();
         final List<UserInfo> infos = mUserManager.getUsers();
 
         // Sort the users by user id ascending.
         Collections.sort(infos,
                 (userInfo, otherUser) -> Integer.compare(userInfo.id, otherUser.id));
 
+        // Start the queries of all users at once, they are independent.
+        final List<UserQueries> queries = new ArrayList<>(infos.size());
         for (UserInfo info : infos) {
-            final StorageResult result = getAppsAndGamesSize(info.id);
-
-            result.imagesSize = getFilesSize(info.id, MediaStore.Images.Media.EXTERNAL_CONTENT_URI,
-                    null /* queryArgs */);
-            result.videosSize = getFilesSize(info.id, MediaStore.Video.Media.EXTERNAL_CONTENT_URI,
-                    null /* queryArgs */);
-            result.audioSize = getFilesSize(info.id, MediaStore.Audio.Media.EXTERNAL_CONTENT_URI,
-                    null /* queryArgs */);
-
-            final Bundle documentsAndOtherQueryArgs = new Bundle();
-            documentsAndOtherQueryArgs.putString(ContentResolver.QUERY_ARG_SQL_SELECTION,
-                    FileColumns.MEDIA_TYPE + "!=" + FileColumns.MEDIA_TYPE_IMAGE
-                    + " AND " + FileColumns.MEDIA_TYPE + "!=" + FileColumns.MEDIA_TYPE_VIDEO
-                    + " AND " + FileColumns.MEDIA_TYPE + "!=" + FileColumns.MEDIA_TYPE_AUDIO
-                    + " AND " + FileColumns.MIME_TYPE + " IS NOT NULL");
-            result.documentsAndOtherSize = getFilesSize(info.id,
-                    MediaStore.Files.getContentUri(MediaStore.VOLUME_EXTERNAL),
-                    documentsAndOtherQueryArgs);
-
-            final Bundle trashQueryArgs = new Bundle();
-            trashQueryArgs.putInt(MediaStore.QUERY_ARG_MATCH_TRASHED, MediaStore.MATCH_ONLY);
-            result.trashSize = getFilesSize(info.id,
-                    MediaStore.Files.getContentUri(MediaStore.VOLUME_EXTERNAL), trashQueryArgs);
-
-            results.put(info.id, result);
+            queries.add(new UserQueries(info.id));
+        }
+
+        // Merge them in user id order, so the same packages are counted as duplicates.
+        final ArraySet<String> seenPackages = new ArraySet<>();
+        final SparseArray<StorageResult> results = new SparseArray<>();
+        for (UserQueries userQueries : queries) {
+            results.put(userQueries.mUserId, userQueries.getResult(seenPackages));
         }
         return results;
     }
 
-    private long getFilesSize(int userId, Uri uri, Bundle queryArgs) {
-        final Context perUserContext;
+    /** Queries of the sizes of one user, run in parallel. */
+    private final class UserQueries {
+        final int mUserId;
+        final List<Future<AppsSize>> mAppsSizes = new ArrayList<>();
+        final Future<StorageStatsSource.ExternalStorageStats> mExternalStats;
+        final Future<MediaSizes> mMediaSizes;
+        final Future<Long> mTrashSize;
+
+        UserQueries(int userId) {
+            mUserId = userId;
+
+            Log.d(TAG, "Loading apps");
+            final List<ApplicationInfo> applicationInfos =
+                    mPackageManager.getInstalledApplicationsAsUser(0, userId);
+            for (int i = 0, size = applicationInfos.size(); i < size; i += APPS_PER_QUERY) {
+                final List<ApplicationInfo> apps =
+                        applicationInfos.subList(i, Math.min(size, i + APPS_PER_QUERY));
+                mAppsSizes.add(ThreadUtils.postOnBackgroundThread(
+                        () -> getAppsSize(userId, apps)));
+            }
+            mExternalStats = ThreadUtils.postOnBackgroundThread(
+                    () -> getExternalStats(userId));
+            mMediaSizes = ThreadUtils.postOnBackgroundThread(() -> getMediaSizes(userId));
+            mTrashSize = ThreadUtils.postOnBackgroundThread(() -> {
+                final Bundle trashQueryArgs = new Bundle();
+                trashQueryArgs.putInt(MediaStore.QUERY_ARG_MATCH_TRASHED, MediaStore.MATCH_ONLY);
+                return getFilesSize(userId,
+                        MediaStore.Files.getContentUri(MediaStore.VOLUME_EXTERNAL),
+                        trashQueryArgs);
+            });
+        }
+
+        StorageResult getResult(ArraySet<String> seenPackages) {
+            final StorageResult result = new StorageResult();
+            for (Future<AppsSize> future : mAppsSizes) {
+                final AppsSize appsSize = waitFor(future);
+                if (appsSize == null) {
+                    continue;
+                }
+                result.gamesSize += appsSize.mGamesSize;
+                result.allAppsExceptGamesSize += appsSize.mAllAppsExceptGamesSize;
+                // Code bytes may share between different profiles. To know all the duplicate code
+                // size and we can get a reasonable system size in StorageItemPreferenceController.
+                for (int i = 0; i < appsSize.mCount; i++) {
+                    if (!seenPackages.add(appsSize.mPackageNames[i])) {
+                        result.duplicateCodeSize += appsSize.mCodeBytes[i];
+                    }
+                }
+            }
+            result.externalStats = waitFor(mExternalStats);
+
+            final MediaSizes mediaSizes = waitFor(mMediaSizes);
+            if (mediaSizes != null) {
+                result.imagesSize = mediaSizes.mImagesSize;
+                result.videosSize = mediaSizes.mVideosSize;
+                result.audioSize = mediaSizes.mAudioSize;
+                result.documentsAndOtherSize = mediaSizes.mDocumentsAndOtherSize;
+            }
+            final Long trashSize = waitFor(mTrashSize);
+            result.trashSize = trashSize != null ? trashSize : 0L;
+            Log.d(TAG, "Obtaining result completed");
+            return result;
+        }
+    }
+
+    private static <T> T waitFor(Future<T> future) {
         try {
-            perUserContext = getContext().createPackageContextAsUser(
+            return future.get();
+        } catch (ExecutionException e) {
+            // Expected failures are handled by the queries, rethrow the others.
+            final Throwable cause = e.getCause();
+            if (cause instanceof RuntimeException) {
+                throw (RuntimeException) cause;
+            } else if (cause instanceof Error) {
+                throw (Error) cause;
+            }
+            throw new IllegalStateException(cause);
+        } catch (InterruptedException e) {
+            Log.w(TAG, "Interrupted while loading storage sizes", e);
+            Thread.currentThread().interrupt();
+            return null;
+        }
+    }
+
+    /**
+     * Sums the sizes of images, videos, audio and other files with a single query grouped by
+     * media type. Falls back to a query per media type if the provider doesn't group.
+     */
+    private MediaSizes getMediaSizes(int userId) {
+        final Context perUserContext = getPerUserContext(userId);
+        if (perUserContext == null) {
+            return new MediaSizes();
+        }
+
+        final Bundle queryArgs = new Bundle();
+        // Other files are only counted if they have a MIME type, like in the query per type.
+        queryArgs.putString(ContentResolver.QUERY_ARG_SQL_SELECTION,
+                FileColumns.MEDIA_TYPE + " IN (" + FileColumns.MEDIA_TYPE_IMAGE
+                + "," + FileColumns.MEDIA_TYPE_VIDEO + "," + FileColumns.MEDIA_TYPE_AUDIO
+                + ") OR " + FileColumns.MIME_TYPE + " IS NOT NULL");
+        queryArgs.putString(ContentResolver.QUERY_ARG_SQL_GROUP_BY, FileColumns.MEDIA_TYPE);
+        try (Cursor cursor = perUserContext.getContentResolver().query(
+                MediaStore.Files.getContentUri(MediaStore.VOLUME_EXTERNAL),
+                new String[] {FileColumns.MEDIA_TYPE, "sum(" + MediaColumns.SIZE + ")"},
+                queryArgs,
+                null /* cancellationSignal */)) {
+            if (cursor != null) {
+                final MediaSizes sizes = new MediaSizes();
+                while (cursor.moveToNext()) {
+                    final long size = cursor.getLong(1);
+                    switch (cursor.getInt(0)) {
+                        case FileColumns.MEDIA_TYPE_IMAGE:
+                            sizes.mImagesSize += size;
+                            break;
+                        case FileColumns.MEDIA_TYPE_VIDEO:
+                            sizes.mVideosSize += size;
+                            break;
+                        case FileColumns.MEDIA_TYPE_AUDIO:
+                            sizes.mAudioSize += size;
+                            break;
+                        default:
+                            sizes.mDocumentsAndOtherSize += size;
+                            break;
+                    }
+                }
+                return sizes;
+            }
+        } catch (IllegalArgumentException e) {
+            Log.w(TAG, "Grouped media query not supported", e);
+        }
+        return getMediaSizesByType(userId);
+    }
+
+    private MediaSizes getMediaSizesByType(int userId) {
+        final MediaSizes sizes = new MediaSizes();
+        sizes.mImagesSize = getFilesSize(userId, MediaStore.Images.Media.EXTERNAL_CONTENT_URI,
+                null /* queryArgs */);
+        sizes.mVideosSize = getFilesSize(userId, MediaStore.Video.Media.EXTERNAL_CONTENT_URI,
+                null /* queryArgs */);
+        sizes.mAudioSize = getFilesSize(userId, MediaStore.Audio.Media.EXTERNAL_CONTENT_URI,
+                null /* queryArgs */);
+
+        final Bundle documentsAndOtherQueryArgs = new Bundle();
+        documentsAndOtherQueryArgs.putString(ContentResolver.QUERY_ARG_SQL_SELECTION,
+                FileColumns.MEDIA_TYPE + "!=" + FileColumns.MEDIA_TYPE_IMAGE
+                + " AND " + FileColumns.MEDIA_TYPE + "!=" + FileColumns.MEDIA_TYPE_VIDEO
+                + " AND " + FileColumns.MEDIA_TYPE + "!=" + FileColumns.MEDIA_TYPE_AUDIO
+                + " AND " + FileColumns.MIME_TYPE + " IS NOT NULL");
+        sizes.mDocumentsAndOtherSize = getFilesSize(userId,
+                MediaStore.Files.getContentUri(MediaStore.VOLUME_EXTERNAL),
+                documentsAndOtherQueryArgs);
+        return sizes;
+    }
+
+    private Context getPerUserContext(int userId) {
+        try {
+            return getContext().createPackageContextAsUser(
                 getContext().getApplicationContext().getPackageName(),
                 0 /* flags= */,
                 UserHandle.of(userId));
         } catch (NameNotFoundException e) {
             Log.e(TAG, "Not able to get Context for user ID " + userId);
+            return null;
+        }
+    }
+
+    private long getFilesSize(int userId, Uri uri, Bundle queryArgs) {
+        final Context perUserContext = getPerUserContext(userId);
+        if (perUserContext == null) {
             return 0L;
         }
 
@@ -137,11 +285,8 @@ public class StorageAsyncLoader
         }
     }
 
-    private StorageResult getAppsAndGamesSize(int userId) {
-        Log.d(TAG, "Loading apps");
-        final List<ApplicationInfo> applicationInfos =
-                mPackageManager.getInstalledApplicationsAsUser(0, userId);
-        final StorageResult result = new StorageResult();
+    private AppsSize getAppsSize(int userId, List<ApplicationInfo> applicationInfos) {
+        final AppsSize result = new AppsSize(applicationInfos.size());
         final UserHandle myUser = UserHandle.of(userId);
         for (int i = 0, size = applicationInfos.size(); i < size; i++) {
             final ApplicationInfo app = applicationInfos.get(i);
@@ -167,43 +312,64 @@ public class StorageAsyncLoader
                 blamedSize = blamedSize - cacheBytes + cacheQuota;
             }
 
-            // Code bytes may share between different profiles. To know all the duplicate code size
-            // and we can get a reasonable system size in StorageItemPreferenceController.
-            if (mSeenPackages.contains(app.packageName)) {
-                result.duplicateCodeSize += stats.getCodeBytes();
-            } else {
-                mSeenPackages.add(app.packageName);
-            }
+            // Duplicates across profiles are counted when merging the users.
+            result.mPackageNames[result.mCount] = app.packageName;
+            result.mCodeBytes[result.mCount] = stats.getCodeBytes();
+            result.mCount++;
 
             switch (app.category) {
                 case CATEGORY_GAME:
-                    result.gamesSize += blamedSize;
+                    result.mGamesSize += blamedSize;
                     break;
                 case CATEGORY_AUDIO:
                 case CATEGORY_VIDEO:
                 case CATEGORY_IMAGE:
-                    result.allAppsExceptGamesSize += blamedSize;
+                    result.mAllAppsExceptGamesSize += blamedSize;
                     break;
                 default:
                     // The deprecated game flag does not set the category.
                     if ((app.flags & ApplicationInfo.FLAG_IS_GAME) != 0) {
-                        result.gamesSize += blamedSize;
+                        result.mGamesSize += blamedSize;
                         break;
                     }
-                    result.allAppsExceptGamesSize += blamedSize;
+                    result.mAllAppsExceptGamesSize += blamedSize;
                     break;
             }
         }
+        return result;
+    }
 
+    private StorageStatsSource.ExternalStorageStats getExternalStats(int userId) {
         Log.d(TAG, "Loading external stats");
         try {
-            result.externalStats = mStatsManager.getExternalStorageStats(mUuid,
-                    UserHandle.of(userId));
+            return mStatsManager.getExternalStorageStats(mUuid, UserHandle.of(userId));
         } catch (IOException e) {
             Log.w(TAG, e);
+            return null;
         }
-        Log.d(TAG, "Obtaining result completed");
-        return result;
+    }
+
+    /** Sizes of a part of the apps of a user. */
+    private static final class AppsSize {
+        long mGamesSize;
+        long mAllAppsExceptGamesSize;
+        // Apps which were measured, in the order they were listed.
+        final String[] mPackageNames;
+        final long[] mCodeBytes;
+        int mCount;
+
+        AppsSize(int capacity) {
+            mPackageNames = new String[capacity];
+            mCodeBytes = new long[capacity];
+        }
+    }
+
+    /** Sizes of the media files of a user. */
+    private static final class MediaSizes {
+        long mImagesSize;
+        long mVideosSize;
+        long mAudioSize;
+        long mDocumentsAndOtherSize;
     }
 
     @Override
@@ -0,0 +1,253 @@
+/*
+ * Copyright (C) 2022 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.settings.fuelgauge;
+
+import android.os.BatteryStats.HistoryItem;
+
+import com.android.internal.os.BatteryStatsHistoryIterator;
+import com.android.settings.fuelgauge.BatteryInfo.BatteryDataParser;
+
+import java.util.Arrays;
+
+/**
+ * Reads the battery history in a single pass and replays it to {@link BatteryDataParser}s.
+ *
+ * The wall clock bounds of the history are only known once all of it is read, so records are
+ * buffered in primitive arrays, keeping the time correction metadata (cmd, time and currentTime)
+ * and the fields parsers read (batteryLevel, states and states2). Runs of data points which don't
+ * change any of them are collapsed into their first and last record, which keeps the timeline
+ * of every parser the same.
+ */
+final class BatteryHistoryStream {
+    private static final int INITIAL_CAPACITY = 256;
+
+    private long[] mTimes = new long[INITIAL_CAPACITY];
+    private long[] mCurrentTimes = new long[INITIAL_CAPACITY];
+    private byte[] mCmds = new byte[INITIAL_CAPACITY];
+    private byte[] mBatteryLevels = new byte[INITIAL_CAPACITY];
+    private int[] mStates = new int[INITIAL_CAPACITY];
+    private int[] mStates2 = new int[INITIAL_CAPACITY];
+    private int mSize;
+
+    private long mHistoryStart;
+    private long mStartWalltime;
+    private long mEndWalltime;
+    private long mLastRealtime;
+    // Number of records to replay, up to the last data point.
+    private int mReplaySize;
+
+    private BatteryHistoryStream() {
+    }
+
+    /** Read all records of {@code iterator}. */
+    static BatteryHistoryStream read(BatteryStatsHistoryIterator iterator) {
+        final BatteryHistoryStream stream = new BatteryHistoryStream();
+        long historyEnd = 0;
+        long lastWallTime = 0;
+        boolean first = true;
+        final HistoryItem rec = new HistoryItem();
+        while (iterator.next(rec)) {
+            if (first) {
+                first = false;
+                stream.mHistoryStart = rec.time;
+            }
+            if (rec.cmd == HistoryItem.CMD_CURRENT_TIME
+                    || rec.cmd == HistoryItem.CMD_RESET) {
+                // If there is a ridiculously large jump in time, then we won't be
+                // able to create a good chart with that data, so just ignore the
+                // times we got before and pretend like our data extends back from
+                // the time we have now.
+                // Also, if we are getting a time change and we are less than 5 minutes
+                // since the start of the history real time, then also use this new
+                // time to compute the base time, since whatever time we had before is
+                // pretty much just noise.
+                if (rec.currentTime > (lastWallTime + (180 * 24 * 60 * 60 * 1000L))
+                        || rec.time < (stream.mHistoryStart + (5 * 60 * 1000L))) {
+                    stream.mStartWalltime = 0;
+                }
+                lastWallTime = rec.currentTime;
+                stream.mLastRealtime = rec.time;
+                if (stream.mStartWalltime == 0) {
+                    stream.mStartWalltime =
+                            lastWallTime - (stream.mLastRealtime - stream.mHistoryStart);
+                }
+            }
+            stream.append(rec);
+            if (rec.isDeltaData()) {
+                stream.mReplaySize = stream.mSize;
+                historyEnd = rec.time;
+            }
+        }
+        stream.mEndWalltime = lastWallTime + historyEnd - stream.mLastRealtime;
+        return stream;
+    }
+
+    /** Return the number of buffered records. */
+    int size() {
+        return mSize;
+    }
+
+    /** Replay the buffered records to {@code parsers}. */
+    void replay(BatteryDataParser... parsers) {
+        for (BatteryDataParser parser : parsers) {
+            parser.onParsingStarted(mStartWalltime, mEndWalltime);
+        }
+
+        if (mEndWalltime > mStartWalltime) {
+            final ParserState[] states = new ParserState[parsers.length];
+            for (int j = 0; j < parsers.length; j++) {
+                states[j] = new ParserState(parsers[j], mStartWalltime, mEndWalltime);
+            }
+            final HistoryItem rec = new HistoryItem();
+            long curWalltime = 0;
+            long lastRealtime = mLastRealtime;
+            for (int i = 0; i < mReplaySize; i++) {
+                if (mCmds[i] == HistoryItem.CMD_UPDATE) {
+                    curWalltime += mTimes[i] - lastRealtime;
+                    lastRealtime = mTimes[i];
+                    final long x = Math.max(0, curWalltime - mStartWalltime);
+                    for (ParserState state : states) {
+                        state.onDataPoint(x, i, rec);
+                    }
+                } else {
+                    final long lastWalltime = curWalltime;
+                    if (mCmds[i] == HistoryItem.CMD_CURRENT_TIME
+                            || mCmds[i] == HistoryItem.CMD_RESET) {
+                        if (mCurrentTimes[i] >= mStartWalltime) {
+                            curWalltime = mCurrentTimes[i];
+                        } else {
+                            curWalltime = mStartWalltime + (mTimes[i] - mHistoryStart);
+                        }
+                        lastRealtime = mTimes[i];
+                    }
+
+                    if (mCmds[i] != HistoryItem.CMD_OVERFLOW
+                            && (mCmds[i] != HistoryItem.CMD_CURRENT_TIME
+                            || Math.abs(lastWalltime - curWalltime) > (60 * 60 * 1000))) {
+                        for (ParserState state : states) {
+                            state.onDataGap(rec);
+                        }
+                    }
+                }
+            }
+            for (ParserState state : states) {
+                state.flush(rec);
+            }
+        }
+
+        for (BatteryDataParser parser : parsers) {
+            parser.onParsingDone();
+        }
+    }
+
+    private void append(HistoryItem rec) {
+        // Collapses a run of identical data points into its first and last record, by
+        // overwriting the last record while the run goes on.
+        if (rec.isDeltaData() && mSize >= 2
+                && isSameDataPoint(mSize - 1, rec) && isSameDataPoint(mSize - 2, rec)) {
+            mTimes[mSize - 1] = rec.time;
+            return;
+        }
+        if (mSize == mTimes.length) {
+            final int capacity = mSize * 2;
+            mTimes = Arrays.copyOf(mTimes, capacity);
+            mCurrentTimes = Arrays.copyOf(mCurrentTimes, capacity);
+            mCmds = Arrays.copyOf(mCmds, capacity);
+            mBatteryLevels = Arrays.copyOf(mBatteryLevels, capacity);
+            mStates = Arrays.copyOf(mStates, capacity);
+            mStates2 = Arrays.copyOf(mStates2, capacity);
+        }
+        mTimes[mSize] = rec.time;
+        mCurrentTimes[mSize] = rec.currentTime;
+        mCmds[mSize] = rec.cmd;
+        mBatteryLevels[mSize] = rec.batteryLevel;
+        mStates[mSize] = rec.states;
+        mStates2[mSize] = rec.states2;
+        mSize++;
+    }
+
+    private boolean isSameDataPoint(int index, HistoryItem rec) {
+        return mCmds[index] == rec.cmd
+                && mCurrentTimes[index] == rec.currentTime
+                && mBatteryLevels[index] == rec.batteryLevel
+                && mStates[index] == rec.states
+                && mStates2[index] == rec.states2;
+    }
+
+    private void fill(int index, HistoryItem rec) {
+        rec.cmd = mCmds[index];
+        rec.time = mTimes[index];
+        rec.currentTime = mCurrentTimes[index];
+        rec.batteryLevel = mBatteryLevels[index];
+        rec.states = mStates[index];
+        rec.states2 = mStates2[index];
+    }
+
+    /** Delivers records to a parser, down-sampling its data points if it asked for it. */
+    private final class ParserState {
+        private final BatteryDataParser mParser;
+        private final boolean mWantsDataPoints;
+        private final boolean mWantsDataGaps;
+        private final long mSamplingInterval;
+        private long mLastBucket = -1;
+        // Last data point of the current bucket, delivered once the bucket is over.
+        private int mPendingIndex = -1;
+        private long mPendingX;
+
+        ParserState(BatteryDataParser parser, long startTime, long endTime) {
+            mParser = parser;
+            final int records = parser.getSubscribedRecords();
+            mWantsDataPoints = (records & BatteryDataParser.RECORD_DATA_POINT) != 0;
+            mWantsDataGaps = (records & BatteryDataParser.RECORD_DATA_GAP) != 0;
+            mSamplingInterval = parser.getSamplingInterval(startTime, endTime);
+        }
+
+        void onDataPoint(long x, int index, HistoryItem rec) {
+            if (!mWantsDataPoints) {
+                return;
+            }
+            if (mSamplingInterval > 0) {
+                final long bucket = x / mSamplingInterval;
+                if (bucket == mLastBucket) {
+                    mPendingIndex = index;
+                    mPendingX = x;
+                    return;
+                }
+                flush(rec);
+                mLastBucket = bucket;
+            }
+            fill(index, rec);
+            mParser.onDataPoint(x, rec);
+        }
+
+        void onDataGap(HistoryItem rec) {
+            flush(rec);
+            mLastBucket = -1;
+            if (mWantsDataGaps) {
+                mParser.onDataGap();
+            }
+        }
+
+        void flush(HistoryItem rec) {
+            if (mPendingIndex >= 0) {
+                fill(mPendingIndex, rec);
+                mParser.onDataPoint(mPendingX, rec);
+                mPendingIndex = -1;
+            }
+        }
+    }
+}
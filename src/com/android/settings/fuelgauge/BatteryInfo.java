@@ -32,7 +32,6 @@ import androidx.annotation.NonNull;
 import androidx.annotation.Nullable;
 import androidx.annotation.WorkerThread;
 
-import com.android.internal.os.BatteryStatsHistoryIterator;
 import com.android.settings.Utils;
 import com.android.settings.overlay.FeatureFactory;
 import com.android.settings.widget.UsageView;
@@ -89,6 +88,15 @@ public class BatteryInfo {
                 points.put(lastTime, lastLevel);
             }
 
+            @Override
+            public long getSamplingInterval(long startTime, long endTime) {
+                // No need for more data points than pixels of the chart.
+                final int width = view.getWidth() > 0
+                        ? view.getWidth()
+                        : context.getResources().getDisplayMetrics().widthPixels;
+                return width > 0 ? (endTime - startTime) / width : 0;
+            }
+
             @Override
             public void onDataGap() {
                 if (points.size() > 1) {
@@ -333,13 +341,35 @@ public class BatteryInfo {
     }
 
     public interface BatteryDataParser {
+        /** Records of the history, see {@link #getSubscribedRecords()}. */
+        int RECORD_DATA_POINT = 1;
+        int RECORD_DATA_GAP = 1 << 1;
+        int RECORD_ALL = RECORD_DATA_POINT | RECORD_DATA_GAP;
+
         void onParsingStarted(long startTime, long endTime);
 
+        /**
+         * Called for each data point. Only the cmd, time, currentTime, batteryLevel, states and
+         * states2 fields of {@code record} are set, and it's reused for the next data point.
+         */
         void onDataPoint(long time, HistoryItem record);
 
         void onDataGap();
 
         void onParsingDone();
+
+        /** Return the records the parser is interested in, RECORD_* flags. */
+        default int getSubscribedRecords() {
+            return RECORD_ALL;
+        }
+
+        /**
+         * Return the interval data points are down-sampled to, keeping the first and last data
+         * point of each interval, or 0 to get all of them.
+         */
+        default long getSamplingInterval(long startTime, long endTime) {
+            return 0;
+        }
     }
 
     /**
@@ -347,100 +377,7 @@ public class BatteryInfo {
      * was initialized with.
      */
     public void parseBatteryHistory(BatteryDataParser... parsers) {
-        long startWalltime = 0;
-        long endWalltime = 0;
-        long historyStart = 0;
-        long historyEnd = 0;
-        long curWalltime = startWalltime;
-        long lastWallTime = 0;
-        long lastRealtime = 0;
-        int lastInteresting = 0;
-        int pos = 0;
-        boolean first = true;
-        final BatteryStatsHistoryIterator iterator1 =
-                mBatteryUsageStats.iterateBatteryStatsHistory();
-        final HistoryItem rec = new HistoryItem();
-        while (iterator1.next(rec)) {
-            pos++;
-            if (first) {
-                first = false;
-                historyStart = rec.time;
-            }
-            if (rec.cmd == HistoryItem.CMD_CURRENT_TIME
-                    || rec.cmd == HistoryItem.CMD_RESET) {
-                // If there is a ridiculously large jump in time, then we won't be
-                // able to create a good chart with that data, so just ignore the
-                // times we got before and pretend like our data extends back from
-                // the time we have now.
-                // Also, if we are getting a time change and we are less than 5 minutes
-                // since the start of the history real time, then also use this new
-                // time to compute the base time, since whatever time we had before is
-                // pretty much just noise.
-                if (rec.currentTime > (lastWallTime + (180 * 24 * 60 * 60 * 1000L))
-                        || rec.time < (historyStart + (5 * 60 * 1000L))) {
-                    startWalltime = 0;
-                }
-                lastWallTime = rec.currentTime;
-                lastRealtime = rec.time;
-                if (startWalltime == 0) {
-                    startWalltime = lastWallTime - (lastRealtime - historyStart);
-                }
-            }
-            if (rec.isDeltaData()) {
-                lastInteresting = pos;
-                historyEnd = rec.time;
-            }
-        }
-
-        endWalltime = lastWallTime + historyEnd - lastRealtime;
-
-        int i = 0;
-        final int N = lastInteresting;
-
-        for (int j = 0; j < parsers.length; j++) {
-            parsers[j].onParsingStarted(startWalltime, endWalltime);
-        }
-
-        if (endWalltime > startWalltime) {
-            final BatteryStatsHistoryIterator iterator2 =
-                    mBatteryUsageStats.iterateBatteryStatsHistory();
-            while (iterator2.next(rec) && i < N) {
-                if (rec.isDeltaData()) {
-                    curWalltime += rec.time - lastRealtime;
-                    lastRealtime = rec.time;
-                    long x = (curWalltime - startWalltime);
-                    if (x < 0) {
-                        x = 0;
-                    }
-                    for (int j = 0; j < parsers.length; j++) {
-                        parsers[j].onDataPoint(x, rec);
-                    }
-                } else {
-                    long lastWalltime = curWalltime;
-                    if (rec.cmd == HistoryItem.CMD_CURRENT_TIME
-                            || rec.cmd == HistoryItem.CMD_RESET) {
-                        if (rec.currentTime >= startWalltime) {
-                            curWalltime = rec.currentTime;
-                        } else {
-                            curWalltime = startWalltime + (rec.time - historyStart);
-                        }
-                        lastRealtime = rec.time;
-                    }
-
-                    if (rec.cmd != HistoryItem.CMD_OVERFLOW
-                            && (rec.cmd != HistoryItem.CMD_CURRENT_TIME
-                            || Math.abs(lastWalltime - curWalltime) > (60 * 60 * 1000))) {
-                        for (int j = 0; j < parsers.length; j++) {
-                            parsers[j].onDataGap();
-                        }
-                    }
-                }
-                i++;
-            }
-        }
-
-        for (int j = 0; j < parsers.length; j++) {
-            parsers[j].onParsingDone();
-        }
+        BatteryHistoryStream.read(mBatteryUsageStats.iterateBatteryStatsHistory())
+                .replay(parsers);
     }
 }
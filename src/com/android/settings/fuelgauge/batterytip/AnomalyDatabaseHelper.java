@@ -33,7 +33,9 @@ public class AnomalyDatabaseHelper extends SQLiteOpenHelper {
     private static final String TAG = "BatteryDatabaseHelper";
 
     private static final String DATABASE_NAME = "battery_settings.db";
-    private static final int DATABASE_VERSION = 5;
+    private static final int DATABASE_VERSION = 6;
+    // Last version without the anomaly indexes, they are added to it without dropping its data.
+    private static final int DATABASE_VERSION_WITHOUT_INDEXES = 5;
 
     @Retention(RetentionPolicy.SOURCE)
     @IntDef({State.NEW,
@@ -99,6 +101,22 @@ public class AnomalyDatabaseHelper extends SQLiteOpenHelper {
                     + ")";
 
 
+    /**
+     * Covers the anomaly query by state and time, so it's answered from the index alone.
+     */
+    private static final String CREATE_ANOMALY_STATE_TIME_INDEX =
+            "CREATE INDEX IF NOT EXISTS anomaly_state_time_index ON " + Tables.TABLE_ANOMALY
+                    + "(" + AnomalyColumns.ANOMALY_STATE + "," + AnomalyColumns.TIME_STAMP_MS
+                    + "," + AnomalyColumns.UID + "," + AnomalyColumns.PACKAGE_NAME
+                    + "," + AnomalyColumns.ANOMALY_TYPE + ")";
+
+    /**
+     * Used by the cleanup of old anomalies.
+     */
+    private static final String CREATE_ANOMALY_TIME_INDEX =
+            "CREATE INDEX IF NOT EXISTS anomaly_time_index ON " + Tables.TABLE_ANOMALY
+                    + "(" + AnomalyColumns.TIME_STAMP_MS + ")";
+
     public interface ActionColumns {
         /**
          * The package name of an app been performed an action
@@ -145,6 +163,8 @@ public class AnomalyDatabaseHelper extends SQLiteOpenHelper {
 
     private AnomalyDatabaseHelper(Context context) {
         super(context, DATABASE_NAME, null, DATABASE_VERSION);
+        // Lets queries run while anomalies are being written.
+        setWriteAheadLoggingEnabled(true);
     }
 
     @Override
@@ -154,7 +174,9 @@ public class AnomalyDatabaseHelper extends SQLiteOpenHelper {
 
     @Override
     public void onUpgrade(SQLiteDatabase db, int oldVersion, int newVersion) {
-        if (oldVersion < DATABASE_VERSION) {
+        if (oldVersion == DATABASE_VERSION_WITHOUT_INDEXES) {
+            createIndexes(db);
+        } else if (oldVersion < DATABASE_VERSION) {
             Log.w(TAG, "Detected schema version '" + oldVersion + "'. " +
                     "Index needs to be rebuilt for schema version '" + newVersion + "'.");
             // We need to drop the tables and recreate them
@@ -178,9 +200,15 @@ public class AnomalyDatabaseHelper extends SQLiteOpenHelper {
     private void bootstrapDB(SQLiteDatabase db) {
         db.execSQL(CREATE_ANOMALY_TABLE);
         db.execSQL(CREATE_ACTION_TABLE);
+        createIndexes(db);
         Log.i(TAG, "Bootstrapped database");
     }
 
+    private void createIndexes(SQLiteDatabase db) {
+        db.execSQL(CREATE_ANOMALY_STATE_TIME_INDEX);
+        db.execSQL(CREATE_ANOMALY_TIME_INDEX);
+    }
+
     private void dropTables(SQLiteDatabase db) {
         db.execSQL("DROP TABLE IF EXISTS " + Tables.TABLE_ANOMALY);
         db.execSQL("DROP TABLE IF EXISTS " + Tables.TABLE_ACTION);
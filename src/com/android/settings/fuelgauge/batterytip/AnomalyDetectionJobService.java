@@ -63,6 +63,8 @@ public class AnomalyDetectionJobService extends JobService {
     static final int STATSD_UID_FILED = 1;
     @VisibleForTesting
     static final long MAX_DELAY_MS = TimeUnit.MINUTES.toMillis(30);
+    @VisibleForTesting
+    static final int MAX_BATCH_SIZE = 50;
 
     private final Object mLock = new Object();
     @GuardedBy("mLock")
@@ -103,14 +105,20 @@ public class AnomalyDetectionJobService extends JobService {
             final MetricsFeatureProvider metricsFeatureProvider = FeatureFactory
                     .getFactory(this).getMetricsFeatureProvider();
 
+            // Anomalies are written in batches, work items complete once theirs are written.
+            final List<JobWorkItem> pendingItems = new ArrayList<>();
             for (JobWorkItem item = dequeueWork(params); item != null; item = dequeueWork(params)) {
                 saveAnomalyToDatabase(context, userManager,
                         batteryDatabaseManager, batteryUtils, policy, powerAllowlistBackend,
                         contentResolver, powerUsageFeatureProvider, metricsFeatureProvider,
                         item.getIntent().getExtras());
 
-                completeWork(params, item);
+                pendingItems.add(item);
+                if (pendingItems.size() >= MAX_BATCH_SIZE) {
+                    flushAndCompleteWork(params, batteryDatabaseManager, pendingItems);
+                }
             }
+            flushAndCompleteWork(params, batteryDatabaseManager, pendingItems);
         });
 
         return true;
@@ -162,11 +170,11 @@ public class AnomalyDetectionJobService extends JobService {
                     // Auto restrict this app
                     batteryUtils.setForceAppStandby(uid, packageName,
                             AppOpsManager.MODE_IGNORED);
-                    databaseManager.insertAnomaly(uid, packageName, anomalyInfo.anomalyType,
+                    databaseManager.bufferAnomaly(uid, packageName, anomalyInfo.anomalyType,
                             AnomalyDatabaseHelper.State.AUTO_HANDLED,
                             timeMs);
                 } else {
-                    databaseManager.insertAnomaly(uid, packageName, anomalyInfo.anomalyType,
+                    databaseManager.bufferAnomaly(uid, packageName, anomalyInfo.anomalyType,
                             AnomalyDatabaseHelper.State.NEW,
                             timeMs);
                 }
@@ -213,6 +221,16 @@ public class AnomalyDetectionJobService extends JobService {
         return UID_NULL;
     }
 
+    @VisibleForTesting
+    void flushAndCompleteWork(JobParameters parameters,
+            BatteryDatabaseManager databaseManager, List<JobWorkItem> items) {
+        databaseManager.flushAnomalies();
+        for (JobWorkItem item : items) {
+            completeWork(parameters, item);
+        }
+        items.clear();
+    }
+
     @VisibleForTesting
     JobWorkItem dequeueWork(JobParameters parameters) {
         synchronized (mLock) {
@@ -31,8 +31,10 @@ import android.content.ContentValues;
 import android.content.Context;
 import android.database.Cursor;
 import android.database.sqlite.SQLiteDatabase;
+import android.database.sqlite.SQLiteStatement;
 import android.text.TextUtils;
 import android.util.ArrayMap;
+import android.util.Log;
 import android.util.SparseLongArray;
 
 import androidx.annotation.VisibleForTesting;
@@ -47,13 +49,23 @@ import java.util.Map;
 /**
  * Database manager for battery data. Now it only contains anomaly data stored in {@link AppInfo}.
  *
- * This manager may be accessed by multi-threads. All the database related methods are synchronized
- * so each operation won't be interfered by other threads.
+ * This manager may be accessed by multi-threads. All the methods writing to the database are
+ * synchronized so each operation won't be interfered by other threads. Queries aren't, the
+ * database is in write-ahead logging mode so they read the last committed data without waiting
+ * for writers.
  */
 public class BatteryDatabaseManager {
+    private static final String TAG = "BatteryDatabaseManager";
+
+    private static final String INSERT_ANOMALY_SQL = "INSERT OR IGNORE INTO " + TABLE_ANOMALY
+            + "(" + UID + "," + PACKAGE_NAME + "," + ANOMALY_TYPE + "," + ANOMALY_STATE + ","
+            + TIME_STAMP_MS + ") VALUES (?,?,?,?,?)";
+
     private static BatteryDatabaseManager sSingleton;
 
     private AnomalyDatabaseHelper mDatabaseHelper;
+    // Anomalies buffered by bufferAnomaly(), written by the next flushAnomalies().
+    private final List<ContentValues> mPendingAnomalies = new ArrayList<>();
 
     private BatteryDatabaseManager(Context context) {
         mDatabaseHelper = AnomalyDatabaseHelper.getInstance(context);
@@ -95,10 +107,77 @@ public class BatteryDatabaseManager {
         return db.insertWithOnConflict(TABLE_ANOMALY, null, values, CONFLICT_IGNORE) != -1;
     }
 
+    /**
+     * Buffer an anomaly log, to be inserted to database with the others by the next
+     * {@link #flushAnomalies()}.
+     *
+     * @param uid          the uid of the app
+     * @param packageName  the package name of the app
+     * @param type         the type of the anomaly
+     * @param anomalyState the state of the anomaly
+     * @param timestampMs  the time when it is happened
+     */
+    public void bufferAnomaly(int uid, String packageName, int type, int anomalyState,
+            long timestampMs) {
+        final ContentValues values = new ContentValues();
+        values.put(UID, uid);
+        values.put(PACKAGE_NAME, packageName);
+        values.put(ANOMALY_TYPE, type);
+        values.put(ANOMALY_STATE, anomalyState);
+        values.put(TIME_STAMP_MS, timestampMs);
+        synchronized (mPendingAnomalies) {
+            mPendingAnomalies.add(values);
+        }
+    }
+
+    /**
+     * Insert all the anomaly logs buffered by {@link #bufferAnomaly} to database, in a single
+     * transaction.
+     *
+     * @return the number of inserted anomalies, duplicated ones are ignored
+     */
+    public synchronized int flushAnomalies() {
+        final List<ContentValues> anomalies;
+        synchronized (mPendingAnomalies) {
+            if (mPendingAnomalies.isEmpty()) {
+                return 0;
+            }
+            anomalies = new ArrayList<>(mPendingAnomalies);
+            mPendingAnomalies.clear();
+        }
+
+        int insertedCount = 0;
+        final SQLiteDatabase db = mDatabaseHelper.getWritableDatabase();
+        db.beginTransaction();
+        try (SQLiteStatement statement = db.compileStatement(INSERT_ANOMALY_SQL)) {
+            for (ContentValues values : anomalies) {
+                statement.bindLong(1, values.getAsInteger(UID));
+                final String packageName = values.getAsString(PACKAGE_NAME);
+                if (packageName == null) {
+                    statement.bindNull(2);
+                } else {
+                    statement.bindString(2, packageName);
+                }
+                statement.bindLong(3, values.getAsInteger(ANOMALY_TYPE));
+                statement.bindLong(4, values.getAsInteger(ANOMALY_STATE));
+                statement.bindLong(5, values.getAsLong(TIME_STAMP_MS));
+                if (statement.executeInsert() != -1) {
+                    insertedCount++;
+                }
+                statement.clearBindings();
+            }
+            db.setTransactionSuccessful();
+        } finally {
+            db.endTransaction();
+        }
+        Log.d(TAG, "Flushed " + insertedCount + " of " + anomalies.size() + " anomalies");
+        return insertedCount;
+    }
+
     /**
      * Query all the anomalies that happened after {@code timestampMsAfter} and with {@code state}.
      */
-    public synchronized List<AppInfo> queryAllAnomalies(long timestampMsAfter, int state) {
+    public List<AppInfo> queryAllAnomalies(long timestampMsAfter, int state) {
         final List<AppInfo> appInfos = new ArrayList<>();
         final SQLiteDatabase db = mDatabaseHelper.getReadableDatabase();
         final String[] projection = {PACKAGE_NAME, ANOMALY_TYPE, UID};
@@ -165,7 +244,7 @@ public class BatteryDatabaseManager {
      * @param type of action been performed
      * @return {@link SparseLongArray} where key is uid and value is timestamp
      */
-    public synchronized SparseLongArray queryActionTime(
+    public SparseLongArray queryActionTime(
             @AnomalyDatabaseHelper.ActionType int type) {
         final SparseLongArray timeStamps = new SparseLongArray();
         final SQLiteDatabase db = mDatabaseHelper.getReadableDatabase();
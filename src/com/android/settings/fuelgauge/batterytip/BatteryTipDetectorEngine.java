@@ -0,0 +1,138 @@
+/*
+ * Copyright (C) 2022 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.settings.fuelgauge.batterytip;
+
+import android.os.SystemClock;
+import android.util.EventLog;
+import android.util.Log;
+
+import com.android.settings.EventLogTags;
+import com.android.settings.fuelgauge.batterytip.detectors.BatteryTipDetector;
+import com.android.settings.fuelgauge.batterytip.tips.BatteryTip;
+import com.android.settingslib.utils.ThreadUtils;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+
+/**
+ * Runs the registered {@link BatteryTipDetector}s concurrently, each one with its own deadline.
+ *
+ * Tips of detectors which don't finish in time or fail are left out of the result, so a slow
+ * detector doesn't hold back the other tips. The detection time of each detector is logged with
+ * a {@link EventLogTags#SETTINGS_LATENCY} event, whose action is the tip metrics action of the
+ * detector.
+ */
+public class BatteryTipDetectorEngine {
+    private static final String TAG = "BatteryTipDetectorEngine";
+
+    /** Time a detector gets to return its tip, unless it's registered with its own timeout. */
+    public static final long DEFAULT_TIMEOUT_MS = 1000;
+
+    private final List<Registration> mRegistrations = new ArrayList<>();
+
+    private static final class Registration {
+        final BatteryTipDetector mDetector;
+        final int mMetricsAction;
+        final long mTimeoutMs;
+
+        Registration(BatteryTipDetector detector, int metricsAction, long timeoutMs) {
+            mDetector = detector;
+            mMetricsAction = metricsAction;
+            mTimeoutMs = timeoutMs;
+        }
+    }
+
+    /**
+     * Register {@code detector} with the {@link #DEFAULT_TIMEOUT_MS} timeout.
+     *
+     * @param metricsAction the tip metrics action its detection time is logged with
+     */
+    public BatteryTipDetectorEngine register(BatteryTipDetector detector, int metricsAction) {
+        return register(detector, metricsAction, DEFAULT_TIMEOUT_MS);
+    }
+
+    /**
+     * Register {@code detector}, whose tip is dropped if it takes more than {@code timeoutMs}.
+     *
+     * @param metricsAction the tip metrics action its detection time is logged with
+     */
+    public BatteryTipDetectorEngine register(BatteryTipDetector detector, int metricsAction,
+            long timeoutMs) {
+        mRegistrations.add(new Registration(detector, metricsAction, timeoutMs));
+        return this;
+    }
+
+    /** Run all registered detectors, and return the tips of the ones which finished in time. */
+    public List<BatteryTip> detect() {
+        final long startTime = SystemClock.elapsedRealtime();
+        final List<Future<BatteryTip>> futures = new ArrayList<>(mRegistrations.size());
+        for (Registration registration : mRegistrations) {
+            futures.add((Future<BatteryTip>) ThreadUtils.postOnBackgroundThread(() -> {
+                final long detectorStartTime = SystemClock.elapsedRealtime();
+                final BatteryTip tip = registration.mDetector.detect();
+                logLatency(registration,
+                        (int) (SystemClock.elapsedRealtime() - detectorStartTime));
+                return tip;
+            }));
+        }
+
+        final List<BatteryTip> tips = new ArrayList<>(mRegistrations.size());
+        for (int i = 0; i < futures.size(); i++) {
+            final Registration registration = mRegistrations.get(i);
+            final Future<BatteryTip> future = futures.get(i);
+            final long remainingMs =
+                    startTime + registration.mTimeoutMs - SystemClock.elapsedRealtime();
+            try {
+                final BatteryTip tip = future.get(Math.max(0, remainingMs), TimeUnit.MILLISECONDS);
+                if (tip != null) {
+                    tips.add(tip);
+                }
+            } catch (TimeoutException e) {
+                future.cancel(true /* mayInterruptIfRunning */);
+                Log.w(TAG, "Timeout detecting tip with " + getName(registration));
+                // Log the timeout as the detection time, the detector doesn't get to log it.
+                logLatency(registration, (int) registration.mTimeoutMs);
+            } catch (ExecutionException e) {
+                Log.w(TAG, "Failed to detect tip with " + getName(registration), e.getCause());
+            } catch (InterruptedException e) {
+                Log.w(TAG, "Interrupted detecting tips", e);
+                Thread.currentThread().interrupt();
+                cancelAll(futures);
+                break;
+            }
+        }
+        return tips;
+    }
+
+    private static void logLatency(Registration registration, int latencyMs) {
+        EventLog.writeEvent(EventLogTags.SETTINGS_LATENCY, registration.mMetricsAction, latencyMs);
+    }
+
+    private static String getName(Registration registration) {
+        return registration.mDetector.getClass().getSimpleName();
+    }
+
+    private static void cancelAll(List<Future<BatteryTip>> futures) {
+        for (Future<BatteryTip> future : futures) {
+            future.cancel(true /* mayInterruptIfRunning */);
+        }
+    }
+}
@@ -16,6 +16,7 @@
 
 package com.android.settings.fuelgauge.batterytip;
 
+import android.app.settings.SettingsEnums;
 import android.content.Context;
 import android.os.BatteryUsageStats;
 
@@ -46,6 +47,8 @@ public class BatteryTipLoader extends AsyncLoaderCompat<List<BatteryTip>> {
     private static final String TAG = "BatteryTipLoader";
 
     private static final boolean USE_FAKE_DATA = false;
+    // Parsing the battery usage stats takes longer than the other detectors.
+    private static final long HIGH_USAGE_DETECTOR_TIMEOUT_MS = 3000;
 
     private BatteryUsageStats mBatteryUsageStats;
     @VisibleForTesting
@@ -62,18 +65,24 @@ public class BatteryTipLoader extends AsyncLoaderCompat<List<BatteryTip>> {
         if (USE_FAKE_DATA) {
             return getFakeData();
         }
-        final List<BatteryTip> tips = new ArrayList<>();
         final BatteryTipPolicy policy = new BatteryTipPolicy(getContext());
         final BatteryInfo batteryInfo = mBatteryUtils.getBatteryInfo(TAG);
         final Context context = getContext();
 
-        tips.add(new LowBatteryDetector(context, policy, batteryInfo).detect());
-        tips.add(new HighUsageDetector(context, policy, mBatteryUsageStats, batteryInfo).detect());
-        tips.add(new SmartBatteryDetector(
-                context, policy, batteryInfo, context.getContentResolver()).detect());
-        tips.add(new EarlyWarningDetector(policy, context).detect());
-        tips.add(new BatteryDefenderDetector(
-                batteryInfo, context.getApplicationContext()).detect());
+        final List<BatteryTip> tips = new BatteryTipDetectorEngine()
+                .register(new LowBatteryDetector(context, policy, batteryInfo),
+                        SettingsEnums.ACTION_LOW_BATTERY_TIP)
+                .register(new HighUsageDetector(context, policy, mBatteryUsageStats, batteryInfo),
+                        SettingsEnums.ACTION_HIGH_USAGE_TIP, HIGH_USAGE_DETECTOR_TIMEOUT_MS)
+                .register(new SmartBatteryDetector(
+                        context, policy, batteryInfo, context.getContentResolver()),
+                        SettingsEnums.ACTION_SMART_BATTERY_TIP)
+                .register(new EarlyWarningDetector(policy, context),
+                        SettingsEnums.ACTION_EARLY_WARNING_TIP)
+                .register(new BatteryDefenderDetector(
+                        batteryInfo, context.getApplicationContext()),
+                        SettingsEnums.ACTION_BATTERY_DEFENDER_TIP)
+                .detect();
         Collections.sort(tips);
         return tips;
     }
@@ -64,6 +64,11 @@ public class HighUsageDataParser implements BatteryInfo.BatteryDataParser {
         // do nothing
     }
 
+    @Override
+    public int getSubscribedRecords() {
+        return RECORD_DATA_POINT;
+    }
+
     @Override
     public void onParsingDone() {
         mBatteryDrain = mLastPeriodBatteryLevel - mEndBatteryLevel;
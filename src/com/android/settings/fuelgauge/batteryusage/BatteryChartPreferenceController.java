@@ -122,6 +122,9 @@ public class BatteryChartPreferenceController extends AbstractPreferenceControll
     private final CharSequence[] mNotAllowShowSummaryPackages;
     private final MetricsFeatureProvider mMetricsFeatureProvider;
     private final Handler mHandler = new Handler(Looper.getMainLooper());
+    // Diff data of the completed time slots, reused when the battery history is reloaded.
+    @VisibleForTesting
+    final BatteryUsageRollupCache mRollupCache = BatteryUsageRollupCache.getInstance();
     private final AnimatorListenerAdapter mHourlyChartFadeInAdapter =
             createHourlyChartAnimatorListenerAdapter(/*visible=*/ true);
     private final AnimatorListenerAdapter mHourlyChartFadeOutAdapter =
@@ -283,7 +286,8 @@ public class BatteryChartPreferenceController extends AbstractPreferenceControll
                         batteryUsageMap -> {
                             mBatteryUsageMap = batteryUsageMap;
                             refreshUi();
-                        });
+                        },
+                        mRollupCache);
         Log.d(TAG, "getBatteryLevelData: " + batteryLevelData);
         mMetricsFeatureProvider.action(
                 mPrefContext,
@@ -101,6 +101,11 @@ public class BatteryDiffEntry {
         return mPercentOfTotal;
     }
 
+    /** Gets the total consumed power the percentage is computed from. */
+    double getTotalConsumePower() {
+        return mTotalConsumePower;
+    }
+
     /** Clones a new instance. */
     public BatteryDiffEntry clone() {
         return new BatteryDiffEntry(
@@ -341,8 +346,6 @@ public class BatteryDiffEntry {
                 BatteryEntry.loadNameAndIcon(
                         mContext, uid, /*handler=*/ null, /*batteryEntry=*/ null,
                         packageName, mAppLabel, mAppIcon);
-        // Clears BatteryEntry internal cache since we will have another one.
-        BatteryEntry.clearUidCache();
         if (nameAndIcon != null) {
             mAppLabel = nameAndIcon.mName;
             mAppIcon = nameAndIcon.mIcon;
@@ -39,11 +39,10 @@ import android.util.Log;
 import com.android.settings.R;
 import com.android.settings.fuelgauge.BatteryUtils;
 import com.android.settingslib.Utils;
+import com.android.settingslib.utils.ThreadUtils;
 
 import java.util.ArrayList;
 import java.util.Comparator;
-import java.util.HashMap;
-import java.util.Locale;
 
 /**
  * Wraps the power usage data of a BatterySipper with information about package name
@@ -77,64 +76,26 @@ public class BatteryEntry {
     private static final String TAG = "BatteryEntry";
     private static final String PACKAGE_SYSTEM = "android";
 
-    static final HashMap<String, UidToDetail> sUidCache = new HashMap<>();
-
     static final ArrayList<BatteryEntry> sRequestQueue = new ArrayList<BatteryEntry>();
     static Handler sHandler;
 
-    static Locale sCurrentLocale = null;
-
-    private static class NameAndIconLoader extends Thread {
-        private boolean mAbort = false;
-
-        NameAndIconLoader() {
-            super("BatteryUsage Icon Loader");
-        }
-
-        public void abort() {
-            mAbort = true;
-        }
-
-        @Override
-        public void run() {
-            while (true) {
-                BatteryEntry be;
-                synchronized (sRequestQueue) {
-                    if (sRequestQueue.isEmpty() || mAbort) {
-                        if (sHandler != null) {
-                            sHandler.sendEmptyMessage(MSG_REPORT_FULLY_DRAWN);
-                        }
-                        return;
-                    }
-                    be = sRequestQueue.remove(0);
-                }
-                final NameAndIcon nameAndIcon =
-                        BatteryEntry.loadNameAndIcon(
-                                be.mContext, be.getUid(), sHandler, be,
-                                be.mDefaultPackageName, be.mName, be.mIcon);
-                if (nameAndIcon != null) {
-                    be.mIcon = nameAndIcon.mIcon;
-                    be.mName = nameAndIcon.mName;
-                    be.mDefaultPackageName = nameAndIcon.mPackageName;
-                }
-            }
-        }
-    }
-
-    private static NameAndIconLoader sRequestThread;
+    // Incremented when the queue is stopped, so pending loads don't report to a stale handler.
+    private static int sRequestGeneration;
+    private static int sPendingRequests;
 
     /** Starts the request queue. */
     public static void startRequestQueue() {
         if (sHandler != null) {
             synchronized (sRequestQueue) {
                 if (!sRequestQueue.isEmpty()) {
-                    if (sRequestThread != null) {
-                        sRequestThread.abort();
+                    final Handler handler = sHandler;
+                    final int generation = sRequestGeneration;
+                    sPendingRequests += sRequestQueue.size();
+                    for (BatteryEntry entry : sRequestQueue) {
+                        ThreadUtils.postOnBackgroundThread(
+                                () -> loadInBackground(entry, handler, generation));
                     }
-                    sRequestThread = new NameAndIconLoader();
-                    sRequestThread.setPriority(Thread.MIN_PRIORITY);
-                    sRequestThread.start();
-                    sRequestQueue.notify();
+                    sRequestQueue.clear();
                 }
             }
         }
@@ -143,18 +104,42 @@ public class BatteryEntry {
     /** Stops the request queue. */
     public static void stopRequestQueue() {
         synchronized (sRequestQueue) {
-            if (sRequestThread != null) {
-                sRequestThread.abort();
-                sRequestThread = null;
-                sRequestQueue.clear();
-                sHandler = null;
-            }
+            sRequestGeneration++;
+            sPendingRequests = 0;
+            sRequestQueue.clear();
+            sHandler = null;
         }
     }
 
     /** Clears the UID cache. */
     public static void clearUidCache() {
-        sUidCache.clear();
+        NameAndIconCache.getInstance().clear();
+    }
+
+    private static void loadInBackground(BatteryEntry be, Handler handler, int generation) {
+        synchronized (sRequestQueue) {
+            if (generation != sRequestGeneration) {
+                return;
+            }
+        }
+        final NameAndIcon nameAndIcon =
+                BatteryEntry.loadNameAndIcon(
+                        be.mContext, be.getUid(), /*handler=*/ null, be,
+                        be.mDefaultPackageName, be.mName, be.mIcon);
+        if (nameAndIcon != null) {
+            be.mIcon = nameAndIcon.mIcon;
+            be.mName = nameAndIcon.mName;
+            be.mDefaultPackageName = nameAndIcon.mPackageName;
+        }
+        synchronized (sRequestQueue) {
+            if (generation != sRequestGeneration) {
+                return;
+            }
+            handler.sendMessage(handler.obtainMessage(MSG_UPDATE_NAME_ICON, be));
+            if (--sPendingRequests == 0) {
+                handler.sendEmptyMessage(MSG_REPORT_FULLY_DRAWN);
+            }
+        }
     }
 
     public static final Comparator<BatteryEntry> COMPARATOR =
@@ -179,12 +164,6 @@ public class BatteryEntry {
     private String mDefaultPackageName;
     private double mConsumedPower;
 
-    static class UidToDetail {
-        String mName;
-        String mPackageName;
-        Drawable mIcon;
-    }
-
     public BatteryEntry(Context context, Handler handler, UserManager um,
             BatteryConsumer batteryConsumer, boolean isHidden, int uid, String[] packages,
             String packageName) {
@@ -309,19 +288,12 @@ public class BatteryEntry {
 
     void getQuickNameIconForUid(
             final int uid, final String[] packages, final boolean loadDataInBackground) {
-        // Locale sync to system config in Settings
-        final Locale locale = Locale.getDefault();
-        if (sCurrentLocale != locale) {
-            clearUidCache();
-            sCurrentLocale = locale;
-        }
-
-        final String uidString = Integer.toString(uid);
-        if (sUidCache.containsKey(uidString)) {
-            UidToDetail utd = sUidCache.get(uidString);
-            mDefaultPackageName = utd.mPackageName;
-            mName = utd.mName;
-            mIcon = utd.mIcon;
+        // The cache is dropped when the locale changes, to sync to system config in Settings.
+        final NameAndIcon cached = NameAndIconCache.getInstance(mContext).get(uid);
+        if (cached != null && cached.mName != null && cached.mIcon != null) {
+            mDefaultPackageName = cached.mPackageName;
+            mName = cached.mName;
+            mIcon = cached.mIcon;
             return;
         }
 
@@ -341,7 +313,11 @@ public class BatteryEntry {
         }
     }
 
-    /** Loads the app label and icon image and stores into the cache. */
+    /**
+     * Loads the app label and icon image and stores into the cache. Concurrent loads of the same
+     * uid share a single lookup. The given name, icon and package are only used where the package
+     * manager has none, and are never cached.
+     */
     public static NameAndIcon loadNameAndIcon(
             Context context,
             int uid,
@@ -355,6 +331,34 @@ public class BatteryEntry {
             return null;
         }
 
+        final NameAndIcon resolved = NameAndIconCache.getInstance(context).getOrLoad(uid,
+                () -> resolveNameAndIcon(context, uid));
+        if (resolved != null) {
+            if (resolved.mName != null) {
+                name = resolved.mName;
+            }
+            if (resolved.mIcon != null) {
+                defaultPackageName = resolved.mPackageName;
+                icon = resolved.mIcon;
+            }
+        }
+        if (icon == null) {
+            icon = context.getPackageManager().getDefaultActivityIcon();
+        }
+        if (handler != null) {
+            handler.sendMessage(handler.obtainMessage(MSG_UPDATE_NAME_ICON, batteryEntry));
+        }
+        return new NameAndIcon(name, defaultPackageName, icon, /*iconId=*/ 0);
+    }
+
+    /**
+     * Resolves the app label and icon of {@code uid} with the package manager alone, leaving
+     * whatever it can't resolve null, so the result doesn't depend on the caller.
+     */
+    private static NameAndIcon resolveNameAndIcon(Context context, int uid) {
+        String defaultPackageName = null;
+        String name = null;
+        Drawable icon = null;
         final PackageManager pm = context.getPackageManager();
         final String[] packages = isSystemUid(uid)
                 ? new String[]{PACKAGE_SYSTEM} : pm.getPackagesForUid(uid);
@@ -421,20 +425,6 @@ public class BatteryEntry {
             }
         }
 
-        final String uidString = Integer.toString(uid);
-        if (icon == null) {
-            icon = pm.getDefaultActivityIcon();
-        }
-
-        UidToDetail utd = new UidToDetail();
-        utd.mName = name;
-        utd.mIcon = icon;
-        utd.mPackageName = defaultPackageName;
-
-        sUidCache.put(uidString, utd);
-        if (handler != null) {
-            handler.sendMessage(handler.obtainMessage(MSG_UPDATE_NAME_ICON, batteryEntry));
-        }
         return new NameAndIcon(name, defaultPackageName, icon, /*iconId=*/ 0);
     }
 
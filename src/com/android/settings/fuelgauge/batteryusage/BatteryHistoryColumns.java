@@ -0,0 +1,205 @@
+/*
+ * Copyright (C) 2022 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.settings.fuelgauge.batteryusage;
+
+import androidx.annotation.Nullable;
+
+import com.android.settings.fuelgauge.BatteryUtils;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Columnar copy of the battery history map, {@code Map<timestamp, Map<key, BatteryHistEntry>>}.
+ *
+ * Keys are interned into int ids, and every timestamp slot stores its usage data in primitive
+ * arrays sorted by key id, so diffing slots doesn't need any map lookup or boxing. Key ids are
+ * ordered by key hash code, which keeps the iteration order of the previous map based code.
+ */
+final class BatteryHistoryColumns {
+
+    /** Key of the entry aggregating the usage of other users. */
+    static final String OTHER_USERS_KEY = Long.toString(BatteryUtils.UID_OTHER_USERS);
+
+    private final String[] mKeys;
+    private final Map<String, Integer> mKeyIds;
+    private final long[] mTimestamps;
+    private final Slot[] mSlots;
+
+    /** Usage data of all the entries recorded at one timestamp, sorted by key id. */
+    static final class Slot {
+        final int[] mKeyIds;
+        // Id of BatteryHistEntry.getKey(), which entries are merged by across slots.
+        final int[] mEntryKeyIds;
+        final long[] mForegroundUsageTimeInMs;
+        final long[] mBackgroundUsageTimeInMs;
+        final double[] mConsumePower;
+        final BatteryHistEntry[] mEntries;
+
+        private Slot(int size) {
+            mKeyIds = new int[size];
+            mEntryKeyIds = new int[size];
+            mForegroundUsageTimeInMs = new long[size];
+            mBackgroundUsageTimeInMs = new long[size];
+            mConsumePower = new double[size];
+            mEntries = new BatteryHistEntry[size];
+        }
+
+        int size() {
+            return mKeyIds.length;
+        }
+    }
+
+    private BatteryHistoryColumns(String[] keys, Map<String, Integer> keyIds, long[] timestamps,
+            Slot[] slots) {
+        mKeys = keys;
+        mKeyIds = keyIds;
+        mTimestamps = timestamps;
+        mSlots = slots;
+    }
+
+    /** Build the columnar copy of {@code batteryHistoryMap}. */
+    static BatteryHistoryColumns create(
+            final Map<Long, Map<String, BatteryHistEntry>> batteryHistoryMap) {
+        // Interns all keys, in hash code order.
+        final Map<String, Integer> firstSeen = new HashMap<>();
+        internKey(firstSeen, OTHER_USERS_KEY);
+        for (Map<String, BatteryHistEntry> entries : batteryHistoryMap.values()) {
+            if (entries == null) {
+                continue;
+            }
+            for (Map.Entry<String, BatteryHistEntry> entry : entries.entrySet()) {
+                internKey(firstSeen, entry.getKey());
+                if (entry.getValue() != null) {
+                    internKey(firstSeen, entry.getValue().getKey());
+                }
+            }
+        }
+        final List<String> sortedKeys = new ArrayList<>(firstSeen.keySet());
+        sortedKeys.sort(Comparator.<String>comparingInt(String::hashCode)
+                .thenComparingInt(firstSeen::get));
+        final String[] keys = sortedKeys.toArray(new String[0]);
+        final Map<String, Integer> keyIds = new HashMap<>(keys.length * 2);
+        for (int i = 0; i < keys.length; i++) {
+            keyIds.put(keys[i], i);
+        }
+
+        final long[] timestamps = new long[batteryHistoryMap.size()];
+        int index = 0;
+        for (Long timestamp : batteryHistoryMap.keySet()) {
+            timestamps[index++] = timestamp;
+        }
+        Arrays.sort(timestamps);
+
+        final Slot[] slots = new Slot[timestamps.length];
+        for (int i = 0; i < timestamps.length; i++) {
+            slots[i] = createSlot(batteryHistoryMap.get(timestamps[i]), keyIds);
+        }
+        return new BatteryHistoryColumns(keys, keyIds, timestamps, slots);
+    }
+
+    private static void internKey(Map<String, Integer> firstSeen, @Nullable String key) {
+        if (key != null && !firstSeen.containsKey(key)) {
+            firstSeen.put(key, firstSeen.size());
+        }
+    }
+
+    private static Slot createSlot(@Nullable Map<String, BatteryHistEntry> entries,
+            Map<String, Integer> keyIds) {
+        if (entries == null) {
+            return new Slot(0);
+        }
+        // Sorts the entries by key id, packing the key id and the entry index into a long.
+        final BatteryHistEntry[] unsortedEntries = new BatteryHistEntry[entries.size()];
+        final long[] sortKeys = new long[entries.size()];
+        int size = 0;
+        for (Map.Entry<String, BatteryHistEntry> entry : entries.entrySet()) {
+            if (entry.getKey() == null || entry.getValue() == null) {
+                continue;
+            }
+            unsortedEntries[size] = entry.getValue();
+            sortKeys[size] = ((long) keyIds.get(entry.getKey()) << 32) | size;
+            size++;
+        }
+        Arrays.sort(sortKeys, 0, size);
+
+        final Slot slot = new Slot(size);
+        for (int i = 0; i < size; i++) {
+            final int keyId = (int) (sortKeys[i] >>> 32);
+            final BatteryHistEntry entry = unsortedEntries[(int) sortKeys[i]];
+            final String entryKey = entry.getKey();
+            slot.mKeyIds[i] = keyId;
+            slot.mEntryKeyIds[i] = entryKey != null ? keyIds.get(entryKey) : keyId;
+            slot.mForegroundUsageTimeInMs[i] = entry.mForegroundUsageTimeInMs;
+            slot.mBackgroundUsageTimeInMs[i] = entry.mBackgroundUsageTimeInMs;
+            slot.mConsumePower[i] = entry.mConsumePower;
+            slot.mEntries[i] = entry;
+        }
+        return slot;
+    }
+
+    /** Return the number of interned keys, which key ids are below. */
+    int getKeyCount() {
+        return mKeys.length;
+    }
+
+    /** Return the id of {@code key}, or -1 if it's not in the history. */
+    int getKeyId(String key) {
+        final Integer keyId = mKeyIds.get(key);
+        return keyId == null ? -1 : keyId;
+    }
+
+    String getKey(int keyId) {
+        return mKeys[keyId];
+    }
+
+    /** Return the sorted timestamps of the history. */
+    long[] getTimestamps() {
+        return mTimestamps;
+    }
+
+    /** Return the data recorded at {@code timestamp}, or {@code null} if there is none. */
+    @Nullable
+    Slot getSlot(long timestamp) {
+        final int index = Arrays.binarySearch(mTimestamps, timestamp);
+        return index >= 0 ? mSlots[index] : null;
+    }
+
+    /**
+     * Return a hash of the data recorded at {@code timestamp}, which changes whenever any entry
+     * of the slot changes. Unlike key ids, it can be compared across histories.
+     */
+    long getFingerprint(long timestamp) {
+        final Slot slot = getSlot(timestamp);
+        long hash = timestamp;
+        if (slot == null) {
+            return hash;
+        }
+        hash = hash * 31 + slot.size();
+        for (int i = 0; i < slot.size(); i++) {
+            hash = hash * 31 + mKeys[slot.mKeyIds[i]].hashCode();
+            hash = hash * 31 + slot.mForegroundUsageTimeInMs[i];
+            hash = hash * 31 + slot.mBackgroundUsageTimeInMs[i];
+            hash = hash * 31 + Double.doubleToLongBits(slot.mConsumePower[i]);
+        }
+        return hash;
+    }
+}
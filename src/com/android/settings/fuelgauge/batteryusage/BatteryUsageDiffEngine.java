@@ -0,0 +1,453 @@
+/*
+ * Copyright (C) 2022 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.settings.fuelgauge.batteryusage;
+
+import android.content.Context;
+import android.os.UserHandle;
+import android.os.UserManager;
+import android.text.format.DateUtils;
+import android.util.Log;
+
+import androidx.annotation.Nullable;
+
+import com.android.settings.Utils;
+
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+
+/**
+ * Computes the hourly and daily {@link BatteryDiffData} from a {@link BatteryHistoryColumns}.
+ *
+ * Hourly slots are diffed by merging the sorted key ids of three timestamps, and hourly entries
+ * are summed into per-day arrays indexed by key id, so no map or boxed value is created per entry.
+ * Slots which are completed are taken from a {@link BatteryUsageRollupCache} when possible.
+ *
+ * Days only depend on their own slots, so they can be computed in parallel on a
+ * {@link ForkJoinPool}, with the same results as computing them one after another.
+ */
+final class BatteryUsageDiffEngine {
+    private static final boolean DEBUG = false;
+    private static final String TAG = "BatteryUsageDiffEngine";
+    // Maximum total time value for each hourly slot cumulative data at most 2 hours.
+    private static final float TOTAL_HOURLY_TIME_THRESHOLD = DateUtils.HOUR_IN_MILLIS * 2;
+
+    private final Context mContext;
+    private final BatteryHistoryColumns mHistory;
+    private final int mCurrentUserId;
+    private final int mWorkProfileUserId;
+    private final int mOtherUsersKeyId;
+    @Nullable
+    private final BatteryUsageRollupCache mRollupCache;
+
+    BatteryUsageDiffEngine(Context context, BatteryHistoryColumns history,
+            @Nullable BatteryUsageRollupCache rollupCache) {
+        // Cached entries outlive this computation, they must not hold an activity.
+        mContext = rollupCache != null ? context.getApplicationContext() : context;
+        mHistory = history;
+        mRollupCache = rollupCache;
+        final long[] timestamps = history.getTimestamps();
+        if (rollupCache != null && timestamps.length > 0) {
+            rollupCache.onHistoryLoaded(timestamps[0], timestamps[timestamps.length - 1]);
+        }
+        mCurrentUserId = context.getUserId();
+        final UserHandle userHandle =
+                Utils.getManagedProfile(context.getSystemService(UserManager.class));
+        mWorkProfileUserId = userHandle != null ? userHandle.getIdentifier() : Integer.MIN_VALUE;
+        mOtherUsersKeyId = history.getKeyId(BatteryHistoryColumns.OTHER_USERS_KEY);
+    }
+
+    /**
+     * Compute the diff data of every day, keyed by daily index.
+     *
+     * @param hourlyTimestampsPerDay the hourly timestamps of every day, {@code null} for the days
+     *                               which have no data
+     * @param pool the pool to compute the days in parallel on, or {@code null} to compute them
+     *             on the calling thread
+     */
+    Map<Integer, Map<Integer, BatteryDiffData>> computeDiffData(
+            List<List<Long>> hourlyTimestampsPerDay, @Nullable ForkJoinPool pool) {
+        final List<Map<Integer, BatteryDiffData>> dailyDiffMaps =
+                new ArrayList<>(hourlyTimestampsPerDay.size());
+        for (int dailyIndex = 0; dailyIndex < hourlyTimestampsPerDay.size(); dailyIndex++) {
+            dailyDiffMaps.add(null);
+        }
+        final DailyDiffTask task = new DailyDiffTask(
+                hourlyTimestampsPerDay, dailyDiffMaps, 0, hourlyTimestampsPerDay.size());
+        if (pool != null && hourlyTimestampsPerDay.size() > 1) {
+            pool.invoke(task);
+        } else {
+            task.compute();
+        }
+        final Map<Integer, Map<Integer, BatteryDiffData>> resultMap = new HashMap<>();
+        for (int dailyIndex = 0; dailyIndex < dailyDiffMaps.size(); dailyIndex++) {
+            resultMap.put(dailyIndex, dailyDiffMaps.get(dailyIndex));
+        }
+        return resultMap;
+    }
+
+    /**
+     * Compute the diff data of every hourly slot of a day, and the diff data of the whole day
+     * under {@link DataProcessor#SELECTED_INDEX_ALL}.
+     *
+     * @param hourlyTimestamps the hourly timestamps of the day, or {@code null} if the day has no
+     *                         data
+     */
+    Map<Integer, BatteryDiffData> computeDailyDiffData(@Nullable List<Long> hourlyTimestamps) {
+        // Only a day whose last slot is completed can be cached as a whole.
+        final boolean isDayCompleted = mRollupCache != null
+                && hourlyTimestamps != null
+                && !hourlyTimestamps.isEmpty()
+                && isCompleted(hourlyTimestamps.get(hourlyTimestamps.size() - 1));
+        long dailyFingerprint = 0L;
+        if (isDayCompleted) {
+            dailyFingerprint = getFingerprint(hourlyTimestamps.get(0),
+                    hourlyTimestamps.get(hourlyTimestamps.size() - 1));
+            final BatteryUsageRollupCache.DailyRollup rollup =
+                    mRollupCache.getDailyRollup(hourlyTimestamps.get(0), dailyFingerprint);
+            if (rollup != null) {
+                return BatteryUsageRollupCache.copyOf(rollup.mDailyDiffMap);
+            }
+        }
+
+        final Map<Integer, BatteryDiffData> dailyDiffMap = new HashMap<>();
+        final DailyAccumulator accumulator = new DailyAccumulator(mHistory.getKeyCount());
+        if (hourlyTimestamps != null) {
+            // Each time slot usage diff data =
+            //     Math.abs(timestamp[i+2] data - timestamp[i+1] data) +
+            //     Math.abs(timestamp[i+1] data - timestamp[i] data);
+            // since we want to aggregate every two hours data into a single time slot.
+            for (int hourlyIndex = 0; hourlyIndex < hourlyTimestamps.size() - 1; hourlyIndex++) {
+                final BatteryDiffData hourlyDiffData =
+                        getHourlyDiffData(hourlyTimestamps.get(hourlyIndex), accumulator);
+                accumulator.addTotalConsumePower(hourlyDiffData);
+                dailyDiffMap.put(hourlyIndex, hourlyDiffData);
+            }
+        }
+        dailyDiffMap.put(DataProcessor.SELECTED_INDEX_ALL, accumulator.build());
+        if (isDayCompleted) {
+            mRollupCache.putDailyRollup(hourlyTimestamps.get(0),
+                    new BatteryUsageRollupCache.DailyRollup(dailyFingerprint, dailyDiffMap));
+            return BatteryUsageRollupCache.copyOf(dailyDiffMap);
+        }
+        return dailyDiffMap;
+    }
+
+    @Nullable
+    private BatteryDiffData getHourlyDiffData(long currentTimestamp,
+            DailyAccumulator accumulator) {
+        final long endTimestamp = currentTimestamp + 2 * DateUtils.HOUR_IN_MILLIS;
+        if (mRollupCache == null || !isCompleted(endTimestamp)) {
+            return computeHourlyDiffData(currentTimestamp, accumulator);
+        }
+        final long fingerprint = getFingerprint(currentTimestamp, endTimestamp);
+        BatteryUsageRollupCache.HourlyRollup rollup =
+                mRollupCache.getHourlyRollup(currentTimestamp, fingerprint);
+        if (rollup == null || !accumulator.addAll(rollup)) {
+            accumulator.startRecording();
+            final BatteryDiffData hourlyDiffData =
+                    computeHourlyDiffData(currentTimestamp, accumulator);
+            rollup = accumulator.stopRecording(fingerprint, hourlyDiffData);
+            mRollupCache.putHourlyRollup(currentTimestamp, rollup);
+        }
+        return BatteryUsageRollupCache.copyOf(rollup.mDiffData);
+    }
+
+    // Whether the slot at timestamp won't change anymore, which is true for all but the last one.
+    private boolean isCompleted(long timestamp) {
+        final long[] timestamps = mHistory.getTimestamps();
+        return timestamps.length > 0 && timestamp < timestamps[timestamps.length - 1];
+    }
+
+    private long getFingerprint(long startTimestamp, long endTimestamp) {
+        long fingerprint = 0L;
+        for (long timestamp = startTimestamp; timestamp <= endTimestamp;
+                timestamp += DateUtils.HOUR_IN_MILLIS) {
+            fingerprint = fingerprint * 31 + mHistory.getFingerprint(timestamp);
+        }
+        return fingerprint;
+    }
+
+    @Nullable
+    private BatteryDiffData computeHourlyDiffData(long currentTimestamp,
+            DailyAccumulator accumulator) {
+        final long nextTimestamp = currentTimestamp + DateUtils.HOUR_IN_MILLIS;
+        final long nextTwoTimestamp = nextTimestamp + DateUtils.HOUR_IN_MILLIS;
+        final BatteryHistoryColumns.Slot current = mHistory.getSlot(currentTimestamp);
+        final BatteryHistoryColumns.Slot next = mHistory.getSlot(nextTimestamp);
+        final BatteryHistoryColumns.Slot nextTwo = mHistory.getSlot(nextTwoTimestamp);
+        // We should not get the empty list since we have at least one fake data to record
+        // the battery level and status in each time slot, the empty list is used to
+        // represent there is no enough data to apply interpolation arithmetic.
+        if (current == null || current.size() == 0
+                || next == null || next.size() == 0
+                || nextTwo == null || nextTwo.size() == 0) {
+            return null;
+        }
+
+        final List<BatteryDiffEntry> appEntries = new ArrayList<>();
+        final List<BatteryDiffEntry> systemEntries = new ArrayList<>();
+        double totalConsumePower = 0.0;
+        double consumePowerFromOtherUsers = 0f;
+        int i = 0;
+        int j = 0;
+        int k = 0;
+        // Calculates all packages diff usage data in a specific time slot, walking the union of
+        // the key ids of the three slots in ascending order.
+        while (i < current.size() || j < next.size() || k < nextTwo.size()) {
+            final int keyId = Math.min(keyIdAt(current, i),
+                    Math.min(keyIdAt(next, j), keyIdAt(nextTwo, k)));
+            final int ci = keyIdAt(current, i) == keyId ? i++ : -1;
+            final int ni = keyIdAt(next, j) == keyId ? j++ : -1;
+            final int ti = keyIdAt(nextTwo, k) == keyId ? k++ : -1;
+
+            // Cumulative values is a specific time slot for a specific app.
+            long foregroundUsageTimeInMs = getDiffValue(
+                    ci < 0 ? 0 : current.mForegroundUsageTimeInMs[ci],
+                    ni < 0 ? 0 : next.mForegroundUsageTimeInMs[ni],
+                    ti < 0 ? 0 : nextTwo.mForegroundUsageTimeInMs[ti]);
+            long backgroundUsageTimeInMs = getDiffValue(
+                    ci < 0 ? 0 : current.mBackgroundUsageTimeInMs[ci],
+                    ni < 0 ? 0 : next.mBackgroundUsageTimeInMs[ni],
+                    ti < 0 ? 0 : nextTwo.mBackgroundUsageTimeInMs[ti]);
+            double consumePower = getDiffValue(
+                    ci < 0 ? 0 : current.mConsumePower[ci],
+                    ni < 0 ? 0 : next.mConsumePower[ni],
+                    ti < 0 ? 0 : nextTwo.mConsumePower[ti]);
+            // Excludes entry since we don't have enough data to calculate.
+            if (foregroundUsageTimeInMs == 0
+                    && backgroundUsageTimeInMs == 0
+                    && consumePower == 0) {
+                continue;
+            }
+            // Selects the first available entry of the three slots.
+            final BatteryHistoryColumns.Slot selectedSlot =
+                    ci >= 0 ? current : ni >= 0 ? next : nextTwo;
+            final int selectedIndex = ci >= 0 ? ci : ni >= 0 ? ni : ti;
+            final BatteryHistEntry selectedBatteryEntry = selectedSlot.mEntries[selectedIndex];
+            // Forces refine the cumulative value since it may introduce deviation error since we
+            // will apply the interpolation arithmetic.
+            final float totalUsageTimeInMs =
+                    foregroundUsageTimeInMs + backgroundUsageTimeInMs;
+            if (totalUsageTimeInMs > TOTAL_HOURLY_TIME_THRESHOLD) {
+                final float ratio = TOTAL_HOURLY_TIME_THRESHOLD / totalUsageTimeInMs;
+                if (DEBUG) {
+                    Log.w(TAG, String.format("abnormal usage time %d|%d for:\n%s",
+                            Duration.ofMillis(foregroundUsageTimeInMs).getSeconds(),
+                            Duration.ofMillis(backgroundUsageTimeInMs).getSeconds(),
+                            selectedBatteryEntry));
+                }
+                foregroundUsageTimeInMs =
+                        Math.round(foregroundUsageTimeInMs * ratio);
+                backgroundUsageTimeInMs =
+                        Math.round(backgroundUsageTimeInMs * ratio);
+                consumePower = consumePower * ratio;
+            }
+            totalConsumePower += consumePower;
+
+            final boolean isFromOtherUsers = DataProcessor.isConsumedFromOtherUsers(
+                    mCurrentUserId, mWorkProfileUserId, selectedBatteryEntry);
+            if (isFromOtherUsers) {
+                consumePowerFromOtherUsers += consumePower;
+            } else {
+                final BatteryDiffEntry currentBatteryDiffEntry = new BatteryDiffEntry(
+                        mContext,
+                        foregroundUsageTimeInMs,
+                        backgroundUsageTimeInMs,
+                        consumePower,
+                        selectedBatteryEntry);
+                accumulator.add(selectedSlot.mEntryKeyIds[selectedIndex], currentBatteryDiffEntry);
+                if (currentBatteryDiffEntry.isSystemEntry()) {
+                    systemEntries.add(currentBatteryDiffEntry);
+                } else {
+                    appEntries.add(currentBatteryDiffEntry);
+                }
+            }
+        }
+        if (consumePowerFromOtherUsers != 0) {
+            final BatteryDiffEntry otherUsersEntry =
+                    DataProcessor.createOtherUsersEntry(mContext, consumePowerFromOtherUsers);
+            accumulator.add(mOtherUsersKeyId, otherUsersEntry);
+            systemEntries.add(otherUsersEntry);
+        }
+
+        // If there is no data, return null instead of empty item.
+        if (appEntries.isEmpty() && systemEntries.isEmpty()) {
+            return null;
+        }
+
+        return new BatteryDiffData(appEntries, systemEntries, totalConsumePower);
+    }
+
+    private static int keyIdAt(BatteryHistoryColumns.Slot slot, int index) {
+        return index < slot.size() ? slot.mKeyIds[index] : Integer.MAX_VALUE;
+    }
+
+    private static long getDiffValue(long v1, long v2, long v3) {
+        return (v2 > v1 ? v2 - v1 : 0) + (v3 > v2 ? v3 - v2 : 0);
+    }
+
+    private static double getDiffValue(double v1, double v2, double v3) {
+        return (v2 > v1 ? v2 - v1 : 0) + (v3 > v2 ? v3 - v2 : 0);
+    }
+
+    /** Computes the days in [start, end), splitting the range in halves until one day is left. */
+    private final class DailyDiffTask extends RecursiveAction {
+        private final List<List<Long>> mHourlyTimestampsPerDay;
+        // Each task only sets the days of its own range.
+        private final List<Map<Integer, BatteryDiffData>> mDailyDiffMaps;
+        private final int mStart;
+        private final int mEnd;
+
+        DailyDiffTask(List<List<Long>> hourlyTimestampsPerDay,
+                List<Map<Integer, BatteryDiffData>> dailyDiffMaps, int start, int end) {
+            mHourlyTimestampsPerDay = hourlyTimestampsPerDay;
+            mDailyDiffMaps = dailyDiffMaps;
+            mStart = start;
+            mEnd = end;
+        }
+
+        @Override
+        protected void compute() {
+            if (mEnd - mStart <= 1) {
+                for (int dailyIndex = mStart; dailyIndex < mEnd; dailyIndex++) {
+                    mDailyDiffMaps.set(dailyIndex,
+                            computeDailyDiffData(mHourlyTimestampsPerDay.get(dailyIndex)));
+                }
+                return;
+            }
+            final int middle = (mStart + mEnd) >>> 1;
+            invokeAll(
+                    new DailyDiffTask(mHourlyTimestampsPerDay, mDailyDiffMaps, mStart, middle),
+                    new DailyDiffTask(mHourlyTimestampsPerDay, mDailyDiffMaps, middle, mEnd));
+        }
+    }
+
+    /** Sums up the hourly entries of a day by key id. */
+    private final class DailyAccumulator {
+        private final long[] mForegroundUsageTimeInMs;
+        private final long[] mBackgroundUsageTimeInMs;
+        private final double[] mConsumePower;
+        // The first hourly entry of each key, providing the BatteryHistEntry of the daily one.
+        private final BatteryDiffEntry[] mFirstEntries;
+        private final int[] mKeyIdsInOrder;
+        private int mKeyCount;
+        private double mTotalConsumePower;
+        // Entries added while recording an hourly slot to cache.
+        @Nullable
+        private List<BatteryDiffEntry> mRecordedEntries;
+        @Nullable
+        private List<String> mRecordedKeys;
+
+        DailyAccumulator(int keyCount) {
+            mForegroundUsageTimeInMs = new long[keyCount];
+            mBackgroundUsageTimeInMs = new long[keyCount];
+            mConsumePower = new double[keyCount];
+            mFirstEntries = new BatteryDiffEntry[keyCount];
+            mKeyIdsInOrder = new int[keyCount];
+        }
+
+        void add(int keyId, BatteryDiffEntry entry) {
+            if (mFirstEntries[keyId] == null) {
+                mFirstEntries[keyId] = entry;
+                mKeyIdsInOrder[mKeyCount++] = keyId;
+            }
+            mForegroundUsageTimeInMs[keyId] += entry.mForegroundUsageTimeInMs;
+            mBackgroundUsageTimeInMs[keyId] += entry.mBackgroundUsageTimeInMs;
+            mConsumePower[keyId] += entry.mConsumePower;
+            if (mRecordedEntries != null) {
+                mRecordedEntries.add(entry);
+                mRecordedKeys.add(mHistory.getKey(keyId));
+            }
+        }
+
+        /** Add the entries of a cached hourly slot, return false if they don't fit the history. */
+        boolean addAll(BatteryUsageRollupCache.HourlyRollup rollup) {
+            final int[] keyIds = new int[rollup.mEntryKeys.length];
+            for (int i = 0; i < keyIds.length; i++) {
+                keyIds[i] = mHistory.getKeyId(rollup.mEntryKeys[i]);
+                if (keyIds[i] < 0) {
+                    return false;
+                }
+            }
+            for (int i = 0; i < keyIds.length; i++) {
+                add(keyIds[i], rollup.mEntries[i]);
+            }
+            return true;
+        }
+
+        void startRecording() {
+            mRecordedEntries = new ArrayList<>();
+            mRecordedKeys = new ArrayList<>();
+        }
+
+        BatteryUsageRollupCache.HourlyRollup stopRecording(long fingerprint,
+                @Nullable BatteryDiffData hourlyDiffData) {
+            final BatteryUsageRollupCache.HourlyRollup rollup =
+                    new BatteryUsageRollupCache.HourlyRollup(
+                            fingerprint,
+                            hourlyDiffData,
+                            mRecordedKeys.toArray(new String[0]),
+                            mRecordedEntries.toArray(new BatteryDiffEntry[0]));
+            mRecordedEntries = null;
+            mRecordedKeys = null;
+            return rollup;
+        }
+
+        void addTotalConsumePower(@Nullable BatteryDiffData hourlyDiffData) {
+            if (hourlyDiffData == null) {
+                return;
+            }
+            for (BatteryDiffEntry entry : hourlyDiffData.getAppDiffEntryList()) {
+                mTotalConsumePower += entry.mConsumePower;
+            }
+            for (BatteryDiffEntry entry : hourlyDiffData.getSystemDiffEntryList()) {
+                mTotalConsumePower += entry.mConsumePower;
+            }
+        }
+
+        @Nullable
+        BatteryDiffData build() {
+            if (mKeyCount == 0) {
+                return null;
+            }
+            final List<BatteryDiffEntry> appEntries = new ArrayList<>();
+            final List<BatteryDiffEntry> systemEntries = new ArrayList<>();
+            for (int i = 0; i < mKeyCount; i++) {
+                final int keyId = mKeyIdsInOrder[i];
+                final BatteryDiffEntry entry = new BatteryDiffEntry(
+                        mContext,
+                        mForegroundUsageTimeInMs[keyId],
+                        mBackgroundUsageTimeInMs[keyId],
+                        mConsumePower[keyId],
+                        mFirstEntries[keyId].mBatteryHistEntry);
+                // Sets total daily consume power data into all BatteryDiffEntry.
+                entry.setTotalConsumePower(mTotalConsumePower);
+                if (entry.isSystemEntry()) {
+                    systemEntries.add(entry);
+                } else {
+                    appEntries.add(entry);
+                }
+            }
+            return new BatteryDiffData(appEntries, systemEntries);
+        }
+    }
+}
@@ -0,0 +1,200 @@
+/*
+ * Copyright (C) 2022 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.settings.fuelgauge.batteryusage;
+
+import android.text.TextUtils;
+import android.util.Log;
+
+import androidx.annotation.Nullable;
+import androidx.annotation.VisibleForTesting;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.TimeZone;
+
+/**
+ * Keeps the hourly and daily {@link BatteryDiffData} of completed time slots for the lifetime of
+ * the process, so reopening the battery usage page only diffs the slots which are still open.
+ * Entries are built with the application context, so they don't hold any activity.
+ *
+ * Rollups are keyed by their start timestamp and carry a fingerprint of the history they were
+ * computed from, so a rollup is only reused if its input data didn't change. Rollups before the
+ * start of the history are dropped after a full charge or a reset, and all of them are dropped
+ * when the time zone changes. Cached data is never handed out directly, callers get copies.
+ */
+final class BatteryUsageRollupCache {
+    private static final boolean DEBUG = false;
+    private static final String TAG = "BatteryUsageRollupCache";
+
+    private static BatteryUsageRollupCache sInstance;
+
+    private final Map<Long, HourlyRollup> mHourlyRollups = new HashMap<>();
+    private final Map<Long, DailyRollup> mDailyRollups = new HashMap<>();
+    @Nullable
+    private String mTimeZoneId;
+    private int mHitCount;
+
+    /** Diff data of a completed hourly slot. */
+    static final class HourlyRollup {
+        final long mFingerprint;
+        @Nullable
+        final BatteryDiffData mDiffData;
+        // Entries summed into the daily diff data, and the keys they are merged by, in order.
+        final String[] mEntryKeys;
+        final BatteryDiffEntry[] mEntries;
+
+        HourlyRollup(long fingerprint, @Nullable BatteryDiffData diffData, String[] entryKeys,
+                BatteryDiffEntry[] entries) {
+            mFingerprint = fingerprint;
+            mDiffData = diffData;
+            mEntryKeys = entryKeys;
+            mEntries = entries;
+        }
+    }
+
+    /** Hourly and whole day diff data of a completed day. */
+    static final class DailyRollup {
+        final long mFingerprint;
+        final Map<Integer, BatteryDiffData> mDailyDiffMap;
+
+        DailyRollup(long fingerprint, Map<Integer, BatteryDiffData> dailyDiffMap) {
+            mFingerprint = fingerprint;
+            mDailyDiffMap = dailyDiffMap;
+        }
+    }
+
+    /** Return the process wide cache. */
+    static synchronized BatteryUsageRollupCache getInstance() {
+        if (sInstance == null) {
+            sInstance = new BatteryUsageRollupCache();
+        }
+        return sInstance;
+    }
+
+    @VisibleForTesting
+    BatteryUsageRollupCache() {
+    }
+
+    /**
+     * Drop the rollups which can't belong to a history between {@code startTimestamp} and
+     * {@code endTimestamp}, or all of them if the time zone changed since they were computed.
+     */
+    synchronized void onHistoryLoaded(long startTimestamp, long endTimestamp) {
+        final String timeZoneId = TimeZone.getDefault().getID();
+        if (!TextUtils.equals(mTimeZoneId, timeZoneId)) {
+            if (DEBUG && mTimeZoneId != null) {
+                Log.d(TAG, "time zone changed, drop all rollups");
+            }
+            mTimeZoneId = timeZoneId;
+            clear();
+            return;
+        }
+        prune(mHourlyRollups, startTimestamp, endTimestamp);
+        prune(mDailyRollups, startTimestamp, endTimestamp);
+    }
+
+    /** Return the rollup of the hourly slot at {@code timestamp}, if its data didn't change. */
+    @Nullable
+    synchronized HourlyRollup getHourlyRollup(long timestamp, long fingerprint) {
+        final HourlyRollup rollup = mHourlyRollups.get(timestamp);
+        if (rollup == null || rollup.mFingerprint != fingerprint) {
+            return null;
+        }
+        mHitCount++;
+        return rollup;
+    }
+
+    synchronized void putHourlyRollup(long timestamp, HourlyRollup rollup) {
+        mHourlyRollups.put(timestamp, rollup);
+    }
+
+    /** Return the rollup of the day starting at {@code timestamp}, if its data didn't change. */
+    @Nullable
+    synchronized DailyRollup getDailyRollup(long timestamp, long fingerprint) {
+        final DailyRollup rollup = mDailyRollups.get(timestamp);
+        if (rollup == null || rollup.mFingerprint != fingerprint) {
+            return null;
+        }
+        mHitCount++;
+        return rollup;
+    }
+
+    synchronized void putDailyRollup(long timestamp, DailyRollup rollup) {
+        mDailyRollups.put(timestamp, rollup);
+    }
+
+    /** Drop all rollups. */
+    synchronized void clear() {
+        mHourlyRollups.clear();
+        mDailyRollups.clear();
+    }
+
+    /** Return how many rollups were reused so far. */
+    @VisibleForTesting
+    synchronized int getHitCount() {
+        return mHitCount;
+    }
+
+    @VisibleForTesting
+    synchronized int size() {
+        return mHourlyRollups.size() + mDailyRollups.size();
+    }
+
+    /** Return a copy of {@code diffData}, which callers are free to modify. */
+    @Nullable
+    static BatteryDiffData copyOf(@Nullable BatteryDiffData diffData) {
+        if (diffData == null) {
+            return null;
+        }
+        return new BatteryDiffData(
+                copyOf(diffData.getAppDiffEntryList()),
+                copyOf(diffData.getSystemDiffEntryList()));
+    }
+
+    /** Return a copy of every {@link BatteryDiffData} of {@code diffMap}. */
+    static Map<Integer, BatteryDiffData> copyOf(Map<Integer, BatteryDiffData> diffMap) {
+        final Map<Integer, BatteryDiffData> copy = new HashMap<>();
+        for (Map.Entry<Integer, BatteryDiffData> entry : diffMap.entrySet()) {
+            copy.put(entry.getKey(), copyOf(entry.getValue()));
+        }
+        return copy;
+    }
+
+    private static List<BatteryDiffEntry> copyOf(List<BatteryDiffEntry> entries) {
+        final List<BatteryDiffEntry> copy = new ArrayList<>(entries.size());
+        for (BatteryDiffEntry entry : entries) {
+            final BatteryDiffEntry entryCopy = entry.clone();
+            // The percentage was set by DataProcessor, clone() leaves it to the caller.
+            entryCopy.setTotalConsumePower(entry.getTotalConsumePower());
+            copy.add(entryCopy);
+        }
+        return copy;
+    }
+
+    private static void prune(Map<Long, ?> rollups, long startTimestamp, long endTimestamp) {
+        final Iterator<Long> iterator = rollups.keySet().iterator();
+        while (iterator.hasNext()) {
+            final long timestamp = iterator.next();
+            if (timestamp < startTimestamp || timestamp > endTimestamp) {
+                iterator.remove();
+            }
+        }
+    }
+}
@@ -31,7 +31,6 @@ import android.os.UserHandle;
 import android.os.UserManager;
 import android.text.TextUtils;
 import android.text.format.DateUtils;
-import android.util.ArraySet;
 import android.util.Log;
 
 import androidx.annotation.Nullable;
@@ -43,7 +42,6 @@ import com.android.settings.overlay.FeatureFactory;
 import com.android.settingslib.core.instrumentation.MetricsFeatureProvider;
 import com.android.settingslib.fuelgauge.BatteryStatus;
 
-import java.time.Duration;
 import java.util.ArrayList;
 import java.util.Calendar;
 import java.util.Collection;
@@ -53,6 +51,7 @@ import java.util.Iterator;
 import java.util.List;
 import java.util.Map;
 import java.util.Set;
+import java.util.concurrent.ForkJoinPool;
 import java.util.stream.Collectors;
 
 /**
@@ -65,11 +64,6 @@ public final class DataProcessor {
     private static final int MIN_DAILY_DATA_SIZE = 2;
     private static final int MIN_TIMESTAMP_DATA_SIZE = 2;
     private static final int MAX_DIFF_SECONDS_OF_UPPER_TIMESTAMP = 5;
-    // Maximum total time value for each hourly slot cumulative data at most 2 hours.
-    private static final float TOTAL_HOURLY_TIME_THRESHOLD = DateUtils.HOUR_IN_MILLIS * 2;
-    private static final Map<String, BatteryHistEntry> EMPTY_BATTERY_MAP = new HashMap<>();
-    private static final BatteryHistEntry EMPTY_BATTERY_HIST_ENTRY =
-            new BatteryHistEntry(new ContentValues());
 
     @VisibleForTesting
     static final double PERCENTAGE_OF_TOTAL_THRESHOLD = 1f;
@@ -86,6 +80,9 @@ public final class DataProcessor {
                 Map<Integer, Map<Integer, BatteryDiffData>> batteryUsageMap);
     }
 
+    // Shared pool computing the battery usage diff data of every day in parallel.
+    private static ForkJoinPool sDiffPool;
+
     private DataProcessor() {
     }
 
@@ -100,6 +97,21 @@ public final class DataProcessor {
             @Nullable Handler handler,
             @Nullable final Map<Long, Map<String, BatteryHistEntry>> batteryHistoryMap,
             final UsageMapAsyncResponse asyncResponseDelegate) {
+        return getBatteryLevelData(context, handler, batteryHistoryMap, asyncResponseDelegate,
+                /*rollupCache=*/ null);
+    }
+
+    /**
+     * Same as {@link #getBatteryLevelData(Context, Handler, Map, UsageMapAsyncResponse)}, reusing
+     * the diff data of completed time slots kept by the caller's {@code rollupCache}.
+     */
+    @Nullable
+    static BatteryLevelData getBatteryLevelData(
+            Context context,
+            @Nullable Handler handler,
+            @Nullable final Map<Long, Map<String, BatteryHistEntry>> batteryHistoryMap,
+            final UsageMapAsyncResponse asyncResponseDelegate,
+            @Nullable final BatteryUsageRollupCache rollupCache) {
         if (batteryHistoryMap == null || batteryHistoryMap.isEmpty()) {
             Log.d(TAG, "batteryHistoryMap is null in getBatteryLevelData()");
             loadBatteryUsageDataFromBatteryStatsService(
@@ -126,7 +138,8 @@ public final class DataProcessor {
                 handler,
                 asyncResponseDelegate,
                 batteryLevelData.getHourlyBatteryLevelsPerDay(),
-                processedBatteryHistoryMap).execute();
+                processedBatteryHistoryMap,
+                rollupCache).execute();
 
         return batteryLevelData;
     }
@@ -355,15 +368,24 @@ public final class DataProcessor {
             final Context context,
             final List<BatteryLevelData.PeriodBatteryLevelData> hourlyBatteryLevelsPerDay,
             final Map<Long, Map<String, BatteryHistEntry>> batteryHistoryMap) {
+        return getBatteryUsageMap(context, hourlyBatteryLevelsPerDay, batteryHistoryMap,
+                /*rollupCache=*/ null);
+    }
+
+    @Nullable
+    private static Map<Integer, Map<Integer, BatteryDiffData>> getBatteryUsageMap(
+            final Context context,
+            final List<BatteryLevelData.PeriodBatteryLevelData> hourlyBatteryLevelsPerDay,
+            final Map<Long, Map<String, BatteryHistEntry>> batteryHistoryMap,
+            @Nullable final BatteryUsageRollupCache rollupCache) {
         if (batteryHistoryMap.isEmpty()) {
             return null;
         }
         final Map<Integer, Map<Integer, BatteryDiffData>> resultMap = new HashMap<>();
-        // Insert diff data from [0][0] to [maxDailyIndex][maxHourlyIndex].
-        insertHourlyUsageDiffData(
-                context, hourlyBatteryLevelsPerDay, batteryHistoryMap, resultMap);
-        // Insert diff data from [0][SELECTED_INDEX_ALL] to [maxDailyIndex][SELECTED_INDEX_ALL].
-        insertDailyUsageDiffData(hourlyBatteryLevelsPerDay, resultMap);
+        // Insert diff data from [0][0] to [maxDailyIndex][maxHourlyIndex], and from
+        // [0][SELECTED_INDEX_ALL] to [maxDailyIndex][SELECTED_INDEX_ALL].
+        insertHourlyAndDailyUsageDiffData(
+                context, hourlyBatteryLevelsPerDay, batteryHistoryMap, rollupCache, resultMap);
         // Insert diff data [SELECTED_INDEX_ALL][SELECTED_INDEX_ALL].
         insertAllUsageDiffData(resultMap);
         // Compute the apps number before purge. Must put before purgeLowPercentageAndFakeData.
@@ -768,54 +790,42 @@ public final class DataProcessor {
         return Math.round(batteryLevelCounter / entryMap.size());
     }
 
-    private static void insertHourlyUsageDiffData(
+    private static void insertHourlyAndDailyUsageDiffData(
             Context context,
             final List<BatteryLevelData.PeriodBatteryLevelData> hourlyBatteryLevelsPerDay,
             final Map<Long, Map<String, BatteryHistEntry>> batteryHistoryMap,
+            @Nullable final BatteryUsageRollupCache rollupCache,
             final Map<Integer, Map<Integer, BatteryDiffData>> resultMap) {
-        final int currentUserId = context.getUserId();
-        final UserHandle userHandle =
-                Utils.getManagedProfile(context.getSystemService(UserManager.class));
-        final int workProfileUserId =
-                userHandle != null ? userHandle.getIdentifier() : Integer.MIN_VALUE;
-        // Each time slot usage diff data =
-        //     Math.abs(timestamp[i+2] data - timestamp[i+1] data) +
-        //     Math.abs(timestamp[i+1] data - timestamp[i] data);
-        // since we want to aggregate every two hours data into a single time slot.
-        for (int dailyIndex = 0; dailyIndex < hourlyBatteryLevelsPerDay.size(); dailyIndex++) {
-            final Map<Integer, BatteryDiffData> dailyDiffMap = new HashMap<>();
-            resultMap.put(dailyIndex, dailyDiffMap);
-            if (hourlyBatteryLevelsPerDay.get(dailyIndex) == null) {
-                continue;
-            }
-            final List<Long> timestamps = hourlyBatteryLevelsPerDay.get(dailyIndex).getTimestamps();
-            for (int hourlyIndex = 0; hourlyIndex < timestamps.size() - 1; hourlyIndex++) {
-                final BatteryDiffData hourlyBatteryDiffData =
-                        insertHourlyUsageDiffDataPerSlot(
-                                context,
-                                currentUserId,
-                                workProfileUserId,
-                                hourlyIndex,
-                                timestamps,
-                                batteryHistoryMap);
-                dailyDiffMap.put(hourlyIndex, hourlyBatteryDiffData);
-            }
-        }
+        resultMap.putAll(computeHourlyAndDailyUsageDiffData(
+                context, hourlyBatteryLevelsPerDay, batteryHistoryMap, rollupCache,
+                Runtime.getRuntime().availableProcessors() > 1 ? getDiffPool() : null));
     }
 
-    private static void insertDailyUsageDiffData(
+    /**
+     * @return Returns the hourly and daily diff data of every day, computed in parallel on the
+     * given pool, or on the calling thread if it's null.
+     */
+    @VisibleForTesting
+    static Map<Integer, Map<Integer, BatteryDiffData>> computeHourlyAndDailyUsageDiffData(
+            Context context,
             final List<BatteryLevelData.PeriodBatteryLevelData> hourlyBatteryLevelsPerDay,
-            final Map<Integer, Map<Integer, BatteryDiffData>> resultMap) {
-        for (int index = 0; index < hourlyBatteryLevelsPerDay.size(); index++) {
-            Map<Integer, BatteryDiffData> dailyUsageMap = resultMap.get(index);
-            if (dailyUsageMap == null) {
-                dailyUsageMap = new HashMap<>();
-                resultMap.put(index, dailyUsageMap);
-            }
-            dailyUsageMap.put(
-                    SELECTED_INDEX_ALL,
-                    getAccumulatedUsageDiffData(dailyUsageMap.values()));
+            final Map<Long, Map<String, BatteryHistEntry>> batteryHistoryMap,
+            @Nullable final BatteryUsageRollupCache rollupCache,
+            @Nullable final ForkJoinPool pool) {
+        final BatteryUsageDiffEngine diffEngine = new BatteryUsageDiffEngine(
+                context, BatteryHistoryColumns.create(batteryHistoryMap), rollupCache);
+        final List<List<Long>> hourlyTimestampsPerDay = new ArrayList<>();
+        for (BatteryLevelData.PeriodBatteryLevelData periodData : hourlyBatteryLevelsPerDay) {
+            hourlyTimestampsPerDay.add(periodData == null ? null : periodData.getTimestamps());
+        }
+        return diffEngine.computeDiffData(hourlyTimestampsPerDay, pool);
+    }
+
+    private static synchronized ForkJoinPool getDiffPool() {
+        if (sDiffPool == null) {
+            sDiffPool = new ForkJoinPool(Runtime.getRuntime().availableProcessors());
         }
+        return sDiffPool;
     }
 
     private static void insertAllUsageDiffData(
@@ -828,132 +838,7 @@ public final class DataProcessor {
         resultMap.put(SELECTED_INDEX_ALL, allUsageMap);
     }
 
-    @Nullable
-    private static BatteryDiffData insertHourlyUsageDiffDataPerSlot(
-            Context context,
-            final int currentUserId,
-            final int workProfileUserId,
-            final int currentIndex,
-            final List<Long> timestamps,
-            final Map<Long, Map<String, BatteryHistEntry>> batteryHistoryMap) {
-        final List<BatteryDiffEntry> appEntries = new ArrayList<>();
-        final List<BatteryDiffEntry> systemEntries = new ArrayList<>();
-
-        final Long currentTimestamp = timestamps.get(currentIndex);
-        final Long nextTimestamp = currentTimestamp + DateUtils.HOUR_IN_MILLIS;
-        final Long nextTwoTimestamp = nextTimestamp + DateUtils.HOUR_IN_MILLIS;
-        // Fetches BatteryHistEntry data from corresponding time slot.
-        final Map<String, BatteryHistEntry> currentBatteryHistMap =
-                batteryHistoryMap.getOrDefault(currentTimestamp, EMPTY_BATTERY_MAP);
-        final Map<String, BatteryHistEntry> nextBatteryHistMap =
-                batteryHistoryMap.getOrDefault(nextTimestamp, EMPTY_BATTERY_MAP);
-        final Map<String, BatteryHistEntry> nextTwoBatteryHistMap =
-                batteryHistoryMap.getOrDefault(nextTwoTimestamp, EMPTY_BATTERY_MAP);
-        // We should not get the empty list since we have at least one fake data to record
-        // the battery level and status in each time slot, the empty list is used to
-        // represent there is no enough data to apply interpolation arithmetic.
-        if (currentBatteryHistMap.isEmpty()
-                || nextBatteryHistMap.isEmpty()
-                || nextTwoBatteryHistMap.isEmpty()) {
-            return null;
-        }
-
-        // Collects all keys in these three time slot records as all populations.
-        final Set<String> allBatteryHistEntryKeys = new ArraySet<>();
-        allBatteryHistEntryKeys.addAll(currentBatteryHistMap.keySet());
-        allBatteryHistEntryKeys.addAll(nextBatteryHistMap.keySet());
-        allBatteryHistEntryKeys.addAll(nextTwoBatteryHistMap.keySet());
-
-        double totalConsumePower = 0.0;
-        double consumePowerFromOtherUsers = 0f;
-        // Calculates all packages diff usage data in a specific time slot.
-        for (String key : allBatteryHistEntryKeys) {
-            final BatteryHistEntry currentEntry =
-                    currentBatteryHistMap.getOrDefault(key, EMPTY_BATTERY_HIST_ENTRY);
-            final BatteryHistEntry nextEntry =
-                    nextBatteryHistMap.getOrDefault(key, EMPTY_BATTERY_HIST_ENTRY);
-            final BatteryHistEntry nextTwoEntry =
-                    nextTwoBatteryHistMap.getOrDefault(key, EMPTY_BATTERY_HIST_ENTRY);
-            // Cumulative values is a specific time slot for a specific app.
-            long foregroundUsageTimeInMs =
-                    getDiffValue(
-                            currentEntry.mForegroundUsageTimeInMs,
-                            nextEntry.mForegroundUsageTimeInMs,
-                            nextTwoEntry.mForegroundUsageTimeInMs);
-            long backgroundUsageTimeInMs =
-                    getDiffValue(
-                            currentEntry.mBackgroundUsageTimeInMs,
-                            nextEntry.mBackgroundUsageTimeInMs,
-                            nextTwoEntry.mBackgroundUsageTimeInMs);
-            double consumePower =
-                    getDiffValue(
-                            currentEntry.mConsumePower,
-                            nextEntry.mConsumePower,
-                            nextTwoEntry.mConsumePower);
-            // Excludes entry since we don't have enough data to calculate.
-            if (foregroundUsageTimeInMs == 0
-                    && backgroundUsageTimeInMs == 0
-                    && consumePower == 0) {
-                continue;
-            }
-            final BatteryHistEntry selectedBatteryEntry =
-                    selectBatteryHistEntry(currentEntry, nextEntry, nextTwoEntry);
-            if (selectedBatteryEntry == null) {
-                continue;
-            }
-            // Forces refine the cumulative value since it may introduce deviation error since we
-            // will apply the interpolation arithmetic.
-            final float totalUsageTimeInMs =
-                    foregroundUsageTimeInMs + backgroundUsageTimeInMs;
-            if (totalUsageTimeInMs > TOTAL_HOURLY_TIME_THRESHOLD) {
-                final float ratio = TOTAL_HOURLY_TIME_THRESHOLD / totalUsageTimeInMs;
-                if (DEBUG) {
-                    Log.w(TAG, String.format("abnormal usage time %d|%d for:\n%s",
-                            Duration.ofMillis(foregroundUsageTimeInMs).getSeconds(),
-                            Duration.ofMillis(backgroundUsageTimeInMs).getSeconds(),
-                            currentEntry));
-                }
-                foregroundUsageTimeInMs =
-                        Math.round(foregroundUsageTimeInMs * ratio);
-                backgroundUsageTimeInMs =
-                        Math.round(backgroundUsageTimeInMs * ratio);
-                consumePower = consumePower * ratio;
-            }
-            totalConsumePower += consumePower;
-
-            final boolean isFromOtherUsers = isConsumedFromOtherUsers(
-                    currentUserId, workProfileUserId, selectedBatteryEntry);
-            if (isFromOtherUsers) {
-                consumePowerFromOtherUsers += consumePower;
-            } else {
-                final BatteryDiffEntry currentBatteryDiffEntry = new BatteryDiffEntry(
-                        context,
-                        foregroundUsageTimeInMs,
-                        backgroundUsageTimeInMs,
-                        consumePower,
-                        selectedBatteryEntry);
-                if (currentBatteryDiffEntry.isSystemEntry()) {
-                    systemEntries.add(currentBatteryDiffEntry);
-                } else {
-                    appEntries.add(currentBatteryDiffEntry);
-                }
-            }
-        }
-        if (consumePowerFromOtherUsers != 0) {
-            systemEntries.add(createOtherUsersEntry(context, consumePowerFromOtherUsers));
-        }
-
-        // If there is no data, return null instead of empty item.
-        if (appEntries.isEmpty() && systemEntries.isEmpty()) {
-            return null;
-        }
-
-        final BatteryDiffData resultDiffData =
-                new BatteryDiffData(appEntries, systemEntries, totalConsumePower);
-        return resultDiffData;
-    }
-
-    private static boolean isConsumedFromOtherUsers(
+    static boolean isConsumedFromOtherUsers(
             final int currentUserId,
             final int workProfileUserId,
             final BatteryHistEntry batteryHistEntry) {
@@ -1142,26 +1027,7 @@ public final class DataProcessor {
         return false;
     }
 
-    private static long getDiffValue(long v1, long v2, long v3) {
-        return (v2 > v1 ? v2 - v1 : 0) + (v3 > v2 ? v3 - v2 : 0);
-    }
-
-    private static double getDiffValue(double v1, double v2, double v3) {
-        return (v2 > v1 ? v2 - v1 : 0) + (v3 > v2 ? v3 - v2 : 0);
-    }
-
-    @Nullable
-    private static BatteryHistEntry selectBatteryHistEntry(
-            final BatteryHistEntry... batteryHistEntries) {
-        for (BatteryHistEntry entry : batteryHistEntries) {
-            if (entry != null && entry != EMPTY_BATTERY_HIST_ENTRY) {
-                return entry;
-            }
-        }
-        return null;
-    }
-
-    private static BatteryDiffEntry createOtherUsersEntry(
+    static BatteryDiffEntry createOtherUsersEntry(
             Context context, final double consumePower) {
         final ContentValues values = new ContentValues();
         values.put(BatteryHistEntry.KEY_UID, BatteryUtils.UID_OTHER_USERS);
@@ -1210,18 +1076,22 @@ public final class DataProcessor {
         final UsageMapAsyncResponse mAsyncResponseDelegate;
         private List<BatteryLevelData.PeriodBatteryLevelData> mHourlyBatteryLevelsPerDay;
         private Map<Long, Map<String, BatteryHistEntry>> mBatteryHistoryMap;
+        @Nullable
+        private final BatteryUsageRollupCache mRollupCache;
 
         private ComputeUsageMapAndLoadItemsTask(
                 Context context,
                 Handler handler,
                 final UsageMapAsyncResponse asyncResponseDelegate,
                 final List<BatteryLevelData.PeriodBatteryLevelData> hourlyBatteryLevelsPerDay,
-                final Map<Long, Map<String, BatteryHistEntry>> batteryHistoryMap) {
+                final Map<Long, Map<String, BatteryHistEntry>> batteryHistoryMap,
+                @Nullable final BatteryUsageRollupCache rollupCache) {
             mApplicationContext = context.getApplicationContext();
             mHandler = handler;
             mAsyncResponseDelegate = asyncResponseDelegate;
             mHourlyBatteryLevelsPerDay = hourlyBatteryLevelsPerDay;
             mBatteryHistoryMap = batteryHistoryMap;
+            mRollupCache = rollupCache;
         }
 
         @Override
@@ -1236,8 +1106,8 @@ public final class DataProcessor {
             }
             final long startTime = System.currentTimeMillis();
             final Map<Integer, Map<Integer, BatteryDiffData>> batteryUsageMap =
-                    getBatteryUsageMap(
-                            mApplicationContext, mHourlyBatteryLevelsPerDay, mBatteryHistoryMap);
+                    getBatteryUsageMap(mApplicationContext, mHourlyBatteryLevelsPerDay,
+                            mBatteryHistoryMap, mRollupCache);
             loadLabelAndIcon(batteryUsageMap);
             Log.d(TAG, String.format("execute ComputeUsageMapAndLoadItemsTask in %d/ms",
                     (System.currentTimeMillis() - startTime)));
@@ -1269,7 +1139,7 @@ public final class DataProcessor {
                 Handler handler,
                 final UsageMapAsyncResponse asyncResponseDelegate) {
             super(context, handler, asyncResponseDelegate, /*hourlyBatteryLevelsPerDay=*/ null,
-                    /*batteryHistoryMap=*/ null);
+                    /*batteryHistoryMap=*/ null, /*rollupCache=*/ null);
         }
 
         @Override
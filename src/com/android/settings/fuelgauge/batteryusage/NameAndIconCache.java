@@ -0,0 +1,138 @@
+/*
+ * Copyright (C) 2022 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.settings.fuelgauge.batteryusage;
+
+import android.content.Context;
+import android.util.Log;
+
+import androidx.annotation.Nullable;
+import androidx.annotation.VisibleForTesting;
+
+import com.android.settings.utils.PackageLruCache;
+
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.FutureTask;
+
+/**
+ * Process wide cache of the app label and icon resolved for each uid, invalidated as described
+ * in {@link PackageLruCache}.
+ *
+ * Entries only hold what the package manager resolved for the uid, with null for anything it
+ * couldn't, so they are the same whoever loads them. Callers fill in their own defaults.
+ * Concurrent loads of the same uid are merged, so the
+ * {@link android.content.pm.PackageManager} calls for a uid only run once.
+ */
+public final class NameAndIconCache {
+    private static final String TAG = "NameAndIconCache";
+
+    @VisibleForTesting
+    static final int MAX_SIZE = 500;
+
+    private static NameAndIconCache sInstance;
+
+    private final PackageLruCache<Integer, BatteryEntry.NameAndIcon> mCache =
+            new PackageLruCache<>(MAX_SIZE, (uid, nameAndIcon, packageName, changedUid) ->
+                    uid == changedUid || packageName.equals(nameAndIcon.mPackageName));
+    private final Map<Integer, FutureTask<BatteryEntry.NameAndIcon>> mPendingLoads =
+            new ConcurrentHashMap<>();
+
+    /** Return the process wide cache. */
+    public static synchronized NameAndIconCache getInstance() {
+        if (sInstance == null) {
+            sInstance = new NameAndIconCache();
+        }
+        return sInstance;
+    }
+
+    /** Return the process wide cache, listening to package changes with {@code context}. */
+    public static NameAndIconCache getInstance(Context context) {
+        final NameAndIconCache cache = getInstance();
+        cache.mCache.registerPackageReceiver(context);
+        return cache;
+    }
+
+    @VisibleForTesting
+    NameAndIconCache() {
+    }
+
+    /** Return the cached label and icon of {@code uid}, or {@code null}. */
+    @Nullable
+    public BatteryEntry.NameAndIcon get(int uid) {
+        return mCache.get(uid);
+    }
+
+    /** Cache the label and icon of {@code uid}. */
+    public void put(int uid, BatteryEntry.NameAndIcon nameAndIcon) {
+        mCache.put(uid, nameAndIcon);
+    }
+
+    /**
+     * Return the label and icon of {@code uid}, running {@code loader} if it's not cached. If the
+     * uid is already being loaded on another thread, wait for that load instead.
+     */
+    @Nullable
+    public BatteryEntry.NameAndIcon getOrLoad(int uid,
+            Callable<BatteryEntry.NameAndIcon> loader) {
+        final BatteryEntry.NameAndIcon cached = get(uid);
+        if (cached != null) {
+            return cached;
+        }
+        final int generation = mCache.getGeneration();
+        final FutureTask<BatteryEntry.NameAndIcon> task = new FutureTask<>(loader);
+        final FutureTask<BatteryEntry.NameAndIcon> pendingTask =
+                mPendingLoads.putIfAbsent(uid, task);
+        try {
+            if (pendingTask != null) {
+                return pendingTask.get();
+            }
+            task.run();
+            final BatteryEntry.NameAndIcon nameAndIcon = task.get();
+            if (nameAndIcon != null) {
+                mCache.put(uid, nameAndIcon, generation);
+            }
+            return nameAndIcon;
+        } catch (ExecutionException e) {
+            Log.w(TAG, "Failed to load label and icon for uid " + uid, e.getCause());
+            return null;
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            return null;
+        } finally {
+            if (pendingTask == null) {
+                mPendingLoads.remove(uid, task);
+            }
+        }
+    }
+
+    /** Drop the entries of {@code packageName}, and of {@code uid} if it's not -1. */
+    public void invalidatePackage(String packageName, int uid) {
+        mCache.invalidatePackage(packageName, uid);
+    }
+
+    /** Drop all entries. */
+    public void clear() {
+        mCache.clear();
+    }
+
+    @VisibleForTesting
+    int size() {
+        return mCache.size();
+    }
+}
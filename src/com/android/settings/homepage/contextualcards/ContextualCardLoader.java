@@ -27,6 +27,7 @@ import android.database.Cursor;
 import android.net.Uri;
 import android.os.Handler;
 import android.os.Looper;
+import android.os.SystemClock;
 import android.provider.Settings;
 import android.util.Log;
 
@@ -38,14 +39,13 @@ import com.android.settings.homepage.contextualcards.logging.ContextualCardLogUt
 import com.android.settings.overlay.FeatureFactory;
 import com.android.settingslib.core.instrumentation.MetricsFeatureProvider;
 import com.android.settingslib.utils.AsyncLoaderCompat;
+import com.android.settingslib.utils.ThreadUtils;
 
 import java.util.ArrayList;
 import java.util.List;
-import java.util.concurrent.ExecutorService;
-import java.util.concurrent.Executors;
 import java.util.concurrent.Future;
 import java.util.concurrent.TimeUnit;
-import java.util.stream.Collectors;
+import java.util.concurrent.TimeoutException;
 
 public class ContextualCardLoader extends AsyncLoaderCompat<List<ContextualCard>> {
 
@@ -62,6 +62,10 @@ public class ContextualCardLoader extends AsyncLoaderCompat<List<ContextualCard>
             new Handler(Looper.getMainLooper())) {
         @Override
         public void onChange(boolean selfChange, Uri uri) {
+            if (CardContentProvider.REFRESH_CARD_URI.equals(uri)) {
+                // Cards have been refreshed, their eligibility has to be checked again.
+                EligibleCardCache.getInstance().invalidate();
+            }
             if (isStarted()) {
                 mNotifyUri = uri;
                 forceLoad();
@@ -188,42 +192,82 @@ public class ContextualCardLoader extends AsyncLoaderCompat<List<ContextualCard>
             return candidates;
         }
 
-        final ExecutorService executor = Executors.newFixedThreadPool(candidates.size());
-        final List<ContextualCard> cards = new ArrayList<>();
-        List<Future<ContextualCard>> eligibleCards = new ArrayList<>();
-
-        final List<EligibleCardChecker> checkers = candidates.stream()
-                .map(card -> new EligibleCardChecker(mContext, card))
-                .collect(Collectors.toList());
-        try {
-            eligibleCards = executor.invokeAll(checkers, ELIGIBILITY_CHECKER_TIMEOUT_MS,
-                    TimeUnit.MILLISECONDS);
-        } catch (InterruptedException e) {
-            Log.w(TAG, "Failed to get eligible states for all cards", e);
+        final EligibleCardCache cache = getEligibleCardCache();
+        final ContextualCard[] results = new ContextualCard[candidates.size()];
+        final List<Integer> uncachedIndexes = new ArrayList<>();
+        final List<EligibleCardChecker> checkers = new ArrayList<>();
+        for (int i = 0; i < candidates.size(); i++) {
+            final ContextualCard candidate = candidates.get(i);
+            final EligibleCardCache.Result cached = cache.get(candidate);
+            if (cached != null) {
+                results[i] = cached.getCard();
+            } else {
+                uncachedIndexes.add(i);
+                checkers.add(createEligibleCardChecker(candidate));
+            }
+        }
+
+        final List<Future<ContextualCard>> eligibleCards = new ArrayList<>(checkers.size());
+        for (EligibleCardChecker checker : checkers) {
+            eligibleCards.add(
+                    (Future<ContextualCard>) ThreadUtils.postOnBackgroundThread(checker));
         }
-        executor.shutdown();
 
-        // Collect future and eligible cards
+        // Collect future and eligible cards, all of them within the same deadline
+        final MetricsFeatureProvider metricsFeatureProvider =
+                FeatureFactory.getFactory(mContext).getMetricsFeatureProvider();
+        final long deadline = SystemClock.elapsedRealtime() + ELIGIBILITY_CHECKER_TIMEOUT_MS;
         for (int i = 0; i < eligibleCards.size(); i++) {
+            final ContextualCard candidate = candidates.get(uncachedIndexes.get(i));
             final Future<ContextualCard> cardFuture = eligibleCards.get(i);
-            if (cardFuture.isCancelled()) {
-                Log.w(TAG, "Timeout getting eligible state for card: "
-                        + candidates.get(i).getSliceUri());
-                continue;
-            }
-
             try {
-                final ContextualCard card = cardFuture.get();
-                if (card != null) {
-                    cards.add(card);
+                final ContextualCard card = cardFuture.get(
+                        Math.max(0L, deadline - SystemClock.elapsedRealtime()),
+                        TimeUnit.MILLISECONDS);
+                cache.put(candidate, card);
+                results[uncachedIndexes.get(i)] = card;
+            } catch (TimeoutException e) {
+                cardFuture.cancel(true /* mayInterruptIfRunning */);
+                Log.w(TAG, "Timeout getting eligible state for card: "
+                        + candidate.getSliceUri());
+                metricsFeatureProvider.action(SettingsEnums.PAGE_UNKNOWN,
+                        SettingsEnums.ACTION_CONTEXTUAL_CARD_LOAD_TIMEOUT,
+                        SettingsEnums.SETTINGS_HOMEPAGE,
+                        candidate.getTextSliceUri() /* key */,
+                        (int) ELIGIBILITY_CHECKER_TIMEOUT_MS /* value */);
+            } catch (InterruptedException e) {
+                Log.w(TAG, "Failed to get eligible states for all cards", e);
+                Thread.currentThread().interrupt();
+                for (Future<ContextualCard> future : eligibleCards) {
+                    future.cancel(true /* mayInterruptIfRunning */);
                 }
+                break;
             } catch (Exception e) {
                 Log.w(TAG, "Failed to get eligible state for card", e);
             }
         }
+
+        final List<ContextualCard> cards = new ArrayList<>();
+        for (ContextualCard card : results) {
+            if (card != null) {
+                cards.add(card);
+            }
+        }
+        Log.d(TAG, "Eligibility checked: " + checkers.size() + ", cached: "
+                + (candidates.size() - checkers.size()));
         return cards;
     }
 
+    @VisibleForTesting
+    EligibleCardChecker createEligibleCardChecker(ContextualCard card) {
+        return new EligibleCardChecker(mContext, card);
+    }
+
+    @VisibleForTesting
+    EligibleCardCache getEligibleCardCache() {
+        return EligibleCardCache.getInstance();
+    }
+
     private boolean isLargeCard(ContextualCard card) {
         return card.getSliceUri().equals(CONTEXTUAL_WIFI_SLICE_URI)
                 || card.getSliceUri().equals(BLUETOOTH_DEVICES_SLICE_URI);
@@ -0,0 +1,129 @@
+/*
+ * Copyright (C) 2022 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.settings.homepage.contextualcards;
+
+import android.os.SystemClock;
+import android.util.ArrayMap;
+
+import androidx.annotation.Nullable;
+import androidx.annotation.VisibleForTesting;
+import androidx.slice.Slice;
+
+import java.util.Map;
+
+/**
+ * Caches the eligibility of contextual cards for a short time, so reloading the homepage doesn't
+ * bind the slice of every unchanged card again.
+ *
+ * Cards are keyed by name, slice uri and app version, so a card updated in the card database
+ * gets a new entry. The whole cache is dropped when {@link CardContentProvider#REFRESH_CARD_URI}
+ * notifies that cards have been refreshed.
+ */
+public class EligibleCardCache {
+
+    @VisibleForTesting
+    static final long TTL_MS = 10000;
+
+    private static EligibleCardCache sInstance;
+
+    private final Map<String, Entry> mEntries = new ArrayMap<>();
+
+    /** Returns the cache shared by all loaders. */
+    public static synchronized EligibleCardCache getInstance() {
+        if (sInstance == null) {
+            sInstance = new EligibleCardCache();
+        }
+        return sInstance;
+    }
+
+    @VisibleForTesting
+    EligibleCardCache() {
+    }
+
+    /** Cached eligibility check result of a card. */
+    public static final class Result {
+        private static final Result NOT_ELIGIBLE = new Result(null);
+
+        @Nullable
+        private final ContextualCard mCard;
+
+        private Result(@Nullable ContextualCard card) {
+            mCard = card;
+        }
+
+        /** Return the eligible card, or {@code null} if the card isn't eligible. */
+        @Nullable
+        public ContextualCard getCard() {
+            return mCard;
+        }
+    }
+
+    /**
+     * Return the cached eligibility of {@code candidate}, or {@code null} if it isn't cached or
+     * has expired. An eligible card is built from {@code candidate} and the cached result.
+     */
+    @Nullable
+    public synchronized Result get(ContextualCard candidate) {
+        final Entry entry = mEntries.get(getKey(candidate));
+        if (entry == null || now() - entry.mTimestamp > TTL_MS) {
+            return null;
+        }
+        if (!entry.mEligible) {
+            return Result.NOT_ELIGIBLE;
+        }
+        return new Result(candidate.mutate()
+                .setSlice(entry.mSlice)
+                .setHasInlineAction(entry.mHasInlineAction)
+                .build());
+    }
+
+    /**
+     * Cache the eligibility check {@code result} of {@code candidate}, {@code null} meaning not
+     * eligible.
+     */
+    public synchronized void put(ContextualCard candidate, ContextualCard result) {
+        final Entry entry = new Entry();
+        entry.mTimestamp = now();
+        entry.mEligible = result != null;
+        if (result != null) {
+            entry.mSlice = result.getSlice();
+            entry.mHasInlineAction = result.hasInlineAction();
+        }
+        mEntries.put(getKey(candidate), entry);
+    }
+
+    /** Drop all cached results. */
+    public synchronized void invalidate() {
+        mEntries.clear();
+    }
+
+    @VisibleForTesting
+    long now() {
+        return SystemClock.elapsedRealtime();
+    }
+
+    private static String getKey(ContextualCard card) {
+        return card.getName() + "|" + card.getTextSliceUri() + "|" + card.getAppVersion();
+    }
+
+    private static class Entry {
+        long mTimestamp;
+        boolean mEligible;
+        Slice mSlice;
+        boolean mHasInlineAction;
+    }
+}
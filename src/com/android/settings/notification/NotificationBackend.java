@@ -55,6 +55,7 @@ import android.provider.Settings;
 import android.service.notification.ConversationChannelWrapper;
 import android.service.notification.NotificationListenerFilter;
 import android.text.format.DateUtils;
+import android.util.ArrayMap;
 import android.util.IconDrawableFactory;
 import android.util.Log;
 
@@ -75,6 +76,7 @@ import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
 import java.util.Objects;
+import java.util.Set;
 
 public class NotificationBackend {
     private static final String TAG = "NotificationBackend";
@@ -167,14 +169,44 @@ public class NotificationBackend {
                     app.packageName, PackageManager.GET_PERMISSIONS);
             final AppRow row = new AppRow();
             recordCanBeBlocked(info, row);
-            boolean systemBlockable = !row.systemApp || (row.systemApp && row.banned);
-            return systemBlockable && !row.lockedImportance;
+            return enableSwitch(row);
         } catch (PackageManager.NameNotFoundException e) {
             e.printStackTrace();
         }
         return false;
     }
 
+    private boolean enableSwitch(AppRow row) {
+        boolean systemBlockable = !row.systemApp || (row.systemApp && row.banned);
+        return systemBlockable && !row.lockedImportance;
+    }
+
+    /**
+     * Loads, for each of {@code packages} installed for {@code userId}, whether its notifications
+     * are {@link AppRow#banned} and whether they are {@link AppRow#blockable}. The package info
+     * of all the packages is loaded with one query, instead of one query per package.
+     */
+    public ArrayMap<String, AppRow> loadBlockStates(Context context, int userId,
+            Set<String> packages) {
+        final ArrayMap<String, AppRow> rows = new ArrayMap<>(packages.size());
+        final List<PackageInfo> installedPackages = context.getPackageManager()
+                .getInstalledPackagesAsUser(PackageManager.GET_PERMISSIONS, userId);
+        for (PackageInfo info : installedPackages) {
+            if (info.applicationInfo == null || !packages.contains(info.packageName)) {
+                continue;
+            }
+            final AppRow row = new AppRow();
+            row.pkg = info.packageName;
+            row.uid = info.applicationInfo.uid;
+            row.userId = userId;
+            recordCanBeBlocked(info, row);
+            row.blockable = enableSwitch(row);
+            row.banned = getNotificationsBanned(row.pkg, row.uid);
+            rows.put(row.pkg, row);
+        }
+        return rows;
+    }
+
     public boolean getNotificationsBanned(String pkg, int uid) {
         try {
             final boolean enabled = sINM.areNotificationsEnabledForPackage(pkg, uid);
@@ -680,6 +712,7 @@ public class NotificationBackend {
         public CharSequence label;
         public Intent settingsIntent;
         public boolean banned;
+        public boolean blockable;
         public boolean first;  // first app in section
         public boolean systemApp;
         public boolean lockedImportance;
@@ -34,7 +34,7 @@ import androidx.annotation.VisibleForTesting;
 import com.android.settings.core.BasePreferenceController;
 import com.android.settings.core.PreferenceControllerListHelper;
 import com.android.settings.core.PreferenceControllerMixin;
-import com.android.settings.core.PreferenceXmlParserUtils;
+import com.android.settings.core.PreferenceXmlMetadataCache;
 import com.android.settingslib.core.AbstractPreferenceController;
 import com.android.settingslib.search.Indexable;
 import com.android.settingslib.search.SearchIndexableRaw;
@@ -203,7 +203,7 @@ public class BaseSearchIndexProvider implements Indexable.SearchIndexProvider {
             boolean suppressAllPage) {
         final List<String> keys = new ArrayList<>();
         try {
-            final List<Bundle> metadata = PreferenceXmlParserUtils.extractMetadata(context,
+            final List<Bundle> metadata = PreferenceXmlMetadataCache.extractMetadata(context,
                     xmlResId, FLAG_NEED_KEY | FLAG_INCLUDE_PREF_SCREEN | FLAG_NEED_SEARCHABLE);
             for (Bundle bundle : metadata) {
                 if (suppressAllPage || !bundle.getBoolean(METADATA_SEARCHABLE, true)) {
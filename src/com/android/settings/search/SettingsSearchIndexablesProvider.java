@@ -55,7 +55,6 @@ import android.provider.SearchIndexablesContract;
 import android.provider.SearchIndexablesProvider;
 import android.provider.SettingsSlicesContract;
 import android.text.TextUtils;
-import android.util.ArrayMap;
 import android.util.ArraySet;
 import android.util.Log;
 
@@ -76,11 +75,22 @@ import com.android.settingslib.drawer.Tile;
 import com.android.settingslib.search.Indexable;
 import com.android.settingslib.search.SearchIndexableData;
 import com.android.settingslib.search.SearchIndexableRaw;
+import com.android.settingslib.utils.ThreadUtils;
 
 import java.util.ArrayList;
 import java.util.Collection;
 import java.util.List;
 import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Function;
 
 public class SettingsSearchIndexablesProvider extends SearchIndexablesProvider {
 
@@ -97,6 +107,11 @@ public class SettingsSearchIndexablesProvider extends SearchIndexablesProvider {
 
     private static final Collection<String> INVALID_KEYS;
 
+    private static final int INDEXING_THREADS = Runtime.getRuntime().availableProcessors();
+    private static final long INDEXING_KEEP_ALIVE_SECONDS = 30;
+
+    private static ExecutorService sIndexingExecutor;
+
     // Search enabled states for injection (key: category key, value: search enabled)
     private Map<String, Boolean> mSearchEnabledByCategoryKeyMap;
 
@@ -108,7 +123,8 @@ public class SettingsSearchIndexablesProvider extends SearchIndexablesProvider {
 
     @Override
     public boolean onCreate() {
-        mSearchEnabledByCategoryKeyMap = new ArrayMap<>();
+        // Filled concurrently by the providers in queryDynamicRawData()
+        mSearchEnabledByCategoryKeyMap = new ConcurrentHashMap<>();
         return true;
     }
 
@@ -173,17 +189,20 @@ public class SettingsSearchIndexablesProvider extends SearchIndexablesProvider {
     public Cursor queryDynamicRawData(String[] projection) {
         final Context context = getContext();
         final List<SearchIndexableRaw> rawList = new ArrayList<>();
-        final Collection<SearchIndexableData> bundles = FeatureFactory.getFactory(context)
-                .getSearchFeatureProvider().getSearchIndexableResources().getProviderValues();
-
-        for (SearchIndexableData bundle : bundles) {
-            rawList.addAll(getDynamicSearchIndexableRawData(context, bundle));
-
-            // Refresh the search enabled state for indexing injection raw data
-            final Indexable.SearchIndexProvider provider = bundle.getSearchIndexProvider();
-            if (provider instanceof BaseSearchIndexProvider) {
-                refreshSearchEnabledState(context, (BaseSearchIndexProvider) provider);
-            }
+        final List<List<SearchIndexableRaw>> providerRaws = collectFromProviders(context,
+                bundle -> {
+                    final List<SearchIndexableRaw> raws =
+                            getDynamicSearchIndexableRawData(context, bundle);
+
+                    // Refresh the search enabled state for indexing injection raw data
+                    final Indexable.SearchIndexProvider provider = bundle.getSearchIndexProvider();
+                    if (provider instanceof BaseSearchIndexProvider) {
+                        refreshSearchEnabledState(context, (BaseSearchIndexProvider) provider);
+                    }
+                    return raws;
+                });
+        for (List<SearchIndexableRaw> raws : providerRaws) {
+            rawList.addAll(raws);
         }
         rawList.addAll(getInjectionIndexableRawData(context));
 
@@ -271,105 +290,192 @@ public class SettingsSearchIndexablesProvider extends SearchIndexablesProvider {
     }
 
     private List<String> getNonIndexableKeysFromProvider(Context context) {
-        final Collection<SearchIndexableData> bundles = FeatureFactory.getFactory(context)
-                .getSearchFeatureProvider().getSearchIndexableResources().getProviderValues();
-
         final List<String> nonIndexableKeys = new ArrayList<>();
-
-        for (SearchIndexableData bundle : bundles) {
-            final long startTime = System.currentTimeMillis();
-            Indexable.SearchIndexProvider provider = bundle.getSearchIndexProvider();
-            List<String> providerNonIndexableKeys;
-            try {
-                providerNonIndexableKeys = provider.getNonIndexableKeys(context);
-            } catch (Exception e) {
-                // Catch a generic crash. In the absence of the catch, the background thread will
-                // silently fail anyway, so we aren't losing information by catching the exception.
-                // We crash when the system property exists so that we can test if crashes need to
-                // be fixed.
-                // The gain is that if there is a crash in a specific controller, we don't lose all
-                // non-indexable keys, but we can still find specific crashes in development.
-                if (System.getProperty(SYSPROP_CRASH_ON_ERROR) != null) {
-                    throw new RuntimeException(e);
-                }
-                Log.e(TAG, "Error trying to get non-indexable keys from: "
-                        + bundle.getTargetClass().getName(), e);
-                continue;
-            }
-
-            if (providerNonIndexableKeys == null || providerNonIndexableKeys.isEmpty()) {
-                if (DEBUG) {
-                    final long totalTime = System.currentTimeMillis() - startTime;
-                    Log.d(TAG, "No indexable, total time " + totalTime);
-                }
-                continue;
+        for (List<String> providerNonIndexableKeys : collectFromProviders(context,
+                bundle -> getNonIndexableKeysFromProvider(context, bundle))) {
+            if (providerNonIndexableKeys != null) {
+                nonIndexableKeys.addAll(providerNonIndexableKeys);
             }
+        }
+        return nonIndexableKeys;
+    }
 
-            if (providerNonIndexableKeys.removeAll(INVALID_KEYS)) {
-                Log.v(TAG, provider + " tried to add an empty non-indexable key");
+    @Nullable
+    private static List<String> getNonIndexableKeysFromProvider(Context context,
+            SearchIndexableData bundle) {
+        final long startTime = System.currentTimeMillis();
+        Indexable.SearchIndexProvider provider = bundle.getSearchIndexProvider();
+        List<String> providerNonIndexableKeys;
+        try {
+            providerNonIndexableKeys = provider.getNonIndexableKeys(context);
+        } catch (Exception e) {
+            // Catch a generic crash. In the absence of the catch, the background thread will
+            // silently fail anyway, so we aren't losing information by catching the exception.
+            // We crash when the system property exists so that we can test if crashes need to
+            // be fixed.
+            // The gain is that if there is a crash in a specific controller, we don't lose all
+            // non-indexable keys, but we can still find specific crashes in development.
+            if (System.getProperty(SYSPROP_CRASH_ON_ERROR) != null) {
+                throw new RuntimeException(e);
             }
+            Log.e(TAG, "Error trying to get non-indexable keys from: "
+                    + bundle.getTargetClass().getName(), e);
+            return null;
+        }
 
+        if (providerNonIndexableKeys == null || providerNonIndexableKeys.isEmpty()) {
             if (DEBUG) {
                 final long totalTime = System.currentTimeMillis() - startTime;
-                Log.d(TAG, "Non-indexables " + providerNonIndexableKeys.size() + ", total time "
-                        + totalTime);
+                Log.d(TAG, "No indexable, total time " + totalTime);
             }
+            return null;
+        }
 
-            nonIndexableKeys.addAll(providerNonIndexableKeys);
+        if (providerNonIndexableKeys.removeAll(INVALID_KEYS)) {
+            Log.v(TAG, provider + " tried to add an empty non-indexable key");
         }
 
-        return nonIndexableKeys;
+        if (DEBUG) {
+            final long totalTime = System.currentTimeMillis() - startTime;
+            Log.d(TAG, "Non-indexables " + providerNonIndexableKeys.size() + ", total time "
+                    + totalTime);
+        }
+        return providerNonIndexableKeys;
     }
 
     private List<SearchIndexableResource> getSearchIndexableResourcesFromProvider(Context context) {
-        final Collection<SearchIndexableData> bundles = FeatureFactory.getFactory(context)
-                .getSearchFeatureProvider().getSearchIndexableResources().getProviderValues();
+        final List<List<SearchIndexableResource>> providerResources = collectFromProviders(
+                context, bundle -> {
+                    Indexable.SearchIndexProvider provider = bundle.getSearchIndexProvider();
+                    final List<SearchIndexableResource> resList =
+                            provider.getXmlResourcesToIndex(context, true);
+
+                    if (resList == null) {
+                        return null;
+                    }
+
+                    for (SearchIndexableResource item : resList) {
+                        item.className = TextUtils.isEmpty(item.className)
+                                ? bundle.getTargetClass().getName()
+                                : item.className;
+                    }
+                    return resList;
+                });
         List<SearchIndexableResource> resourceList = new ArrayList<>();
-
-        for (SearchIndexableData bundle : bundles) {
-            Indexable.SearchIndexProvider provider = bundle.getSearchIndexProvider();
-            final List<SearchIndexableResource> resList =
-                    provider.getXmlResourcesToIndex(context, true);
-
-            if (resList == null) {
-                continue;
-            }
-
-            for (SearchIndexableResource item : resList) {
-                item.className = TextUtils.isEmpty(item.className)
-                        ? bundle.getTargetClass().getName()
-                        : item.className;
+        for (List<SearchIndexableResource> resList : providerResources) {
+            if (resList != null) {
+                resourceList.addAll(resList);
             }
-
-            resourceList.addAll(resList);
         }
 
         return resourceList;
     }
 
     private List<SearchIndexableRaw> getSearchIndexableRawFromProvider(Context context) {
+        final List<List<SearchIndexableRaw>> allProviderRaws = collectFromProviders(context,
+                bundle -> {
+                    Indexable.SearchIndexProvider provider = bundle.getSearchIndexProvider();
+                    final List<SearchIndexableRaw> providerRaws =
+                            provider.getRawDataToIndex(context, true /* enabled */);
+
+                    if (providerRaws == null) {
+                        return null;
+                    }
+
+                    for (SearchIndexableRaw raw : providerRaws) {
+                        // The classname and intent information comes from the PreIndexData
+                        // This will be more clear when provider conversion is done at PreIndex
+                        // time.
+                        raw.className = bundle.getTargetClass().getName();
+                    }
+                    return providerRaws;
+                });
+        final List<SearchIndexableRaw> rawList = new ArrayList<>();
+        for (List<SearchIndexableRaw> providerRaws : allProviderRaws) {
+            if (providerRaws != null) {
+                rawList.addAll(providerRaws);
+            }
+        }
+
+        return rawList;
+    }
+
+    /**
+     * Run {@code task} on every search index provider in parallel, and return the results in
+     * provider order. Exceptions thrown by {@code task} are rethrown on the calling thread.
+     *
+     * The tasks run on a pool of their own rather than on {@link ThreadUtils}, because some
+     * providers post work to the {@link ThreadUtils} pool and wait for it, for example to check
+     * whether eUICC settings are shown. The calling thread runs the tasks the pool hasn't started
+     * yet, so indexing completes even when the pool is busy.
+     *
+     * Tasks of different providers run at the same time. The state they share in this class, the
+     * search enabled states, is kept in a concurrent map.
+     */
+    @VisibleForTesting
+    static <T> List<T> collectFromProviders(Context context,
+            Function<SearchIndexableData, T> task) {
         final Collection<SearchIndexableData> bundles = FeatureFactory.getFactory(context)
                 .getSearchFeatureProvider().getSearchIndexableResources().getProviderValues();
-        final List<SearchIndexableRaw> rawList = new ArrayList<>();
+        return collectFromProviders(bundles, task, getIndexingExecutor());
+    }
+
+    private static synchronized Executor getIndexingExecutor() {
+        if (sIndexingExecutor == null) {
+            // Threads are only kept while an index is being built.
+            final ThreadPoolExecutor executor = new ThreadPoolExecutor(
+                    INDEXING_THREADS, INDEXING_THREADS,
+                    INDEXING_KEEP_ALIVE_SECONDS, TimeUnit.SECONDS,
+                    new LinkedBlockingQueue<>());
+            executor.allowCoreThreadTimeOut(true);
+            sIndexingExecutor = executor;
+        }
+        return sIndexingExecutor;
+    }
 
+    @VisibleForTesting
+    static <T> List<T> collectFromProviders(Collection<SearchIndexableData> bundles,
+            Function<SearchIndexableData, T> task, Executor executor) {
+        final List<FutureTask<T>> futures = new ArrayList<>(bundles.size());
         for (SearchIndexableData bundle : bundles) {
-            Indexable.SearchIndexProvider provider = bundle.getSearchIndexProvider();
-            final List<SearchIndexableRaw> providerRaws = provider.getRawDataToIndex(context,
-                    true /* enabled */);
+            final FutureTask<T> future = new FutureTask<>(() -> {
+                final long startTime = System.currentTimeMillis();
+                final T result = task.apply(bundle);
+                if (DEBUG) {
+                    Log.d(TAG, bundle.getTargetClass().getName() + " took "
+                            + (System.currentTimeMillis() - startTime) + " ms");
+                }
+                return result;
+            });
+            futures.add(future);
+            executor.execute(future);
+        }
 
-            if (providerRaws == null) {
-                continue;
+        final List<T> results = new ArrayList<>(futures.size());
+        try {
+            for (FutureTask<T> future : futures) {
+                // Does nothing if the task was started already.
+                future.run();
+                results.add(future.get());
             }
-
-            for (SearchIndexableRaw raw : providerRaws) {
-                // The classname and intent information comes from the PreIndexData
-                // This will be more clear when provider conversion is done at PreIndex time.
-                raw.className = bundle.getTargetClass().getName();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IllegalStateException("Interrupted while indexing", e);
+        } catch (ExecutionException e) {
+            final Throwable cause = e.getCause();
+            if (cause instanceof RuntimeException) {
+                throw (RuntimeException) cause;
+            }
+            if (cause instanceof Error) {
+                throw (Error) cause;
+            }
+            throw new IllegalStateException(cause);
+        } finally {
+            for (Future<T> future : futures) {
+                future.cancel(false /* mayInterruptIfRunning */);
             }
-            rawList.addAll(providerRaws);
         }
-
-        return rawList;
+        return results;
     }
 
     private List<SearchIndexableRaw> getDynamicSearchIndexableRawData(Context context,
@@ -28,7 +28,6 @@ import android.util.Log;
 
 import androidx.preference.Preference;
 
-import com.android.internal.annotations.VisibleForTesting;
 import com.android.settings.R;
 import com.android.settings.core.BasePreferenceController;
 
@@ -38,7 +37,8 @@ import java.util.concurrent.Executors;
 /**
  * Controller that shows and updates the credential management app summary.
  */
-public class CredentialManagementAppPreferenceController extends BasePreferenceController {
+public class CredentialManagementAppPreferenceController extends BasePreferenceController
+        implements BasePreferenceController.BackgroundStateLoader<CharSequence> {
 
     private static final String TAG = "CredentialManagementApp";
 
@@ -46,8 +46,6 @@ public class CredentialManagementAppPreferenceController extends BasePreferenceC
     private final Handler mHandler = new Handler(Looper.getMainLooper());
 
     private final PackageManager mPackageManager;
-    private boolean mHasCredentialManagerPackage;
-    private String mCredentialManagerPackageName;
 
     public CredentialManagementAppPreferenceController(Context context, String key) {
         super(context, key);
@@ -62,28 +60,42 @@ public class CredentialManagementAppPreferenceController extends BasePreferenceC
     @Override
     public void updateState(Preference preference) {
         mExecutor.execute(() -> {
-            try {
-                IKeyChainService service = KeyChain.bind(mContext).getService();
-                mHasCredentialManagerPackage = service.hasCredentialManagementApp();
-                mCredentialManagerPackageName = service.getCredentialManagementAppPackageName();
-            } catch (InterruptedException | RemoteException e) {
-                Log.e(TAG, "Unable to display credential management app preference");
-            }
-            mHandler.post(() -> displayPreference(preference));
+            final CharSequence appLabel = loadState();
+            mHandler.post(() -> applyState(preference, appLabel));
         });
     }
 
-    @VisibleForTesting
-    void displayPreference(Preference preference) {
-        if (mHasCredentialManagerPackage) {
-            preference.setEnabled(true);
-            try {
-                ApplicationInfo applicationInfo =
-                        mPackageManager.getApplicationInfo(mCredentialManagerPackageName, 0);
-                preference.setSummary(applicationInfo.loadLabel(mPackageManager));
-            } catch (PackageManager.NameNotFoundException e) {
-                preference.setSummary(mCredentialManagerPackageName);
+    /**
+     * Returns the label of the credential management app, or {@code null} if there is none.
+     * Binds to the KeyChain service, so must not be called on the main thread.
+     */
+    @Override
+    public CharSequence loadState() {
+        final String packageName;
+        try (KeyChain.KeyChainConnection connection = KeyChain.bind(mContext)) {
+            final IKeyChainService service = connection.getService();
+            if (!service.hasCredentialManagementApp()) {
+                return null;
             }
+            packageName = service.getCredentialManagementAppPackageName();
+        } catch (InterruptedException | RemoteException e) {
+            Log.e(TAG, "Unable to display credential management app preference");
+            return null;
+        }
+        try {
+            final ApplicationInfo applicationInfo =
+                    mPackageManager.getApplicationInfo(packageName, 0);
+            return applicationInfo.loadLabel(mPackageManager);
+        } catch (PackageManager.NameNotFoundException e) {
+            return packageName;
+        }
+    }
+
+    @Override
+    public void applyState(Preference preference, CharSequence appLabel) {
+        if (appLabel != null) {
+            preference.setEnabled(true);
+            preference.setSummary(appLabel);
         } else {
             preference.setEnabled(false);
             preference.setSummary(R.string.no_certificate_management_app);
@@ -20,12 +20,6 @@ import android.annotation.MainThread;
 import android.annotation.Nullable;
 import android.content.Context;
 import android.net.Uri;
-import android.os.Handler;
-import android.os.HandlerThread;
-import android.os.Looper;
-import android.os.Message;
-import android.os.Process;
-import android.os.SystemClock;
 import android.util.ArrayMap;
 import android.util.Log;
 
@@ -46,7 +40,7 @@ import java.util.Map;
  * SettingsSliceProvider#shutdown()}.
  *
  * {@link SliceBackgroundWorker} caches the results, uses the cache to compare if there is any data
- * changed, and then notifies the Slice {@link Uri} to update.
+ * changed, and then notifies the Slice {@link Uri} to update through {@link SliceUpdateScheduler}.
  *
  * It also stores all instances of all workers to ensure each worker is a Singleton.
  */
@@ -54,14 +48,12 @@ public abstract class SliceBackgroundWorker<E> implements Closeable {
 
     private static final String TAG = "SliceBackgroundWorker";
 
-    private static final long SLICE_UPDATE_THROTTLE_INTERVAL = 300L;
-
     private static final Map<Uri, SliceBackgroundWorker> LIVE_WORKERS = new ArrayMap<>();
 
     private final Context mContext;
     private final Uri mUri;
 
-    private List<E> mCachedResults;
+    private volatile List<E> mCachedResults;
 
     protected SliceBackgroundWorker(Context context, Uri uri) {
         mContext = context;
@@ -139,10 +131,10 @@ public abstract class SliceBackgroundWorker<E> implements Closeable {
     protected abstract void onSliceUnpinned();
 
     /**
-     * @return a {@link List} of cached results
+     * @return an unmodifiable snapshot of the cached results
      */
     public final List<E> getResults() {
-        return mCachedResults == null ? null : new ArrayList<>(mCachedResults);
+        return mCachedResults;
     }
 
     /**
@@ -160,7 +152,8 @@ public abstract class SliceBackgroundWorker<E> implements Closeable {
         }
 
         if (needNotify) {
-            mCachedResults = results;
+            mCachedResults = results == null ? null
+                    : Collections.unmodifiableList(new ArrayList<>(results));
             notifySliceChange();
         }
     }
@@ -173,7 +166,7 @@ public abstract class SliceBackgroundWorker<E> implements Closeable {
      * Notify that data was updated and attempt to sync changes to the Slice.
      */
     protected final void notifySliceChange() {
-        NotifySliceChangeHandler.getInstance().updateSlice(this);
+        SliceUpdateScheduler.getInstance().requestUpdate(this);
     }
 
     void pin() {
@@ -182,67 +175,6 @@ public abstract class SliceBackgroundWorker<E> implements Closeable {
 
     void unpin() {
         onSliceUnpinned();
-        NotifySliceChangeHandler.getInstance().cancelSliceUpdate(this);
+        SliceUpdateScheduler.getInstance().cancelUpdate(this);
     }
-
-    private static class NotifySliceChangeHandler extends Handler {
-
-        private static final int MSG_UPDATE_SLICE = 1000;
-
-        private static NotifySliceChangeHandler sHandler;
-
-        private final Map<Uri, Long> mLastUpdateTimeLookup = Collections.synchronizedMap(
-                new ArrayMap<>());
-
-        private static NotifySliceChangeHandler getInstance() {
-            if (sHandler == null) {
-                final HandlerThread workerThread = new HandlerThread("NotifySliceChangeHandler",
-                        Process.THREAD_PRIORITY_BACKGROUND);
-                workerThread.start();
-                sHandler = new NotifySliceChangeHandler(workerThread.getLooper());
-            }
-            return sHandler;
-        }
-
-        private NotifySliceChangeHandler(Looper looper) {
-            super(looper);
-        }
-
-        @Override
-        public void handleMessage(Message msg) {
-            if (msg.what != MSG_UPDATE_SLICE) {
-                return;
-            }
-
-            final SliceBackgroundWorker worker = (SliceBackgroundWorker) msg.obj;
-            final Uri uri = worker.getUri();
-            final Context context = worker.getContext();
-            mLastUpdateTimeLookup.put(uri, SystemClock.uptimeMillis());
-            context.getContentResolver().notifyChange(uri, null);
-        }
-
-        private void updateSlice(SliceBackgroundWorker worker) {
-            if (hasMessages(MSG_UPDATE_SLICE, worker)) {
-                return;
-            }
-
-            final Message message = obtainMessage(MSG_UPDATE_SLICE, worker);
-            final long lastUpdateTime = mLastUpdateTimeLookup.getOrDefault(worker.getUri(), 0L);
-            if (lastUpdateTime == 0L) {
-                // Postpone the first update triggering by onSlicePinned() to avoid being too close
-                // to the first Slice bind.
-                sendMessageDelayed(message, SLICE_UPDATE_THROTTLE_INTERVAL);
-            } else if (SystemClock.uptimeMillis() - lastUpdateTime
-                    > SLICE_UPDATE_THROTTLE_INTERVAL) {
-                sendMessage(message);
-            } else {
-                sendMessageAtTime(message, lastUpdateTime + SLICE_UPDATE_THROTTLE_INTERVAL);
-            }
-        }
-
-        private void cancelSliceUpdate(SliceBackgroundWorker worker) {
-            removeMessages(MSG_UPDATE_SLICE, worker);
-            mLastUpdateTimeLookup.remove(worker.getUri());
-        }
-    };
 }
@@ -0,0 +1,125 @@
+/*
+ * Copyright (C) 2022 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.settings.slices;
+
+import android.net.Uri;
+import android.util.LruCache;
+
+import androidx.annotation.VisibleForTesting;
+
+import java.util.Locale;
+
+/**
+ * Size-bounded LRU cache of the {@link SliceData} read by {@link SlicesDatabaseAccessor}, so
+ * rebinding the same slice doesn't query the slices database again.
+ *
+ * Entries are dropped when {@link SlicesIndexer} rewrites the index, and when the default locale
+ * differs from the one they were read with.
+ */
+public class SliceDataCache {
+
+    @VisibleForTesting
+    static final int MAX_SIZE_BYTES = 256 * 1024;
+
+    // Rough cost of the SliceData object, its builder fields and the cache entry.
+    private static final int ENTRY_OVERHEAD_BYTES = 128;
+
+    private static final String URI_PREFIX = "uri:";
+    private static final String KEY_PREFIX = "key:";
+
+    private final LruCache<String, SliceData> mCache;
+    private Locale mLocale;
+
+    public SliceDataCache() {
+        this(MAX_SIZE_BYTES);
+    }
+
+    @VisibleForTesting
+    SliceDataCache(int maxSizeBytes) {
+        mCache = new LruCache<String, SliceData>(maxSizeBytes) {
+            @Override
+            protected int sizeOf(String key, SliceData value) {
+                return ENTRY_OVERHEAD_BYTES + 2 * (key.length()
+                        + length(value.getKey())
+                        + length(value.getTitle())
+                        + length(value.getSummary())
+                        + length(value.getScreenTitle())
+                        + length(value.getKeywords())
+                        + length(value.getFragmentClassName())
+                        + length(value.getPreferenceController())
+                        + length(value.getUnavailableSliceSubtitle()));
+            }
+        };
+    }
+
+    /**
+     * Return the cached {@link SliceData} bound to {@code uri}, or {@code null} if not cached.
+     */
+    public SliceData getFromUri(Uri uri) {
+        return get(URI_PREFIX + uri);
+    }
+
+    /**
+     * Return the cached {@link SliceData} for {@code key}, or {@code null} if not cached.
+     */
+    public SliceData getFromKey(String key) {
+        return get(KEY_PREFIX + key);
+    }
+
+    public void putFromUri(Uri uri, SliceData data) {
+        put(URI_PREFIX + uri, data);
+    }
+
+    public void putFromKey(String key, SliceData data) {
+        put(KEY_PREFIX + key, data);
+    }
+
+    /** Drop all cached data. */
+    public void invalidate() {
+        mCache.evictAll();
+    }
+
+    public int getHitCount() {
+        return mCache.hitCount();
+    }
+
+    public int getMissCount() {
+        return mCache.missCount();
+    }
+
+    private SliceData get(String cacheKey) {
+        checkLocale();
+        return mCache.get(cacheKey);
+    }
+
+    private void put(String cacheKey, SliceData data) {
+        checkLocale();
+        mCache.put(cacheKey, data);
+    }
+
+    private synchronized void checkLocale() {
+        final Locale locale = Locale.getDefault();
+        if (!locale.equals(mLocale)) {
+            mCache.evictAll();
+            mLocale = locale;
+        }
+    }
+
+    private static int length(CharSequence text) {
+        return text == null ? 0 : text.length();
+    }
+}
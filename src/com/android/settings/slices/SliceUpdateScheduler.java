@@ -0,0 +1,193 @@
+/*
+ * Copyright (C) 2022 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.settings.slices;
+
+import android.net.Uri;
+import android.os.Handler;
+import android.os.HandlerThread;
+import android.os.Looper;
+import android.os.Message;
+import android.os.Process;
+import android.os.SystemClock;
+import android.util.ArrayMap;
+
+import androidx.annotation.VisibleForTesting;
+
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Schedules the slice change notifications of all {@link SliceBackgroundWorker}s.
+ *
+ * Update requests are coalesced: a slice is notified at most once per throttle interval, and all
+ * the notifications due are sent together, aligned on frame boundaries. The throttle interval of a
+ * slice grows with the rate of its update requests, so a noisy worker (e.g. Wi-Fi scans in a busy
+ * environment) is notified less often. Within a frame, the slices least recently notified go
+ * first, and at most {@link #MAX_UPDATES_PER_FRAME} slices are notified.
+ */
+class SliceUpdateScheduler extends Handler {
+
+    private static final int MSG_FLUSH = 1000;
+
+    @VisibleForTesting
+    static final long FRAME_INTERVAL_MS = 16L;
+    @VisibleForTesting
+    static final long MIN_THROTTLE_INTERVAL_MS = 300L;
+    @VisibleForTesting
+    static final long MAX_THROTTLE_INTERVAL_MS = 2000L;
+    @VisibleForTesting
+    static final int MAX_UPDATES_PER_FRAME = 4;
+
+    private static final Comparator<UpdateState> LEAST_RECENTLY_NOTIFIED_FIRST =
+            Comparator.comparingLong(state -> state.mLastNotifyTime);
+
+    private static SliceUpdateScheduler sInstance;
+
+    // Guarded by this
+    private final Map<Uri, UpdateState> mStates = new ArrayMap<>();
+
+    static synchronized SliceUpdateScheduler getInstance() {
+        if (sInstance == null) {
+            final HandlerThread workerThread = new HandlerThread("SliceUpdateScheduler",
+                    Process.THREAD_PRIORITY_BACKGROUND);
+            workerThread.start();
+            sInstance = new SliceUpdateScheduler(workerThread.getLooper());
+        }
+        return sInstance;
+    }
+
+    @VisibleForTesting
+    SliceUpdateScheduler(Looper looper) {
+        super(looper);
+    }
+
+    /**
+     * Request the slice of {@code worker} to be notified.
+     */
+    synchronized void requestUpdate(SliceBackgroundWorker worker) {
+        final long now = SystemClock.uptimeMillis();
+        UpdateState state = mStates.get(worker.getUri());
+        if (state == null) {
+            state = new UpdateState(worker);
+            mStates.put(worker.getUri(), state);
+        }
+        state.onUpdateRequested(now);
+        if (state.mPending) {
+            return;
+        }
+
+        state.mPending = true;
+        if (state.mLastNotifyTime == 0L) {
+            // Postpone the first update triggering by onSlicePinned() to avoid being too close
+            // to the first Slice bind.
+            state.mDueTime = now + MIN_THROTTLE_INTERVAL_MS;
+        } else {
+            state.mDueTime = Math.max(now, state.mLastNotifyTime + state.mThrottleInterval);
+        }
+        scheduleFlush();
+    }
+
+    /**
+     * Cancel the pending update of {@code worker} and forget its update history.
+     */
+    synchronized void cancelUpdate(SliceBackgroundWorker worker) {
+        mStates.remove(worker.getUri());
+    }
+
+    @VisibleForTesting
+    synchronized long getThrottleInterval(Uri uri) {
+        final UpdateState state = mStates.get(uri);
+        return state == null ? MIN_THROTTLE_INTERVAL_MS : state.mThrottleInterval;
+    }
+
+    @Override
+    public void handleMessage(Message msg) {
+        if (msg.what != MSG_FLUSH) {
+            return;
+        }
+
+        final List<SliceBackgroundWorker> workers = new ArrayList<>();
+        synchronized (this) {
+            final long now = SystemClock.uptimeMillis();
+            final List<UpdateState> due = new ArrayList<>();
+            for (UpdateState state : mStates.values()) {
+                if (state.mPending && state.mDueTime <= now) {
+                    due.add(state);
+                }
+            }
+            due.sort(LEAST_RECENTLY_NOTIFIED_FIRST);
+            for (int i = 0; i < due.size() && i < MAX_UPDATES_PER_FRAME; i++) {
+                final UpdateState state = due.get(i);
+                state.mPending = false;
+                state.mLastNotifyTime = now;
+                workers.add(state.mWorker);
+            }
+            scheduleFlush();
+        }
+
+        for (SliceBackgroundWorker worker : workers) {
+            worker.getContext().getContentResolver().notifyChange(worker.getUri(), null);
+        }
+    }
+
+    private void scheduleFlush() {
+        long dueTime = Long.MAX_VALUE;
+        for (UpdateState state : mStates.values()) {
+            if (state.mPending) {
+                dueTime = Math.min(dueTime, state.mDueTime);
+            }
+        }
+        removeMessages(MSG_FLUSH);
+        if (dueTime == Long.MAX_VALUE) {
+            return;
+        }
+        // Align on the next frame, so the updates due around the same time go out together.
+        final long frameTime = (dueTime + FRAME_INTERVAL_MS - 1)
+                / FRAME_INTERVAL_MS * FRAME_INTERVAL_MS;
+        sendEmptyMessageAtTime(MSG_FLUSH, frameTime);
+    }
+
+    private static class UpdateState {
+        final SliceBackgroundWorker mWorker;
+        boolean mPending;
+        long mDueTime;
+        long mLastNotifyTime;
+        long mLastRequestTime;
+        long mAverageRequestInterval = MIN_THROTTLE_INTERVAL_MS;
+        long mThrottleInterval = MIN_THROTTLE_INTERVAL_MS;
+
+        UpdateState(SliceBackgroundWorker worker) {
+            mWorker = worker;
+        }
+
+        void onUpdateRequested(long now) {
+            if (mLastRequestTime != 0L) {
+                final long interval = Math.max(1L, now - mLastRequestTime);
+                mAverageRequestInterval = (3 * mAverageRequestInterval + interval) / 4;
+                // Requests arriving at the minimum interval or slower keep the minimum throttle,
+                // faster ones stretch it proportionally.
+                final long throttle = MIN_THROTTLE_INTERVAL_MS * MIN_THROTTLE_INTERVAL_MS
+                        / Math.max(1L, mAverageRequestInterval);
+                mThrottleInterval = Math.max(MIN_THROTTLE_INTERVAL_MS,
+                        Math.min(MAX_THROTTLE_INTERVAL_MS, throttle));
+            }
+            mLastRequestTime = now;
+        }
+    }
+}
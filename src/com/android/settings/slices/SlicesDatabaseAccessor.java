@@ -72,9 +72,17 @@ public class SlicesDatabaseAccessor {
         if (pathData == null) {
             throw new IllegalStateException("Invalid Slices uri: " + uri);
         }
+        verifyIndexing();
+        final SliceDataCache cache = mHelper.getSliceDataCache();
+        SliceData data = cache.getFromUri(uri);
+        if (data != null) {
+            return data;
+        }
         try (Cursor cursor = getIndexedSliceData(pathData.second /* key */)) {
-            return buildSliceData(cursor, uri, pathData.first /* isIntentOnly */);
+            data = buildSliceData(cursor, uri, pathData.first /* isIntentOnly */);
         }
+        cache.putFromUri(uri, data);
+        return data;
     }
 
     /**
@@ -83,9 +91,17 @@ public class SlicesDatabaseAccessor {
      * Used when handling the action of the {@link Slice}.
      */
     public SliceData getSliceDataFromKey(String key) {
+        verifyIndexing();
+        final SliceDataCache cache = mHelper.getSliceDataCache();
+        SliceData data = cache.getFromKey(key);
+        if (data != null) {
+            return data;
+        }
         try (Cursor cursor = getIndexedSliceData(key)) {
-            return buildSliceData(cursor, null /* uri */, false /* isIntentOnly */);
+            data = buildSliceData(cursor, null /* uri */, false /* isIntentOnly */);
         }
+        cache.putFromKey(key, data);
+        return data;
     }
 
     /**
@@ -117,8 +133,6 @@ public class SlicesDatabaseAccessor {
     }
 
     private Cursor getIndexedSliceData(String path) {
-        verifyIndexing();
-
         final String whereClause = buildKeyMatchWhereClause();
         final SQLiteDatabase database = mHelper.getReadableDatabase();
         final String[] selection = new String[]{path};
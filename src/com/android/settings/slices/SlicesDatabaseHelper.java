@@ -36,10 +36,11 @@ public class SlicesDatabaseHelper extends SQLiteOpenHelper {
     private static final String DATABASE_NAME = "slices_index.db";
     private static final String SHARED_PREFS_TAG = "slices_shared_prefs";
 
-    private static final int DATABASE_VERSION = 9;
+    private static final int DATABASE_VERSION = 10;
 
     public interface Tables {
         String TABLE_SLICES_INDEX = "slices_index";
+        String TABLE_SLICES_INDEX_HASH = "slices_index_hash";
     }
 
     public interface IndexColumns {
@@ -110,6 +111,28 @@ public class SlicesDatabaseHelper extends SQLiteOpenHelper {
         String HIGHLIGHT_MENU_RESOURCE = "highlight_menu";
     }
 
+    public interface HashColumns {
+        /**
+         * Row id of the slice in {@link Tables#TABLE_SLICES_INDEX}.
+         */
+        String INDEX_ROW_ID = "index_rowid";
+
+        /**
+         * Hash of the content of the indexed {@link SliceData}.
+         */
+        String CONTENT_HASH = "content_hash";
+    }
+
+    @VisibleForTesting
+    static final String CREATE_SLICES_HASH_TABLE =
+            "CREATE TABLE " + Tables.TABLE_SLICES_INDEX_HASH
+                    + "("
+                    + HashColumns.INDEX_ROW_ID
+                    + " INTEGER PRIMARY KEY, "
+                    + HashColumns.CONTENT_HASH
+                    + " INTEGER NOT NULL"
+                    + ");";
+
     private static final String CREATE_SLICES_TABLE =
             "CREATE VIRTUAL TABLE " + Tables.TABLE_SLICES_INDEX + " USING fts4"
                     + "("
@@ -145,6 +168,8 @@ public class SlicesDatabaseHelper extends SQLiteOpenHelper {
 
     private static SlicesDatabaseHelper sSingleton;
 
+    private final SliceDataCache mSliceDataCache = new SliceDataCache();
+
     public static synchronized SlicesDatabaseHelper getInstance(Context context) {
         if (sSingleton == null) {
             sSingleton = new SlicesDatabaseHelper(context.getApplicationContext());
@@ -182,6 +207,25 @@ public class SlicesDatabaseHelper extends SQLiteOpenHelper {
                 .apply();
         dropTables(db);
         createDatabases(db);
+        mSliceDataCache.invalidate();
+    }
+
+    /**
+     * Return the cache of the {@link SliceData} read from this database.
+     */
+    public SliceDataCache getSliceDataCache() {
+        return mSliceDataCache;
+    }
+
+    /**
+     * Un-marks the state of the data without dropping it, such that the data can be updated
+     * incrementally.
+     */
+    void clearIndexedState() {
+        mContext.getSharedPreferences(SHARED_PREFS_TAG, Context.MODE_PRIVATE)
+                .edit()
+                .clear()
+                .apply();
     }
 
     /**
@@ -204,11 +248,13 @@ public class SlicesDatabaseHelper extends SQLiteOpenHelper {
 
     private void createDatabases(SQLiteDatabase db) {
         db.execSQL(CREATE_SLICES_TABLE);
+        db.execSQL(CREATE_SLICES_HASH_TABLE);
         Log.d(TAG, "Created databases");
     }
 
     private void dropTables(SQLiteDatabase db) {
         db.execSQL("DROP TABLE IF EXISTS " + Tables.TABLE_SLICES_INDEX);
+        db.execSQL("DROP TABLE IF EXISTS " + Tables.TABLE_SLICES_INDEX_HASH);
     }
 
     private void setBuildIndexed() {
@@ -16,19 +16,24 @@
 
 package com.android.settings.slices;
 
-import android.content.ContentValues;
 import android.content.Context;
+import android.database.Cursor;
 import android.database.sqlite.SQLiteDatabase;
+import android.database.sqlite.SQLiteStatement;
+import android.text.TextUtils;
 import android.util.Log;
+import android.util.LongSparseArray;
 
 import androidx.annotation.VisibleForTesting;
 
 import com.android.settings.core.BasePreferenceController;
 import com.android.settings.dashboard.DashboardFragment;
 import com.android.settings.overlay.FeatureFactory;
+import com.android.settings.slices.SlicesDatabaseHelper.HashColumns;
 import com.android.settings.slices.SlicesDatabaseHelper.IndexColumns;
 import com.android.settings.slices.SlicesDatabaseHelper.Tables;
 
+import java.util.ArrayList;
 import java.util.List;
 
 /**
@@ -39,6 +44,37 @@ class SlicesIndexer implements Runnable {
 
     private static final String TAG = "SlicesIndexer";
 
+    private static final String INSERT_SLICE_SQL = "INSERT INTO " + Tables.TABLE_SLICES_INDEX
+            + " (" + IndexColumns.KEY
+            + ", " + IndexColumns.SLICE_URI
+            + ", " + IndexColumns.TITLE
+            + ", " + IndexColumns.SUMMARY
+            + ", " + IndexColumns.SCREENTITLE
+            + ", " + IndexColumns.KEYWORDS
+            + ", " + IndexColumns.ICON_RESOURCE
+            + ", " + IndexColumns.FRAGMENT
+            + ", " + IndexColumns.CONTROLLER
+            + ", " + IndexColumns.SLICE_TYPE
+            + ", " + IndexColumns.UNAVAILABLE_SLICE_SUBTITLE
+            + ", " + IndexColumns.PUBLIC_SLICE
+            + ", " + IndexColumns.HIGHLIGHT_MENU_RESOURCE
+            + ") VALUES (?, ?, ?, ?, ?, ?, ?, ?, ?, ?, ?, ?, ?)";
+
+    private static final String INSERT_HASH_SQL = "INSERT OR REPLACE INTO "
+            + Tables.TABLE_SLICES_INDEX_HASH
+            + " (" + HashColumns.INDEX_ROW_ID
+            + ", " + HashColumns.CONTENT_HASH
+            + ") VALUES (?, ?)";
+
+    private static final String DELETE_SLICE_SQL = "DELETE FROM " + Tables.TABLE_SLICES_INDEX
+            + " WHERE rowid = ?";
+
+    private static final String DELETE_HASH_SQL = "DELETE FROM " + Tables.TABLE_SLICES_INDEX_HASH
+            + " WHERE " + HashColumns.INDEX_ROW_ID + " = ?";
+
+    private static final long FNV_OFFSET_BASIS = 0xcbf29ce484222325L;
+    private static final long FNV_PRIME = 0x100000001b3L;
+
     private Context mContext;
 
     private SlicesDatabaseHelper mHelper;
@@ -71,9 +107,16 @@ class SlicesIndexer implements Runnable {
         long startTime = System.currentTimeMillis();
         database.beginTransaction();
         try {
-            mHelper.reconstruct(database);
             List<SliceData> indexData = getSliceData();
-            insertSliceData(database, indexData);
+            final LongSparseArray<List<Long>> indexedRows = getIndexedRows(database);
+            if (indexedRows.size() > 0) {
+                // Only rewrite the rows whose content changed since the last index.
+                mHelper.clearIndexedState();
+                updateSliceData(database, indexData, indexedRows);
+            } else {
+                mHelper.reconstruct(database);
+                insertSliceData(database, indexData);
+            }
 
             mHelper.setIndexedState();
 
@@ -83,6 +126,7 @@ class SlicesIndexer implements Runnable {
             database.setTransactionSuccessful();
         } finally {
             database.endTransaction();
+            mHelper.getSliceDataCache().invalidate();
         }
     }
 
@@ -96,30 +140,165 @@ class SlicesIndexer implements Runnable {
 
     @VisibleForTesting
     void insertSliceData(SQLiteDatabase database, List<SliceData> indexData) {
-        ContentValues values;
-
-        for (SliceData dataRow : indexData) {
-            values = new ContentValues();
-            values.put(IndexColumns.KEY, dataRow.getKey());
-            values.put(IndexColumns.SLICE_URI, dataRow.getUri().toString());
-            values.put(IndexColumns.TITLE, dataRow.getTitle());
-            values.put(IndexColumns.SUMMARY, dataRow.getSummary());
-            final CharSequence screenTitle = dataRow.getScreenTitle();
-            if (screenTitle != null) {
-                values.put(IndexColumns.SCREENTITLE, screenTitle.toString());
+        updateSliceData(database, indexData, new LongSparseArray<>());
+    }
+
+    /**
+     * Bring the index in line with {@code indexData}. Rows whose content hash is already in
+     * {@code indexedRows} are kept as is, other rows are inserted, and the rows left in
+     * {@code indexedRows} afterwards are deleted.
+     *
+     * @param indexedRows row ids of the indexed slices, keyed by content hash
+     */
+    @VisibleForTesting
+    void updateSliceData(SQLiteDatabase database, List<SliceData> indexData,
+            LongSparseArray<List<Long>> indexedRows) {
+        final SQLiteStatement insertSlice = database.compileStatement(INSERT_SLICE_SQL);
+        final SQLiteStatement insertHash = database.compileStatement(INSERT_HASH_SQL);
+        int inserted = 0;
+        try {
+            for (SliceData dataRow : indexData) {
+                final long hash = computeHash(dataRow);
+                final List<Long> rowIds = indexedRows.get(hash);
+                if (rowIds != null && !rowIds.isEmpty()) {
+                    rowIds.remove(rowIds.size() - 1);
+                    continue;
+                }
+
+                bindSliceData(insertSlice, dataRow);
+                final long rowId = insertSlice.executeInsert();
+                insertSlice.clearBindings();
+                if (rowId == -1) {
+                    Log.w(TAG, "Failed to index slice " + dataRow.getKey());
+                    continue;
+                }
+                insertHash.bindLong(1, rowId);
+                insertHash.bindLong(2, hash);
+                insertHash.executeInsert();
+                insertHash.clearBindings();
+                inserted++;
             }
-            values.put(IndexColumns.KEYWORDS, dataRow.getKeywords());
-            values.put(IndexColumns.ICON_RESOURCE, dataRow.getIconResource());
-            values.put(IndexColumns.FRAGMENT, dataRow.getFragmentClassName());
-            values.put(IndexColumns.CONTROLLER, dataRow.getPreferenceController());
-            values.put(IndexColumns.SLICE_TYPE, dataRow.getSliceType());
-            values.put(IndexColumns.UNAVAILABLE_SLICE_SUBTITLE,
-                    dataRow.getUnavailableSliceSubtitle());
-            values.put(IndexColumns.PUBLIC_SLICE, dataRow.isPublicSlice());
-            values.put(IndexColumns.HIGHLIGHT_MENU_RESOURCE, dataRow.getHighlightMenuRes());
-
-            database.replaceOrThrow(Tables.TABLE_SLICES_INDEX, null /* nullColumnHack */,
-                    values);
+        } finally {
+            insertSlice.close();
+            insertHash.close();
+        }
+
+        final int deleted = deleteRows(database, indexedRows);
+        Log.d(TAG, "Slices indexed: " + inserted + " inserted, " + deleted + " deleted");
+    }
+
+    private static int deleteRows(SQLiteDatabase database,
+            LongSparseArray<List<Long>> indexedRows) {
+        final SQLiteStatement deleteSlice = database.compileStatement(DELETE_SLICE_SQL);
+        final SQLiteStatement deleteHash = database.compileStatement(DELETE_HASH_SQL);
+        int deleted = 0;
+        try {
+            for (int i = 0; i < indexedRows.size(); i++) {
+                for (long rowId : indexedRows.valueAt(i)) {
+                    deleteSlice.bindLong(1, rowId);
+                    deleteSlice.executeUpdateDelete();
+                    deleteHash.bindLong(1, rowId);
+                    deleteHash.executeUpdateDelete();
+                    deleted++;
+                }
+            }
+        } finally {
+            deleteSlice.close();
+            deleteHash.close();
+        }
+        return deleted;
+    }
+
+    /**
+     * Return the row ids of the indexed slices keyed by content hash, or an empty array if the
+     * index has to be rebuilt.
+     */
+    @VisibleForTesting
+    static LongSparseArray<List<Long>> getIndexedRows(SQLiteDatabase database) {
+        final LongSparseArray<List<Long>> indexedRows = new LongSparseArray<>();
+        final String[] columns = {HashColumns.INDEX_ROW_ID, HashColumns.CONTENT_HASH};
+        try (Cursor cursor = database.query(Tables.TABLE_SLICES_INDEX_HASH, columns,
+                null /* selection */, null /* selectionArgs */, null /* groupBy */,
+                null /* having */, null /* orderBy */)) {
+            while (cursor.moveToNext()) {
+                final long hash = cursor.getLong(1);
+                List<Long> rowIds = indexedRows.get(hash);
+                if (rowIds == null) {
+                    rowIds = new ArrayList<>(1);
+                    indexedRows.put(hash, rowIds);
+                }
+                rowIds.add(cursor.getLong(0));
+            }
+        } catch (RuntimeException e) {
+            Log.w(TAG, "Failed to read slice hashes, rebuilding index", e);
+            indexedRows.clear();
+        }
+        return indexedRows;
+    }
+
+    private static void bindSliceData(SQLiteStatement statement, SliceData dataRow) {
+        bindString(statement, 1, dataRow.getKey());
+        bindString(statement, 2, dataRow.getUri().toString());
+        bindString(statement, 3, dataRow.getTitle());
+        bindString(statement, 4, dataRow.getSummary());
+        final CharSequence screenTitle = dataRow.getScreenTitle();
+        bindString(statement, 5, screenTitle != null ? screenTitle.toString() : null);
+        bindString(statement, 6, dataRow.getKeywords());
+        statement.bindLong(7, dataRow.getIconResource());
+        bindString(statement, 8, dataRow.getFragmentClassName());
+        bindString(statement, 9, dataRow.getPreferenceController());
+        statement.bindLong(10, dataRow.getSliceType());
+        bindString(statement, 11, dataRow.getUnavailableSliceSubtitle());
+        statement.bindLong(12, dataRow.isPublicSlice() ? 1 : 0);
+        statement.bindLong(13, dataRow.getHighlightMenuRes());
+    }
+
+    private static void bindString(SQLiteStatement statement, int index, String value) {
+        if (value == null) {
+            statement.bindNull(index);
+        } else {
+            statement.bindString(index, value);
+        }
+    }
+
+    /**
+     * Return a 64-bit FNV-1a hash of every indexed field of {@code dataRow}.
+     */
+    @VisibleForTesting
+    static long computeHash(SliceData dataRow) {
+        final CharSequence screenTitle = dataRow.getScreenTitle();
+        long hash = FNV_OFFSET_BASIS;
+        hash = hash(hash, dataRow.getKey());
+        hash = hash(hash, dataRow.getUri().toString());
+        hash = hash(hash, dataRow.getTitle());
+        hash = hash(hash, dataRow.getSummary());
+        hash = hash(hash, screenTitle != null ? screenTitle.toString() : null);
+        hash = hash(hash, dataRow.getKeywords());
+        hash = hash(hash, dataRow.getIconResource());
+        hash = hash(hash, dataRow.getFragmentClassName());
+        hash = hash(hash, dataRow.getPreferenceController());
+        hash = hash(hash, dataRow.getSliceType());
+        hash = hash(hash, dataRow.getUnavailableSliceSubtitle());
+        hash = hash(hash, dataRow.isPublicSlice() ? 1 : 0);
+        hash = hash(hash, dataRow.getHighlightMenuRes());
+        return hash;
+    }
+
+    private static long hash(long hash, String value) {
+        if (TextUtils.isEmpty(value)) {
+            // Separate null from empty strings and from the next field.
+            return hash(hash, value == null ? -1 : 0);
+        }
+        for (int i = 0; i < value.length(); i++) {
+            hash = (hash ^ value.charAt(i)) * FNV_PRIME;
+        }
+        return hash(hash, value.length());
+    }
+
+    private static long hash(long hash, int value) {
+        for (int i = 0; i < 4; i++) {
+            hash = (hash ^ ((value >>> (i * 8)) & 0xff)) * FNV_PRIME;
         }
+        return hash;
     }
 }
@@ -0,0 +1,149 @@
+/*
+ * Copyright (C) 2022 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.settings.utils;
+
+import android.content.BroadcastReceiver;
+import android.content.Context;
+import android.content.Intent;
+import android.content.IntentFilter;
+import android.net.Uri;
+import android.os.UserHandle;
+import android.util.LruCache;
+
+import androidx.annotation.Nullable;
+
+import java.util.Locale;
+import java.util.Map;
+
+/**
+ * Size bounded cache of values loaded from the package manager, which drops the entries of a
+ * package when it's added, changed or removed for any user, and all entries when the locale
+ * changes.
+ *
+ * Values are loaded outside of the cache. Loads read {@link #getGeneration()} before they start
+ * and pass it to {@link #put(Object, Object, int)}, which drops values of loads that started
+ * before an invalidation.
+ *
+ * @param <K> the key type
+ * @param <V> the value type
+ */
+public class PackageLruCache<K, V> {
+
+    /** Tells which entries belong to a package. */
+    public interface PackageMatcher<K, V> {
+        /**
+         * Return whether the entry belongs to {@code packageName}, or to {@code uid} if it's not
+         * -1.
+         */
+        boolean matches(K key, V value, String packageName, int uid);
+    }
+
+    private final LruCache<K, V> mCache;
+    private final PackageMatcher<K, V> mMatcher;
+    private Locale mLocale;
+    // Incremented on every invalidation, so loads started before it aren't cached.
+    private int mGeneration;
+    private boolean mIsReceiverRegistered;
+
+    private final BroadcastReceiver mPackageReceiver = new BroadcastReceiver() {
+        @Override
+        public void onReceive(Context context, Intent intent) {
+            final Uri data = intent.getData();
+            final String packageName = data != null ? data.getSchemeSpecificPart() : null;
+            if (packageName != null) {
+                invalidatePackage(packageName, intent.getIntExtra(Intent.EXTRA_UID, -1));
+            }
+        }
+    };
+
+    public PackageLruCache(int maxSize, PackageMatcher<K, V> matcher) {
+        mCache = new LruCache<>(maxSize);
+        mMatcher = matcher;
+    }
+
+    /** Return the cached value of {@code key}, or {@code null}. */
+    @Nullable
+    public synchronized V get(K key) {
+        checkLocale();
+        return mCache.get(key);
+    }
+
+    /** Return the generation to pass to {@link #put(Object, Object, int)} after a load. */
+    public synchronized int getGeneration() {
+        checkLocale();
+        return mGeneration;
+    }
+
+    /** Cache {@code value}. */
+    public synchronized void put(K key, V value) {
+        checkLocale();
+        mCache.put(key, value);
+    }
+
+    /** Cache {@code value}, unless entries were invalidated since {@code generation}. */
+    public synchronized void put(K key, V value, int generation) {
+        checkLocale();
+        if (generation == mGeneration) {
+            mCache.put(key, value);
+        }
+    }
+
+    /** Drop the entries of {@code packageName}, and of {@code uid} if it's not -1. */
+    public synchronized void invalidatePackage(String packageName, int uid) {
+        mGeneration++;
+        for (Map.Entry<K, V> entry : mCache.snapshot().entrySet()) {
+            if (mMatcher.matches(entry.getKey(), entry.getValue(), packageName, uid)) {
+                mCache.remove(entry.getKey());
+            }
+        }
+    }
+
+    /** Drop all entries. */
+    public synchronized void clear() {
+        mGeneration++;
+        mCache.evictAll();
+    }
+
+    /** Return the number of cached entries. */
+    public int size() {
+        return mCache.size();
+    }
+
+    /** Listen to package changes of all users with {@code context}, if not listening yet. */
+    public synchronized void registerPackageReceiver(Context context) {
+        if (mIsReceiverRegistered) {
+            return;
+        }
+        final IntentFilter filter = new IntentFilter();
+        filter.addAction(Intent.ACTION_PACKAGE_ADDED);
+        filter.addAction(Intent.ACTION_PACKAGE_CHANGED);
+        filter.addAction(Intent.ACTION_PACKAGE_REMOVED);
+        filter.addAction(Intent.ACTION_PACKAGE_REPLACED);
+        filter.addDataScheme("package");
+        context.getApplicationContext().registerReceiverAsUser(mPackageReceiver, UserHandle.ALL,
+                filter, null, null);
+        mIsReceiverRegistered = true;
+    }
+
+    private void checkLocale() {
+        final Locale locale = Locale.getDefault();
+        if (!locale.equals(mLocale)) {
+            mLocale = locale;
+            clear();
+        }
+    }
+}
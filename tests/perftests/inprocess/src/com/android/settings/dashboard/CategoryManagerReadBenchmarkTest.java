@@ -0,0 +1,139 @@
+/*
+ * Copyright (C) 2022 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.settings.dashboard;
+
+import static org.junit.Assert.assertEquals;
+
+import android.content.Context;
+import android.os.Bundle;
+import android.os.SystemClock;
+import android.util.Log;
+
+import androidx.test.platform.app.InstrumentationRegistry;
+import androidx.test.runner.AndroidJUnit4;
+
+import com.android.settingslib.drawer.CategoryKey;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import java.io.File;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * Measures {@link CategoryManager} read latency, with and without reloads running concurrently.
+ *
+ * Follows the usual microbenchmark shape: a warmup phase which is discarded, then a fixed number
+ * of measured iterations. Percentiles are logged and reported through the instrumentation status.
+ *
+ * Reads go to a {@link CategoryManager} loaded from an up to date snapshot, so reloads find the
+ * packages unchanged and don't save snapshots while reads are measured.
+ */
+@RunWith(AndroidJUnit4.class)
+public class CategoryManagerReadBenchmarkTest {
+    private static final String TAG = "CategoryManagerBenchmark";
+    private static final int WARMUP_ITERATIONS = 1000;
+    private static final int MEASURED_ITERATIONS = 10000;
+    private static final int READER_THREADS = 4;
+
+    private Context mContext;
+    private File mSnapshotFile;
+    private CategoryManager mCategoryManager;
+    private Bundle mResults;
+
+    @Before
+    public void setUp() {
+        mContext = InstrumentationRegistry.getInstrumentation().getTargetContext();
+        mSnapshotFile = new File(mContext.getCacheDir(), "category_manager_benchmark_snapshot");
+        final TileSnapshotStore snapshotWriter = new TileSnapshotStore(mSnapshotFile);
+        snapshotWriter.write(snapshotWriter.marshall(
+                TileSnapshotStore.computeFingerprint(mContext),
+                CategoryManager.get(mContext).getCategories(mContext), Collections.emptyList()));
+        mCategoryManager = new CategoryManager(mContext, new TileSnapshotStore(mSnapshotFile));
+        mResults = new Bundle();
+        // Make sure categories are loaded before measuring.
+        mCategoryManager.getCategories(mContext);
+    }
+
+    @After
+    public void tearDown() {
+        mSnapshotFile.delete();
+    }
+
+    @Test
+    public void readLatency_idleAndDuringReload() throws InterruptedException {
+        final long[] idle = measureReads(false /* reloading */);
+        final long[] reloading = measureReads(true /* reloading */);
+
+        report("idle", idle);
+        report("reloading", reloading);
+        InstrumentationRegistry.getInstrumentation().sendStatus(0, mResults);
+
+        assertEquals(MEASURED_ITERATIONS * READER_THREADS, idle.length);
+        assertEquals(MEASURED_ITERATIONS * READER_THREADS, reloading.length);
+    }
+
+    private long[] measureReads(boolean reloading) throws InterruptedException {
+        final AtomicBoolean running = new AtomicBoolean(true);
+        final Thread writer = new Thread(() -> {
+            while (reloading && running.get()) {
+                mCategoryManager.reloadAllCategories(mContext);
+            }
+        });
+        writer.start();
+
+        final long[] samples = new long[MEASURED_ITERATIONS * READER_THREADS];
+        final Thread[] readers = new Thread[READER_THREADS];
+        for (int t = 0; t < READER_THREADS; t++) {
+            final int offset = t * MEASURED_ITERATIONS;
+            readers[t] = new Thread(() -> {
+                for (int i = 0; i < WARMUP_ITERATIONS; i++) {
+                    mCategoryManager.getTilesByCategory(mContext, CategoryKey.CATEGORY_HOMEPAGE);
+                }
+                for (int i = 0; i < MEASURED_ITERATIONS; i++) {
+                    final long start = SystemClock.elapsedRealtimeNanos();
+                    mCategoryManager.getTilesByCategory(mContext, CategoryKey.CATEGORY_HOMEPAGE);
+                    samples[offset + i] = SystemClock.elapsedRealtimeNanos() - start;
+                }
+            });
+            readers[t].start();
+        }
+        for (Thread reader : readers) {
+            reader.join();
+        }
+        running.set(false);
+        writer.join();
+        return samples;
+    }
+
+    private void report(String name, long[] samples) {
+        Arrays.sort(samples);
+        final String result = String.format("p50=%dns p90=%dns p99=%dns max=%dns",
+                percentile(samples, 50), percentile(samples, 90), percentile(samples, 99),
+                samples[samples.length - 1]);
+        Log.i(TAG, name + ": " + result);
+        mResults.putString("CategoryManagerRead_" + name, result);
+    }
+
+    private static long percentile(long[] sorted, int percentile) {
+        return sorted[Math.min(sorted.length - 1, sorted.length * percentile / 100)];
+    }
+}
@@ -0,0 +1,171 @@
+/*
+ * Copyright (C) 2022 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.settings.fuelgauge.batteryusage;
+
+import static org.junit.Assert.assertFalse;
+
+import android.content.ContentValues;
+import android.content.Context;
+import android.os.Bundle;
+import android.os.SystemClock;
+import android.text.format.DateUtils;
+import android.util.Log;
+
+import androidx.test.platform.app.InstrumentationRegistry;
+import androidx.test.runner.AndroidJUnit4;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Calendar;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ForkJoinPool;
+
+/**
+ * Compares computing the battery usage diff data of a synthetic week-long history one day after
+ * another and with the days in parallel.
+ *
+ * The number of apps in the history can be set with the {@code uidCount} instrumentation
+ * argument. Median times are logged and reported through the instrumentation status.
+ */
+@RunWith(AndroidJUnit4.class)
+public class BatteryUsageDiffBenchmarkTest {
+    private static final String TAG = "BatteryUsageDiffBenchmark";
+    private static final String ARG_UID_COUNT = "uidCount";
+    private static final int DEFAULT_UID_COUNT = 200;
+    private static final int DAY_COUNT = 7;
+    private static final int WARMUP_ITERATIONS = 3;
+    private static final int MEASURED_ITERATIONS = 10;
+
+    private Context mContext;
+    private ForkJoinPool mPool;
+    private Bundle mResults;
+    private Map<Long, Map<String, BatteryHistEntry>> mBatteryHistoryMap;
+    private List<BatteryLevelData.PeriodBatteryLevelData> mHourlyBatteryLevelsPerDay;
+
+    @Before
+    public void setUp() {
+        mContext = InstrumentationRegistry.getInstrumentation().getTargetContext();
+        mPool = new ForkJoinPool(Runtime.getRuntime().availableProcessors());
+        mResults = new Bundle();
+        final String uidCount =
+                InstrumentationRegistry.getArguments().getString(ARG_UID_COUNT);
+        final long startTimestamp = getStartTimestamp();
+        mBatteryHistoryMap = createHistoryMap(startTimestamp,
+                uidCount == null ? DEFAULT_UID_COUNT : Integer.parseInt(uidCount));
+        mHourlyBatteryLevelsPerDay = createHourlyBatteryLevelsPerDay(startTimestamp);
+    }
+
+    @After
+    public void tearDown() {
+        mPool.shutdown();
+    }
+
+    @Test
+    public void computeDiffData_sequentialAndParallel() {
+        final long sequential = measure("sequential", /*pool=*/ null);
+        final long parallel = measure("parallel", mPool);
+
+        mResults.putLong("BatteryUsageDiff_sequential_ms", sequential);
+        mResults.putLong("BatteryUsageDiff_parallel_ms", parallel);
+        InstrumentationRegistry.getInstrumentation().sendStatus(0, mResults);
+
+        assertFalse(mBatteryHistoryMap.isEmpty());
+    }
+
+    private long measure(String name, ForkJoinPool pool) {
+        for (int i = 0; i < WARMUP_ITERATIONS; i++) {
+            compute(pool);
+        }
+        final long[] samples = new long[MEASURED_ITERATIONS];
+        for (int i = 0; i < MEASURED_ITERATIONS; i++) {
+            final long start = SystemClock.elapsedRealtime();
+            compute(pool);
+            samples[i] = SystemClock.elapsedRealtime() - start;
+        }
+        Arrays.sort(samples);
+        final long median = samples[samples.length / 2];
+        Log.i(TAG, name + ": median " + median + " ms, max " + samples[samples.length - 1]
+                + " ms");
+        return median;
+    }
+
+    private void compute(ForkJoinPool pool) {
+        DataProcessor.computeHourlyAndDailyUsageDiffData(mContext, mHourlyBatteryLevelsPerDay,
+                mBatteryHistoryMap, /*rollupCache=*/ null, pool);
+    }
+
+    // Midnight a week ago, so every day of the history is a full day.
+    private static long getStartTimestamp() {
+        final Calendar calendar = Calendar.getInstance();
+        calendar.add(Calendar.DAY_OF_YEAR, -DAY_COUNT);
+        calendar.set(Calendar.HOUR_OF_DAY, 0);
+        calendar.set(Calendar.MINUTE, 0);
+        calendar.set(Calendar.SECOND, 0);
+        calendar.set(Calendar.MILLISECOND, 0);
+        return calendar.getTimeInMillis();
+    }
+
+    private Map<Long, Map<String, BatteryHistEntry>> createHistoryMap(long startTimestamp,
+            int uidCount) {
+        final Map<Long, Map<String, BatteryHistEntry>> batteryHistoryMap = new HashMap<>();
+        final int userId = mContext.getUserId();
+        for (int hour = 0; hour <= DAY_COUNT * 24; hour++) {
+            final Map<String, BatteryHistEntry> entryMap = new HashMap<>();
+            for (int uid = 1; uid <= uidCount; uid++) {
+                final ContentValues values = new ContentValues();
+                values.put(BatteryHistEntry.KEY_PACKAGE_NAME, "package" + uid);
+                values.put(BatteryHistEntry.KEY_UID, (long) uid);
+                values.put(BatteryHistEntry.KEY_USER_ID, (long) userId);
+                values.put(BatteryHistEntry.KEY_CONSUMER_TYPE,
+                        ConvertUtils.CONSUMER_TYPE_UID_BATTERY);
+                values.put(BatteryHistEntry.KEY_CONSUME_POWER, hour * (uid % 7 + 1) * 0.3);
+                values.put(BatteryHistEntry.KEY_FOREGROUND_USAGE_TIME,
+                        hour * (uid % 3 + 1) * 1000L);
+                values.put(BatteryHistEntry.KEY_BACKGROUND_USAGE_TIME,
+                        hour * (uid % 4 + 1) * 500L);
+                final BatteryHistEntry entry = new BatteryHistEntry(values);
+                entryMap.put(entry.getKey(), entry);
+            }
+            batteryHistoryMap.put(startTimestamp + hour * DateUtils.HOUR_IN_MILLIS, entryMap);
+        }
+        return batteryHistoryMap;
+    }
+
+    private static List<BatteryLevelData.PeriodBatteryLevelData> createHourlyBatteryLevelsPerDay(
+            long startTimestamp) {
+        final List<BatteryLevelData.PeriodBatteryLevelData> hourlyBatteryLevelsPerDay =
+                new ArrayList<>();
+        for (int day = 0; day < DAY_COUNT; day++) {
+            final List<Long> timestamps = new ArrayList<>();
+            final List<Integer> levels = new ArrayList<>();
+            for (int hour = 0; hour <= 24; hour += 2) {
+                timestamps.add(startTimestamp + (day * 24 + hour) * DateUtils.HOUR_IN_MILLIS);
+                levels.add(100);
+            }
+            hourlyBatteryLevelsPerDay.add(
+                    new BatteryLevelData.PeriodBatteryLevelData(timestamps, levels));
+        }
+        return hourlyBatteryLevelsPerDay;
+    }
+}
@@ -0,0 +1,107 @@
+/*
+ * Copyright (C) 2022 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.settings.search;
+
+import static org.junit.Assert.assertFalse;
+
+import android.content.Context;
+import android.os.Bundle;
+import android.os.SystemClock;
+import android.util.Log;
+import android.util.Pair;
+
+import androidx.test.platform.app.InstrumentationRegistry;
+import androidx.test.runner.AndroidJUnit4;
+
+import com.android.settings.core.PreferenceXmlMetadataCache;
+import com.android.settingslib.search.Indexable;
+import com.android.settingslib.search.SearchIndexableData;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import java.util.List;
+
+/**
+ * Measures how long building the search index takes through the parallel provider path of
+ * {@link SettingsSearchIndexablesProvider}, first with no parsed xml cached, then with the xml
+ * metadata cache warmed up.
+ *
+ * The total time and the time of each provider are reported through the instrumentation status.
+ */
+@RunWith(AndroidJUnit4.class)
+public class SearchIndexBenchmarkTest {
+    private static final String TAG = "SearchIndexBenchmark";
+
+    private Context mContext;
+    private Bundle mResults;
+
+    @Before
+    public void setUp() {
+        mContext = InstrumentationRegistry.getInstrumentation().getTargetContext();
+        mResults = new Bundle();
+    }
+
+    @Test
+    public void indexBuildTime_perProvider() {
+        PreferenceXmlMetadataCache.clear();
+        final List<Pair<String, Long>> cold = measureProviders("cold");
+        final List<Pair<String, Long>> warm = measureProviders("warm");
+
+        InstrumentationRegistry.getInstrumentation().sendStatus(0, mResults);
+
+        assertFalse(cold.isEmpty());
+        assertFalse(warm.isEmpty());
+    }
+
+    private List<Pair<String, Long>> measureProviders(String name) {
+        final long start = SystemClock.elapsedRealtime();
+        final List<Pair<String, Long>> providerTimes =
+                SettingsSearchIndexablesProvider.collectFromProviders(
+                        mContext, bundle -> measureProvider(name, bundle));
+        final long total = SystemClock.elapsedRealtime() - start;
+        Log.i(TAG, name + ": total " + total + " ms");
+        mResults.putLong("SearchIndex_" + name + "_total_ms", total);
+        for (Pair<String, Long> providerTime : providerTimes) {
+            mResults.putLong("SearchIndex_" + name + "_" + providerTime.first,
+                    providerTime.second);
+        }
+        return providerTimes;
+    }
+
+    // Runs on the indexing threads, so it doesn't touch the results bundle.
+    private Pair<String, Long> measureProvider(String name, SearchIndexableData bundle) {
+        final String providerName = bundle.getTargetClass().getName();
+        final long start = SystemClock.elapsedRealtime();
+        try {
+            buildIndex(bundle.getSearchIndexProvider());
+        } catch (RuntimeException e) {
+            Log.w(TAG, "Failed to build index for " + providerName, e);
+        }
+        final long elapsed = SystemClock.elapsedRealtime() - start;
+        Log.i(TAG, name + ": " + providerName + " " + elapsed + " ms");
+        return Pair.create(providerName, elapsed);
+    }
+
+    private void buildIndex(Indexable.SearchIndexProvider provider) {
+        provider.getXmlResourcesToIndex(mContext, true /* enabled */);
+        provider.getRawDataToIndex(mContext, true /* enabled */);
+        provider.getNonIndexableKeys(mContext);
+        provider.getDynamicRawDataToIndex(mContext, true /* enabled */);
+    }
+}
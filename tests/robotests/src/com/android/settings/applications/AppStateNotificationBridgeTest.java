@@ -39,6 +39,7 @@ import static org.mockito.ArgumentMatchers.anyLong;
 import static org.mockito.ArgumentMatchers.anyString;
 import static org.mockito.ArgumentMatchers.eq;
 import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
 import static org.mockito.Mockito.verify;
 import static org.mockito.Mockito.when;
 
@@ -52,6 +53,7 @@ import android.os.Parcel;
 import android.os.RemoteException;
 import android.os.UserHandle;
 import android.os.UserManager;
+import android.util.ArrayMap;
 import android.view.ViewGroup;
 import android.widget.CompoundButton;
 import android.widget.Switch;
@@ -220,6 +222,28 @@ public class AppStateNotificationBridgeTest {
         assertThat(((NotificationsSentState) apps.get(0).extraInfo).lastSent).isEqualTo(0);
     }
 
+    @Test
+    public void testLoadAllExtraInfo_batchedBlockStates() throws RemoteException {
+        when(mUsageStats.queryEventsForUser(anyLong(), anyLong(), anyInt(), anyString()))
+                .thenReturn(mock(UsageEvents.class));
+        final NotificationBackend.AppRow row = new NotificationBackend.AppRow();
+        row.pkg = PKG1;
+        row.banned = false;
+        row.blockable = true;
+        final ArrayMap<String, NotificationBackend.AppRow> rows = new ArrayMap<>();
+        rows.put(PKG1, row);
+        when(mBackend.loadBlockStates(any(), eq(0), any())).thenReturn(rows);
+        ArrayList<AppEntry> apps = new ArrayList<>();
+        apps.add(getMockAppEntry(PKG1));
+        when(mSession.getAllApps()).thenReturn(apps);
+
+        mBridge.loadAllExtraInfo();
+
+        assertThat(((NotificationsSentState) apps.get(0).extraInfo).blocked).isFalse();
+        assertThat(((NotificationsSentState) apps.get(0).extraInfo).blockable).isTrue();
+        verify(mBackend, never()).getNotificationsBanned(anyString(), anyInt());
+    }
+
     @Test
     public void testLoadAllExtraInfo_multipleEventsAgg() throws RemoteException {
         List<Event> events = new ArrayList<>();
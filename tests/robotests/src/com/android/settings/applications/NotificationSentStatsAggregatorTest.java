@@ -0,0 +1,148 @@
+/*
+ * Copyright (C) 2022 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.settings.applications;
+
+import static com.google.common.truth.Truth.assertThat;
+
+import static org.mockito.ArgumentMatchers.anyInt;
+import static org.mockito.ArgumentMatchers.anyString;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+import android.app.usage.IUsageStatsManager;
+import android.app.usage.UsageEvents;
+import android.app.usage.UsageEvents.Event;
+import android.os.Parcel;
+
+import com.android.settings.applications.AppStateNotificationBridge.NotificationsSentState;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.mockito.Mock;
+import org.mockito.MockitoAnnotations;
+import org.robolectric.RobolectricTestRunner;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+@RunWith(RobolectricTestRunner.class)
+public class NotificationSentStatsAggregatorTest {
+    private static final String PKG1 = "pkg1";
+    private static final String PKG2 = "pkg2";
+    private static final String CALLING_PACKAGE = "com.android.settings";
+    private static final int USER_ID = 0;
+    private static final long WINDOW = 100L;
+    private static final List<Integer> USER_IDS = Collections.singletonList(USER_ID);
+
+    @Mock
+    private IUsageStatsManager mUsageStats;
+    private NotificationSentStatsAggregator mAggregator;
+
+    @Before
+    public void setUp() {
+        MockitoAnnotations.initMocks(this);
+        mAggregator = new NotificationSentStatsAggregator(mUsageStats, CALLING_PACKAGE, WINDOW);
+    }
+
+    @Test
+    public void update_firstUpdate_shouldQueryWholeWindow() throws Exception {
+        when(mUsageStats.queryEventsForUser(100L, 200L, USER_ID, CALLING_PACKAGE))
+                .thenReturn(getUsageEvents(getEvent(PKG1, 150L), getEvent(PKG1, 160L)));
+
+        mAggregator.update(USER_IDS, 200L);
+
+        final NotificationsSentState state = mAggregator.getState(USER_ID, PKG1);
+        assertThat(state.sentCount).isEqualTo(2);
+        assertThat(state.lastSent).isEqualTo(160L);
+        assertThat(mAggregator.hasWindow(USER_ID)).isTrue();
+    }
+
+    @Test
+    public void update_secondUpdate_shouldOnlyQueryNewEvents() throws Exception {
+        when(mUsageStats.queryEventsForUser(100L, 200L, USER_ID, CALLING_PACKAGE))
+                .thenReturn(getUsageEvents(getEvent(PKG1, 150L), getEvent(PKG2, 190L)));
+        when(mUsageStats.queryEventsForUser(200L, 260L, USER_ID, CALLING_PACKAGE))
+                .thenReturn(getUsageEvents(getEvent(PKG2, 250L)));
+
+        mAggregator.update(USER_IDS, 200L);
+        mAggregator.update(USER_IDS, 260L);
+
+        verify(mUsageStats).queryEventsForUser(200L, 260L, USER_ID, CALLING_PACKAGE);
+        // The notification of pkg1 left the window.
+        assertThat(mAggregator.getState(USER_ID, PKG1)).isNull();
+        assertThat(mAggregator.getState(USER_ID, PKG2).sentCount).isEqualTo(2);
+        assertThat(mAggregator.getState(USER_ID, PKG2).lastSent).isEqualTo(250L);
+    }
+
+    @Test
+    public void update_windowExpired_shouldQueryWholeWindowAgain() throws Exception {
+        when(mUsageStats.queryEventsForUser(100L, 200L, USER_ID, CALLING_PACKAGE))
+                .thenReturn(getUsageEvents(getEvent(PKG1, 150L)));
+        when(mUsageStats.queryEventsForUser(400L, 500L, USER_ID, CALLING_PACKAGE))
+                .thenReturn(getUsageEvents(getEvent(PKG2, 450L)));
+
+        mAggregator.update(USER_IDS, 200L);
+        mAggregator.update(USER_IDS, 500L);
+
+        assertThat(mAggregator.getState(USER_ID, PKG1)).isNull();
+        assertThat(mAggregator.getState(USER_ID, PKG2).sentCount).isEqualTo(1);
+    }
+
+    @Test
+    public void update_queryFailed_shouldNotHaveWindow() throws Exception {
+        when(mUsageStats.queryEventsForUser(
+                eq(100L), eq(200L), anyInt(), anyString())).thenReturn(null);
+
+        mAggregator.update(USER_IDS, 200L);
+
+        assertThat(mAggregator.hasWindow(USER_ID)).isFalse();
+        assertThat(mAggregator.getStates()).isEmpty();
+    }
+
+    @Test
+    public void getStates_shouldBeKeyedByUserAndPackage() throws Exception {
+        when(mUsageStats.queryEventsForUser(100L, 200L, USER_ID, CALLING_PACKAGE))
+                .thenReturn(getUsageEvents(getEvent(PKG1, 150L)));
+
+        mAggregator.update(USER_IDS, 200L);
+
+        assertThat(mAggregator.getStates().get(AppStateNotificationBridge.getKey(USER_ID, PKG1))
+                .sentCount).isEqualTo(1);
+    }
+
+    private static Event getEvent(String pkg, long timeStamp) {
+        final Event event = new Event();
+        event.mEventType = Event.NOTIFICATION_INTERRUPTION;
+        event.mPackage = pkg;
+        event.mTimeStamp = timeStamp;
+        return event;
+    }
+
+    private static UsageEvents getUsageEvents(Event... events) {
+        final List<Event> eventList = new ArrayList<>();
+        Collections.addAll(eventList, events);
+        final UsageEvents usageEvents = new UsageEvents(eventList, new String[] {PKG1, PKG2});
+        final Parcel parcel = Parcel.obtain();
+        parcel.setDataPosition(0);
+        usageEvents.writeToParcel(parcel, 0);
+        parcel.setDataPosition(0);
+        return UsageEvents.CREATOR.createFromParcel(parcel);
+    }
+}
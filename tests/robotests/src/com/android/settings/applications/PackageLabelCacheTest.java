@@ -0,0 +1,108 @@
+/*
+ * Copyright (C) 2022 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.settings.applications;
+
+import static com.google.common.truth.Truth.assertThat;
+
+import static org.junit.Assert.assertThrows;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+import android.content.pm.ApplicationInfo;
+import android.content.pm.PackageManager;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.mockito.Mock;
+import org.mockito.MockitoAnnotations;
+import org.robolectric.RobolectricTestRunner;
+
+@RunWith(RobolectricTestRunner.class)
+public class PackageLabelCacheTest {
+    private static final String PACKAGE_NAME = "com.android.app";
+    private static final String OTHER_PACKAGE_NAME = "com.android.other";
+
+    @Mock
+    private PackageManager mPackageManager;
+    private PackageLabelCache mCache;
+
+    @Before
+    public void setUp() {
+        MockitoAnnotations.initMocks(this);
+        mCache = new PackageLabelCache();
+    }
+
+    @Test
+    public void getApplicationInfo_calledTwice_shouldQueryOnce() throws Exception {
+        final ApplicationInfo info = createApplicationInfo(PACKAGE_NAME);
+        when(mPackageManager.getApplicationInfo(PACKAGE_NAME, 0)).thenReturn(info);
+
+        mCache.getApplicationInfo(mPackageManager, PACKAGE_NAME, 0);
+
+        assertThat(mCache.getApplicationInfo(mPackageManager, PACKAGE_NAME, 0))
+                .isSameInstanceAs(info);
+        verify(mPackageManager, times(1)).getApplicationInfo(PACKAGE_NAME, 0);
+    }
+
+    @Test
+    public void getApplicationInfo_notFound_shouldThrowWithoutQueryingAgain() throws Exception {
+        when(mPackageManager.getApplicationInfo(PACKAGE_NAME, 0))
+                .thenThrow(new PackageManager.NameNotFoundException());
+
+        assertThrows(PackageManager.NameNotFoundException.class,
+                () -> mCache.getApplicationInfo(mPackageManager, PACKAGE_NAME, 0));
+        assertThrows(PackageManager.NameNotFoundException.class,
+                () -> mCache.getApplicationInfo(mPackageManager, PACKAGE_NAME, 0));
+        verify(mPackageManager, times(1)).getApplicationInfo(PACKAGE_NAME, 0);
+    }
+
+    @Test
+    public void invalidatePackage_shouldOnlyDropEntriesOfPackage() throws Exception {
+        when(mPackageManager.getApplicationInfo(PACKAGE_NAME, 0))
+                .thenReturn(createApplicationInfo(PACKAGE_NAME));
+        when(mPackageManager.getApplicationInfo(OTHER_PACKAGE_NAME, 0))
+                .thenReturn(createApplicationInfo(OTHER_PACKAGE_NAME));
+        mCache.getApplicationInfo(mPackageManager, PACKAGE_NAME, 0);
+        mCache.getApplicationInfo(mPackageManager, OTHER_PACKAGE_NAME, 0);
+
+        mCache.invalidatePackage(PACKAGE_NAME);
+        mCache.getApplicationInfo(mPackageManager, PACKAGE_NAME, 0);
+        mCache.getApplicationInfo(mPackageManager, OTHER_PACKAGE_NAME, 0);
+
+        verify(mPackageManager, times(2)).getApplicationInfo(PACKAGE_NAME, 0);
+        verify(mPackageManager, times(1)).getApplicationInfo(OTHER_PACKAGE_NAME, 0);
+    }
+
+    @Test
+    public void getApplicationInfo_moreThanMaxSize_shouldStayBounded() throws Exception {
+        for (int i = 0; i <= PackageLabelCache.MAX_SIZE; i++) {
+            when(mPackageManager.getApplicationInfo("package" + i, 0))
+                    .thenReturn(createApplicationInfo("package" + i));
+            mCache.getApplicationInfo(mPackageManager, "package" + i, 0);
+        }
+
+        assertThat(mCache.size()).isEqualTo(PackageLabelCache.MAX_SIZE);
+    }
+
+    private static ApplicationInfo createApplicationInfo(String packageName) {
+        final ApplicationInfo info = new ApplicationInfo();
+        info.packageName = packageName;
+        return info;
+    }
+}
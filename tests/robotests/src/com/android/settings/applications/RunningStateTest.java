@@ -0,0 +1,107 @@
+/*
+ * Copyright (C) 2022 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.settings.applications;
+
+import static com.google.common.truth.Truth.assertThat;
+
+import android.app.ActivityManager;
+import android.content.ComponentName;
+
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.RobolectricTestRunner;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+
+@RunWith(RobolectricTestRunner.class)
+public class RunningStateTest {
+    private static final String PACKAGE_NAME = "com.android.app";
+    private static final int UID = 10001;
+    private static final int PID = 1234;
+
+    @Test
+    public void snapshot_sameServicesAndProcesses_isSame() {
+        final RunningState.Snapshot snapshot = new RunningState.Snapshot(
+                Arrays.asList(createService("Sync")), Arrays.asList(createProcess(PID)));
+        final RunningState.Snapshot other = new RunningState.Snapshot(
+                Arrays.asList(createService("Sync")), Arrays.asList(createProcess(PID)));
+
+        assertThat(snapshot.isSame(other)).isTrue();
+    }
+
+    @Test
+    public void snapshot_differentOrder_isSame() {
+        final RunningState.Snapshot snapshot = new RunningState.Snapshot(
+                Arrays.asList(createService("Sync"), createService("Upload")),
+                Arrays.asList(createProcess(PID), createProcess(PID + 1)));
+        final RunningState.Snapshot other = new RunningState.Snapshot(
+                Arrays.asList(createService("Upload"), createService("Sync")),
+                Arrays.asList(createProcess(PID + 1), createProcess(PID)));
+
+        assertThat(snapshot.isSame(other)).isTrue();
+    }
+
+    @Test
+    public void snapshot_serviceStopped_isNotSame() {
+        final RunningState.Snapshot snapshot = new RunningState.Snapshot(
+                Arrays.asList(createService("Sync"), createService("Upload")),
+                Arrays.asList(createProcess(PID)));
+        final RunningState.Snapshot other = new RunningState.Snapshot(
+                Arrays.asList(createService("Sync")), Arrays.asList(createProcess(PID)));
+
+        assertThat(snapshot.isSame(other)).isFalse();
+    }
+
+    @Test
+    public void snapshot_processImportanceChanged_isNotSame() {
+        final ActivityManager.RunningAppProcessInfo cached = createProcess(PID);
+        cached.importance = ActivityManager.RunningAppProcessInfo.IMPORTANCE_CACHED;
+        final RunningState.Snapshot snapshot = new RunningState.Snapshot(
+                new ArrayList<>(), Arrays.asList(createProcess(PID)));
+        final RunningState.Snapshot other = new RunningState.Snapshot(
+                new ArrayList<>(), Arrays.asList(cached));
+
+        assertThat(snapshot.isSame(other)).isFalse();
+    }
+
+    @Test
+    public void snapshot_noPreviousSnapshot_isNotSame() {
+        final RunningState.Snapshot snapshot = new RunningState.Snapshot(null, null);
+
+        assertThat(snapshot.isSame(null)).isFalse();
+    }
+
+    private static ActivityManager.RunningServiceInfo createService(String className) {
+        final ActivityManager.RunningServiceInfo service = new ActivityManager.RunningServiceInfo();
+        service.service = new ComponentName(PACKAGE_NAME, PACKAGE_NAME + "." + className);
+        service.uid = UID;
+        service.pid = PID;
+        service.process = PACKAGE_NAME;
+        service.started = true;
+        return service;
+    }
+
+    private static ActivityManager.RunningAppProcessInfo createProcess(int pid) {
+        final ActivityManager.RunningAppProcessInfo process =
+                new ActivityManager.RunningAppProcessInfo(PACKAGE_NAME + pid, pid,
+                        new String[] {PACKAGE_NAME});
+        process.uid = UID;
+        process.importance = ActivityManager.RunningAppProcessInfo.IMPORTANCE_SERVICE;
+        return process;
+    }
+}
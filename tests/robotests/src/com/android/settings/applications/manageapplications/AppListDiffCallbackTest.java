@@ -0,0 +1,127 @@
+/*
+ * Copyright (C) 2022 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.settings.applications.manageapplications;
+
+import static com.android.settings.applications.manageapplications.ManageApplications.LIST_TYPE_MAIN;
+import static com.android.settings.applications.manageapplications.ManageApplications.LIST_TYPE_NOTIFICATION;
+import static com.android.settings.applications.manageapplications.ManageApplications.SIZE_TOTAL;
+
+import static com.google.common.truth.Truth.assertThat;
+
+import static org.mockito.Mockito.mock;
+
+import android.content.pm.ApplicationInfo;
+
+import com.android.settings.R;
+import com.android.settings.applications.AppStateNotificationBridge.NotificationsSentState;
+import com.android.settingslib.applications.ApplicationsState.AppEntry;
+
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.RobolectricTestRunner;
+
+import java.util.Arrays;
+import java.util.List;
+
+@RunWith(RobolectricTestRunner.class)
+public class AppListDiffCallbackTest {
+    private static final int SORT_MODE = R.id.sort_order_alpha;
+
+    @Test
+    public void areItemsTheSame_samePackageAndUid_returnTrue() {
+        final AppListDiffCallback callback = createCallback(LIST_TYPE_MAIN,
+                Arrays.asList(createEntry("com.app", 1000)),
+                Arrays.asList(createEntry("com.app", 1000), createEntry("com.app", 1001)));
+
+        assertThat(callback.areItemsTheSame(0, 0)).isTrue();
+        assertThat(callback.areItemsTheSame(0, 1)).isFalse();
+    }
+
+    @Test
+    public void areContentsTheSame_nothingChanged_returnTrue() {
+        final AppListDiffCallback callback = createCallback(LIST_TYPE_MAIN,
+                Arrays.asList(createEntry("com.app", 1000)),
+                Arrays.asList(createEntry("com.app", 1000)));
+
+        assertThat(callback.areContentsTheSame(0, 0)).isTrue();
+    }
+
+    @Test
+    public void getChangePayload_sizeChanged_returnSummaryPayload() {
+        final AppEntry oldEntry = createEntry("com.app", 1000);
+        final AppEntry newEntry = createEntry("com.app", 1000);
+        newEntry.sizeStr = "2 MB";
+
+        final AppListDiffCallback callback = createCallback(LIST_TYPE_MAIN,
+                Arrays.asList(oldEntry), Arrays.asList(newEntry));
+
+        assertThat(callback.areContentsTheSame(0, 0)).isFalse();
+        assertThat(callback.getChangePayload(0, 0))
+                .isEqualTo(AppListDiffCallback.PAYLOAD_SUMMARY);
+    }
+
+    @Test
+    public void getChangePayload_notificationsBlocked_returnSwitchPayload() {
+        final AppEntry oldEntry = createEntry("com.app", 1000);
+        oldEntry.extraInfo = createSentState(false /* blocked */);
+        final AppEntry newEntry = createEntry("com.app", 1000);
+        newEntry.extraInfo = createSentState(true /* blocked */);
+
+        final AppListDiffCallback callback = createCallback(LIST_TYPE_NOTIFICATION,
+                Arrays.asList(oldEntry), Arrays.asList(newEntry));
+
+        assertThat(callback.getChangePayload(0, 0))
+                .isEqualTo(AppListDiffCallback.PAYLOAD_SWITCH);
+    }
+
+    @Test
+    public void getChangePayload_labelChanged_returnNull() {
+        final AppEntry oldEntry = createEntry("com.app", 1000);
+        final AppEntry newEntry = createEntry("com.app", 1000);
+        newEntry.label = "New label";
+        newEntry.sizeStr = "2 MB";
+
+        final AppListDiffCallback callback = createCallback(LIST_TYPE_MAIN,
+                Arrays.asList(oldEntry), Arrays.asList(newEntry));
+
+        assertThat(callback.getChangePayload(0, 0)).isNull();
+    }
+
+    private static AppListDiffCallback createCallback(int listType, List<AppEntry> oldEntries,
+            List<AppEntry> newEntries) {
+        return new AppListDiffCallback(
+                AppListDiffCallback.createRowStates(oldEntries, listType, SIZE_TOTAL, SORT_MODE),
+                AppListDiffCallback.createRowStates(newEntries, listType, SIZE_TOTAL, SORT_MODE));
+    }
+
+    private static AppEntry createEntry(String packageName, int uid) {
+        final AppEntry entry = mock(AppEntry.class);
+        entry.info = new ApplicationInfo();
+        entry.info.packageName = packageName;
+        entry.info.uid = uid;
+        entry.label = "Label";
+        entry.sizeStr = "1 MB";
+        return entry;
+    }
+
+    private static NotificationsSentState createSentState(boolean blocked) {
+        final NotificationsSentState state = new NotificationsSentState();
+        state.blockable = true;
+        state.blocked = blocked;
+        return state;
+    }
+}
@@ -0,0 +1,126 @@
+/*
+ * Copyright (C) 2022 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.settings.applications.manageapplications;
+
+import static com.google.common.truth.Truth.assertThat;
+
+import static org.mockito.Mockito.mock;
+
+import android.content.pm.ApplicationInfo;
+
+import com.android.settingslib.applications.ApplicationsState.AppEntry;
+
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.RobolectricTestRunner;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+
+@RunWith(RobolectricTestRunner.class)
+public class AppSearchIndexTest {
+
+    @Test
+    public void search_shouldMatchLabelIgnoringCase() {
+        final AppSearchIndex index = new AppSearchIndex(createEntries(
+                "Apricot", "Banana", "Cantaloupe", "Fig", "Mango"));
+
+        assertThat(getLabels(index.search("AN")))
+                .containsExactly("Banana", "Cantaloupe", "Mango").inOrder();
+    }
+
+    @Test
+    public void search_shouldMatchLabelIgnoringDiacritics() {
+        final AppSearchIndex index = new AppSearchIndex(createEntries("Café", "Cafeteria"));
+
+        assertThat(getLabels(index.search("cafe"))).containsExactly("Café", "Cafeteria");
+        assertThat(getLabels(index.search("café"))).containsExactly("Café", "Cafeteria");
+    }
+
+    @Test
+    public void search_shouldMatchPackageName() {
+        final List<AppEntry> entries = createEntries("Maps", "Mail");
+        entries.get(1).info = new ApplicationInfo();
+        entries.get(1).info.packageName = "com.android.gm";
+
+        final AppSearchIndex index = new AppSearchIndex(entries);
+
+        assertThat(getLabels(index.search("android.gm"))).containsExactly("Mail");
+    }
+
+    @Test
+    public void search_extendedQuery_shouldNarrowPreviousMatches() {
+        final AppSearchIndex index = new AppSearchIndex(createEntries(
+                "Apricot", "Banana", "Cantaloupe", "Fig", "Mango"));
+
+        assertThat(getLabels(index.search("a"))).hasSize(4);
+        assertThat(getLabels(index.search("an"))).hasSize(3);
+        assertThat(getLabels(index.search("ang"))).containsExactly("Mango");
+    }
+
+    @Test
+    public void search_shorterQuery_shouldSearchAllEntriesAgain() {
+        final AppSearchIndex index = new AppSearchIndex(createEntries(
+                "Apricot", "Banana", "Cantaloupe", "Fig", "Mango"));
+
+        index.search("ang");
+
+        assertThat(getLabels(index.search("an"))).hasSize(3);
+        assertThat(getLabels(index.search("fi"))).containsExactly("Fig");
+    }
+
+    @Test
+    public void search_noMatch_returnEmptyList() {
+        final AppSearchIndex index = new AppSearchIndex(createEntries("Apricot", "Banana"));
+
+        assertThat(index.search("orange")).isEmpty();
+    }
+
+    @Test
+    public void isFor_sameEntries_returnTrue() {
+        final List<AppEntry> entries = createEntries("Apricot");
+        final AppSearchIndex index = new AppSearchIndex(entries);
+
+        assertThat(index.isFor(entries)).isTrue();
+        assertThat(index.isFor(createEntries("Apricot"))).isFalse();
+    }
+
+    @Test
+    public void normalize_shouldFoldCaseForLocale() {
+        assertThat(AppSearchIndex.normalize("TITLE", new Locale("tr"))).isEqualTo("tıtle");
+        assertThat(AppSearchIndex.normalize("TITLE", Locale.ENGLISH)).isEqualTo("title");
+    }
+
+    private static List<AppEntry> createEntries(String... labels) {
+        final List<AppEntry> entries = new ArrayList<>();
+        for (String label : labels) {
+            final AppEntry entry = mock(AppEntry.class);
+            entry.label = label;
+            entries.add(entry);
+        }
+        return entries;
+    }
+
+    private static List<String> getLabels(List<AppEntry> entries) {
+        final List<String> labels = new ArrayList<>();
+        for (AppEntry entry : entries) {
+            labels.add(entry.label);
+        }
+        return labels;
+    }
+}
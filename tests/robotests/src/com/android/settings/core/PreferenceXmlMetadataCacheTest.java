@@ -0,0 +1,120 @@
+/*
+ * Copyright (C) 2022 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.settings.core;
+
+import static androidx.test.core.app.ApplicationProvider.getApplicationContext;
+
+import static com.android.settings.core.PreferenceXmlParserUtils.METADATA_KEY;
+
+import static com.google.common.truth.Truth.assertThat;
+
+import android.content.Context;
+import android.os.Bundle;
+
+import com.android.settings.R;
+import com.android.settings.core.PreferenceXmlParserUtils.MetadataFlag;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.RobolectricTestRunner;
+
+import java.util.ArrayList;
+import java.util.List;
+
+@RunWith(RobolectricTestRunner.class)
+public class PreferenceXmlMetadataCacheTest {
+
+    private Context mContext;
+
+    @Before
+    public void setUp() {
+        mContext = getApplicationContext();
+        PreferenceXmlMetadataCache.clear();
+    }
+
+    @After
+    public void tearDown() {
+        PreferenceXmlMetadataCache.clear();
+    }
+
+    @Test
+    public void extractMetadata_shouldMatchParser() throws Exception {
+        final List<Bundle> metadata = PreferenceXmlMetadataCache.extractMetadata(mContext,
+                R.xml.top_level_settings, MetadataFlag.FLAG_NEED_KEY);
+
+        assertThat(getKeys(metadata)).containsExactlyElementsIn(getKeys(
+                PreferenceXmlParserUtils.extractMetadata(mContext, R.xml.top_level_settings,
+                        MetadataFlag.FLAG_NEED_KEY))).inOrder();
+    }
+
+    @Test
+    public void extractMetadata_calledTwice_shouldCacheOnce() throws Exception {
+        final List<Bundle> first = PreferenceXmlMetadataCache.extractMetadata(mContext,
+                R.xml.top_level_settings, MetadataFlag.FLAG_NEED_KEY);
+        final List<Bundle> second = PreferenceXmlMetadataCache.extractMetadata(mContext,
+                R.xml.top_level_settings, MetadataFlag.FLAG_NEED_KEY);
+
+        assertThat(PreferenceXmlMetadataCache.size()).isEqualTo(1);
+        assertThat(getKeys(second)).containsExactlyElementsIn(getKeys(first)).inOrder();
+    }
+
+    @Test
+    public void extractMetadata_otherFlags_shouldCacheSeparately() throws Exception {
+        PreferenceXmlMetadataCache.extractMetadata(mContext, R.xml.top_level_settings,
+                MetadataFlag.FLAG_NEED_KEY);
+        PreferenceXmlMetadataCache.extractMetadata(mContext, R.xml.top_level_settings,
+                MetadataFlag.FLAG_NEED_KEY | MetadataFlag.FLAG_NEED_PREF_TITLE);
+
+        assertThat(PreferenceXmlMetadataCache.size()).isEqualTo(2);
+    }
+
+    @Test
+    public void extractMetadata_modifyReturnedMetadata_shouldNotChangeCache() throws Exception {
+        final List<Bundle> first = PreferenceXmlMetadataCache.extractMetadata(mContext,
+                R.xml.top_level_settings, MetadataFlag.FLAG_NEED_KEY);
+        final List<String> keys = getKeys(first);
+        first.get(0).putString(METADATA_KEY, "modified");
+        first.remove(first.size() - 1);
+
+        final List<Bundle> second = PreferenceXmlMetadataCache.extractMetadata(mContext,
+                R.xml.top_level_settings, MetadataFlag.FLAG_NEED_KEY);
+
+        assertThat(getKeys(second)).containsExactlyElementsIn(keys).inOrder();
+    }
+
+    @Test
+    public void extractMetadata_moreThanMaxSize_shouldStayBounded() throws Exception {
+        // Flags unknown to the parser only make the key differ.
+        for (int i = 0; i <= PreferenceXmlMetadataCache.MAX_SIZE; i++) {
+            PreferenceXmlMetadataCache.extractMetadata(mContext, R.xml.top_level_settings,
+                    MetadataFlag.FLAG_NEED_KEY | (i << 16));
+        }
+
+        assertThat(PreferenceXmlMetadataCache.size())
+                .isEqualTo(PreferenceXmlMetadataCache.MAX_SIZE);
+    }
+
+    private static List<String> getKeys(List<Bundle> metadata) {
+        final List<String> keys = new ArrayList<>();
+        for (Bundle bundle : metadata) {
+            keys.add(bundle.getString(METADATA_KEY));
+        }
+        return keys;
+    }
+}
@@ -0,0 +1,197 @@
+/*
+ * Copyright (C) 2022 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.settings.dashboard;
+
+import static com.google.common.truth.Truth.assertThat;
+
+import static org.mockito.Mockito.when;
+
+import android.content.Context;
+
+import androidx.preference.Preference;
+import androidx.preference.PreferenceScreen;
+
+import com.android.settings.core.BasePreferenceController;
+import com.android.settingslib.core.AbstractPreferenceController;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.mockito.Mock;
+import org.mockito.MockitoAnnotations;
+import org.robolectric.RobolectricTestRunner;
+import org.robolectric.RuntimeEnvironment;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+@RunWith(RobolectricTestRunner.class)
+public class ControllerStateRefresherTest {
+    private static final long BUDGET_MILLIS = 2000L;
+    private static final String KEY = "key";
+
+    @Mock
+    private PreferenceScreen mScreen;
+    private Context mContext;
+    private Preference mPreference;
+    private ControllerStateRefresher mRefresher;
+
+    @Before
+    public void setUp() {
+        MockitoAnnotations.initMocks(this);
+        mContext = RuntimeEnvironment.application;
+        mPreference = new Preference(mContext);
+        mPreference.setKey(KEY);
+        when(mScreen.findPreference(KEY)).thenReturn(mPreference);
+        mRefresher = new ControllerStateRefresher(BUDGET_MILLIS);
+    }
+
+    @Test
+    public void compute_serialController_shouldIgnore() {
+        final List<AbstractPreferenceController> controllers =
+                Arrays.asList(new SerialController(mContext));
+
+        assertThat(mRefresher.compute(controllers)).isEmpty();
+    }
+
+    @Test
+    public void applyState_available_shouldApplyLoadedState() {
+        final LoaderController controller =
+                new LoaderController(mContext, BasePreferenceController.AVAILABLE);
+
+        mRefresher.apply(mScreen, mRefresher.compute(Arrays.asList(controller)),
+                true /* updateVisibility */);
+
+        assertThat(mPreference.getSummary()).isEqualTo(LoaderController.STATE);
+        assertThat(mPreference.isVisible()).isTrue();
+    }
+
+    @Test
+    public void applyState_unavailable_shouldHideWithoutApplying() {
+        final LoaderController controller =
+                new LoaderController(mContext, BasePreferenceController.UNSUPPORTED_ON_DEVICE);
+
+        mRefresher.apply(mScreen, mRefresher.compute(Arrays.asList(controller)),
+                true /* updateVisibility */);
+
+        assertThat(mPreference.getSummary()).isNull();
+        assertThat(mPreference.isVisible()).isFalse();
+    }
+
+    @Test
+    public void applyState_notUpdateVisibility_shouldKeepVisibility() {
+        final LoaderController controller =
+                new LoaderController(mContext, BasePreferenceController.UNSUPPORTED_ON_DEVICE);
+
+        mRefresher.apply(mScreen, mRefresher.compute(Arrays.asList(controller)),
+                false /* updateVisibility */);
+
+        assertThat(mPreference.isVisible()).isTrue();
+    }
+
+    @Test
+    public void applyState_loadFailed_shouldFallbackToUpdateState() {
+        final FailingController controller = new FailingController(mContext);
+
+        mRefresher.apply(mScreen, mRefresher.compute(Arrays.asList(controller)),
+                true /* updateVisibility */);
+
+        assertThat(mPreference.getSummary()).isEqualTo(FailingController.FALLBACK);
+    }
+
+    @Test
+    public void apply_resultOverBudget_shouldApplyWhenReady() {
+        final ControllerStateRefresher refresher = new ControllerStateRefresher(0L);
+        final ControllerStateRefresher.ComputeTask task = refresher.createTask(
+                new LoaderController(mContext, BasePreferenceController.AVAILABLE));
+
+        refresher.apply(mScreen, Arrays.asList(task), true /* updateVisibility */);
+        assertThat(mPreference.getSummary()).isNull();
+        task.run();
+
+        assertThat(mPreference.getSummary()).isEqualTo(LoaderController.STATE);
+    }
+
+    @Test
+    public void apply_resultOverBudgetOfOlderRefresh_shouldBeDropped() {
+        final ControllerStateRefresher refresher = new ControllerStateRefresher(0L);
+        final ControllerStateRefresher.ComputeTask task = refresher.createTask(
+                new LoaderController(mContext, BasePreferenceController.AVAILABLE));
+
+        refresher.apply(mScreen, Arrays.asList(task), true /* updateVisibility */);
+        refresher.compute(Collections.emptyList());
+        task.run();
+
+        assertThat(mPreference.getSummary()).isNull();
+    }
+
+    private static class SerialController extends BasePreferenceController {
+        SerialController(Context context) {
+            super(context, KEY);
+        }
+
+        @Override
+        public int getAvailabilityStatus() {
+            return AVAILABLE;
+        }
+    }
+
+    private static class LoaderController extends BasePreferenceController
+            implements BasePreferenceController.BackgroundStateLoader<String> {
+        static final String STATE = "state";
+        private final int mAvailabilityStatus;
+
+        LoaderController(Context context, int availabilityStatus) {
+            super(context, KEY);
+            mAvailabilityStatus = availabilityStatus;
+        }
+
+        @Override
+        public int getAvailabilityStatus() {
+            return mAvailabilityStatus;
+        }
+
+        @Override
+        public String loadState() {
+            return STATE;
+        }
+
+        @Override
+        public void applyState(Preference preference, String state) {
+            preference.setSummary(state);
+        }
+    }
+
+    private static class FailingController extends LoaderController {
+        static final String FALLBACK = "fallback";
+
+        FailingController(Context context) {
+            super(context, AVAILABLE);
+        }
+
+        @Override
+        public String loadState() {
+            throw new IllegalStateException();
+        }
+
+        @Override
+        public void updateState(Preference preference) {
+            preference.setSummary(FALLBACK);
+        }
+    }
+}
@@ -0,0 +1,105 @@
+/*
+ * Copyright (C) 2022 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.settings.dashboard;
+
+import static com.google.common.truth.Truth.assertThat;
+
+import android.net.Uri;
+
+import com.android.settings.testutils.shadow.ShadowThreadUtils;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.RobolectricTestRunner;
+import org.robolectric.annotation.Config;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.concurrent.CountDownLatch;
+
+@RunWith(RobolectricTestRunner.class)
+@Config(shadows = ShadowThreadUtils.class)
+public class TileBindingPipelineTest {
+
+    private TileBindingPipeline mPipeline;
+    private TestObserver mObserver;
+
+    @Before
+    public void setUp() {
+        mPipeline = new TileBindingPipeline();
+        mObserver = new TestObserver();
+    }
+
+    @Test
+    public void bind_shouldPublishLoadedData() {
+        mPipeline.bind(Arrays.asList(mObserver));
+
+        assertThat(mObserver.mUpdated).isTrue();
+        assertThat(mPipeline.hasPendingObservers()).isFalse();
+    }
+
+    @Test
+    public void bind_emptyObservers_shouldNotHavePending() {
+        mPipeline.bind(null);
+        mPipeline.bind(Collections.emptyList());
+
+        assertThat(mPipeline.hasPendingObservers()).isFalse();
+    }
+
+    @Test
+    public void forget_publishedObserver_shouldNotUpdateAgain() {
+        mPipeline.bind(Arrays.asList(mObserver));
+        mObserver.mUpdated = false;
+
+        mPipeline.forget(Arrays.asList(mObserver));
+        mPipeline.resume();
+
+        assertThat(mObserver.mUpdated).isFalse();
+    }
+
+    @Test
+    public void cancel_betweenWaitAndPublish_shouldNotBind() {
+        final TestObserver observer = new TestObserver() {
+            @Override
+            public CountDownLatch getCountDownLatch() {
+                // Stopped while the background thread waits for the data.
+                mPipeline.cancel();
+                return super.getCountDownLatch();
+            }
+        };
+
+        mPipeline.bind(Arrays.asList(observer));
+
+        assertThat(observer.mUpdated).isFalse();
+        assertThat(mPipeline.hasPendingObservers()).isTrue();
+    }
+
+    private static class TestObserver extends DynamicDataObserver {
+        private boolean mUpdated;
+
+        @Override
+        public Uri getUri() {
+            return Uri.parse("content://com.android.settings/test");
+        }
+
+        @Override
+        public void onDataChanged() {
+            post(() -> mUpdated = true);
+        }
+    }
+}
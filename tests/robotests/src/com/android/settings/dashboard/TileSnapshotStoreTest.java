@@ -0,0 +1,174 @@
+/*
+ * Copyright (C) 2022 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.settings.dashboard;
+
+import static com.google.common.truth.Truth.assertThat;
+
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyInt;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.Mockito.when;
+
+import android.content.Context;
+import android.content.pm.ActivityInfo;
+import android.content.pm.ApplicationInfo;
+import android.content.pm.PackageManager;
+import android.content.pm.ResolveInfo;
+import android.os.Bundle;
+import android.os.UserHandle;
+import android.os.UserManager;
+
+import com.android.settingslib.drawer.ActivityTile;
+import com.android.settingslib.drawer.CategoryKey;
+import com.android.settingslib.drawer.DashboardCategory;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.mockito.Mock;
+import org.mockito.MockitoAnnotations;
+import org.robolectric.RobolectricTestRunner;
+import org.robolectric.RuntimeEnvironment;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.Collections;
+
+@RunWith(RobolectricTestRunner.class)
+public class TileSnapshotStoreTest {
+    private static final long FINGERPRINT = 1234L;
+
+    @Mock
+    private Context mMockContext;
+    @Mock
+    private PackageManager mPackageManager;
+    @Mock
+    private UserManager mUserManager;
+    private Context mContext;
+    private File mFile;
+    private TileSnapshotStore mStore;
+
+    @Before
+    public void setUp() {
+        MockitoAnnotations.initMocks(this);
+        when(mMockContext.getPackageManager()).thenReturn(mPackageManager);
+        when(mMockContext.getSystemService(UserManager.class)).thenReturn(mUserManager);
+        when(mUserManager.getUserProfiles()).thenReturn(Arrays.asList(UserHandle.of(0)));
+        mContext = RuntimeEnvironment.application;
+        mFile = new File(mContext.getCacheDir(), "test.snapshot");
+        mFile.delete();
+        mStore = new TileSnapshotStore(mFile);
+    }
+
+    @Test
+    public void read_noSnapshot_shouldReturnNull() {
+        assertThat(mStore.read()).isNull();
+    }
+
+    @Test
+    public void writeAndRead_shouldRestoreCategories() {
+        final DashboardCategory category = new DashboardCategory(CategoryKey.CATEGORY_HOMEPAGE);
+        category.addTile(new ActivityTile(createActivityInfo(), category.key));
+
+        mStore.write(mStore.marshall(FINGERPRINT, Arrays.asList(category),
+                Collections.emptyList()));
+        final TileSnapshotStore.Snapshot snapshot = mStore.read();
+
+        assertThat(snapshot.fingerprint).isEqualTo(FINGERPRINT);
+        assertThat(snapshot.categories).hasSize(1);
+        final DashboardCategory restored = snapshot.categories.get(0);
+        assertThat(restored.key).isEqualTo(CategoryKey.CATEGORY_HOMEPAGE);
+        assertThat(restored.getTilesCount()).isEqualTo(1);
+        assertThat(restored.getTile(0).getPackageName()).isEqualTo("pkg");
+        assertThat(snapshot.extraCategories).isEmpty();
+    }
+
+    @Test
+    public void read_corruptedSnapshot_shouldReturnNullAndDelete() throws IOException {
+        try (FileOutputStream out = new FileOutputStream(mFile)) {
+            out.write(new byte[] {1, 2, 3});
+        }
+
+        assertThat(mStore.read()).isNull();
+        assertThat(mFile.exists()).isFalse();
+    }
+
+    @Test
+    public void write_unchangedData_shouldNotRewrite() {
+        final byte[] data = mStore.marshall(FINGERPRINT, Collections.emptyList(),
+                Collections.emptyList());
+        mStore.write(data);
+        mFile.setLastModified(0L);
+
+        mStore.write(data.clone());
+
+        assertThat(mFile.lastModified()).isEqualTo(0L);
+    }
+
+    @Test
+    public void write_dataOfReadSnapshot_shouldNotRewrite() {
+        final byte[] data = mStore.marshall(FINGERPRINT, Collections.emptyList(),
+                Collections.emptyList());
+        mStore.write(data);
+        mFile.setLastModified(0L);
+        final TileSnapshotStore store = new TileSnapshotStore(mFile);
+        store.read();
+
+        store.write(data);
+
+        assertThat(mFile.lastModified()).isEqualTo(0L);
+    }
+
+    @Test
+    public void write_changedData_shouldRewrite() {
+        mStore.write(mStore.marshall(FINGERPRINT, Collections.emptyList(),
+                Collections.emptyList()));
+        mFile.setLastModified(0L);
+
+        mStore.write(mStore.marshall(FINGERPRINT + 1, Collections.emptyList(),
+                Collections.emptyList()));
+
+        assertThat(mFile.lastModified()).isNotEqualTo(0L);
+        assertThat(mStore.read().fingerprint).isEqualTo(FINGERPRINT + 1);
+    }
+
+    @Test
+    public void computeFingerprint_tileComponentDisabled_shouldChange() {
+        final ResolveInfo resolveInfo = new ResolveInfo();
+        resolveInfo.activityInfo = createActivityInfo();
+        when(mPackageManager.queryIntentActivitiesAsUser(any(), anyInt(), eq(0)))
+                .thenReturn(Arrays.asList(resolveInfo));
+        final long enabledFingerprint = TileSnapshotStore.computeFingerprint(mMockContext);
+
+        when(mPackageManager.queryIntentActivitiesAsUser(any(), anyInt(), eq(0)))
+                .thenReturn(Collections.emptyList());
+
+        assertThat(TileSnapshotStore.computeFingerprint(mMockContext))
+                .isNotEqualTo(enabledFingerprint);
+    }
+
+    private static ActivityInfo createActivityInfo() {
+        final ActivityInfo activityInfo = new ActivityInfo();
+        activityInfo.packageName = "pkg";
+        activityInfo.name = "class";
+        activityInfo.applicationInfo = new ApplicationInfo();
+        activityInfo.metaData = new Bundle();
+        return activityInfo;
+    }
+}
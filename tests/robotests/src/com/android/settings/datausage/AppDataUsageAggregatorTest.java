@@ -0,0 +1,137 @@
+/*
+ * Copyright (C) 2022 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.settings.datausage;
+
+import static com.google.common.truth.Truth.assertThat;
+
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+import android.app.usage.NetworkStats;
+import android.content.pm.UserInfo;
+import android.os.Process;
+import android.os.UserHandle;
+import android.os.UserManager;
+
+import com.android.settingslib.AppItem;
+import com.android.settingslib.net.UidDetailProvider;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.mockito.Mock;
+import org.mockito.MockitoAnnotations;
+import org.robolectric.RobolectricTestRunner;
+
+import java.util.Arrays;
+
+@RunWith(RobolectricTestRunner.class)
+public class AppDataUsageAggregatorTest {
+    private static final int CURRENT_USER_ID = 0;
+    private static final int PROFILE_USER_ID = 10;
+    private static final int OTHER_USER_ID = 11;
+    private static final int REMOVED_USER_ID = 12;
+    private static final int APP_ID = Process.FIRST_APPLICATION_UID + 1;
+
+    @Mock
+    private UserManager mUserManager;
+    private AppDataUsageAggregator mAggregator;
+
+    @Before
+    public void setUp() {
+        MockitoAnnotations.initMocks(this);
+        when(mUserManager.getUserProfiles()).thenReturn(Arrays.asList(
+                UserHandle.of(CURRENT_USER_ID), UserHandle.of(PROFILE_USER_ID)));
+        when(mUserManager.getUserInfo(OTHER_USER_ID)).thenReturn(new UserInfo());
+        mAggregator = new AppDataUsageAggregator(mUserManager, CURRENT_USER_ID);
+    }
+
+    @Test
+    public void build_bucketsOfSameUid_shouldBeSummed() {
+        final int uid = UserHandle.getUid(CURRENT_USER_ID, APP_ID);
+        mAggregator.addUsage(uid, 100);
+        mAggregator.addUsage(uid, 50);
+
+        final AppDataUsageAggregator.Result result = mAggregator.build(new int[0]);
+
+        assertThat(result.items).hasSize(1);
+        assertThat(result.items.get(0).key).isEqualTo(uid);
+        assertThat(result.items.get(0).total).isEqualTo(150);
+        assertThat(result.largest).isEqualTo(150);
+    }
+
+    @Test
+    public void build_profileApp_shouldAlsoAddToProfileItem() {
+        final int uid = UserHandle.getUid(PROFILE_USER_ID, APP_ID);
+        mAggregator.addUsage(uid, 100);
+
+        final AppDataUsageAggregator.Result result = mAggregator.build(new int[0]);
+
+        assertThat(result.items).hasSize(2);
+        assertThat(findItem(result, UidDetailProvider.buildKeyForUser(PROFILE_USER_ID)).category)
+                .isEqualTo(AppItem.CATEGORY_USER);
+        assertThat(findItem(result, uid).total).isEqualTo(100);
+    }
+
+    @Test
+    public void build_otherAndRemovedUsers_shouldCollapseOncePerUser() {
+        mAggregator.addUsage(UserHandle.getUid(OTHER_USER_ID, APP_ID), 100);
+        mAggregator.addUsage(UserHandle.getUid(OTHER_USER_ID, APP_ID + 1), 100);
+        mAggregator.addUsage(UserHandle.getUid(REMOVED_USER_ID, APP_ID), 30);
+
+        final AppDataUsageAggregator.Result result = mAggregator.build(new int[0]);
+
+        assertThat(findItem(result, UidDetailProvider.buildKeyForUser(OTHER_USER_ID)).total)
+                .isEqualTo(200);
+        assertThat(findItem(result, NetworkStats.Bucket.UID_REMOVED).total).isEqualTo(30);
+        verify(mUserManager, times(1)).getUserInfo(OTHER_USER_ID);
+    }
+
+    @Test
+    public void build_restrictedUidWithoutUsage_shouldAddRestrictedItem() {
+        final int uid = UserHandle.getUid(CURRENT_USER_ID, APP_ID);
+        final int otherUserUid = UserHandle.getUid(OTHER_USER_ID, APP_ID);
+
+        final AppDataUsageAggregator.Result result =
+                mAggregator.build(new int[] {uid, otherUserUid});
+
+        assertThat(result.items).hasSize(1);
+        assertThat(result.items.get(0).restricted).isTrue();
+        assertThat(result.items.get(0).total).isEqualTo(-1);
+    }
+
+    @Test
+    public void build_shouldSortByUsage() {
+        mAggregator.addUsage(UserHandle.getUid(CURRENT_USER_ID, APP_ID), 10);
+        mAggregator.addUsage(UserHandle.getUid(CURRENT_USER_ID, APP_ID + 1), 20);
+
+        final AppDataUsageAggregator.Result result = mAggregator.build(new int[0]);
+
+        assertThat(result.items.get(0).total).isEqualTo(20);
+        assertThat(result.items.get(1).total).isEqualTo(10);
+    }
+
+    private static AppItem findItem(AppDataUsageAggregator.Result result, int key) {
+        for (AppItem item : result.items) {
+            if (item.key == key) {
+                return item;
+            }
+        }
+        return null;
+    }
+}
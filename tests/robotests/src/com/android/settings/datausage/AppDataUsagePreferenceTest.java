@@ -18,6 +18,8 @@ package com.android.settings.datausage;
 
 import static com.google.common.truth.Truth.assertThat;
 
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
 import static org.mockito.Mockito.when;
 
 import android.graphics.Color;
@@ -101,4 +103,21 @@ public class AppDataUsagePreferenceTest {
 
         assertThat(progressBar.getContentDescription()).isEqualTo(FIFTY_PERCENT);
     }
+
+    @Test
+    public void setItem_usageChanged_shouldUpdateSummaryWithoutReloadingDetail() {
+        when(mUidDetailProvider.getUidDetail(mAppItem.key, false /* blocking */))
+                .thenReturn(mUidDetail);
+        mPreference = new AppDataUsagePreference(RuntimeEnvironment.application, mAppItem,
+                50 /* percent */, mUidDetailProvider);
+        final AppItem newItem = new AppItem(mAppItem.key);
+        newItem.total = 1024;
+
+        mPreference.setItem(newItem, 100 /* percent */);
+
+        assertThat(mPreference.getItem()).isSameInstanceAs(newItem);
+        assertThat(mPreference.getSummary().toString()).isEqualTo(
+                DataUsageUtils.formatDataUsage(RuntimeEnvironment.application, 1024).toString());
+        verify(mUidDetailProvider, times(1)).getUidDetail(mAppItem.key, false /* blocking */);
+    }
 }
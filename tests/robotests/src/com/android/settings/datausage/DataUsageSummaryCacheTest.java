@@ -0,0 +1,83 @@
+/*
+ * Copyright (C) 2022 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.settings.datausage;
+
+import static com.google.common.truth.Truth.assertThat;
+
+import android.net.NetworkTemplate;
+import android.util.SparseLongArray;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.RobolectricTestRunner;
+
+@RunWith(RobolectricTestRunner.class)
+public class DataUsageSummaryCacheTest {
+    private static final long START = 1000L;
+    private static final long END = 2000L;
+
+    private final NetworkTemplate mTemplate =
+            new NetworkTemplate.Builder(NetworkTemplate.MATCH_WIFI).build();
+    private final SparseLongArray mUidTotals = new SparseLongArray();
+    private DataUsageSummaryCache mCache;
+
+    @Before
+    public void setUp() {
+        mCache = new DataUsageSummaryCache();
+        mUidTotals.put(10001, 100L);
+    }
+
+    @Test
+    public void get_closedCycle_shouldNeverExpire() {
+        mCache.put(mTemplate, START, END, mUidTotals, END + 1);
+
+        assertThat(mCache.get(mTemplate, START, END, END + 1_000_000L))
+                .isSameInstanceAs(mUidTotals);
+    }
+
+    @Test
+    public void get_currentCycleWithinTtl_shouldReturnCached() {
+        mCache.put(mTemplate, START, END, mUidTotals, START + 1);
+
+        assertThat(mCache.get(mTemplate, START, END, START + 2)).isSameInstanceAs(mUidTotals);
+    }
+
+    @Test
+    public void get_currentCycleAfterTtl_shouldReturnNull() {
+        mCache.put(mTemplate, START, END, mUidTotals, START + 1);
+
+        assertThat(mCache.get(mTemplate, START, END,
+                START + 1 + DataUsageSummaryCache.CURRENT_CYCLE_TTL_MS)).isNull();
+    }
+
+    @Test
+    public void get_otherCycle_shouldReturnNull() {
+        mCache.put(mTemplate, START, END, mUidTotals, END + 1);
+
+        assertThat(mCache.get(mTemplate, END, END + 1000L, END + 1)).isNull();
+    }
+
+    @Test
+    public void clear_shouldDropSummaries() {
+        mCache.put(mTemplate, START, END, mUidTotals, END + 1);
+
+        mCache.clear();
+
+        assertThat(mCache.get(mTemplate, START, END, END + 1)).isNull();
+    }
+}
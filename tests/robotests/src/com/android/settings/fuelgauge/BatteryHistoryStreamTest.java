@@ -0,0 +1,147 @@
+/*
+ * Copyright (C) 2022 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.settings.fuelgauge;
+
+import static com.google.common.truth.Truth.assertThat;
+
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.Mockito.doAnswer;
+import static org.mockito.Mockito.mock;
+
+import android.os.BatteryStats.HistoryItem;
+
+import com.android.internal.os.BatteryStatsHistoryIterator;
+
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.RobolectricTestRunner;
+
+import java.util.ArrayList;
+import java.util.List;
+
+@RunWith(RobolectricTestRunner.class)
+public class BatteryHistoryStreamTest {
+
+    @Test
+    public void read_identicalDataPoints_shouldCollapseRun() {
+        final BatteryHistoryStream stream = BatteryHistoryStream.read(mockIterator(
+                new long[] {1000, 1500, 2000, 2500, 3000},
+                new byte[] {99, 99, 99, 99, 98}));
+
+        assertThat(stream.size()).isEqualTo(3);
+    }
+
+    @Test
+    public void replay_collapsedRun_shouldKeepFirstAndLastDataPoint() {
+        final TestParser parser = new TestParser(/*samplingInterval=*/ 0);
+
+        BatteryHistoryStream.read(mockIterator(
+                new long[] {1000, 1500, 2000, 2500, 3000},
+                new byte[] {99, 99, 99, 99, 98})).replay(parser);
+
+        assertThat(parser.mTimes).containsExactly(1000L, 2500L, 3000L).inOrder();
+        assertThat(parser.mLevels).containsExactly(99, 99, 98).inOrder();
+        assertThat(parser.mEndTime - parser.mStartTime).isEqualTo(3000L);
+        assertThat(parser.mIsDone).isTrue();
+    }
+
+    @Test
+    public void replay_samplingInterval_shouldKeepFirstAndLastOfEachInterval() {
+        final TestParser parser = new TestParser(/*samplingInterval=*/ 1000);
+
+        BatteryHistoryStream.read(mockIterator(
+                new long[] {1000, 1200, 1400, 1600, 2100},
+                new byte[] {99, 98, 97, 96, 95})).replay(parser);
+
+        assertThat(parser.mTimes).containsExactly(1000L, 1600L, 2100L).inOrder();
+        assertThat(parser.mLevels).containsExactly(99, 96, 95).inOrder();
+    }
+
+    @Test
+    public void replay_notSubscribedToDataPoints_shouldNotNotifyDataPoints() {
+        final TestParser parser = new TestParser(/*samplingInterval=*/ 0);
+        parser.mSubscribedRecords = BatteryInfo.BatteryDataParser.RECORD_DATA_GAP;
+
+        BatteryHistoryStream.read(mockIterator(
+                new long[] {1000, 1500}, new byte[] {99, 98})).replay(parser);
+
+        assertThat(parser.mTimes).isEmpty();
+        assertThat(parser.mIsDone).isTrue();
+    }
+
+    private static BatteryStatsHistoryIterator mockIterator(long[] times, byte[] levels) {
+        final BatteryStatsHistoryIterator iterator = mock(BatteryStatsHistoryIterator.class);
+        final int[] count = new int[1];
+        doAnswer(invocation -> {
+            if (count[0] == times.length) {
+                return false;
+            }
+            final HistoryItem record = invocation.getArgument(0);
+            record.cmd = HistoryItem.CMD_UPDATE;
+            record.time = times[count[0]];
+            record.batteryLevel = levels[count[0]];
+            count[0]++;
+            return true;
+        }).when(iterator).next(any(HistoryItem.class));
+        return iterator;
+    }
+
+    private static class TestParser implements BatteryInfo.BatteryDataParser {
+        private final long mSamplingInterval;
+        private final List<Long> mTimes = new ArrayList<>();
+        private final List<Integer> mLevels = new ArrayList<>();
+        private int mSubscribedRecords = RECORD_ALL;
+        private long mStartTime;
+        private long mEndTime;
+        private boolean mIsDone;
+
+        TestParser(long samplingInterval) {
+            mSamplingInterval = samplingInterval;
+        }
+
+        @Override
+        public void onParsingStarted(long startTime, long endTime) {
+            mStartTime = startTime;
+            mEndTime = endTime;
+        }
+
+        @Override
+        public void onDataPoint(long time, HistoryItem record) {
+            mTimes.add(time);
+            mLevels.add((int) record.batteryLevel);
+        }
+
+        @Override
+        public void onDataGap() {
+        }
+
+        @Override
+        public void onParsingDone() {
+            mIsDone = true;
+        }
+
+        @Override
+        public int getSubscribedRecords() {
+            return mSubscribedRecords;
+        }
+
+        @Override
+        public long getSamplingInterval(long startTime, long endTime) {
+            return mSamplingInterval;
+        }
+    }
+}
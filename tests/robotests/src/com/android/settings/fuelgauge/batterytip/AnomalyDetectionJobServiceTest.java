@@ -31,6 +31,7 @@ import static org.mockito.ArgumentMatchers.eq;
 import static org.mockito.Mockito.doNothing;
 import static org.mockito.Mockito.doReturn;
 import static org.mockito.Mockito.doThrow;
+import static org.mockito.Mockito.inOrder;
 import static org.mockito.Mockito.mock;
 import static org.mockito.Mockito.never;
 import static org.mockito.Mockito.spy;
@@ -63,6 +64,7 @@ import com.android.settingslib.fuelgauge.PowerAllowlistBackend;
 import org.junit.Before;
 import org.junit.Test;
 import org.junit.runner.RunWith;
+import org.mockito.InOrder;
 import org.mockito.Mock;
 import org.mockito.MockitoAnnotations;
 import org.robolectric.Robolectric;
@@ -153,7 +155,7 @@ public class AnomalyDetectionJobServiceTest {
                 mFeatureFactory.powerUsageFeatureProvider,
                 mFeatureFactory.metricsFeatureProvider, mBundle);
 
-        verify(mBatteryDatabaseManager, never()).insertAnomaly(anyInt(), anyString(), anyInt(),
+        verify(mBatteryDatabaseManager, never()).bufferAnomaly(anyInt(), anyString(), anyInt(),
                 anyInt(), anyLong());
     }
 
@@ -174,7 +176,7 @@ public class AnomalyDetectionJobServiceTest {
                 mFeatureFactory.powerUsageFeatureProvider,
                 mFeatureFactory.metricsFeatureProvider, mBundle);
 
-        verify(mBatteryDatabaseManager, never()).insertAnomaly(anyInt(), anyString(), anyInt(),
+        verify(mBatteryDatabaseManager, never()).bufferAnomaly(anyInt(), anyString(), anyInt(),
                 anyInt(), anyLong());
         verify(mFeatureFactory.metricsFeatureProvider).action(SettingsEnums.PAGE_UNKNOWN,
                 MetricsProto.MetricsEvent.ACTION_ANOMALY_IGNORED,
@@ -194,7 +196,7 @@ public class AnomalyDetectionJobServiceTest {
                 mFeatureFactory.powerUsageFeatureProvider, mFeatureFactory.metricsFeatureProvider,
                 mBundle);
 
-        verify(mBatteryDatabaseManager, never()).insertAnomaly(anyInt(), anyString(), anyInt(),
+        verify(mBatteryDatabaseManager, never()).bufferAnomaly(anyInt(), anyString(), anyInt(),
                 anyInt(), anyLong());
     }
 
@@ -209,7 +211,7 @@ public class AnomalyDetectionJobServiceTest {
                 mFeatureFactory.powerUsageFeatureProvider, mFeatureFactory.metricsFeatureProvider,
                 mBundle);
 
-        verify(mBatteryDatabaseManager, never()).insertAnomaly(anyInt(), anyString(), anyInt(),
+        verify(mBatteryDatabaseManager, never()).bufferAnomaly(anyInt(), anyString(), anyInt(),
                 anyInt(), anyLong());
     }
 
@@ -229,7 +231,7 @@ public class AnomalyDetectionJobServiceTest {
                 mFeatureFactory.powerUsageFeatureProvider, mFeatureFactory.metricsFeatureProvider,
                 mBundle);
 
-        verify(mBatteryDatabaseManager).insertAnomaly(anyInt(), anyString(), eq(6),
+        verify(mBatteryDatabaseManager).bufferAnomaly(anyInt(), anyString(), eq(6),
                 eq(AnomalyDatabaseHelper.State.AUTO_HANDLED), anyLong());
         verify(mFeatureFactory.metricsFeatureProvider).action(SettingsEnums.PAGE_UNKNOWN,
                 MetricsProto.MetricsEvent.ACTION_ANOMALY_TRIGGERED,
@@ -254,7 +256,7 @@ public class AnomalyDetectionJobServiceTest {
                 mFeatureFactory.powerUsageFeatureProvider, mFeatureFactory.metricsFeatureProvider,
                 mBundle);
 
-        verify(mBatteryDatabaseManager).insertAnomaly(anyInt(), anyString(), eq(6),
+        verify(mBatteryDatabaseManager).bufferAnomaly(anyInt(), anyString(), eq(6),
                 eq(AnomalyDatabaseHelper.State.NEW), anyLong());
         verify(mFeatureFactory.metricsFeatureProvider).action(SettingsEnums.PAGE_UNKNOWN,
                 MetricsProto.MetricsEvent.ACTION_ANOMALY_TRIGGERED,
@@ -263,6 +265,20 @@ public class AnomalyDetectionJobServiceTest {
                 ANOMALY_TYPE);
     }
 
+    @Test
+    public void flushAndCompleteWork_flushAnomaliesBeforeCompletingItems() {
+        final List<JobWorkItem> items = new ArrayList<>();
+        items.add(mJobWorkItem);
+
+        mAnomalyDetectionJobService.flushAndCompleteWork(mJobParameters,
+                mBatteryDatabaseManager, items);
+
+        final InOrder inOrder = inOrder(mBatteryDatabaseManager, mJobParameters);
+        inOrder.verify(mBatteryDatabaseManager).flushAnomalies();
+        inOrder.verify(mJobParameters).completeWork(mJobWorkItem);
+        assertThat(items).isEmpty();
+    }
+
     @Test
     public void extractUidFromStatsDimensionsValue_extractCorrectUid() {
         // Build an integer dimensions value.
@@ -0,0 +1,94 @@
+/*
+ * Copyright (C) 2022 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.settings.fuelgauge.batterytip;
+
+import static com.google.common.truth.Truth.assertThat;
+
+import android.content.Context;
+
+import com.android.settings.testutils.DatabaseTestUtils;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.RobolectricTestRunner;
+import org.robolectric.RuntimeEnvironment;
+
+@RunWith(RobolectricTestRunner.class)
+public class BatteryDatabaseManagerTest {
+    private static final int UID = 1234;
+    private static final String PACKAGE_NAME = "com.android.package";
+    private static final int ANOMALY_TYPE = 1;
+    private static final int ANOMALY_TYPE_OTHER = 2;
+    private static final long TIMESTAMP = 1000L;
+
+    private Context mContext;
+    private BatteryDatabaseManager mBatteryDatabaseManager;
+
+    @Before
+    public void setUp() {
+        mContext = RuntimeEnvironment.application;
+        mBatteryDatabaseManager = BatteryDatabaseManager.getInstance(mContext);
+    }
+
+    @After
+    public void cleanUp() {
+        DatabaseTestUtils.clearDb(mContext);
+    }
+
+    @Test
+    public void bufferAnomaly_notFlushed_shouldNotBeQueried() {
+        mBatteryDatabaseManager.bufferAnomaly(UID, PACKAGE_NAME, ANOMALY_TYPE,
+                AnomalyDatabaseHelper.State.NEW, TIMESTAMP);
+
+        assertThat(mBatteryDatabaseManager.queryAllAnomalies(0,
+                AnomalyDatabaseHelper.State.NEW)).isEmpty();
+    }
+
+    @Test
+    public void flushAnomalies_shouldInsertAllBufferedAnomalies() {
+        mBatteryDatabaseManager.bufferAnomaly(UID, PACKAGE_NAME, ANOMALY_TYPE,
+                AnomalyDatabaseHelper.State.NEW, TIMESTAMP);
+        mBatteryDatabaseManager.bufferAnomaly(UID, PACKAGE_NAME, ANOMALY_TYPE_OTHER,
+                AnomalyDatabaseHelper.State.NEW, TIMESTAMP + 1);
+
+        assertThat(mBatteryDatabaseManager.flushAnomalies()).isEqualTo(2);
+        assertThat(mBatteryDatabaseManager.queryAllAnomalies(0,
+                AnomalyDatabaseHelper.State.NEW)).containsExactly(new AppInfo.Builder()
+                .setUid(UID)
+                .setPackageName(PACKAGE_NAME)
+                .addAnomalyType(ANOMALY_TYPE)
+                .addAnomalyType(ANOMALY_TYPE_OTHER)
+                .build());
+    }
+
+    @Test
+    public void flushAnomalies_duplicatedAnomaly_shouldBeIgnored() {
+        mBatteryDatabaseManager.insertAnomaly(UID, PACKAGE_NAME, ANOMALY_TYPE,
+                AnomalyDatabaseHelper.State.NEW, TIMESTAMP);
+        mBatteryDatabaseManager.bufferAnomaly(UID, PACKAGE_NAME, ANOMALY_TYPE,
+                AnomalyDatabaseHelper.State.NEW, TIMESTAMP);
+
+        assertThat(mBatteryDatabaseManager.flushAnomalies()).isEqualTo(0);
+    }
+
+    @Test
+    public void flushAnomalies_nothingBuffered_returnZero() {
+        assertThat(mBatteryDatabaseManager.flushAnomalies()).isEqualTo(0);
+    }
+}
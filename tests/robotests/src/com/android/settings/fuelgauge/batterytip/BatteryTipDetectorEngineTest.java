@@ -0,0 +1,126 @@
+/*
+ * Copyright (C) 2022 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.settings.fuelgauge.batterytip;
+
+import static com.google.common.truth.Truth.assertThat;
+
+import static org.mockito.Mockito.verifyZeroInteractions;
+
+import android.app.settings.SettingsEnums;
+import android.util.EventLog;
+
+import com.android.settings.EventLogTags;
+import com.android.settings.fuelgauge.batterytip.tips.BatteryTip;
+import com.android.settings.fuelgauge.batterytip.tips.LowBatteryTip;
+import com.android.settings.fuelgauge.batterytip.tips.SmartBatteryTip;
+import com.android.settings.testutils.FakeFeatureFactory;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.RobolectricTestRunner;
+import org.robolectric.shadows.ShadowEventLog;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+
+@RunWith(RobolectricTestRunner.class)
+public class BatteryTipDetectorEngineTest {
+    private static final long SHORT_TIMEOUT_MS = 100;
+
+    private FakeFeatureFactory mFeatureFactory;
+    private BatteryTipDetectorEngine mEngine;
+
+    @Before
+    public void setUp() {
+        mFeatureFactory = FakeFeatureFactory.setupForTest();
+        ShadowEventLog.clearAll();
+        mEngine = new BatteryTipDetectorEngine();
+    }
+
+    @Test
+    public void detect_allDetectorsFinish_returnAllTipsInRegisterOrder() {
+        final BatteryTip lowBatteryTip = new LowBatteryTip(BatteryTip.StateType.NEW, false);
+        final BatteryTip smartBatteryTip = new SmartBatteryTip(BatteryTip.StateType.NEW);
+
+        final List<BatteryTip> tips = mEngine
+                .register(() -> lowBatteryTip, SettingsEnums.ACTION_LOW_BATTERY_TIP)
+                .register(() -> smartBatteryTip, SettingsEnums.ACTION_SMART_BATTERY_TIP)
+                .detect();
+
+        assertThat(tips).containsExactly(lowBatteryTip, smartBatteryTip).inOrder();
+    }
+
+    @Test
+    public void detect_detectorTimesOut_returnPartialTips() {
+        final BatteryTip lowBatteryTip = new LowBatteryTip(BatteryTip.StateType.NEW, false);
+        final CountDownLatch neverReleased = new CountDownLatch(1);
+
+        final List<BatteryTip> tips = mEngine
+                .register(() -> {
+                    try {
+                        neverReleased.await();
+                    } catch (InterruptedException e) {
+                        // Cancelled after the timeout.
+                    }
+                    return new SmartBatteryTip(BatteryTip.StateType.NEW);
+                }, SettingsEnums.ACTION_SMART_BATTERY_TIP, SHORT_TIMEOUT_MS)
+                .register(() -> lowBatteryTip, SettingsEnums.ACTION_LOW_BATTERY_TIP)
+                .detect();
+
+        assertThat(tips).containsExactly(lowBatteryTip);
+        assertThat(getLatencyEvents()).contains(
+                Arrays.asList(SettingsEnums.ACTION_SMART_BATTERY_TIP, (int) SHORT_TIMEOUT_MS));
+    }
+
+    @Test
+    public void detect_detectorThrows_returnOtherTips() {
+        final BatteryTip lowBatteryTip = new LowBatteryTip(BatteryTip.StateType.NEW, false);
+
+        final List<BatteryTip> tips = mEngine
+                .register(() -> {
+                    throw new IllegalStateException();
+                }, SettingsEnums.ACTION_SMART_BATTERY_TIP)
+                .register(() -> lowBatteryTip, SettingsEnums.ACTION_LOW_BATTERY_TIP)
+                .detect();
+
+        assertThat(tips).containsExactly(lowBatteryTip);
+    }
+
+    @Test
+    public void detect_logDetectionLatencyWithoutTipMetrics() {
+        mEngine.register(() -> new LowBatteryTip(BatteryTip.StateType.NEW, false),
+                SettingsEnums.ACTION_LOW_BATTERY_TIP).detect();
+
+        final List<List<Object>> events = getLatencyEvents();
+        assertThat(events).hasSize(1);
+        assertThat(events.get(0).get(0)).isEqualTo(SettingsEnums.ACTION_LOW_BATTERY_TIP);
+        verifyZeroInteractions(mFeatureFactory.metricsFeatureProvider);
+    }
+
+    private static List<List<Object>> getLatencyEvents() {
+        final List<List<Object>> events = new ArrayList<>();
+        for (EventLog.Event event : ShadowEventLog.getEvents()) {
+            if (event.getTag() == EventLogTags.SETTINGS_LATENCY) {
+                events.add(Arrays.asList((Object[]) event.getData()));
+            }
+        }
+        return events;
+    }
+}
@@ -116,6 +116,7 @@ public final class BatteryChartPreferenceControllerTest {
                 .when(mFeatureFactory.powerUsageFeatureProvider)
                 .getHideApplicationEntries(mContext);
         doReturn(mLayoutParams).when(mDailyChartView).getLayoutParams();
+        BatteryUsageRollupCache.getInstance().clear();
         mBatteryChartPreferenceController = createController();
         mBatteryChartPreferenceController.mPrefContext = mContext;
         mBatteryChartPreferenceController.mAppListPrefGroup = mAppListGroup;
@@ -683,6 +684,31 @@ public final class BatteryChartPreferenceControllerTest {
         assertThat(totalHour).isEqualTo(58);
     }
 
+    @Test
+    public void rollupCache_secondController_reuseCompletedSlots() {
+        final Map<Long, Map<String, BatteryHistEntry>> batteryHistoryMap =
+                createBatteryHistoryMap(6);
+        final List<Long> timestamps = Arrays.asList(
+                generateTimestamp(0), generateTimestamp(2), generateTimestamp(4));
+        final List<BatteryLevelData.PeriodBatteryLevelData> hourlyBatteryLevelsPerDay =
+                Arrays.asList(new BatteryLevelData.PeriodBatteryLevelData(
+                        timestamps, Arrays.asList(100, 98, 96)));
+        DataProcessor.computeHourlyAndDailyUsageDiffData(mContext, hourlyBatteryLevelsPerDay,
+                batteryHistoryMap, mBatteryChartPreferenceController.mRollupCache,
+                /*pool=*/ null);
+        final int hitCount = BatteryUsageRollupCache.getInstance().getHitCount();
+
+        // The battery usage page creates a new controller every time it's opened.
+        final BatteryChartPreferenceController controller = createController();
+        DataProcessor.computeHourlyAndDailyUsageDiffData(mContext, hourlyBatteryLevelsPerDay,
+                batteryHistoryMap, controller.mRollupCache, /*pool=*/ null);
+
+        assertThat(controller.mRollupCache)
+                .isSameInstanceAs(mBatteryChartPreferenceController.mRollupCache);
+        assertThat(BatteryUsageRollupCache.getInstance().getHitCount())
+                .isGreaterThan(hitCount);
+    }
+
     private static Long generateTimestamp(int index) {
         // "2021-04-23 07:00:00 UTC" + index hours
         return 1619247600000L + index * DateUtils.HOUR_IN_MILLIS;
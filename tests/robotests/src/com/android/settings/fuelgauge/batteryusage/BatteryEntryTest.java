@@ -29,6 +29,8 @@ import android.content.Context;
 import android.content.pm.ApplicationInfo;
 import android.content.pm.PackageManager;
 import android.content.pm.PackageManager.NameNotFoundException;
+import android.graphics.drawable.ColorDrawable;
+import android.graphics.drawable.Drawable;
 import android.os.BatteryConsumer;
 import android.os.Handler;
 import android.os.Process;
@@ -219,13 +221,35 @@ public class BatteryEntryTest {
     public void testUidCache_switchLocale_shouldCleanCache() {
         BatteryEntry.stopRequestQueue();
 
+        final NameAndIconCache cache = NameAndIconCache.getInstance();
         Locale.setDefault(new Locale("en_US"));
-        BatteryEntry.sUidCache.put(Integer.toString(APP_UID), null);
-        assertThat(BatteryEntry.sUidCache).isNotEmpty();
+        cache.put(APP_UID, new NameAndIcon("label", /*icon=*/ null, /*iconId=*/ 0));
+        assertThat(cache.size()).isEqualTo(1);
 
         Locale.setDefault(new Locale("zh_TW"));
         createBatteryEntryForApp(null, null, HIGH_DRAIN_PACKAGE);
-        assertThat(BatteryEntry.sUidCache).isEmpty(); // check if cache is clear
+        assertThat(cache.get(APP_UID)).isNull(); // check if cache is clear
+    }
+
+    @Test
+    public void loadNameAndIcon_unresolvedUid_shouldUseDefaultsOfEachCaller() {
+        BatteryEntry.clearUidCache();
+        when(mMockPackageManager.getPackagesForUid(APP_UID)).thenReturn(null);
+        final Drawable firstIcon = new ColorDrawable();
+        final Drawable secondIcon = new ColorDrawable();
+
+        final NameAndIcon first = BatteryEntry.loadNameAndIcon(mMockContext, APP_UID,
+                /*handler=*/ null, /*batteryEntry=*/ null, "first.package", "first", firstIcon);
+        final NameAndIcon second = BatteryEntry.loadNameAndIcon(mMockContext, APP_UID,
+                /*handler=*/ null, /*batteryEntry=*/ null, "second.package", "second",
+                secondIcon);
+
+        assertThat(first.mName).isEqualTo("first");
+        assertThat(first.mPackageName).isEqualTo("first.package");
+        assertThat(first.mIcon).isSameInstanceAs(firstIcon);
+        assertThat(second.mName).isEqualTo("second");
+        assertThat(second.mPackageName).isEqualTo("second.package");
+        assertThat(second.mIcon).isSameInstanceAs(secondIcon);
     }
 
     @Test
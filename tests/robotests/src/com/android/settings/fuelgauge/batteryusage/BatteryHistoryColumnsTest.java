@@ -0,0 +1,90 @@
+/*
+ * Copyright (C) 2022 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.settings.fuelgauge.batteryusage;
+
+import static com.google.common.truth.Truth.assertThat;
+
+import android.content.ContentValues;
+
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.RobolectricTestRunner;
+
+import java.util.HashMap;
+import java.util.Map;
+
+@RunWith(RobolectricTestRunner.class)
+public class BatteryHistoryColumnsTest {
+
+    @Test
+    public void create_shouldSortTimestampsAndSlots() {
+        final Map<Long, Map<String, BatteryHistEntry>> batteryHistoryMap = new HashMap<>();
+        final Map<String, BatteryHistEntry> entries = new HashMap<>();
+        final BatteryHistEntry entry1 = createBatteryHistEntry(1L, 10.0, 20L, 30L);
+        final BatteryHistEntry entry2 = createBatteryHistEntry(2L, 40.0, 50L, 60L);
+        entries.put(entry1.getKey(), entry1);
+        entries.put(entry2.getKey(), entry2);
+        batteryHistoryMap.put(2000L, entries);
+        batteryHistoryMap.put(1000L, new HashMap<>());
+
+        final BatteryHistoryColumns columns = BatteryHistoryColumns.create(batteryHistoryMap);
+
+        assertThat(columns.getTimestamps()).asList().containsExactly(1000L, 2000L).inOrder();
+        assertThat(columns.getSlot(1000L).size()).isEqualTo(0);
+        final BatteryHistoryColumns.Slot slot = columns.getSlot(2000L);
+        assertThat(slot.size()).isEqualTo(2);
+        assertThat(slot.mKeyIds[0]).isLessThan(slot.mKeyIds[1]);
+        for (int i = 0; i < slot.size(); i++) {
+            final BatteryHistEntry entry = slot.mEntries[i];
+            assertThat(columns.getKey(slot.mKeyIds[i])).isEqualTo(entry.getKey());
+            assertThat(slot.mEntryKeyIds[i]).isEqualTo(slot.mKeyIds[i]);
+            assertThat(slot.mConsumePower[i]).isEqualTo(entry.mConsumePower);
+            assertThat(slot.mForegroundUsageTimeInMs[i])
+                    .isEqualTo(entry.mForegroundUsageTimeInMs);
+            assertThat(slot.mBackgroundUsageTimeInMs[i])
+                    .isEqualTo(entry.mBackgroundUsageTimeInMs);
+        }
+    }
+
+    @Test
+    public void getSlot_unknownTimestamp_shouldReturnNull() {
+        final BatteryHistoryColumns columns = BatteryHistoryColumns.create(new HashMap<>());
+
+        assertThat(columns.getSlot(1000L)).isNull();
+    }
+
+    @Test
+    public void getKeyId_unknownKey_shouldReturnNegative() {
+        final BatteryHistoryColumns columns = BatteryHistoryColumns.create(new HashMap<>());
+
+        assertThat(columns.getKeyId("unknown_key")).isEqualTo(-1);
+        assertThat(columns.getKeyId(BatteryHistoryColumns.OTHER_USERS_KEY)).isAtLeast(0);
+    }
+
+    private static BatteryHistEntry createBatteryHistEntry(
+            final long uid, final double consumePower,
+            final long foregroundUsageTimeInMs, final long backgroundUsageTimeInMs) {
+        final ContentValues values = new ContentValues();
+        values.put(BatteryHistEntry.KEY_UID, uid);
+        values.put(BatteryHistEntry.KEY_USER_ID, 0L);
+        values.put(BatteryHistEntry.KEY_CONSUMER_TYPE, ConvertUtils.CONSUMER_TYPE_UID_BATTERY);
+        values.put(BatteryHistEntry.KEY_CONSUME_POWER, consumePower);
+        values.put(BatteryHistEntry.KEY_FOREGROUND_USAGE_TIME, foregroundUsageTimeInMs);
+        values.put(BatteryHistEntry.KEY_BACKGROUND_USAGE_TIME, backgroundUsageTimeInMs);
+        return new BatteryHistEntry(values);
+    }
+}
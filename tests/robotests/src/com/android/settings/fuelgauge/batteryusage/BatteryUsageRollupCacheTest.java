@@ -0,0 +1,131 @@
+/*
+ * Copyright (C) 2022 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.settings.fuelgauge.batteryusage;
+
+import static com.google.common.truth.Truth.assertThat;
+
+import android.content.ContentValues;
+import android.content.Context;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.RobolectricTestRunner;
+import org.robolectric.RuntimeEnvironment;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.TimeZone;
+
+@RunWith(RobolectricTestRunner.class)
+public class BatteryUsageRollupCacheTest {
+    private static final long FINGERPRINT = 100L;
+
+    private Context mContext;
+    private TimeZone mDefaultTimeZone;
+    private BatteryUsageRollupCache mRollupCache;
+
+    @Before
+    public void setUp() {
+        mContext = RuntimeEnvironment.application;
+        mDefaultTimeZone = TimeZone.getDefault();
+        TimeZone.setDefault(TimeZone.getTimeZone("GMT+8"));
+        mRollupCache = new BatteryUsageRollupCache();
+        mRollupCache.onHistoryLoaded(0L, 10000L);
+    }
+
+    @After
+    public void tearDown() {
+        TimeZone.setDefault(mDefaultTimeZone);
+    }
+
+    @Test
+    public void getHourlyRollup_sameFingerprint_returnRollup() {
+        final BatteryUsageRollupCache.HourlyRollup rollup = createHourlyRollup();
+        mRollupCache.putHourlyRollup(1000L, rollup);
+
+        assertThat(mRollupCache.getHourlyRollup(1000L, FINGERPRINT)).isSameInstanceAs(rollup);
+    }
+
+    @Test
+    public void getHourlyRollup_differentFingerprint_returnNull() {
+        mRollupCache.putHourlyRollup(1000L, createHourlyRollup());
+
+        assertThat(mRollupCache.getHourlyRollup(1000L, FINGERPRINT + 1)).isNull();
+    }
+
+    @Test
+    public void onHistoryLoaded_newHistoryStart_dropOlderRollups() {
+        mRollupCache.putHourlyRollup(1000L, createHourlyRollup());
+        mRollupCache.putHourlyRollup(3000L, createHourlyRollup());
+
+        mRollupCache.onHistoryLoaded(2000L, 10000L);
+
+        assertThat(mRollupCache.getHourlyRollup(1000L, FINGERPRINT)).isNull();
+        assertThat(mRollupCache.getHourlyRollup(3000L, FINGERPRINT)).isNotNull();
+    }
+
+    @Test
+    public void onHistoryLoaded_timeZoneChanged_dropAllRollups() {
+        mRollupCache.putHourlyRollup(1000L, createHourlyRollup());
+
+        TimeZone.setDefault(TimeZone.getTimeZone("GMT+1"));
+        mRollupCache.onHistoryLoaded(0L, 10000L);
+
+        assertThat(mRollupCache.size()).isEqualTo(0);
+    }
+
+    @Test
+    public void copyOf_returnEqualDataWithNewEntries() {
+        final BatteryDiffData diffData = createHourlyRollup().mDiffData;
+
+        final BatteryDiffData copy = BatteryUsageRollupCache.copyOf(diffData);
+
+        final BatteryDiffEntry entry = diffData.getAppDiffEntryList().get(0);
+        final BatteryDiffEntry copyEntry = copy.getAppDiffEntryList().get(0);
+        assertThat(copyEntry).isNotSameInstanceAs(entry);
+        assertThat(copyEntry.mConsumePower).isEqualTo(entry.mConsumePower);
+        assertThat(copyEntry.getPercentOfTotal()).isEqualTo(entry.getPercentOfTotal());
+        assertThat(copyEntry.mBatteryHistEntry).isSameInstanceAs(entry.mBatteryHistEntry);
+    }
+
+    @Test
+    public void copyOf_keepPercentageWhileCloneDoesNot() {
+        final BatteryDiffEntry entry =
+                createHourlyRollup().mDiffData.getAppDiffEntryList().get(0);
+
+        assertThat(entry.getPercentOfTotal()).isGreaterThan(0.0);
+        assertThat(entry.clone().getPercentOfTotal()).isEqualTo(0.0);
+    }
+
+    private BatteryUsageRollupCache.HourlyRollup createHourlyRollup() {
+        final ContentValues values = new ContentValues();
+        values.put(BatteryHistEntry.KEY_UID, 1L);
+        values.put(BatteryHistEntry.KEY_CONSUMER_TYPE, ConvertUtils.CONSUMER_TYPE_UID_BATTERY);
+        final BatteryHistEntry histEntry = new BatteryHistEntry(values);
+        final BatteryDiffEntry entry = new BatteryDiffEntry(
+                mContext, /*foregroundUsageTimeInMs=*/ 10L, /*backgroundUsageTimeInMs=*/ 20L,
+                /*consumePower=*/ 5.0, histEntry);
+        final List<BatteryDiffEntry> appEntries = new ArrayList<>();
+        appEntries.add(entry);
+        final BatteryDiffData diffData =
+                new BatteryDiffData(appEntries, new ArrayList<>(), /*totalConsumePower=*/ 20.0);
+        return new BatteryUsageRollupCache.HourlyRollup(FINGERPRINT, diffData,
+                new String[] {histEntry.getKey()}, new BatteryDiffEntry[] {entry});
+    }
+}
@@ -52,10 +52,12 @@ import java.util.HashSet;
 import java.util.List;
 import java.util.Map;
 import java.util.TimeZone;
+import java.util.concurrent.ForkJoinPool;
 
 @RunWith(RobolectricTestRunner.class)
 public class DataProcessorTest {
     private static final String FAKE_ENTRY_KEY = "fake_entry_key";
+    private static final long SYNTHETIC_START_TIMESTAMP = 1641052800000L; // 2022-01-02 00:00:00
 
     private Context mContext;
 
@@ -894,6 +896,38 @@ public class DataProcessorTest {
                 .action(mContext, SettingsEnums.ACTION_BATTERY_USAGE_HIDDEN_APP_COUNT, 0);
     }
 
+    @Test
+    public void computeHourlyAndDailyUsageDiffData_parallel_returnsSameResultAsSequential() {
+        final int dayCount = 3;
+        final Map<Long, Map<String, BatteryHistEntry>> batteryHistoryMap =
+                createSyntheticHistoryMap(dayCount, /*uidCount=*/ 30);
+        final List<BatteryLevelData.PeriodBatteryLevelData> hourlyBatteryLevelsPerDay =
+                createHourlyBatteryLevelsPerDay(dayCount);
+        final ForkJoinPool pool = new ForkJoinPool(4);
+
+        final Map<Integer, Map<Integer, BatteryDiffData>> sequentialMap =
+                DataProcessor.computeHourlyAndDailyUsageDiffData(
+                        mContext, hourlyBatteryLevelsPerDay, batteryHistoryMap,
+                        /*rollupCache=*/ null, /*pool=*/ null);
+        final Map<Integer, Map<Integer, BatteryDiffData>> parallelMap =
+                DataProcessor.computeHourlyAndDailyUsageDiffData(
+                        mContext, hourlyBatteryLevelsPerDay, batteryHistoryMap,
+                        /*rollupCache=*/ null, pool);
+        pool.shutdown();
+
+        assertThat(parallelMap.keySet()).isEqualTo(sequentialMap.keySet());
+        for (Integer dailyIndex : sequentialMap.keySet()) {
+            final Map<Integer, BatteryDiffData> sequentialDailyMap =
+                    sequentialMap.get(dailyIndex);
+            final Map<Integer, BatteryDiffData> parallelDailyMap = parallelMap.get(dailyIndex);
+            assertThat(parallelDailyMap.keySet()).isEqualTo(sequentialDailyMap.keySet());
+            for (Integer hourlyIndex : sequentialDailyMap.keySet()) {
+                assertSameBatteryDiffData(
+                        parallelDailyMap.get(hourlyIndex), sequentialDailyMap.get(hourlyIndex));
+            }
+        }
+    }
+
     @Test
     public void generateBatteryDiffData_emptyBatteryEntryList_returnNull() {
         assertThat(DataProcessor.generateBatteryDiffData(
@@ -1039,6 +1073,78 @@ public class DataProcessorTest {
                 .isEqualTo(expectedEnd.getTimeInMillis());
     }
 
+    // Creates hourly data of dayCount days, with uidCount apps using more battery every hour.
+    private Map<Long, Map<String, BatteryHistEntry>> createSyntheticHistoryMap(
+            final int dayCount, final int uidCount) {
+        final Map<Long, Map<String, BatteryHistEntry>> batteryHistoryMap = new HashMap<>();
+        final int currentUserId = mContext.getUserId();
+        final int hourCount = dayCount * 24;
+        for (int hour = 0; hour <= hourCount; hour++) {
+            final Map<String, BatteryHistEntry> entryMap = new HashMap<>();
+            for (int uid = 1; uid <= uidCount; uid++) {
+                final BatteryHistEntry entry = createBatteryHistEntry(
+                        "package" + uid, "label" + uid,
+                        /*consumePower=*/ hour * (uid % 7 + 1) * 0.3,
+                        /*uid=*/ uid,
+                        /*userId=*/ uid % 10 == 0 ? currentUserId + 1 : currentUserId,
+                        uid % 5 == 0
+                                ? ConvertUtils.CONSUMER_TYPE_SYSTEM_BATTERY
+                                : ConvertUtils.CONSUMER_TYPE_UID_BATTERY,
+                        /*foregroundUsageTimeInMs=*/ hour * (uid % 3 + 1) * 1000L,
+                        /*backgroundUsageTimeInMs=*/ hour * (uid % 4 + 1) * 500L);
+                entryMap.put(entry.getKey(), entry);
+            }
+            batteryHistoryMap.put(
+                    SYNTHETIC_START_TIMESTAMP + hour * DateUtils.HOUR_IN_MILLIS, entryMap);
+        }
+        return batteryHistoryMap;
+    }
+
+    private static List<BatteryLevelData.PeriodBatteryLevelData> createHourlyBatteryLevelsPerDay(
+            final int dayCount) {
+        final List<BatteryLevelData.PeriodBatteryLevelData> hourlyBatteryLevelsPerDay =
+                new ArrayList<>();
+        for (int day = 0; day < dayCount; day++) {
+            final List<Long> timestamps = new ArrayList<>();
+            final List<Integer> levels = new ArrayList<>();
+            for (int hour = 0; hour <= 24; hour += 2) {
+                timestamps.add(SYNTHETIC_START_TIMESTAMP
+                        + (day * 24 + hour) * DateUtils.HOUR_IN_MILLIS);
+                levels.add(100);
+            }
+            hourlyBatteryLevelsPerDay.add(
+                    new BatteryLevelData.PeriodBatteryLevelData(timestamps, levels));
+        }
+        return hourlyBatteryLevelsPerDay;
+    }
+
+    private static void assertSameBatteryDiffData(
+            final BatteryDiffData actual, final BatteryDiffData expected) {
+        if (expected == null) {
+            assertThat(actual).isNull();
+            return;
+        }
+        assertSameBatteryDiffEntries(
+                actual.getAppDiffEntryList(), expected.getAppDiffEntryList());
+        assertSameBatteryDiffEntries(
+                actual.getSystemDiffEntryList(), expected.getSystemDiffEntryList());
+    }
+
+    private static void assertSameBatteryDiffEntries(
+            final List<BatteryDiffEntry> actual, final List<BatteryDiffEntry> expected) {
+        assertThat(actual).hasSize(expected.size());
+        for (int i = 0; i < expected.size(); i++) {
+            assertThat(actual.get(i).getKey()).isEqualTo(expected.get(i).getKey());
+            assertThat(actual.get(i).mConsumePower).isEqualTo(expected.get(i).mConsumePower);
+            assertThat(actual.get(i).getPercentOfTotal())
+                    .isEqualTo(expected.get(i).getPercentOfTotal());
+            assertThat(actual.get(i).mForegroundUsageTimeInMs)
+                    .isEqualTo(expected.get(i).mForegroundUsageTimeInMs);
+            assertThat(actual.get(i).mBackgroundUsageTimeInMs)
+                    .isEqualTo(expected.get(i).mBackgroundUsageTimeInMs);
+        }
+    }
+
     private static void assertBatteryDiffEntry(
             final BatteryDiffEntry entry, final long userId, final long uid,
             final int consumerType, final double consumePercentage,
@@ -0,0 +1,120 @@
+/*
+ * Copyright (C) 2022 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.settings.fuelgauge.batteryusage;
+
+import static com.google.common.truth.Truth.assertThat;
+
+import com.android.settings.fuelgauge.batteryusage.BatteryEntry.NameAndIcon;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.RobolectricTestRunner;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+@RunWith(RobolectricTestRunner.class)
+public final class NameAndIconCacheTest {
+    private static final int UID = 10001;
+    private static final String PACKAGE_NAME = "com.android.test";
+
+    private NameAndIconCache mCache;
+
+    @Before
+    public void setUp() {
+        mCache = new NameAndIconCache();
+    }
+
+    @Test
+    public void put_moreThanMaxSize_shouldEvictLeastRecentlyUsed() {
+        for (int uid = 0; uid <= NameAndIconCache.MAX_SIZE; uid++) {
+            mCache.put(uid, createNameAndIcon("package" + uid));
+        }
+
+        assertThat(mCache.size()).isEqualTo(NameAndIconCache.MAX_SIZE);
+        assertThat(mCache.get(0)).isNull();
+        assertThat(mCache.get(NameAndIconCache.MAX_SIZE)).isNotNull();
+    }
+
+    @Test
+    public void getOrLoad_cachedUid_shouldNotRunLoader() {
+        final NameAndIcon nameAndIcon = createNameAndIcon(PACKAGE_NAME);
+        mCache.put(UID, nameAndIcon);
+
+        assertThat(mCache.getOrLoad(UID, () -> {
+            throw new AssertionError("loader should not run");
+        })).isSameInstanceAs(nameAndIcon);
+    }
+
+    @Test
+    public void getOrLoad_concurrentLoads_shouldRunLoaderOnce() throws Exception {
+        final AtomicInteger loadCount = new AtomicInteger();
+        final CountDownLatch loadStarted = new CountDownLatch(1);
+        final CountDownLatch releaseLoad = new CountDownLatch(1);
+        final NameAndIcon[] results = new NameAndIcon[2];
+        final Thread first = new Thread(() -> results[0] = mCache.getOrLoad(UID, () -> {
+            loadCount.incrementAndGet();
+            loadStarted.countDown();
+            releaseLoad.await();
+            return createNameAndIcon(PACKAGE_NAME);
+        }));
+        first.start();
+        loadStarted.await(5, TimeUnit.SECONDS);
+        final Thread second = new Thread(() -> results[1] = mCache.getOrLoad(UID, () -> {
+            loadCount.incrementAndGet();
+            return createNameAndIcon(PACKAGE_NAME);
+        }));
+        second.start();
+
+        releaseLoad.countDown();
+        first.join(5000);
+        second.join(5000);
+
+        assertThat(loadCount.get()).isEqualTo(1);
+        assertThat(results[1]).isSameInstanceAs(results[0]);
+        assertThat(mCache.get(UID)).isSameInstanceAs(results[0]);
+    }
+
+    @Test
+    public void invalidatePackage_shouldOnlyDropEntriesOfPackage() {
+        mCache.put(UID, createNameAndIcon(PACKAGE_NAME));
+        mCache.put(UID + 1, createNameAndIcon("com.android.other"));
+
+        mCache.invalidatePackage(PACKAGE_NAME, /*uid=*/ -1);
+
+        assertThat(mCache.get(UID)).isNull();
+        assertThat(mCache.get(UID + 1)).isNotNull();
+    }
+
+    @Test
+    public void getOrLoad_invalidatedWhileLoading_shouldNotCacheResult() {
+        final NameAndIcon nameAndIcon = mCache.getOrLoad(UID, () -> {
+            mCache.invalidatePackage(PACKAGE_NAME, UID);
+            return createNameAndIcon(PACKAGE_NAME);
+        });
+
+        assertThat(nameAndIcon).isNotNull();
+        assertThat(mCache.get(UID)).isNull();
+    }
+
+    private static NameAndIcon createNameAndIcon(String packageName) {
+        return new NameAndIcon("Label of " + packageName, packageName, /*icon=*/ null,
+                /*iconId=*/ 0);
+    }
+}
@@ -26,8 +26,11 @@ import static org.mockito.ArgumentMatchers.anyList;
 import static org.mockito.ArgumentMatchers.eq;
 import static org.mockito.Mockito.doReturn;
 import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.mock;
 import static org.mockito.Mockito.spy;
+import static org.mockito.Mockito.times;
 import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
 
 import android.app.settings.SettingsEnums;
 import android.content.Context;
@@ -45,6 +48,7 @@ import org.robolectric.RobolectricTestRunner;
 import org.robolectric.RuntimeEnvironment;
 
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.List;
 import java.util.stream.Collectors;
 
@@ -137,6 +141,34 @@ public class ContextualCardLoaderTest {
                 eq(SettingsEnums.ACTION_CONTEXTUAL_CARD_NOT_SHOW), any(String.class));
     }
 
+    @Test
+    public void filterEligibleCards_cachedCard_shouldNotCheckAgain() throws Exception {
+        final ContextualCard card = getContextualCardList().get(0);
+        final EligibleCardChecker checker = mock(EligibleCardChecker.class);
+        when(checker.call()).thenReturn(card);
+        doReturn(checker).when(mContextualCardLoader).createEligibleCardChecker(card);
+        doReturn(new EligibleCardCache()).when(mContextualCardLoader).getEligibleCardCache();
+
+        assertThat(mContextualCardLoader.filterEligibleCards(Arrays.asList(card))).hasSize(1);
+        assertThat(mContextualCardLoader.filterEligibleCards(Arrays.asList(card))).hasSize(1);
+
+        verify(mContextualCardLoader, times(1)).createEligibleCardChecker(card);
+    }
+
+    @Test
+    public void filterEligibleCards_notEligibleCard_shouldCacheAndFilterOut() throws Exception {
+        final ContextualCard card = getContextualCardList().get(0);
+        final EligibleCardChecker checker = mock(EligibleCardChecker.class);
+        when(checker.call()).thenReturn(null);
+        doReturn(checker).when(mContextualCardLoader).createEligibleCardChecker(card);
+        doReturn(new EligibleCardCache()).when(mContextualCardLoader).getEligibleCardCache();
+
+        assertThat(mContextualCardLoader.filterEligibleCards(Arrays.asList(card))).isEmpty();
+        assertThat(mContextualCardLoader.filterEligibleCards(Arrays.asList(card))).isEmpty();
+
+        verify(mContextualCardLoader, times(1)).createEligibleCardChecker(card);
+    }
+
     @Test
     public void getCardCount_noConfiguredCardCount_returnDefaultCardCount() {
         assertThat(mContextualCardLoader.getCardCount()).isEqualTo(DEFAULT_CARD_COUNT);
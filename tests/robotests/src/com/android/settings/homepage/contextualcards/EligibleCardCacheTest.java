@@ -0,0 +1,91 @@
+/*
+ * Copyright (C) 2022 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.settings.homepage.contextualcards;
+
+import static com.google.common.truth.Truth.assertThat;
+
+import static org.mockito.Mockito.doReturn;
+import static org.mockito.Mockito.spy;
+
+import android.net.Uri;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.RobolectricTestRunner;
+
+@RunWith(RobolectricTestRunner.class)
+public class EligibleCardCacheTest {
+
+    private EligibleCardCache mCache;
+    private ContextualCard mCard;
+
+    @Before
+    public void setUp() {
+        mCache = spy(new EligibleCardCache());
+        doReturn(0L).when(mCache).now();
+        mCard = new ContextualCard.Builder()
+                .setName("test_card")
+                .setCardType(ContextualCard.CardType.SLICE)
+                .setSliceUri(Uri.parse("content://com.android.settings.test.slices/action/test"))
+                .build();
+    }
+
+    @Test
+    public void get_notCached_shouldReturnNull() {
+        assertThat(mCache.get(mCard)).isNull();
+    }
+
+    @Test
+    public void get_eligibleCard_shouldRestoreInlineAction() {
+        mCache.put(mCard, mCard.mutate().setHasInlineAction(true).build());
+
+        assertThat(mCache.get(mCard).getCard().hasInlineAction()).isTrue();
+    }
+
+    @Test
+    public void get_notEligibleCard_shouldReturnResultWithoutCard() {
+        mCache.put(mCard, null);
+
+        assertThat(mCache.get(mCard)).isNotNull();
+        assertThat(mCache.get(mCard).getCard()).isNull();
+    }
+
+    @Test
+    public void get_expired_shouldReturnNull() {
+        mCache.put(mCard, mCard);
+        doReturn(EligibleCardCache.TTL_MS + 1).when(mCache).now();
+
+        assertThat(mCache.get(mCard)).isNull();
+    }
+
+    @Test
+    public void get_cardUpdated_shouldReturnNull() {
+        mCache.put(mCard, mCard);
+
+        assertThat(mCache.get(mCard.mutate().setAppVersion(2).build())).isNull();
+    }
+
+    @Test
+    public void invalidate_shouldDropEntries() {
+        mCache.put(mCard, mCard);
+
+        mCache.invalidate();
+
+        assertThat(mCache.get(mCard)).isNull();
+    }
+}
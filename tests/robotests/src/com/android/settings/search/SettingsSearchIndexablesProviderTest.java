@@ -4,6 +4,7 @@ import static com.android.settingslib.drawer.TileUtils.META_DATA_PREFERENCE_TITL
 
 import static com.google.common.truth.Truth.assertThat;
 
+import static org.junit.Assert.assertThrows;
 import static org.mockito.Mockito.mock;
 import static org.mockito.Mockito.spy;
 import static org.mockito.Mockito.when;
@@ -27,6 +28,7 @@ import com.android.settingslib.drawer.ActivityTile;
 import com.android.settingslib.drawer.CategoryKey;
 import com.android.settingslib.drawer.DashboardCategory;
 import com.android.settingslib.search.SearchIndexableData;
+import com.android.settingslib.search.SearchIndexableRaw;
 
 import org.junit.After;
 import org.junit.Before;
@@ -41,7 +43,11 @@ import org.robolectric.annotation.Resetter;
 
 import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.Collections;
 import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.function.Function;
 
 @RunWith(RobolectricTestRunner.class)
 @Config(shadows = SettingsSearchIndexablesProviderTest.ShadowCategoryManager.class)
@@ -49,6 +55,7 @@ public class SettingsSearchIndexablesProviderTest {
 
     private static final String PACKAGE_NAME = "com.android.settings";
     private static final String BASE_AUTHORITY = "content://" + PACKAGE_NAME + "/";
+    private static final int PROVIDER_COUNT = 16;
 
     private Context mContext;
     private SettingsSearchIndexablesProvider mProvider;
@@ -149,6 +156,70 @@ public class SettingsSearchIndexablesProviderTest {
         assertThat(keys).containsAtLeast("pref_key_1", "pref_key_3", "pref_key_5");
     }
 
+    @Test
+    public void testRawColumnFetched_severalProviders_shouldKeepProviderOrder() {
+        final List<SearchIndexableData> bundles = createBundles();
+        mFakeFeatureFactory.searchFeatureProvider.getSearchIndexableResources()
+                .getProviderValues().addAll(bundles);
+        final Uri rawUri = Uri.parse(BASE_AUTHORITY + SearchIndexablesContract.INDEXABLES_RAW_PATH);
+
+        final List<String> titles = new ArrayList<>();
+        try (Cursor cursor = mProvider.query(rawUri,
+                SearchIndexablesContract.INDEXABLES_RAW_COLUMNS, null, null, null)) {
+            while (cursor.moveToNext()) {
+                titles.add(cursor.getString(1));
+            }
+        }
+
+        final List<String> expected = new ArrayList<>();
+        expected.add(FakeSettingsFragment.TITLE);
+        expected.addAll(getTitlesSerially(bundles));
+        assertThat(titles).containsExactlyElementsIn(expected).inOrder();
+    }
+
+    @Test
+    public void collectFromProviders_parallel_shouldMatchSerialResults() {
+        final List<SearchIndexableData> bundles = createBundles();
+        final ExecutorService executor = Executors.newFixedThreadPool(4);
+
+        final List<String> titles;
+        try {
+            titles = SettingsSearchIndexablesProvider.collectFromProviders(bundles,
+                    this::getTitle, executor);
+        } finally {
+            executor.shutdownNow();
+        }
+
+        assertThat(titles).containsExactlyElementsIn(getTitlesSerially(bundles)).inOrder();
+    }
+
+    @Test
+    public void collectFromProviders_executorNeverRuns_shouldRunOnCallingThread() {
+        final List<SearchIndexableData> bundles = createBundles();
+
+        final List<String> titles = SettingsSearchIndexablesProvider.collectFromProviders(
+                bundles, this::getTitle, runnable -> { });
+
+        assertThat(titles).containsExactlyElementsIn(getTitlesSerially(bundles)).inOrder();
+    }
+
+    @Test
+    public void collectFromProviders_taskThrows_shouldRethrow() {
+        final List<SearchIndexableData> bundles = createBundles();
+        final ExecutorService executor = Executors.newFixedThreadPool(4);
+        final Function<SearchIndexableData, String> task = bundle -> {
+            throw new IllegalStateException();
+        };
+
+        try {
+            assertThrows(IllegalStateException.class,
+                    () -> SettingsSearchIndexablesProvider.collectFromProviders(bundles, task,
+                            executor));
+        } finally {
+            executor.shutdownNow();
+        }
+    }
+
     @Test
     public void refreshSearchEnabledState_classNotFoundInCategoryMap_hasInjectionRawData() {
         mProvider.refreshSearchEnabledState(mContext,
@@ -205,6 +276,39 @@ public class SettingsSearchIndexablesProviderTest {
         assertThat(mProvider.isEligibleForIndexing(PACKAGE_NAME, activityTile)).isTrue();
     }
 
+    private List<String> getTitlesSerially(List<SearchIndexableData> bundles) {
+        return SettingsSearchIndexablesProvider.collectFromProviders(bundles, this::getTitle,
+                Runnable::run);
+    }
+
+    private String getTitle(SearchIndexableData bundle) {
+        return bundle.getSearchIndexProvider().getRawDataToIndex(mContext, true).get(0).title;
+    }
+
+    /** Providers which take longer the earlier they are, so they complete out of order. */
+    private static List<SearchIndexableData> createBundles() {
+        final List<SearchIndexableData> bundles = new ArrayList<>();
+        for (int i = 0; i < PROVIDER_COUNT; i++) {
+            final int index = i;
+            bundles.add(new SearchIndexableData(FakeSettingsFragment.class,
+                    new BaseSearchIndexProvider() {
+                        @Override
+                        public List<SearchIndexableRaw> getRawDataToIndex(Context context,
+                                boolean enabled) {
+                            try {
+                                Thread.sleep(PROVIDER_COUNT - index);
+                            } catch (InterruptedException e) {
+                                Thread.currentThread().interrupt();
+                            }
+                            final SearchIndexableRaw data = new SearchIndexableRaw(context);
+                            data.title = "title" + index;
+                            return Collections.singletonList(data);
+                        }
+                    }));
+        }
+        return bundles;
+    }
+
     @Implements(CategoryManager.class)
     public static class ShadowCategoryManager {
 
@@ -45,6 +45,7 @@ public class CredentialManagementAppControllerTest {
     private CredentialManagementAppPreferenceController mController;
 
     private static final String PREF_KEY_CREDENTIAL_MANAGEMENT_APP = "certificate_management_app";
+    private static final String APP_LABEL = "App";
 
     @Before
     public void setUp() {
@@ -66,10 +67,18 @@ public class CredentialManagementAppControllerTest {
     }
 
     @Test
-    public void displayPreference_noCredentialManagementApp_shouldDisablePreference() {
-        mController.displayPreference(mPreference);
+    public void applyState_noCredentialManagementApp_shouldDisablePreference() {
+        mController.applyState(mPreference, null);
 
         verify(mPreference).setEnabled(false);
         verify(mPreference).setSummary(R.string.no_certificate_management_app);
     }
+
+    @Test
+    public void applyState_credentialManagementApp_shouldShowAppLabel() {
+        mController.applyState(mPreference, APP_LABEL);
+
+        verify(mPreference).setEnabled(true);
+        verify(mPreference).setSummary(APP_LABEL);
+    }
 }
@@ -0,0 +1,103 @@
+/*
+ * Copyright (C) 2022 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.settings.slices;
+
+import static com.google.common.truth.Truth.assertThat;
+
+import android.net.Uri;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.RobolectricTestRunner;
+
+import java.util.Locale;
+
+@RunWith(RobolectricTestRunner.class)
+public class SliceDataCacheTest {
+
+    private static final String KEY = "key";
+    private static final Uri URI = Uri.parse("content://com.android.settings.slices/action/key");
+
+    private Locale mDefaultLocale;
+    private SliceDataCache mCache;
+    private SliceData mData;
+
+    @Before
+    public void setUp() {
+        mDefaultLocale = Locale.getDefault();
+        mCache = new SliceDataCache();
+        mData = new SliceData.Builder()
+                .setKey(KEY)
+                .setTitle("title")
+                .setUri(URI)
+                .setPreferenceControllerClassName("controller")
+                .build();
+    }
+
+    @After
+    public void tearDown() {
+        Locale.setDefault(mDefaultLocale);
+    }
+
+    @Test
+    public void getFromUri_cached_shouldReturnDataAndCountHit() {
+        mCache.putFromUri(URI, mData);
+
+        assertThat(mCache.getFromUri(URI)).isSameInstanceAs(mData);
+        assertThat(mCache.getHitCount()).isEqualTo(1);
+    }
+
+    @Test
+    public void getFromKey_onlyCachedFromUri_shouldReturnNullAndCountMiss() {
+        mCache.putFromUri(URI, mData);
+
+        assertThat(mCache.getFromKey(KEY)).isNull();
+        assertThat(mCache.getMissCount()).isEqualTo(1);
+    }
+
+    @Test
+    public void invalidate_shouldDropEntries() {
+        mCache.putFromKey(KEY, mData);
+
+        mCache.invalidate();
+
+        assertThat(mCache.getFromKey(KEY)).isNull();
+    }
+
+    @Test
+    public void getFromKey_localeChanged_shouldReturnNull() {
+        Locale.setDefault(Locale.US);
+        mCache.putFromKey(KEY, mData);
+
+        Locale.setDefault(Locale.FRANCE);
+
+        assertThat(mCache.getFromKey(KEY)).isNull();
+    }
+
+    @Test
+    public void put_overMaxSize_shouldEvictLeastRecentlyUsed() {
+        final SliceDataCache cache = new SliceDataCache(1024 /* maxSizeBytes */);
+        for (int i = 0; i < 10; i++) {
+            cache.putFromKey(KEY + i, mData);
+        }
+
+        assertThat(cache.getFromKey(KEY + 0)).isNull();
+        assertThat(cache.getFromKey(KEY + 9)).isSameInstanceAs(mData);
+    }
+}
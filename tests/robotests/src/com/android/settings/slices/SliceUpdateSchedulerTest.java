@@ -0,0 +1,140 @@
+/*
+ * Copyright (C) 2022 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.settings.slices;
+
+import static com.google.common.truth.Truth.assertThat;
+
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+import android.content.ContentResolver;
+import android.content.Context;
+import android.net.Uri;
+import android.os.Looper;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.RobolectricTestRunner;
+import org.robolectric.shadows.ShadowLooper;
+
+import java.util.concurrent.TimeUnit;
+
+@RunWith(RobolectricTestRunner.class)
+public class SliceUpdateSchedulerTest {
+
+    private static final Uri URI_1 = Uri.parse("content://com.android.settings.slices/test1");
+    private static final Uri URI_2 = Uri.parse("content://com.android.settings.slices/test2");
+
+    private ContentResolver mResolver;
+    private Context mContext;
+    private SliceUpdateScheduler mScheduler;
+
+    @Before
+    public void setUp() {
+        mResolver = mock(ContentResolver.class);
+        mContext = mock(Context.class);
+        when(mContext.getContentResolver()).thenReturn(mResolver);
+        mScheduler = new SliceUpdateScheduler(Looper.getMainLooper());
+    }
+
+    @Test
+    public void requestUpdate_firstUpdate_shouldBePostponed() {
+        mScheduler.requestUpdate(new TestWorker(mContext, URI_1));
+
+        ShadowLooper.idleMainLooper();
+        verify(mResolver, never()).notifyChange(any(Uri.class), any());
+
+        idle(SliceUpdateScheduler.MIN_THROTTLE_INTERVAL_MS
+                + SliceUpdateScheduler.FRAME_INTERVAL_MS);
+        verify(mResolver).notifyChange(URI_1, null);
+    }
+
+    @Test
+    public void requestUpdate_multipleRequests_shouldCoalesce() {
+        final TestWorker worker = new TestWorker(mContext, URI_1);
+
+        mScheduler.requestUpdate(worker);
+        mScheduler.requestUpdate(worker);
+        mScheduler.requestUpdate(worker);
+        idle(SliceUpdateScheduler.MAX_THROTTLE_INTERVAL_MS);
+
+        verify(mResolver, times(1)).notifyChange(eq(URI_1), any());
+    }
+
+    @Test
+    public void requestUpdate_multipleWorkers_shouldNotifyAll() {
+        mScheduler.requestUpdate(new TestWorker(mContext, URI_1));
+        mScheduler.requestUpdate(new TestWorker(mContext, URI_2));
+        idle(SliceUpdateScheduler.MAX_THROTTLE_INTERVAL_MS);
+
+        verify(mResolver).notifyChange(URI_1, null);
+        verify(mResolver).notifyChange(URI_2, null);
+    }
+
+    @Test
+    public void requestUpdate_frequentRequests_shouldIncreaseThrottle() {
+        final TestWorker worker = new TestWorker(mContext, URI_1);
+
+        for (int i = 0; i < 20; i++) {
+            mScheduler.requestUpdate(worker);
+            idle(10L);
+        }
+
+        assertThat(mScheduler.getThrottleInterval(URI_1))
+                .isGreaterThan(SliceUpdateScheduler.MIN_THROTTLE_INTERVAL_MS);
+    }
+
+    @Test
+    public void cancelUpdate_shouldDropPendingUpdate() {
+        final TestWorker worker = new TestWorker(mContext, URI_1);
+
+        mScheduler.requestUpdate(worker);
+        mScheduler.cancelUpdate(worker);
+        idle(SliceUpdateScheduler.MAX_THROTTLE_INTERVAL_MS);
+
+        verify(mResolver, never()).notifyChange(any(Uri.class), any());
+    }
+
+    private static void idle(long millis) {
+        ShadowLooper.idleMainLooper(millis, TimeUnit.MILLISECONDS);
+    }
+
+    private static class TestWorker extends SliceBackgroundWorker<Object> {
+
+        TestWorker(Context context, Uri uri) {
+            super(context, uri);
+        }
+
+        @Override
+        protected void onSlicePinned() {
+        }
+
+        @Override
+        protected void onSliceUnpinned() {
+        }
+
+        @Override
+        public void close() {
+        }
+    }
+}
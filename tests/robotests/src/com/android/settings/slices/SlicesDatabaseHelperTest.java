@@ -98,6 +98,41 @@ public class SlicesDatabaseHelperTest {
         assertThat(newCursor.getCount()).isEqualTo(0);
     }
 
+    @Test
+    public void onUpgrade_fromVersion9_shouldDropIndexAndAddHashTable() {
+        final SQLiteDatabase db = SQLiteDatabase.create(null /* factory */);
+        // Version 9 had no hash table.
+        db.execSQL("CREATE TABLE slices_index (key, title)");
+        db.execSQL("INSERT INTO slices_index VALUES ('key', 'title')");
+
+        mSlicesDatabaseHelper.onUpgrade(db, 9, 10);
+
+        try (Cursor cursor = db.rawQuery("SELECT * FROM slices_index", null)) {
+            assertThat(cursor.getCount()).isEqualTo(0);
+        }
+        try (Cursor cursor = db.rawQuery("SELECT * FROM slices_index_hash", null)) {
+            assertThat(cursor.getCount()).isEqualTo(0);
+            assertThat(cursor.getColumnNames()).asList().containsExactly(
+                    SlicesDatabaseHelper.HashColumns.INDEX_ROW_ID,
+                    SlicesDatabaseHelper.HashColumns.CONTENT_HASH).inOrder();
+        }
+        db.close();
+    }
+
+    @Test
+    public void onUpgrade_fromVersion10_shouldKeepHashes() {
+        final SQLiteDatabase db = SQLiteDatabase.create(null /* factory */);
+        db.execSQL(SlicesDatabaseHelper.CREATE_SLICES_HASH_TABLE);
+        db.execSQL("INSERT INTO slices_index_hash VALUES (1, 1234)");
+
+        mSlicesDatabaseHelper.onUpgrade(db, 10, 10);
+
+        try (Cursor cursor = db.rawQuery("SELECT * FROM slices_index_hash", null)) {
+            assertThat(cursor.getCount()).isEqualTo(1);
+        }
+        db.close();
+    }
+
     @Test
     @Ignore
     public void testIndexState_buildAndLocaleSet() {
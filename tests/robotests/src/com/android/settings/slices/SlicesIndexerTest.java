@@ -26,8 +26,11 @@ import android.content.Context;
 import android.database.Cursor;
 import android.database.sqlite.SQLiteDatabase;
 import android.net.Uri;
+import android.util.LongSparseArray;
 
+import com.android.settings.slices.SlicesDatabaseHelper.HashColumns;
 import com.android.settings.slices.SlicesDatabaseHelper.IndexColumns;
+import com.android.settings.slices.SlicesDatabaseHelper.Tables;
 import com.android.settings.testutils.DatabaseTestUtils;
 
 import org.junit.After;
@@ -39,7 +42,9 @@ import org.robolectric.RobolectricTestRunner;
 import org.robolectric.RuntimeEnvironment;
 
 import java.util.ArrayList;
+import java.util.HashMap;
 import java.util.List;
+import java.util.Map;
 
 @RunWith(RobolectricTestRunner.class)
 public class SlicesIndexerTest {
@@ -205,6 +210,167 @@ public class SlicesIndexerTest {
         }
     }
 
+    @Test
+    public void computeHash_sameData_shouldReturnSameHash() {
+        final List<SliceData> first = getMockIndexableData(false);
+        final List<SliceData> second = getMockIndexableData(false);
+
+        assertThat(SlicesIndexer.computeHash(first.get(0)))
+                .isEqualTo(SlicesIndexer.computeHash(second.get(0)));
+    }
+
+    @Test
+    public void computeHash_changedData_shouldReturnDifferentHash() {
+        final List<SliceData> privateData = getMockIndexableData(false);
+        final List<SliceData> publicData = getMockIndexableData(true);
+
+        assertThat(SlicesIndexer.computeHash(privateData.get(0)))
+                .isNotEqualTo(SlicesIndexer.computeHash(privateData.get(1)));
+        assertThat(SlicesIndexer.computeHash(privateData.get(0)))
+                .isNotEqualTo(SlicesIndexer.computeHash(publicData.get(0)));
+    }
+
+    @Test
+    public void updateSliceData_emptyIndex_shouldInsertRowsAndHashes() {
+        final SQLiteDatabase db = createIndexDatabase();
+        final List<SliceData> sliceData = getMockIndexableData(false);
+
+        index(db, sliceData);
+
+        assertThat(getRowIdsByKey(db).keySet()).containsExactly(KEYS[0], KEYS[1], KEYS[2]);
+        final LongSparseArray<List<Long>> indexedRows = SlicesIndexer.getIndexedRows(db);
+        assertThat(indexedRows.size()).isEqualTo(sliceData.size());
+        for (SliceData dataRow : sliceData) {
+            assertThat(indexedRows.get(SlicesIndexer.computeHash(dataRow))).hasSize(1);
+        }
+        db.close();
+    }
+
+    @Test
+    public void updateSliceData_oneSliceChanged_shouldOnlyRewriteThatRow() {
+        final SQLiteDatabase db = createIndexDatabase();
+        final List<SliceData> sliceData = getMockIndexableData(false);
+        index(db, sliceData);
+        final Map<String, Long> rowIds = getRowIdsByKey(db);
+
+        final String newTitle = "new title";
+        sliceData.set(1, new SliceData.Builder()
+                .setKey(KEYS[1])
+                .setTitle(newTitle)
+                .setUri(URI)
+                .setFragmentName(FRAGMENT_NAME)
+                .setPreferenceControllerClassName(PREF_CONTROLLER)
+                .build());
+        index(db, sliceData);
+
+        final Map<String, Long> newRowIds = getRowIdsByKey(db);
+        assertThat(newRowIds).hasSize(sliceData.size());
+        assertThat(newRowIds.get(KEYS[0])).isEqualTo(rowIds.get(KEYS[0]));
+        assertThat(newRowIds.get(KEYS[1])).isNotEqualTo(rowIds.get(KEYS[1]));
+        assertThat(newRowIds.get(KEYS[2])).isEqualTo(rowIds.get(KEYS[2]));
+        assertThat(getTitle(db, KEYS[1])).isEqualTo(newTitle);
+        assertThat(getHashedRowIds(db)).containsExactlyElementsIn(newRowIds.values());
+        db.close();
+    }
+
+    @Test
+    public void updateSliceData_sliceRemoved_shouldDeleteRowAndHash() {
+        final SQLiteDatabase db = createIndexDatabase();
+        final List<SliceData> sliceData = getMockIndexableData(false);
+        index(db, sliceData);
+        final Map<String, Long> rowIds = getRowIdsByKey(db);
+
+        index(db, sliceData.subList(0, 2));
+
+        final Map<String, Long> newRowIds = getRowIdsByKey(db);
+        assertThat(newRowIds).containsExactly(KEYS[0], rowIds.get(KEYS[0]),
+                KEYS[1], rowIds.get(KEYS[1]));
+        assertThat(getHashedRowIds(db)).containsExactlyElementsIn(newRowIds.values());
+        db.close();
+    }
+
+    @Test
+    public void updateSliceData_duplicateSliceRemoved_shouldKeepOneRow() {
+        final SQLiteDatabase db = createIndexDatabase();
+        final SliceData dataRow = getMockIndexableData(false).get(0);
+        final List<SliceData> sliceData = new ArrayList<>();
+        sliceData.add(dataRow);
+        sliceData.add(dataRow);
+        index(db, sliceData);
+
+        index(db, sliceData.subList(0, 1));
+
+        assertThat(getHashedRowIds(db)).hasSize(1);
+        assertThat(getRowIdsByKey(db)).containsKey(dataRow.getKey());
+        db.close();
+    }
+
+    @Test
+    public void getIndexedRows_noHashTable_shouldReturnEmpty() {
+        final SQLiteDatabase db = SQLiteDatabase.create(null /* factory */);
+
+        assertThat(SlicesIndexer.getIndexedRows(db).size()).isEqualTo(0);
+        db.close();
+    }
+
+    /**
+     * Return an in-memory database with the index tables. A plain table stands in for the FTS4
+     * slices index, as the indexer only inserts and deletes its rows by rowid.
+     */
+    private static SQLiteDatabase createIndexDatabase() {
+        final SQLiteDatabase db = SQLiteDatabase.create(null /* factory */);
+        db.execSQL("CREATE TABLE " + Tables.TABLE_SLICES_INDEX + " ("
+                + IndexColumns.KEY + ", "
+                + IndexColumns.SLICE_URI + ", "
+                + IndexColumns.TITLE + ", "
+                + IndexColumns.SUMMARY + ", "
+                + IndexColumns.SCREENTITLE + ", "
+                + IndexColumns.KEYWORDS + ", "
+                + IndexColumns.ICON_RESOURCE + ", "
+                + IndexColumns.FRAGMENT + ", "
+                + IndexColumns.CONTROLLER + ", "
+                + IndexColumns.SLICE_TYPE + ", "
+                + IndexColumns.UNAVAILABLE_SLICE_SUBTITLE + ", "
+                + IndexColumns.PUBLIC_SLICE + ", "
+                + IndexColumns.HIGHLIGHT_MENU_RESOURCE + ")");
+        db.execSQL(SlicesDatabaseHelper.CREATE_SLICES_HASH_TABLE);
+        return db;
+    }
+
+    private void index(SQLiteDatabase db, List<SliceData> sliceData) {
+        mManager.updateSliceData(db, sliceData, SlicesIndexer.getIndexedRows(db));
+    }
+
+    private static Map<String, Long> getRowIdsByKey(SQLiteDatabase db) {
+        final Map<String, Long> rowIds = new HashMap<>();
+        try (Cursor cursor = db.rawQuery("SELECT rowid, " + IndexColumns.KEY + " FROM "
+                + Tables.TABLE_SLICES_INDEX, null)) {
+            while (cursor.moveToNext()) {
+                rowIds.put(cursor.getString(1), cursor.getLong(0));
+            }
+        }
+        return rowIds;
+    }
+
+    private static String getTitle(SQLiteDatabase db, String key) {
+        try (Cursor cursor = db.rawQuery("SELECT " + IndexColumns.TITLE + " FROM "
+                + Tables.TABLE_SLICES_INDEX + " WHERE " + IndexColumns.KEY + " = ?",
+                new String[]{key})) {
+            return cursor.moveToFirst() ? cursor.getString(0) : null;
+        }
+    }
+
+    private static List<Long> getHashedRowIds(SQLiteDatabase db) {
+        final List<Long> rowIds = new ArrayList<>();
+        try (Cursor cursor = db.rawQuery("SELECT " + HashColumns.INDEX_ROW_ID + " FROM "
+                + Tables.TABLE_SLICES_INDEX_HASH, null)) {
+            while (cursor.moveToNext()) {
+                rowIds.add(cursor.getLong(0));
+            }
+        }
+        return rowIds;
+    }
+
     private void insertSpecialCase(String key, String title) {
         final ContentValues values = new ContentValues();
         values.put(IndexColumns.KEY, key);
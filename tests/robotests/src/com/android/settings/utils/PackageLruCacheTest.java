@@ -0,0 +1,103 @@
+/*
+ * Copyright (C) 2022 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.settings.utils;
+
+import static com.google.common.truth.Truth.assertThat;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.RobolectricTestRunner;
+
+import java.util.Locale;
+
+@RunWith(RobolectricTestRunner.class)
+public class PackageLruCacheTest {
+    private static final int MAX_SIZE = 4;
+    private static final int UID = 10001;
+    private static final String PACKAGE_NAME = "com.android.app";
+    private static final String OTHER_PACKAGE_NAME = "com.android.other";
+
+    private Locale mDefaultLocale;
+    // Keyed by uid, valued by package name.
+    private PackageLruCache<Integer, String> mCache;
+
+    @Before
+    public void setUp() {
+        mDefaultLocale = Locale.getDefault();
+        mCache = new PackageLruCache<>(MAX_SIZE, (uid, packageName, changedPackageName,
+                changedUid) -> uid == changedUid || changedPackageName.equals(packageName));
+    }
+
+    @After
+    public void tearDown() {
+        Locale.setDefault(mDefaultLocale);
+    }
+
+    @Test
+    public void put_moreThanMaxSize_shouldEvictLeastRecentlyUsed() {
+        for (int uid = 0; uid <= MAX_SIZE; uid++) {
+            mCache.put(uid, "package" + uid);
+        }
+
+        assertThat(mCache.size()).isEqualTo(MAX_SIZE);
+        assertThat(mCache.get(0)).isNull();
+        assertThat(mCache.get(MAX_SIZE)).isEqualTo("package" + MAX_SIZE);
+    }
+
+    @Test
+    public void invalidatePackage_shouldOnlyDropMatchingEntries() {
+        mCache.put(UID, PACKAGE_NAME);
+        mCache.put(UID + 1, OTHER_PACKAGE_NAME);
+        mCache.put(UID + 2, OTHER_PACKAGE_NAME);
+
+        mCache.invalidatePackage(PACKAGE_NAME, UID + 1);
+
+        assertThat(mCache.get(UID)).isNull();
+        assertThat(mCache.get(UID + 1)).isNull();
+        assertThat(mCache.get(UID + 2)).isEqualTo(OTHER_PACKAGE_NAME);
+    }
+
+    @Test
+    public void put_invalidatedSinceGeneration_shouldNotCache() {
+        final int generation = mCache.getGeneration();
+        mCache.invalidatePackage(OTHER_PACKAGE_NAME, /* uid= */ -1);
+
+        mCache.put(UID, PACKAGE_NAME, generation);
+
+        assertThat(mCache.get(UID)).isNull();
+    }
+
+    @Test
+    public void put_currentGeneration_shouldCache() {
+        mCache.put(UID, PACKAGE_NAME, mCache.getGeneration());
+
+        assertThat(mCache.get(UID)).isEqualTo(PACKAGE_NAME);
+    }
+
+    @Test
+    public void get_localeChanged_shouldDropAllEntries() {
+        Locale.setDefault(Locale.US);
+        mCache.put(UID, PACKAGE_NAME);
+
+        Locale.setDefault(Locale.TAIWAN);
+
+        assertThat(mCache.get(UID)).isNull();
+        assertThat(mCache.size()).isEqualTo(0);
+    }
+}
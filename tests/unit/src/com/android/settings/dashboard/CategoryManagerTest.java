@@ -22,6 +22,14 @@ import static com.android.settingslib.drawer.TileUtils.META_DATA_PREFERENCE_KEYH
 
 import static com.google.common.truth.Truth.assertThat;
 
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyLong;
+import static org.mockito.Mockito.after;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.spy;
+import static org.mockito.Mockito.timeout;
+import static org.mockito.Mockito.verify;
+
 import android.content.Context;
 import android.content.pm.ActivityInfo;
 import android.content.pm.ApplicationInfo;
@@ -38,21 +46,28 @@ import com.android.settingslib.drawer.DashboardCategory;
 import com.android.settingslib.drawer.ProviderTile;
 import com.android.settingslib.drawer.Tile;
 
+import org.junit.After;
 import org.junit.Before;
 import org.junit.Test;
 import org.junit.runner.RunWith;
 
+import java.io.File;
+import java.util.Collections;
 import java.util.HashMap;
+import java.util.IdentityHashMap;
 import java.util.Map;
+import java.util.Set;
 
 @RunWith(AndroidJUnit4.class)
 public class CategoryManagerTest {
+    private static final long TIMEOUT_MS = 2000;
 
     private ActivityInfo mActivityInfo;
     private Context mContext;
     private CategoryManager mCategoryManager;
     private Map<Pair<String, String>, Tile> mTileByComponentCache;
     private Map<String, DashboardCategory> mCategoryByKeyMap;
+    private File mSnapshotFile;
 
     @Before
     public void setUp() {
@@ -64,6 +79,12 @@ public class CategoryManagerTest {
         mTileByComponentCache = new HashMap<>();
         mCategoryByKeyMap = new HashMap<>();
         mCategoryManager = CategoryManager.get(mContext);
+        mSnapshotFile = new File(mContext.getCacheDir(), "category_manager_test_snapshot");
+    }
+
+    @After
+    public void tearDown() {
+        mSnapshotFile.delete();
     }
 
     @Test
@@ -315,6 +336,49 @@ public class CategoryManagerTest {
         assertThat(category.getTilesCount()).isEqualTo(1);
     }
 
+    @Test
+    public void reloadAllCategories_shouldNotReusePublishedTiles() {
+        final Set<Tile> publishedTiles = Collections.newSetFromMap(new IdentityHashMap<>());
+        for (DashboardCategory category : mCategoryManager.getCategories(mContext)) {
+            publishedTiles.addAll(category.getTiles());
+        }
+
+        mCategoryManager.reloadAllCategories(mContext);
+
+        for (DashboardCategory category : mCategoryManager.getCategories(mContext)) {
+            for (Tile tile : category.getTiles()) {
+                assertThat(publishedTiles.contains(tile)).isFalse();
+            }
+        }
+    }
+
+    @Test
+    public void reloadAllCategories_denylistUpdated_shouldStillSaveSnapshot() {
+        final TileSnapshotStore store = spy(new TileSnapshotStore(mSnapshotFile));
+        final CategoryManager categoryManager = new CategoryManager(mContext, store);
+
+        categoryManager.reloadAllCategories(mContext);
+        categoryManager.updateCategoryFromDenylist(
+                categoryManager.getTileByComponentMap().keySet());
+
+        verify(store, timeout(TIMEOUT_MS)).write(any());
+    }
+
+    @Test
+    public void reloadAllCategories_packagesUnchangedSinceSnapshot_shouldNotSaveSnapshot() {
+        final long fingerprint = TileSnapshotStore.computeFingerprint(mContext);
+        final TileSnapshotStore snapshotWriter = new TileSnapshotStore(mSnapshotFile);
+        snapshotWriter.write(snapshotWriter.marshall(fingerprint,
+                mCategoryManager.getCategories(mContext), Collections.emptyList()));
+        final TileSnapshotStore store = spy(new TileSnapshotStore(mSnapshotFile));
+        final CategoryManager snapshotCategoryManager = new CategoryManager(mContext, store);
+        snapshotCategoryManager.getCategories(mContext);
+
+        snapshotCategoryManager.reloadAllCategories(mContext);
+
+        verify(store, after(TIMEOUT_MS).never()).marshall(anyLong(), any(), any());
+    }
+
     private Tile createActivityTile(String categoryKey, String packageName, String className,
             int order) {
         final ActivityInfo activityInfo = new ActivityInfo();